@@ -0,0 +1,169 @@
+package controllers.io.cache.file;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * <pre>
+ * File cache with two slots: The song currently playing and the next song.
+ *
+ * New data is always written into the slot which is not playing. This way the server can
+ * send the next track while the current track is still playing, and the next track can be
+ * played without waiting for the data.
+ *
+ * The server keeps the same two slots for every client (see TCPMusicStreamController), so it
+ * knows which songs the client has already. Changes to the slot rules must be done on both sides.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class SlottedFileCacheService implements FileCacheService {
+
+    private StaticFileCacheService playingSlot;
+    private StaticFileCacheService nextSlot;
+
+    private String playingSongId;
+    private String nextSongId;
+
+    /**
+     * True if the last written data is in the playing slot.
+     */
+    private boolean lastWrittenIsPlaying;
+
+    /**
+     * Default constructor
+     * @throws IOException
+     */
+    public SlottedFileCacheService() throws IOException {
+        this.playingSlot = new StaticFileCacheService();
+        this.nextSlot = new StaticFileCacheService();
+    }
+
+    /**
+     * Writes the data of an unknown song into the cache.
+     * @param data Data to write in the cache.
+     * @throws IOException If the cache could not be expanded, an IOException is thrown.
+     */
+    @Override
+    public void writeData(byte[] data) throws IOException {
+        this.writeData(null, data);
+    }
+
+    /**
+     * Writes the data of a song into the slot which is not playing.
+     * @param songId Id of the song (may be null).
+     * @param data Data of the song.
+     * @throws IOException If the cache could not be expanded, an IOException is thrown.
+     */
+    public synchronized void writeData(String songId, byte[] data) throws IOException {
+        this.nextSongId = null;
+        this.nextSlot.writeData(data);
+        this.nextSongId = songId;
+        this.lastWrittenIsPlaying = false;
+    }
+
+    /**
+     * Marks a song as playing. If the song is in the next slot, the slots are swapped.
+     * @param songId Id of the song. Null marks the last written song as playing.
+     * @return Returns true if the song is cached.
+     */
+    public synchronized boolean setPlaying(String songId) {
+        if(songId == null) {
+            if(!this.lastWrittenIsPlaying)
+                this.swap();
+            return true;
+        }
+
+        if(songId.equals(this.playingSongId))
+            return true;
+
+        if(songId.equals(this.nextSongId)) {
+            this.swap();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Returns true if the song is cached in one of the slots.
+     */
+    public synchronized boolean contains(String songId) {
+        return songId != null && (songId.equals(this.playingSongId) || songId.equals(this.nextSongId));
+    }
+
+    /**
+     * Returns the URI of the cached song.
+     * @param songId Id of the song. Null returns the last written song.
+     * @return Returns the URI of the song or null, if it's not cached.
+     */
+    public synchronized URI getFileURI(String songId) {
+        if(songId == null)
+            return this.lastWrittenIsPlaying ? this.playingSlot.getFileURI() : this.nextSlot.getFileURI();
+
+        if(songId.equals(this.playingSongId))
+            return this.playingSlot.getFileURI();
+        if(songId.equals(this.nextSongId))
+            return this.nextSlot.getFileURI();
+
+        return null;
+    }
+
+    /**
+     * @return Returns the id of the playing song (may be null).
+     */
+    public synchronized String getPlayingSongId() {
+        return this.playingSongId;
+    }
+
+    /**
+     * @return Returns the id of the song in the next slot (may be null).
+     */
+    public synchronized String getNextSongId() {
+        return this.nextSongId;
+    }
+
+    /**
+     * Resets both slots.
+     */
+    @Override
+    public synchronized void reset() {
+        this.playingSlot.reset();
+        this.nextSlot.reset();
+        this.playingSongId = null;
+        this.nextSongId = null;
+    }
+
+    /**
+     * @return Returns the absolute path of the playing slot.
+     */
+    @Override
+    public synchronized String getAbsoluteFilePath() {
+        return this.playingSlot.getAbsoluteFilePath();
+    }
+
+    /**
+     * @return Returns the URI of the playing slot.
+     */
+    @Override
+    public synchronized URI getFileURI() {
+        return this.playingSlot.getFileURI();
+    }
+
+    private void swap() {
+        StaticFileCacheService slot = this.playingSlot;
+        this.playingSlot = this.nextSlot;
+        this.nextSlot = slot;
+
+        String songId = this.playingSongId;
+        this.playingSongId = this.nextSongId;
+        this.nextSongId = songId;
+
+        this.lastWrittenIsPlaying = !this.lastWrittenIsPlaying;
+    }
+
+    @Override
+    public String toString() {
+        return "SlottedFileCacheService{playing=" + this.playingSongId + ", next=" + this.nextSongId + "}";
+    }
+}
@@ -0,0 +1,198 @@
+package controllers.io.cache.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * A song which is being received.
+ *
+ * The chunks of the song are written into a buffer of the size of the song. They may arrive in
+ * any order, the received ranges are tracked. The song can be read with an InputStream while it is
+ * being received: reading blocks until the data at the position was received.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class SongStream {
+
+    private final String songId;
+    private final byte[] data;
+
+    /**
+     * The received ranges: start --&gt; end (exclusive). Adjacent ranges are merged.
+     */
+    private final NavigableMap<Integer, Integer> ranges;
+
+    private boolean closed;
+
+    /**
+     * Creates an empty stream.
+     * @param songId Id of the song.
+     * @param totalLength Size of the song in bytes.
+     */
+    public SongStream(String songId, int totalLength) {
+        this.songId = songId;
+        this.data = new byte[totalLength];
+        this.ranges = new TreeMap<>();
+    }
+
+    /**
+     * @return Returns the id of the song.
+     */
+    public String getSongId() {
+        return this.songId;
+    }
+
+    /**
+     * @return Returns the size of the song in bytes.
+     */
+    public int getTotalLength() {
+        return this.data.length;
+    }
+
+    /**
+     * Writes a chunk of the song.
+     * @param offset Position of the chunk in the song.
+     * @param chunk The data.
+     */
+    public synchronized void write(int offset, byte[] chunk) {
+        if(offset < 0 || offset + chunk.length > this.data.length)
+            throw new IllegalArgumentException("Chunk " + offset + "+" + chunk.length
+                    + " is outside of the song (" + this.data.length + " bytes)");
+
+        System.arraycopy(chunk, 0, this.data, offset, chunk.length);
+
+        int start = offset;
+        int end = offset + chunk.length;
+
+        // Merge with the overlapping and adjacent ranges.
+        Map.Entry<Integer, Integer> before = this.ranges.floorEntry(start);
+        if(before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+
+        Map.Entry<Integer, Integer> after = this.ranges.ceilingEntry(start);
+        while(after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            this.ranges.remove(after.getKey());
+            after = this.ranges.ceilingEntry(start);
+        }
+
+        this.ranges.put(start, end);
+        this.notifyAll();
+    }
+
+    /**
+     * @return Returns the amount of bytes received without a gap, starting at the position.
+     */
+    public synchronized int available(int position) {
+        Map.Entry<Integer, Integer> range = this.ranges.floorEntry(position);
+        return range != null && range.getValue() > position ? range.getValue() - position : 0;
+    }
+
+    /**
+     * @return Returns true if the whole song was received.
+     */
+    public synchronized boolean isComplete() {
+        return this.available(0) == this.data.length;
+    }
+
+    /**
+     * Waits until the bytes starting at the position were received (or the end of the song).
+     * @param position Position in the song.
+     * @param length Amount of bytes.
+     * @return Returns false if the stream was closed.
+     * @throws InterruptedException
+     */
+    public synchronized boolean await(int position, int length) throws InterruptedException {
+        int required = Math.min(length, this.data.length - position);
+
+        while(!this.closed && this.available(position) < required) {
+            this.wait();
+        }
+        return !this.closed;
+    }
+
+    /**
+     * Returns the data of the song. Only complete if isComplete() returns true.
+     * @return Returns the buffer (not a copy).
+     */
+    public byte[] getData() {
+        return this.data;
+    }
+
+    /**
+     * Opens an InputStream reading the song from the position.
+     * Reading blocks until the data was received.
+     * @param position Position in the song.
+     * @return Returns a new InputStream.
+     */
+    public InputStream openInputStream(int position) {
+        return new SongInputStream(position);
+    }
+
+    /**
+     * Closes the stream. Blocked readers see the end of the stream.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.notifyAll();
+    }
+
+    @Override
+    public String toString() {
+        return "SongStream{" + this.songId + ", " + this.available(0) + "/" + this.data.length + " bytes}";
+    }
+
+    /**
+     * Reads the song, waits for missing data.
+     */
+    private class SongInputStream extends InputStream {
+        private int position;
+
+        SongInputStream(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return this.read(single, 0, 1) == 1 ? single[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(length == 0)
+                return 0;
+
+            synchronized (SongStream.this) {
+                if(this.position >= data.length)
+                    return -1;
+
+                try {
+                    if(!SongStream.this.await(this.position, 1))
+                        return -1;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the song data");
+                }
+
+                int count = Math.min(length, SongStream.this.available(this.position));
+                System.arraycopy(data, this.position, buffer, offset, count);
+                this.position += count;
+                return count;
+            }
+        }
+
+        @Override
+        public int available() {
+            return SongStream.this.available(this.position);
+        }
+    }
+}
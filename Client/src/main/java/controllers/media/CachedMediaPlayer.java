@@ -1,41 +1,236 @@
 package controllers.media;
 
-import controllers.io.cache.CacheService;
-import models.songs.Song;
+import controllers.io.cache.file.SlottedFileCacheService;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Objects;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 24.04.2016.
  * This <code>MediaPlayer</code> uses a cache as a source for the Media.
+ *
+ * The next song is prepared as soon as it is cached. Its MediaPlayer is created ahead of time,
+ * so it's READY when the play command arrives and is only swapped in.
+ * The gap between the end of a song and the start of the following song is measured (lastTrackGap).
+ * A song can be started at a position (to resume it after a pause or a reconnect).
+ *
+ * Use it on the JavaFX thread only.
  * </pre>
  */
 public class CachedMediaPlayer {
 
-    private final CacheService cacheService;
+    private final Logger logger;
+    private final SlottedFileCacheService cacheService;
+
+    private MediaPlayer mediaPlayer;
+    private String songId;
+
+    /**
+     * The prepared MediaPlayer for the next song.
+     */
+    private MediaPlayer preparedMediaPlayer;
+    private String preparedSongId;
+
+    /**
+     * Time (System.nanoTime) the last song ended. 0 if the last song did not end by itself.
+     */
+    private long endOfMediaTime;
+
+    private final ReadOnlyObjectWrapper<Duration> lastTrackGap;
 
-    public CachedMediaPlayer(CacheService cacheService) {
+    public CachedMediaPlayer(SlottedFileCacheService cacheService) {
+        this.logger = LoggerFactory.getLogger(this.getClass());
         this.cacheService = cacheService;
+        this.lastTrackGap = new ReadOnlyObjectWrapper<>(this, "lastTrackGap");
+    }
+
+    /**
+     * Prepares the MediaPlayer of a cached song, so it can be started without delay.
+     * @param songId Id of the cached song (may be null).
+     */
+    public void prepare(String songId) {
+        // The playing song is never prepared, the cache only writes into the other slot.
+        if(this.mediaPlayer != null && songId != null && songId.equals(this.songId))
+            return;
+
+        this.disposePrepared();
+
+        URI uri = this.cacheService.getFileURI(songId);
+        if(uri == null)
+            return;
+
+        this.preparedMediaPlayer = this.createMediaPlayer(uri);
+        this.preparedSongId = songId;
     }
 
     /**
-     * Plays a song.
-     * If this song is already cached, it plays it from the cache.
-     * If the song is not yet cached, it will cache it first.
-     * @param song
+     * Plays a song from the cache from the beginning.
+     * If this song was prepared, the prepared MediaPlayer is used.
+     * @param songId Id of the song (may be null).
      */
-    public void play(Song song) {
+    public void play(String songId) {
+        this.play(songId, 0, false);
+    }
+
+    /**
+     * Plays a song from the cache.
+     * If the song is loaded already, it continues at the position. If this song was prepared, the prepared
+     * MediaPlayer is used.
+     * @param songId Id of the song (may be null).
+     * @param position Position in milliseconds.
+     * @param paused True to load the song at the position without playing it.
+     */
+    public void play(String songId, long position, boolean paused) {
+        if(this.mediaPlayer != null && songId != null && songId.equals(this.songId)) {
+            seek(this.mediaPlayer, position);
+            if(paused)
+                this.mediaPlayer.pause();
+            else
+                this.mediaPlayer.play();
+            return;
+        }
+
+        MediaPlayer next;
 
+        if(this.preparedMediaPlayer != null && Objects.equals(this.preparedSongId, songId)) {
+            next = this.preparedMediaPlayer;
+            this.preparedMediaPlayer = null;
+            this.preparedSongId = null;
+        }
+        else {
+            URI uri = this.cacheService.getFileURI(songId);
+            if(uri == null) {
+                this.logger.warn("Song " + songId + " is not cached.");
+                return;
+            }
+            next = this.createMediaPlayer(uri);
+        }
+
+        this.disposeCurrent();
+        this.mediaPlayer = next;
+        this.songId = songId;
+
+        seek(this.mediaPlayer, position);
+        if(!paused)
+            this.mediaPlayer.play();
+    }
+
+    /**
+     * Continues playing the current song.
+     */
+    public void resume() {
+        if(this.mediaPlayer != null)
+            this.mediaPlayer.play();
     }
 
     /**
      * Pauses the current MediaPlayer from playing a song.
      */
     public void pause() {
+        if(this.mediaPlayer != null)
+            this.mediaPlayer.pause();
+    }
 
+    /**
+     * Stops the current song. The prepared song is kept.
+     * @return Returns true if a song was playing.
+     */
+    public boolean stop() {
+        this.endOfMediaTime = 0;
+        if(this.mediaPlayer == null)
+            return false;
+
+        this.disposeCurrent();
+        return true;
+    }
+
+    /**
+     * Stops playing and releases all MediaPlayers.
+     */
+    public void dispose() {
+        this.stop();
+        this.disposePrepared();
     }
 
-    public void stop() {
+    /**
+     * @return Returns true if a song is loaded.
+     */
+    public boolean hasMedia() {
+        return this.mediaPlayer != null;
+    }
+
+    /**
+     * @return Returns the gap between the last two songs. Null if not measured yet.
+     */
+    public Duration getLastTrackGap() {
+        return this.lastTrackGap.get();
+    }
 
+    public ReadOnlyObjectProperty<Duration> lastTrackGapProperty() {
+        return this.lastTrackGap.getReadOnlyProperty();
     }
 
+    private MediaPlayer createMediaPlayer(URI uri) {
+        MediaPlayer player = new MediaPlayer(new Media(uri.toString()));
+
+        player.setOnEndOfMedia(() -> {
+            if(player == this.mediaPlayer)
+                this.endOfMediaTime = System.nanoTime();
+        });
+
+        player.statusProperty().addListener((observable, oldValue, newValue) -> {
+            if(newValue == MediaPlayer.Status.PLAYING && player == this.mediaPlayer && this.endOfMediaTime != 0) {
+                this.lastTrackGap.set(Duration.millis((System.nanoTime() - this.endOfMediaTime) / 1e6));
+                this.endOfMediaTime = 0;
+                this.logger.debug("Gap between the tracks: " + this.lastTrackGap.get());
+            }
+        });
+
+        return player;
+    }
+
+    /**
+     * Seeks the position. If the media is not loaded yet, it seeks as soon as it's READY.
+     */
+    private static void seek(MediaPlayer player, long position) {
+        Duration time = Duration.millis(position);
+
+        switch (player.getStatus()) {
+            case READY:
+            case PLAYING:
+            case PAUSED:
+            case STOPPED:
+                player.seek(time);
+                break;
+            default:
+                if(position > 0)
+                    player.setOnReady(() -> player.seek(time));
+                break;
+        }
+    }
+
+    private void disposeCurrent() {
+        if(this.mediaPlayer != null) {
+            this.mediaPlayer.stop();
+            this.mediaPlayer.dispose();
+            this.mediaPlayer = null;
+            this.songId = null;
+        }
+    }
+
+    private void disposePrepared() {
+        if(this.preparedMediaPlayer != null) {
+            this.preparedMediaPlayer.dispose();
+            this.preparedMediaPlayer = null;
+            this.preparedSongId = null;
+        }
+    }
 }
@@ -0,0 +1,397 @@
+package controllers.media;
+
+import controllers.io.cache.stream.SongStream;
+import javazoom.jl.decoder.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.PcmRingBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <pre>
+ * Plays a song while it is being received.
+ *
+ * The MP3 frames are decoded with JLayer directly from the received bytes (SongStream) and
+ * written to a SourceDataLine (javax.sound.sampled). Playing starts as soon as the pre-roll
+ * was received, so the time to the first audio does not depend on the size of the song.
+ *
+ * The pre-roll (in bytes) can be configured with the system property "wss.preRoll".
+ *
+ * Decoding and the output are decoupled by a PcmRingBuffer: The decoder thread fills the buffer,
+ * the writer thread writes it to the audio line. Both run as tasks on the io pool (ExecutionPools).
+ * A slow network or a busy CPU is absorbed by the buffer (RING_BUFFER_TIME) instead of interrupting
+ * the audio.
+ *
+ * A song can be started at a position. If the byte offset of the position is known, decoding starts
+ * there (the decoder syncs to the next frame), so a client joining late does not wait for the
+ * beginning of the song. Otherwise the frames before the position are skipped.
+ * </pre>
+ */
+public class StreamingMediaPlayer implements Closeable {
+
+    /**
+     * System property for the pre-roll in bytes.
+     */
+    public static final String PRE_ROLL_PROPERTY = "wss.preRoll";
+
+    /**
+     * Default pre-roll: 32KB (about 2 seconds of a 128kbit/s song).
+     */
+    public static final int DEFAULT_PRE_ROLL = 32 * 1024;
+
+    /**
+     * Size of the buffer of the audio line in milliseconds.
+     */
+    private static final int LINE_BUFFER_TIME = 250;
+
+    /**
+     * Size of the PCM ring buffer between decoder and audio line in milliseconds.
+     */
+    private static final int RING_BUFFER_TIME = 2000;
+
+    private final Logger logger;
+    private final int preRoll;
+
+    private PlayerTask decodingTask;
+    private volatile PlayerTask writingTask;
+    private volatile PcmRingBuffer ringBuffer;
+    private volatile SongStream stream;
+    private volatile boolean running;
+    private volatile boolean paused;
+
+    private final Object pauseLock = new Object();
+
+    private Runnable onEndOfMedia;
+
+    /**
+     * Creates a player with the configured pre-roll.
+     */
+    public StreamingMediaPlayer() {
+        this(Integer.getInteger(PRE_ROLL_PROPERTY, DEFAULT_PRE_ROLL));
+    }
+
+    /**
+     * @param preRoll Amount of bytes to receive before playing starts.
+     */
+    public StreamingMediaPlayer(int preRoll) {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.preRoll = preRoll;
+    }
+
+    /**
+     * Starts playing a song. Stops the current song.
+     * @param stream The song.
+     */
+    public void play(SongStream stream) {
+        this.play(stream, 0, 0, false);
+    }
+
+    /**
+     * Starts playing a song at a position. Stops the current song.
+     * @param stream The song.
+     * @param position Position in milliseconds. Used if the byte offset is unknown: The frames before
+     *                 the position are skipped without decoding.
+     * @param byteOffset Byte offset of the position or -1 if unknown.
+     * @param paused True to wait at the position until resume() is called.
+     */
+    public synchronized void play(SongStream stream, long position, long byteOffset, boolean paused) {
+        this.stop();
+
+        this.stream = stream;
+        this.running = true;
+        this.paused = paused;
+
+        long startTime = System.nanoTime();
+        int startOffset = byteOffset > 0 ? (int) Math.min(byteOffset, stream.getTotalLength()) : 0;
+        long skip = byteOffset >= 0 ? 0 : position;
+        this.decodingTask = new PlayerTask("StreamingDecoder", () -> this.decode(stream, startOffset, skip, startTime));
+    }
+
+    /**
+     * Pauses playing.
+     */
+    public void pause() {
+        this.paused = true;
+    }
+
+    /**
+     * Continues playing.
+     */
+    public void resume() {
+        synchronized (this.pauseLock) {
+            this.paused = false;
+            this.pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops playing. Waits for the decoder to stop.
+     * @return Returns true if a song was playing.
+     */
+    public synchronized boolean stop() {
+        if(this.decodingTask == null)
+            return false;
+
+        this.running = false;
+        this.resume();
+
+        try {
+            this.decodingTask.stop(1000);
+
+            // The decoder starts the writer, so it's known after the decoder stopped.
+            PlayerTask writer = this.writingTask;
+            if(writer != null)
+                writer.stop(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.decodingTask = null;
+        this.writingTask = null;
+        this.stream = null;
+        return true;
+    }
+
+    /**
+     * @return Returns the id of the playing song or null.
+     */
+    public String getSongId() {
+        SongStream current = this.stream;
+        return current != null ? current.getSongId() : null;
+    }
+
+    /**
+     * @param onEndOfMedia Called (on the writer thread) when the song was played to the end.
+     */
+    public void setOnEndOfMedia(Runnable onEndOfMedia) {
+        this.onEndOfMedia = onEndOfMedia;
+    }
+
+    /**
+     * @return Returns the fill level of the PCM buffer (0 = empty, 1 = full).
+     */
+    public double getFillLevel() {
+        PcmRingBuffer buffer = this.ringBuffer;
+        return buffer != null ? buffer.getFillLevel() : 0;
+    }
+
+    /**
+     * @return Returns how many times the audio output ran out of data while playing the current song.
+     */
+    public long getUnderruns() {
+        PcmRingBuffer buffer = this.ringBuffer;
+        return buffer != null ? buffer.getUnderruns() : 0;
+    }
+
+    @Override
+    public void close() {
+        this.stop();
+    }
+
+    /**
+     * Decodes the song into the PCM buffer. Starts the writer thread with the first frame.
+     * (Decoder thread)
+     * @param startOffset Byte offset to start decoding at.
+     * @param skip Milliseconds to skip after the start offset.
+     */
+    private void decode(SongStream stream, int startOffset, long skip, long startTime) {
+        PcmRingBuffer buffer = null;
+        Bitstream bitstream = null;
+
+        try {
+            if(!stream.await(startOffset, this.preRoll))
+                return;
+
+            bitstream = new Bitstream(stream.openInputStream(startOffset));
+            Decoder decoder = new Decoder();
+            byte[] pcm = null;
+
+            Header header;
+            float skipped = 0;
+            while(this.running && skipped < skip && (header = bitstream.readFrame()) != null) {
+                skipped += header.ms_per_frame();
+                bitstream.closeFrame();
+            }
+
+            while(this.running && (header = bitstream.readFrame()) != null) {
+                SampleBuffer samples = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                bitstream.closeFrame();
+
+                if(buffer == null) {
+                    int frequency = decoder.getOutputFrequency();
+                    int channels = decoder.getOutputChannels();
+                    SourceDataLine line = this.openLine(frequency, channels);
+
+                    buffer = new PcmRingBuffer(frequency * RING_BUFFER_TIME / 1000, channels * 2);
+                    this.ringBuffer = buffer;
+
+                    PcmRingBuffer output = buffer;
+                    try {
+                        this.writingTask = new PlayerTask("AudioLineWriter", () -> this.writeToLine(output, line, stream, startTime));
+                    } catch (RejectedExecutionException e) {
+                        line.close();
+                        throw e;
+                    }
+                }
+
+                int length = samples.getBufferLength() * 2;
+                if(pcm == null || pcm.length < length)
+                    pcm = new byte[length];
+                toLittleEndian(samples.getBuffer(), samples.getBufferLength(), pcm);
+
+                buffer.writeFully(pcm, 0, length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (BitstreamException | DecoderException | LineUnavailableException e) {
+            if(this.running)
+                this.logger.error("Error playing the song " + stream.getSongId(), e);
+        } finally {
+            // The writer plays the rest of the buffer.
+            if(buffer != null)
+                buffer.finish();
+
+            if(bitstream != null) {
+                try {
+                    bitstream.close();
+                } catch (BitstreamException e) {
+                    this.logger.debug("Error closing the bitstream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the PCM buffer to the audio line until the decoder finished.
+     * (Writer thread)
+     */
+    private void writeToLine(PcmRingBuffer buffer, SourceDataLine line, SongStream stream, long startTime) {
+        Thread thread = Thread.currentThread();
+        int priority = thread.getPriority();
+        thread.setPriority(Thread.MAX_PRIORITY);
+
+        byte[] chunk = new byte[Math.max(buffer.getFrameSize(), line.getBufferSize() / 4 / buffer.getFrameSize() * buffer.getFrameSize())];
+        boolean first = true;
+
+        try {
+            int length;
+            while(this.running && (length = buffer.readSome(chunk, 0, chunk.length)) != -1) {
+                this.waitWhilePaused(line);
+                if(!this.running)
+                    break;
+
+                if(first) {
+                    this.logger.info("Time to first audio: " + (System.nanoTime() - startTime) / 1000000 + "ms");
+                    first = false;
+                }
+                line.write(chunk, 0, length);
+            }
+
+            if(this.running) {
+                line.drain();
+                this.logger.info("Played song " + stream.getSongId() + " (" + buffer.getUnderruns() + " underruns)");
+                this.onEndOfMedia();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            line.stop();
+            line.close();
+            thread.setPriority(priority);
+        }
+    }
+
+    private SourceDataLine openLine(int frequency, int channels) throws LineUnavailableException {
+        AudioFormat format = new AudioFormat(frequency, 16, channels, true, false);
+        SourceDataLine line = AudioSystem.getSourceDataLine(format);
+
+        int bufferSize = (int) (format.getFrameRate() * format.getFrameSize() * LINE_BUFFER_TIME / 1000);
+        line.open(format, bufferSize);
+        line.start();
+        return line;
+    }
+
+    private void waitWhilePaused(SourceDataLine line) throws InterruptedException {
+        if(!this.paused)
+            return;
+
+        line.stop();
+        synchronized (this.pauseLock) {
+            while(this.paused && this.running)
+                this.pauseLock.wait();
+        }
+        line.start();
+    }
+
+    private void onEndOfMedia() {
+        Runnable listener = this.onEndOfMedia;
+        if(listener != null)
+            listener.run();
+    }
+
+    /**
+     * Converts the samples to 16 bit signed little endian PCM.
+     */
+    private static void toLittleEndian(short[] samples, int count, byte[] pcm) {
+        for(int i = 0; i < count; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+    }
+
+    /**
+     * A decoder or writer task on the io pool. Stopping the task waits until it ended, like joining a thread.
+     */
+    private static class PlayerTask {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch ended = new CountDownLatch(1);
+        private final Future<?> future;
+
+        /**
+         * Submits the task to the io pool.
+         * @param name Name of the task (appended to the thread name).
+         * @param task The task.
+         * @throws RejectedExecutionException If the io pool is full.
+         */
+        PlayerTask(String name, Runnable task) {
+            this.future = ExecutionPools.io().submit(ExecutionPools.named(name, () -> {
+                // Don't start a task which was stopped while it was submitted.
+                if(!this.claimed.compareAndSet(false, true))
+                    return;
+
+                try {
+                    task.run();
+                } finally {
+                    this.ended.countDown();
+                }
+            }));
+        }
+
+        /**
+         * Interrupts the task and waits until it ended.
+         * @param timeout Maximum time to wait in milliseconds.
+         * @return Returns false if the task did not end in time.
+         * @throws InterruptedException Thrown if the waiting thread was interrupted.
+         */
+        boolean stop(long timeout) throws InterruptedException {
+            if(this.claimed.compareAndSet(false, true)) {
+                this.future.cancel(false);
+                return true;
+            }
+
+            this.future.cancel(true);
+            return this.ended.await(timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+}
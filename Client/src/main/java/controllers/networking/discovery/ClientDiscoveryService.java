@@ -3,28 +3,45 @@ package controllers.networking.discovery;
 import controllers.networking.discovery.callback.OnServerConnected;
 import controllers.networking.discovery.callback.OnServerDisconnected;
 import models.clients.Server;
+import models.networking.DiscoveryBeacon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import utils.concurrent.ExecutorServiceUtils;
+import utils.concurrent.ExecutionPools;
+import utils.networking.NetUtil;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 08.12.2015.
  * This is the ClientDiscoveryService of the Client.
+ *
+ * The client does not only wait for the beacon of the server. When it starts, it broadcasts a probe
+ * to the server (Server.DISCOVERY_PORT), which answers immediately. Until a server is found, the probe
+ * is repeated with an increasing delay (PROBE_MIN_DELAY up to PROBE_MAX_DELAY).
+ *
+ * The beacons are binary (DiscoveryBeacon) and parsed into the same buffer. If several servers answer,
+ * the server with the least clients (then the lowest round trip time of the probe) is selected.
+ * The client stays with the selected server until it's lost, it does not switch to the server it heard last.
+ *
+ * Scans on a thread of the shared io pool (ExecutionPools), so the service can be started again after stop().
  * </pre>
  */
 public class ClientDiscoveryService implements Closeable {
 
-    private DatagramSocket scanningSocket;
-    private DatagramSocket responseSocket;
+    /**
+     * The sockets of the running scan, so stop() can close them. The scan only uses and closes its own sockets.
+     */
+    private volatile DatagramSocket scanningSocket;
+    private volatile DatagramSocket responseSocket;
 
     private List<OnServerConnected> onServerConnectedList;
     private List<OnServerDisconnected> onServerDisconnectedList;
@@ -34,6 +51,18 @@ public class ClientDiscoveryService implements Closeable {
      */
     private Server currentServer;
 
+    /**
+     * The known servers. Only used by the scanning thread.
+     */
+    private final List<ServerCandidate> candidates;
+
+    /**
+     * The candidate of the current server.
+     */
+    private ServerCandidate currentCandidate;
+
+    private final byte[] probeBuffer = new byte[DiscoveryBeacon.MAX_SIZE];
+
     /**
      * This is the port used for discovery.
      * Discovery packets will be incoming on this port
@@ -41,14 +70,14 @@ public class ClientDiscoveryService implements Closeable {
     private static final int SCANNING_PORT = 6583;
 
     /**
-     * This is the message sent in the discovery protocol.
+     * Delay (in milliseconds) before the first probe is repeated.
      */
-    private static final String DISCOVERY_MESSAGE = "WSSServer";
+    private static final int PROBE_MIN_DELAY = 250;
 
     /**
-     * This is the reading buffer. In best case it would be the size of the receiving message.
+     * Maximum delay (in milliseconds) between the probes, while no server was found.
      */
-    private static final int SCANNING_BUFFER_SIZE = DISCOVERY_MESSAGE.length() + 1;
+    private static final int PROBE_MAX_DELAY = 8000;
 
     /**
      * TIMEOUT (in milliseconds) for the reading socket.
@@ -56,9 +85,20 @@ public class ClientDiscoveryService implements Closeable {
     private static final int SCANNING_TIMEOUT = 2000;
 
     /**
-     * The scanning executor is doing the discovery scans asynchronically.
+     * Time (in nanoseconds) to wait for the answers of other servers, after the first server answered.
      */
-    private final ExecutorService scanningExecutor;
+    private static final long SELECTION_WINDOW = TimeUnit.MILLISECONDS.toNanos(150);
+
+    /**
+     * A server is lost if it did not send a beacon for this time (in nanoseconds).
+     * (More than three beacons of the server)
+     */
+    private static final long SERVER_TIMEOUT = TimeUnit.SECONDS.toNanos(35);
+
+    /**
+     * The discovery scan, running asynchronically on the shared io pool.
+     */
+    private Future<?> scanningTask;
     private final Logger logger;
     private volatile boolean isWorking = false;
 
@@ -66,8 +106,8 @@ public class ClientDiscoveryService implements Closeable {
         this.logger = LoggerFactory.getLogger(this.getClass());
         this.onServerConnectedList = new ArrayList<>();
         this.onServerDisconnectedList = new ArrayList<>();
-        this.scanningExecutor = Executors.newSingleThreadExecutor();
         this.currentServer = null;
+        this.candidates = new ArrayList<>();
     }
 
     /**
@@ -77,7 +117,12 @@ public class ClientDiscoveryService implements Closeable {
 
         if(!this.isWorking) {
             this.isWorking = true;
-            this.scanningExecutor.submit(this::scan);
+            try {
+                this.scanningTask = ExecutionPools.io().submit(ExecutionPools.named("DiscoveryScanner", this::scan));
+            } catch (RejectedExecutionException e) {
+                this.isWorking = false;
+                this.logger.error("Could not start the discovery scan", e);
+            }
         }
     }
 
@@ -91,18 +136,23 @@ public class ClientDiscoveryService implements Closeable {
 
         this.isWorking = false;
 
-        if(this.scanningSocket != null) {
-            this.scanningSocket.close();
+        DatagramSocket scanning = this.scanningSocket;
+        if(scanning != null) {
+            scanning.close();
             this.scanningSocket = null;
         }
 
-        if(this.responseSocket != null) {
-            this.responseSocket.close();
+        DatagramSocket response = this.responseSocket;
+        if(response != null) {
+            response.close();
             this.responseSocket = null;
         }
 
         // Thread should be stopped anyways because close() throws a SocketException in the running thread.
-        ExecutorServiceUtils.stopExecutorService(this.scanningExecutor);
+        if(this.scanningTask != null) {
+            this.scanningTask.cancel(true);
+            this.scanningTask = null;
+        }
 
         this.logger.info("Stopped Discovery service.");
     }
@@ -113,40 +163,57 @@ public class ClientDiscoveryService implements Closeable {
     private void scan() {
         this.logger.info("Discovering servers... (Port: " + ClientDiscoveryService.SCANNING_PORT + ")");
 
+        DatagramSocket scanning = null;
+        DatagramSocket response = null;
+
         try {
             // Init Scanning Socket
-            if (this.scanningSocket == null) {
-                this.scanningSocket = new DatagramSocket(ClientDiscoveryService.SCANNING_PORT);
-            }
+            scanning = new DatagramSocket(ClientDiscoveryService.SCANNING_PORT);
+            this.scanningSocket = scanning;
 
             // Init response socket
-            if (this.responseSocket == null) {
-                this.responseSocket = new DatagramSocket();
-            }
+            response = new DatagramSocket();
+            this.responseSocket = response;
+
+            // The answer of the server comes back to the scanning socket.
+            scanning.setBroadcast(true);
+
+            // Every datagram is received into the same buffer and beacon.
+            byte[] receivingBuffer = new byte[DiscoveryBeacon.MAX_SIZE];
+            DatagramPacket receivedPacket = new DatagramPacket(receivingBuffer, receivingBuffer.length);
+            DiscoveryBeacon receivedBeacon = new DiscoveryBeacon();
+
+            int probeDelay = ClientDiscoveryService.PROBE_MIN_DELAY;
+            long nextProbe = System.nanoTime();
 
             while (isWorking) {
-                byte[] receivingBuffer = new byte[ClientDiscoveryService.SCANNING_BUFFER_SIZE];
-                DatagramPacket receivedPacket = new DatagramPacket(receivingBuffer, receivingBuffer.length);
+                long now = System.nanoTime();
+
+                // Repeat the probe until a server answers, then only listen to the beacons.
+                if (this.currentServer != null) {
+                    probeDelay = ClientDiscoveryService.PROBE_MIN_DELAY;
+                    nextProbe = now;
+                }
+                else if (now - nextProbe >= 0) {
+                    this.probe(scanning);
+                    nextProbe = now + TimeUnit.MILLISECONDS.toNanos(probeDelay);
+                    probeDelay = Math.min(probeDelay * 2, ClientDiscoveryService.PROBE_MAX_DELAY);
+                }
+
+                scanning.setSoTimeout(this.getReceiveTimeout(now, nextProbe));
 
                 try {
-                    // If the message is bigger than the READING_BUFFER_SIZE, it gets truncated (the last part is lost!)
-                    this.scanningSocket.receive(receivedPacket);
-                    String message = new String(receivedPacket.getData());
-                    message = message.trim(); // Trim stuff, because the buffer was too big.
-
-                    // Handle the message, if it is a SERVER_FOUND_MESSAGE.
-                    if (message.equals(ClientDiscoveryService.DISCOVERY_MESSAGE)) {
-                        if(!this.isWorking)
-                            break;
-                        this.foundServer(receivedPacket.getAddress(), Server.DISCOVERY_PORT);
+                    receivedPacket.setLength(receivingBuffer.length);
+                    scanning.receive(receivedPacket);
+                    if(!this.isWorking)
+                        break;
+
+                    if (receivedBeacon.read(receivingBuffer, receivedPacket.getOffset(), receivedPacket.getLength())) {
+                        this.updateCandidate(receivedBeacon, receivedPacket.getAddress(), System.nanoTime());
                     }
                     // Handle unknown messages
                     else {
-                        // Log Unknown message.
-                        String log = "Received Datagram (IP = " + receivedPacket.getAddress().getHostAddress()
-                                + ").\nContent: " + message;
-
-                        this.logger.info(log);
+                        this.logger.debug("Received unknown datagram (IP = " + receivedPacket.getAddress().getHostAddress() + ")");
                     }
                 }
                 // This catch is called if the socket was timed out. It's normal.
@@ -154,6 +221,8 @@ public class ClientDiscoveryService implements Closeable {
                     // Uncomment this if you want to log the timeout exception.
                     //Logger.getLogger(ClientDiscoveryService.class.getName()).log(Level.INFO, "[WARNING]: Reading Socket timed out. Reinitializing reading...");
                 }
+
+                this.selectServer(System.nanoTime());
             }
         } catch(SocketException socketException) {
             if(socketException.getMessage().equals("socket closed")) {
@@ -166,34 +235,164 @@ public class ClientDiscoveryService implements Closeable {
         catch (Exception e) {
             this.logger.error("Scanning error in DiscoveryService", e);
         } finally {
-            this.isWorking = false;
-            this.scanningSocket.close();
-            this.responseSocket.close();
-            this.scanningSocket = null;
-            this.responseSocket = null;
+            // After stop() the fields may already belong to the scan of the next start().
+            if(scanning == null || this.scanningSocket == scanning) {
+                this.isWorking = false;
+                this.scanningSocket = null;
+                this.responseSocket = null;
+            }
+
+            if(scanning != null)
+                scanning.close();
+            if(response != null)
+                response.close();
             this.logger.error("Discovery Listening stopped!");
         }
     }
 
     /**
-     * Call this method when a server is found.
-     * @param inetAddress InetAddress of the server.
-     * @param serverListeningPort Listening port of the server.
+     * Broadcasts a probe to the servers on every network interface. The servers answer to the scanning socket.
+     * The nonce of the probe is the send time, the answer echoes it.
+     * @param scanning The scanning socket of the scan.
+     */
+    private void probe(DatagramSocket scanning) {
+        // The network may have changed since the last probe (i.e. a network cable was plugged in).
+        NetUtil.refreshBroadcastAddresses();
+        List<InetAddress> broadcastAddresses = NetUtil.getBroadcastAddresses4();
+
+        if (broadcastAddresses.isEmpty()) {
+            this.logger.info("Not connected to a network, no discovery probe sent.");
+            return;
+        }
+
+        int length = DiscoveryBeacon.writeProbe(this.probeBuffer, System.nanoTime());
+        for (InetAddress broadcastAddress : broadcastAddresses) {
+            try {
+                scanning.send(new DatagramPacket(this.probeBuffer, length, broadcastAddress, Server.DISCOVERY_PORT));
+                this.logger.debug("Sent discovery probe to " + broadcastAddress.getHostAddress());
+            } catch (IOException e) {
+                this.logger.warn("Could not send the discovery probe to " + broadcastAddress.getHostAddress(), e);
+            }
+        }
+    }
+
+    /**
+     * Updates the server which sent the beacon.
+     * @param beacon The received beacon.
+     * @param address Address of the server.
+     * @param now Receive time (System.nanoTime).
      */
-    private void foundServer(InetAddress inetAddress, int serverListeningPort) {
-        Server foundServer = new Server(inetAddress, serverListeningPort);
+    private void updateCandidate(DiscoveryBeacon beacon, InetAddress address, long now) {
+        if (beacon.getProtocolVersion() != DiscoveryBeacon.PROTOCOL_VERSION || !beacon.supports(DiscoveryBeacon.TRANSPORT_TCP)) {
+            this.logger.debug("Ignoring incompatible server " + address.getHostAddress() + ": " + beacon);
+            return;
+        }
+
+        ServerCandidate candidate = null;
+        for (ServerCandidate existing : this.candidates) {
+            if (existing.beacon.isSameServer(beacon)) {
+                candidate = existing;
+                break;
+            }
+        }
+
+        if (candidate == null) {
+            candidate = new ServerCandidate(now);
+            this.candidates.add(candidate);
+            this.logger.info("Found server " + address.getHostAddress() + ": " + beacon);
+        }
+
+        candidate.beacon.copyFrom(beacon);
+        candidate.address = address;
+        candidate.lastSeen = now;
+
+        // The echo is the send time of our probe.
+        long roundTrip = now - beacon.getEcho();
+        if (beacon.getEcho() != 0 && roundTrip >= 0 && roundTrip < ClientDiscoveryService.SERVER_TIMEOUT) {
+            candidate.roundTripTime = roundTrip;
+        }
+    }
+
+    /**
+     * Selects the server to connect to.
+     * The first selection waits SELECTION_WINDOW for the answers of all servers, then takes the server
+     * with the least clients (then the lowest round trip time). The selected server is kept while it
+     * sends beacons, even if an other server has less clients (no flapping between the servers).
+     * @param now Current time (System.nanoTime).
+     */
+    private void selectServer(long now) {
+        // Forget the servers which did not send beacons anymore.
+        Iterator<ServerCandidate> iterator = this.candidates.iterator();
+        while (iterator.hasNext()) {
+            ServerCandidate candidate = iterator.next();
+            if (now - candidate.lastSeen > ClientDiscoveryService.SERVER_TIMEOUT) {
+                iterator.remove();
+                this.logger.info("Lost server " + candidate.address.getHostAddress());
+
+                if (candidate == this.currentCandidate) {
+                    this.onServerDisconnected(this.currentServer);
+                    this.currentCandidate = null;
+                    this.currentServer = null;
+                }
+            }
+        }
+
+        if (this.currentCandidate != null) {
+            // The same server with a new address or port.
+            Server server = this.currentCandidate.toServer();
+            if (!server.equals(this.currentServer)) {
+                this.onServerDisconnected(this.currentServer);
+                this.currentServer = server;
+                this.onServerConnected(server);
+            }
+            return;
+        }
+
+        ServerCandidate best = null;
+        for (ServerCandidate candidate : this.candidates) {
+            if (best == null || candidate.compareTo(best) < 0)
+                best = candidate;
+        }
 
-        // Add to current server, if needed.
-        if(this.currentServer == null){
-            this.currentServer = foundServer;
-            this.onServerConnected(foundServer);
+        // Wait for the other servers to answer.
+        if (best == null || now - this.getFirstSeen() < ClientDiscoveryService.SELECTION_WINDOW)
+            return;
+
+        this.currentCandidate = best;
+        this.currentServer = best.toServer();
+        this.logger.info("Selected server " + this.currentServer + " (" + best.beacon.getClientCount() + " clients, "
+                + (best.roundTripTime >= 0 ? TimeUnit.NANOSECONDS.toMicros(best.roundTripTime) + "us" : "unknown") + " round trip)");
+        this.onServerConnected(this.currentServer);
+    }
+
+    /**
+     * @return Returns the time (System.nanoTime) the first of the known servers was seen.
+     */
+    private long getFirstSeen() {
+        long firstSeen = 0;
+        boolean first = true;
+        for (ServerCandidate candidate : this.candidates) {
+            if (first || candidate.firstSeen - firstSeen < 0)
+                firstSeen = candidate.firstSeen;
+            first = false;
         }
-        else if(!this.currentServer.equals(foundServer)){
-            // New Server found.
-            this.onServerDisconnected(this.currentServer);
-            this.currentServer = foundServer;
-            this.onServerConnected(foundServer);
+        return firstSeen;
+    }
+
+    /**
+     * @return Returns how long (in milliseconds) to wait for a datagram, before the next probe or selection.
+     */
+    private int getReceiveTimeout(long now, long nextProbe) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(ClientDiscoveryService.SCANNING_TIMEOUT);
+
+        if (this.currentServer == null) {
+            timeout = Math.min(timeout, nextProbe - now);
+
+            if (!this.candidates.isEmpty())
+                timeout = Math.min(timeout, this.getFirstSeen() + ClientDiscoveryService.SELECTION_WINDOW - now);
         }
+
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout));
     }
 
     /**
@@ -267,4 +466,40 @@ public class ClientDiscoveryService implements Closeable {
     public void close() throws IOException {
         this.stop();
     }
-}
\ No newline at end of file
+
+    /**
+     * A server which sent a beacon.
+     */
+    private static class ServerCandidate implements Comparable<ServerCandidate> {
+        private final DiscoveryBeacon beacon = new DiscoveryBeacon();
+        private final long firstSeen;
+        private InetAddress address;
+        private long lastSeen;
+
+        /**
+         * Round trip time of the last answered probe in nanoseconds (-1 if unknown).
+         */
+        private long roundTripTime = -1;
+
+        ServerCandidate(long firstSeen) {
+            this.firstSeen = firstSeen;
+        }
+
+        Server toServer() {
+            return new Server(this.address, this.beacon.getStreamingPort());
+        }
+
+        /**
+         * Less clients first, then the lower (known) round trip time.
+         */
+        @Override
+        public int compareTo(ServerCandidate other) {
+            int result = Integer.compare(this.beacon.getClientCount(), other.beacon.getClientCount());
+            if (result != 0)
+                return result;
+
+            return Long.compare(this.roundTripTime < 0 ? Long.MAX_VALUE : this.roundTripTime,
+                    other.roundTripTime < 0 ? Long.MAX_VALUE : other.roundTripTime);
+        }
+    }
+}
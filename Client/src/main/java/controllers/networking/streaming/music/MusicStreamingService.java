@@ -1,6 +1,7 @@
 package controllers.networking.streaming.music;
 
-import controllers.io.cache.file.FileCacheService;
+import controllers.io.cache.file.SlottedFileCacheService;
+import controllers.io.cache.stream.SongStream;
 import controllers.networking.streaming.music.callback.*;
 import models.clients.Server;
 
@@ -43,11 +44,21 @@ public interface MusicStreamingService {
     void addOnRenameListener(OnRename listener);
     void removeOnRenameListener(OnRename listener);
 
+    void addOnSongCachedListener(OnSongCached listener);
+    void removeOnSongCachedListener(OnSongCached listener);
+
     /**
      * Returns the cache (FileCache) of the MusicStreamingService.
      * @return FileCacheService.
      */
-    FileCacheService getCache();
+    SlottedFileCacheService getCache();
+
+    /**
+     * Returns the stream of a song which is being received (or was received last).
+     * @param songId Id of the song.
+     * @return Returns the SongStream or null.
+     */
+    SongStream getStream(String songId);
 
     void sendName(String name);
 }
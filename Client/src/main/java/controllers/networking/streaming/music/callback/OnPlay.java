@@ -4,9 +4,13 @@ package controllers.networking.streaming.music.callback;
  * <pre>
  * Created by Esteban Luchsinger on 17.03.2016.
  * Tells that the song should be played.
+ *
+ * Contains the id of the song, to find it in the cache (may be null), the position to start at
+ * (in milliseconds), the estimated byte offset of the position (-1 if unknown) and whether the song
+ * should only be loaded (paused).
  * </pre>
  */
 @FunctionalInterface
 public interface OnPlay {
-    void play(String songTitle, String artist);
+    void play(String songId, String songTitle, String artist, long position, long byteOffset, boolean paused);
 }
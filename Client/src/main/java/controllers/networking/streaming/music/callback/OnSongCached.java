@@ -0,0 +1,11 @@
+package controllers.networking.streaming.music.callback;
+
+/**
+ * <pre>
+ * Tells that a song was received completely and is ready to be played.
+ * </pre>
+ */
+@FunctionalInterface
+public interface OnSongCached {
+    void cached(String songId);
+}
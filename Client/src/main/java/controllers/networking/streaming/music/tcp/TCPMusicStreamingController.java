@@ -1,7 +1,7 @@
 package controllers.networking.streaming.music.tcp;
 
-import controllers.io.cache.file.FileCacheService;
-import controllers.io.cache.file.StaticFileCacheService;
+import controllers.io.cache.file.SlottedFileCacheService;
+import controllers.io.cache.stream.SongStream;
 import controllers.networking.streaming.music.MusicStreamingService;
 import controllers.networking.streaming.music.ServiceStatus;
 import controllers.networking.streaming.music.callback.*;
@@ -9,21 +9,47 @@ import models.clients.Server;
 import models.networking.dtos.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.HashedWheelTimer;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 01.03.2016.
  * The TCP Socket Implementation. Uses conventional sockets (Blocking mode).
+ *
+ * The songs are cached with their id into a SlottedFileCacheService. The server sends the next
+ * track while the current track is playing, the OnSongCached listeners can prepare it.
+ *
+ * Songs are received in chunks (SongChunkCommand). A song which is being received can be played
+ * from its SongStream (getStream), it's cached as soon as it was received completely.
+ *
+ * If the connection breaks, the client reconnects with an exponential backoff (with jitter).
+ * After every connect a SessionCommand is sent: The server restores the playback with it.
+ *
+ * If the server cancels the transfer of a song (CancelTransferCommand, a newer play superseded it),
+ * the partially received song is discarded.
+ *
+ * The socket reads without a timeout (stop() closes the socket). The server sends a KeepAliveBeacon when
+ * it has nothing else to send. If nothing was received for HEARTBEAT_TIMEOUT, the connection is dead:
+ * a watchdog on the shared HashedWheelTimer closes the socket and the client reconnects.
  * </pre>
  */
 public class TCPMusicStreamingController implements MusicStreamingService {
@@ -31,22 +57,43 @@ public class TCPMusicStreamingController implements MusicStreamingService {
     //region Constants
 
     /**
-     * Socket timeout in milliseconds.
+     * Time in milliseconds to wait for the listening thread to end.
      */
     private static final int SOCKET_TIMEOUT = 1000;
 
+    /**
+     * If nothing was received from the server for this time (in milliseconds), the connection is dead.
+     * (The server sends a KeepAliveBeacon every 5 seconds.)
+     */
+    private static final long HEARTBEAT_TIMEOUT = 15000;
+
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /**
+     * Delay before the first reconnect attempt in milliseconds. Doubled with every failed attempt.
+     */
+    private static final long RECONNECT_BASE_DELAY = 100;
+
+    /**
+     * Maximum delay between two reconnect attempts in milliseconds.
+     */
+    private static final long RECONNECT_MAX_DELAY = 10000;
+
     //endregion Constants
 
     //region Thread Requirements
     /**
-     * Name of the listening thread.
+     * Name of the listening task (appended to the name of the io thread running it).
      */
     private static final String LISTENING_THREAD_NAME = "TCPListeningThread";
 
     /**
-     * The thread listening for new connections.
+     * The task listening for new connections (on the io pool of ExecutionPools).
      */
-    private Thread listeningThread;
+    private Future<?> listeningTask;
     /**
      * Running state of the thread.
      * Is false if the thread should be cancelled.
@@ -71,7 +118,17 @@ public class TCPMusicStreamingController implements MusicStreamingService {
     /**
      * The current socket bound to the server.
      */
-    private Socket socket;
+    private volatile Socket socket;
+
+    /**
+     * Time (System.nanoTime) something was received from the server the last time.
+     */
+    private volatile long lastReceiveTime;
+
+    /**
+     * Checks the heartbeat of the server.
+     */
+    private volatile HashedWheelTimer.Timeout watchdog;
 
     /**
      * The current ObjectInputStream to the server.
@@ -87,7 +144,28 @@ public class TCPMusicStreamingController implements MusicStreamingService {
      * File cache. The songs have to be cached here when they
      * were received completely.
      */
-    private final FileCacheService cache;
+    private final SlottedFileCacheService cache;
+
+    /**
+     * The song which is received at the moment (or was received last).
+     */
+    private volatile SongStream currentStream;
+
+    /**
+     * Id of the song which should play, but was not received completely yet.
+     * It's marked as playing in the cache as soon as it was received.
+     */
+    private String pendingPlaySongId;
+
+    /**
+     * Identifies this client across reconnects.
+     */
+    private final String sessionToken;
+
+    /**
+     * The name sent to the server (sent again after a reconnect).
+     */
+    private volatile String name;
 
     //region Listeners
     /**
@@ -109,6 +187,11 @@ public class TCPMusicStreamingController implements MusicStreamingService {
 
     private final ArrayList<OnRename> renameCommandListeners;
 
+    /**
+     * List of listeners listening for songs received completely.
+     */
+    private final List<OnSongCached> songCachedListeners;
+
     //endregion listeners
 
     /**
@@ -123,8 +206,10 @@ public class TCPMusicStreamingController implements MusicStreamingService {
         this.pauseCommandListeners = new ArrayList<>();
         this.stopCommandListeners = new ArrayList<>();
         this.renameCommandListeners = new ArrayList<>();
+        this.songCachedListeners = new ArrayList<>();
 
-        this.cache = new StaticFileCacheService();
+        this.cache = new SlottedFileCacheService();
+        this.sessionToken = UUID.randomUUID().toString();
         this.setCurrentServiceStatus(ServiceStatus.STOPPED);
     }
 
@@ -137,30 +222,30 @@ public class TCPMusicStreamingController implements MusicStreamingService {
         try {
             this.setSocket(this.initSocket(this.currentServer.getServerAddress(),
                     this.currentServer.getServerListeningPort()));
-            this.initThread();
-            this.setCurrentServiceStatus(ServiceStatus.WAITING);
+            this.startSession();
         } catch (IOException exception) {
-            this.isRunning = false;
-            this.logger.error("Failed starting Music Streaming Service.", exception);
-
+            // The listening thread tries to reconnect.
+            this.logger.error("Failed connecting to the server, retrying.", exception);
         }
+
+        this.initThread();
+        this.scheduleWatchdog(HEARTBEAT_TIMEOUT);
+        this.setCurrentServiceStatus(ServiceStatus.WAITING);
     }
 
     /**
      * Stops the music streaming service.
-     * Is a blocking call and waits for the separate threads to finish
-     * (Timeout: SOCKET_TIMEOUT + 1000 ; in milliseconds)
+     * Does not wait for the listening task, closing the socket ends it.
+     * (A following start() waits for it, Timeout: SOCKET_TIMEOUT + 1000 ; in milliseconds)
      */
     @Override
     public void stop() {
         try {
             this.isRunning = false;
-            if (this.listeningThread != null && !this.listeningThread.isAlive())
-                this.listeningThread.join(SOCKET_TIMEOUT + 1000);
-        } catch (InterruptedException e) {
-            this.logger.error("Error joining TCP Listening Thread", e);
+            if (this.watchdog != null)
+                this.watchdog.cancel();
         } finally {
-            if (this.listeningThread == null || !this.listeningThread.isAlive())
+            if (this.listeningTask == null || this.listeningTask.isDone())
                 this.setCurrentServiceStatus(ServiceStatus.STOPPED);
 
             // Close the socket.
@@ -181,24 +266,46 @@ public class TCPMusicStreamingController implements MusicStreamingService {
      */
     private void listen() {
 
-        while (this.isRunning && !this.getSocket().isClosed()) {
+        while (this.isRunning) {
+
+            if(this.getSocket() == null || this.getSocket().isClosed()) {
+                if(!this.reconnect())
+                    break;
+            }
 
             try {
                 Object receivedObject;
                 receivedObject = this.objectInputStream.readObject();
+                this.lastReceiveTime = System.nanoTime();
 
                 // If it's a cache song command.
                 if(receivedObject instanceof CacheSongCommand) {
                     this.logger.info("Received CacheSongCommand");
                     CacheSongCommand command = (CacheSongCommand) receivedObject;
-                    this.cache.writeData(command.data);
+                    this.cache.writeData(command.songId, command.data);
                     this.setCurrentServiceStatus(ServiceStatus.READY);
+                    this.onSongCached(command.songId);
+                }
+                // A part of a song
+                else if(receivedObject instanceof SongChunkCommand) {
+                    this.receiveChunk((SongChunkCommand) receivedObject);
+                }
+                // The rest of a song won't be sent
+                else if(receivedObject instanceof CancelTransferCommand) {
+                    this.cancelTransfer(((CancelTransferCommand) receivedObject).songId);
                 }
                 // A play command
                 else if(receivedObject instanceof PlayCommand) {
                     this.logger.info("Received PlayCommand");
                     PlayCommand command = (PlayCommand) receivedObject;
-                    this.onPlayCommandReceived(command.title, command.artist);
+                    if(!this.cache.setPlaying(command.songId)) {
+                        if(this.getStream(command.songId) != null)
+                            this.pendingPlaySongId = command.songId;
+                        else
+                            this.logger.warn("Received PlayCommand for song " + command.songId + ", which is not cached.");
+                    }
+                    this.onPlayCommandReceived(command.songId, command.title, command.artist,
+                            command.position, command.byteOffset, command.paused);
                 }
                 else if(receivedObject instanceof PauseCommand) {
                     this.logger.info("Received PauseCommand");
@@ -217,26 +324,208 @@ public class TCPMusicStreamingController implements MusicStreamingService {
                     this.onRenameCommandReceived(command.getName());
                 }
 
-            } catch (SocketTimeoutException ignore) {
-            } catch(SocketException socketException) {
-                try {
-                    // Only try to reconnect, if the service is still up & running.
-                    if(this.isRunning) {
-                        // Try to reconnect
-                        this.setSocket(this.initSocket(this.currentServer.getServerAddress(),
-                                this.currentServer.getServerListeningPort()));
-                    }
-                }
-                catch(Exception e) {
-                    this.logger.error("Error in the TCPStreaming listener!", e);
+            } catch(SocketException | EOFException connectionLost) {
+                if(this.isRunning) {
+                    this.logger.warn("Lost the connection to the server.", connectionLost);
+                    this.closeSocket();
                 }
             }
             catch (IOException | ClassNotFoundException e) {
                 this.logger.error("Error in the TCPStreaming listener!", e);
             }
+            // A message could not be handled (i.e. a chunk outside of the song). The partially received song
+            // can't be trusted anymore, the following messages are handled anyway.
+            catch (RuntimeException e) {
+                this.logger.error("Error handling a message of the server, discarding the received song data.", e);
+                SongStream stream = this.currentStream;
+                if(stream != null)
+                    this.cancelTransfer(stream.getSongId());
+            }
         }
     }
 
+    /**
+     * Reconnects to the server. Waits between the attempts with an exponential backoff.
+     * @return Returns true if connected, false if the service was stopped.
+     */
+    private boolean reconnect() {
+        this.setCurrentServiceStatus(ServiceStatus.WAITING);
+
+        for(int attempt = 0; this.isRunning; attempt++) {
+            if(!this.sleepWhileRunning(getReconnectDelay(attempt)))
+                return false;
+
+            try {
+                this.setSocket(this.initSocket(this.currentServer.getServerAddress(),
+                        this.currentServer.getServerListeningPort()));
+                this.startSession();
+                this.logger.info("Reconnected to the server (attempt " + (attempt + 1) + ")");
+                return true;
+            } catch (IOException e) {
+                this.closeSocket();
+                this.logger.debug("Reconnect attempt " + (attempt + 1) + " failed", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the delay before a reconnect attempt: Exponentially growing up to RECONNECT_MAX_DELAY,
+     * randomized between the half and the full delay (so the clients don't reconnect all at the same time).
+     * @param attempt Number of the attempt (starting at 0).
+     * @return Returns the delay in milliseconds.
+     */
+    static long getReconnectDelay(int attempt) {
+        long delay = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Sleeps, but returns early if the service is stopped.
+     * @return Returns false if the service was stopped.
+     */
+    private boolean sleepWhileRunning(long milliseconds) {
+        long end = System.currentTimeMillis() + milliseconds;
+        try {
+            long remaining;
+            while(this.isRunning && (remaining = end - System.currentTimeMillis()) > 0)
+                Thread.sleep(Math.min(remaining, 100));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return this.isRunning;
+    }
+
+    /**
+     * Tells the server which songs are cached and sends the name again.
+     * @throws IOException
+     */
+    private void startSession() throws IOException {
+        this.send(new SessionCommand(this.sessionToken, this.cache.getPlayingSongId(), this.cache.getNextSongId()));
+
+        if(this.name != null)
+            this.send(new RenameCommand(this.name));
+    }
+
+    /**
+     * Called on the timer thread. Closes the socket, if nothing was received for HEARTBEAT_TIMEOUT.
+     * (Doesn't lock, the listening thread may hold the lock while sending.)
+     */
+    private void onWatchdog() {
+        if(!this.isRunning)
+            return;
+
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastReceiveTime);
+        Socket socket = this.socket;
+
+        long delay = HEARTBEAT_TIMEOUT - idle;
+
+        // Not connected (the listening thread reconnects), check again later.
+        if(socket == null || socket.isClosed()) {
+            delay = HEARTBEAT_TIMEOUT;
+        }
+        else if(idle >= HEARTBEAT_TIMEOUT) {
+            this.logger.warn("Received nothing from the server for " + idle + "ms, closing the connection.");
+            try {
+                socket.close();
+            } catch (IOException e) {
+                this.logger.debug("Error closing the socket", e);
+            }
+            delay = HEARTBEAT_TIMEOUT;
+        }
+
+        this.scheduleWatchdog(delay);
+    }
+
+    private void scheduleWatchdog(long delay) {
+        this.watchdog = HashedWheelTimer.getShared().newTimeout(this::onWatchdog, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the broken socket (without flushing).
+     */
+    private synchronized void closeSocket() {
+        if(this.socket != null) {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                this.logger.debug("Error closing the socket", e);
+            }
+        }
+    }
+
+    /**
+     * Sends an object to the server.
+     * @param object The object.
+     * @throws IOException
+     */
+    private synchronized void send(Object object) throws IOException {
+        if(this.objectOutputStream == null)
+            throw new IOException("Not connected to the server.");
+
+        this.objectOutputStream.writeObject(object);
+    }
+
+    /**
+     * Writes a chunk into the stream of the song. Caches the song, if it was received completely.
+     * @param command The received chunk.
+     * @throws IOException
+     */
+    private void receiveChunk(SongChunkCommand command) throws IOException {
+        SongStream stream = this.currentStream;
+
+        if(stream == null || !stream.getSongId().equals(command.songId) || stream.isComplete()) {
+            if(stream != null && !stream.isComplete())
+                this.logger.info("Song " + stream.getSongId() + " was replaced before it was received completely.");
+
+            stream = new SongStream(command.songId, command.totalLength);
+            this.currentStream = stream;
+            this.logger.info("Receiving song " + command.songId + " (" + command.totalLength + " bytes)");
+        }
+
+        stream.write(command.offset, command.data);
+
+        if(stream.isComplete()) {
+            this.cache.writeData(command.songId, stream.getData());
+            if(command.songId.equals(this.pendingPlaySongId)) {
+                this.cache.setPlaying(command.songId);
+                this.pendingPlaySongId = null;
+            }
+
+            this.setCurrentServiceStatus(ServiceStatus.READY);
+            this.onSongCached(command.songId);
+        }
+    }
+
+    /**
+     * Discards a song which was not received completely (the server cancelled its transfer).
+     * Readers of its stream see the end of the stream.
+     * @param songId Id of the song.
+     */
+    private void cancelTransfer(String songId) {
+        SongStream stream = this.currentStream;
+
+        if(stream != null && stream.getSongId().equals(songId) && !stream.isComplete()) {
+            this.logger.info("Transfer of song " + songId + " was cancelled, discarding " + stream);
+            stream.close();
+            this.currentStream = null;
+        }
+
+        if(songId.equals(this.pendingPlaySongId))
+            this.pendingPlaySongId = null;
+    }
+
+    /**
+     * Returns the stream of a song which is being received (or was received last).
+     * @param songId Id of the song.
+     * @return Returns the SongStream or null.
+     */
+    @Override
+    public SongStream getStream(String songId) {
+        SongStream stream = this.currentStream;
+        return stream != null && stream.getSongId().equals(songId) ? stream : null;
+    }
 
     @Override
     public void setServer(Server server) {
@@ -280,6 +569,7 @@ public class TCPMusicStreamingController implements MusicStreamingService {
             }
 
             this.socket = socket;
+            this.lastReceiveTime = System.nanoTime();
 
             if (this.socket != null) {
                 // Handle ObjectOutputStream (do this before InputStream)
@@ -301,24 +591,35 @@ public class TCPMusicStreamingController implements MusicStreamingService {
     }
 
     /**
-     * Initializes a thread.
-     * If the thread is running, it is stopped and initialized again.
+     * Starts the listening task.
+     * If the task is running, it is stopped and started again.
      */
     private void initThread() {
 
-        if (this.listeningThread != null && this.listeningThread.isAlive()) {
+        if (this.listeningTask != null && !this.listeningTask.isDone()) {
             try {
-                this.listeningThread.join(SOCKET_TIMEOUT + 1000);
+                this.awaitListeningTask();
             } catch (InterruptedException e) {
-                if (this.listeningThread.isAlive())
-                    this.listeningThread.interrupt();
+                this.listeningTask.cancel(true);
             }
         }
 
-        this.listeningThread = new Thread(this::listen, LISTENING_THREAD_NAME);
-        this.listeningThread.setDaemon(true);
         this.isRunning = true;
-        this.listeningThread.start();
+        this.listeningTask = ExecutionPools.io().submit(ExecutionPools.named(LISTENING_THREAD_NAME, this::listen));
+    }
+
+    /**
+     * Waits until the listening task ended (Timeout: SOCKET_TIMEOUT + 1000 ; in milliseconds).
+     * @throws InterruptedException Thrown if the waiting thread was interrupted.
+     */
+    private void awaitListeningTask() throws InterruptedException {
+        try {
+            this.listeningTask.get(SOCKET_TIMEOUT + 1000, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            this.logger.error("The TCP listening task failed", e.getCause());
+        } catch (TimeoutException | CancellationException e) {
+            this.logger.debug("The TCP listening task did not end in time");
+        }
     }
 
     /**
@@ -331,8 +632,8 @@ public class TCPMusicStreamingController implements MusicStreamingService {
      */
     private Socket initSocket(InetAddress address, int port) throws IOException {
         try {
-            Socket socket = new Socket(address, Server.STREAMING_PORT);
-            socket.setSoTimeout(SOCKET_TIMEOUT);
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT);
             socket.setTrafficClass(0x04);
             return socket;
         } catch (IOException exception) {
@@ -384,13 +685,19 @@ public class TCPMusicStreamingController implements MusicStreamingService {
     @Override
     public void removeOnRenameListener(OnRename listener) { this.renameCommandListeners.remove(listener); }
 
+    @Override
+    public void addOnSongCachedListener(OnSongCached listener) { this.songCachedListeners.add(listener); }
+
+    @Override
+    public void removeOnSongCachedListener(OnSongCached listener) { this.songCachedListeners.remove(listener); }
+
     /**
      * Returns the cache (FileCache) of the MusicStreamingService.
      *
      * @return FileCacheService.
      */
     @Override
-    public FileCacheService getCache() {
+    public SlottedFileCacheService getCache() {
         return this.cache;
     }
 
@@ -399,8 +706,9 @@ public class TCPMusicStreamingController implements MusicStreamingService {
      * @param name
      */
     public void sendName(String name) {
+        this.name = name;
         try {
-            this.objectOutputStream.writeObject(new RenameCommand(name));
+            this.send(new RenameCommand(name));
         } catch(IOException ioException) {
             this.logger.error("Failed sending the current name to the server", ioException);
         }
@@ -421,11 +729,22 @@ public class TCPMusicStreamingController implements MusicStreamingService {
     /**
      *
      * Fires the corresponding event to all the listeners.
+     * @param songId The id of the received song. (May be null)
      * @param songTitle The title of the received song. (May be null)
      * @param artist The artist of the received song. (May be null)
+     * @param position The position to start at in milliseconds.
+     * @param paused True if the song should be loaded only.
+     */
+    private void onPlayCommandReceived(String songId, String songTitle, String artist, long position, long byteOffset, boolean paused) {
+        this.playCommandListeners.forEach(onPlay -> onPlay.play(songId, songTitle, artist, position, byteOffset, paused));
+    }
+
+    /**
+     * Fires the corresponding event to all the listeners.
+     * @param songId The id of the cached song. (May be null)
      */
-    private void onPlayCommandReceived(String songTitle, String artist) {
-        this.playCommandListeners.forEach(onPlay -> onPlay.play(songTitle, artist));
+    private void onSongCached(String songId) {
+        this.songCachedListeners.forEach(l -> l.cached(songId));
     }
 
     private void onPauseCommandReceived() {
@@ -1,13 +1,14 @@
 package viewmodels;
 
+import controllers.io.cache.stream.SongStream;
+import controllers.media.CachedMediaPlayer;
+import controllers.media.StreamingMediaPlayer;
 import controllers.networking.discovery.ClientDiscoveryService;
 import controllers.networking.streaming.music.MusicStreamingService;
 import controllers.networking.streaming.music.tcp.TCPMusicStreamingController;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,13 +16,16 @@ import org.slf4j.LoggerFactory;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.time.Duration;
 import java.util.Properties;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 08.12.2015.
  * The ViewModel of the ClientWindow view.
+ *
+ * Songs are played with a CachedMediaPlayer. The next song is prepared when it's cached,
+ * so the play command starts it without building a new MediaPlayer.
+ * Songs which are not received completely are played while they are received (StreamingMediaPlayer).
  * </pre>
  */
 public class ClientWindowViewModel {
@@ -43,7 +47,12 @@ public class ClientWindowViewModel {
 
     private Stage stage;
 
-    private MediaPlayer mediaPlayer;
+    private CachedMediaPlayer mediaPlayer;
+
+    /**
+     * Plays the songs which are still being received.
+     */
+    private StreamingMediaPlayer streamingMediaPlayer;
 
 
     /**
@@ -74,6 +83,8 @@ public class ClientWindowViewModel {
         this.properties = temporaryProperties;
         this.clientDiscoveryService = new ClientDiscoveryService();
         this.musicStreamingService = new TCPMusicStreamingController();
+        this.mediaPlayer = new CachedMediaPlayer(this.musicStreamingService.getCache());
+        this.streamingMediaPlayer = new StreamingMediaPlayer();
     }
 
     @FXML
@@ -97,34 +108,41 @@ public class ClientWindowViewModel {
             this.stage.setOnCloseRequest(event -> {
                 this.clientDiscoveryService.stop();
                 this.musicStreamingService.stop();
+                this.mediaPlayer.dispose();
+                this.streamingMediaPlayer.close();
             });
         }
     }
 
     /**
-     * Starts playing the song in the cache from the beginnning.
+     * Starts playing the song in the cache at the position.
+     * @param songId Id of the song (may be null).
+     * @param position Position in milliseconds.
+     * @param byteOffset Estimated byte offset of the position (-1 if unknown).
+     * @param paused True to load the song only.
      */
-    private void startPlaying() {
-        this.mediaPlayer = new MediaPlayer(new Media(this.musicStreamingService.getCache()
-                .getFileURI()
-                .toString()));
-        this.mediaPlayer.play();
-        this.logger.info("Now Playing");
+    private void startPlaying(String songId, long position, long byteOffset, boolean paused) {
+        SongStream stream = this.musicStreamingService.getStream(songId);
+
+        if(songId != null && !this.musicStreamingService.getCache().contains(songId) && stream != null) {
+            // Not received completely: Play while receiving.
+            this.mediaPlayer.stop();
+            this.streamingMediaPlayer.play(stream, position, byteOffset, paused);
+            this.logger.info("Now Playing (streaming) from " + position + "ms");
+        }
+        else {
+            this.streamingMediaPlayer.stop();
+            this.mediaPlayer.play(songId, position, paused);
+            this.logger.info("Now Playing from " + position + "ms");
+        }
     }
 
     private void play() {
-        if(this.mediaPlayer != null) {
-            this.mediaPlayer.play();
+        if(this.mediaPlayer.hasMedia()) {
+            this.mediaPlayer.resume();
             this.logger.info("Now Playing");
         }
-    }
-
-    private void startPlaying(Duration startTime) {
-        this.mediaPlayer = new MediaPlayer(new Media(this.musicStreamingService.getCache()
-                .getFileURI()
-                .toString()));
-        this.mediaPlayer.play();
-        this.logger.info("Now Playing from " + startTime);
+        this.streamingMediaPlayer.resume();
     }
 
     /**
@@ -132,9 +150,9 @@ public class ClientWindowViewModel {
      */
     private void stopPlaying() {
 
-        if(this.mediaPlayer != null){
-            this.mediaPlayer.stop();
-            this.mediaPlayer = null;
+        boolean wasStreaming = this.streamingMediaPlayer.stop();
+
+        if(this.mediaPlayer.stop() || wasStreaming){
             this.labelSongTitle.setText("");
             this.labelArtist.setText("");
             this.labelStatus.setText("STOPPED");
@@ -168,9 +186,8 @@ public class ClientWindowViewModel {
      * Pauses playing the song.
      */
     private void pausePlaying() {
-        if(this.mediaPlayer != null) {
-            this.mediaPlayer.pause();
-        }
+        this.mediaPlayer.pause();
+        this.streamingMediaPlayer.pause();
     }
 
     //region initializers
@@ -183,18 +200,27 @@ public class ClientWindowViewModel {
         this.musicStreamingService.addServiceStatusChangedListener(newStatus -> logger.info("New Status: " + newStatus.name()));
 
         // Handle onPlay message.
-        this.musicStreamingService.addOnPlayListener((songTitle, artist) -> Platform.runLater(() -> {
+        this.musicStreamingService.addOnPlayListener((songId, songTitle, artist, position, byteOffset, paused) -> Platform.runLater(() -> {
             this.labelSongTitle.setText(songTitle);
             this.labelArtist.setText(artist);
-            this.labelStatus.setText("PLAYING");
-            this.startPlaying();
+            this.labelStatus.setText(paused ? "PAUSED" : "PLAYING");
+            this.startPlaying(songId, position, byteOffset, paused);
         }));
 
+        // Prepare the cached song (i.e. the next track), to start it without delay.
+        // (Not the song which is played while it's received)
+        this.musicStreamingService.addOnSongCachedListener(songId -> Platform.runLater(() -> {
+            if(songId == null || !songId.equals(this.streamingMediaPlayer.getSongId()))
+                this.mediaPlayer.prepare(songId);
+        }));
+
+        this.mediaPlayer.lastTrackGapProperty().addListener((observable, oldValue, newValue) ->
+                this.logger.info("Gap between the tracks: " + newValue.toMillis() + "ms"));
+
         // Handle onPause message
         this.musicStreamingService.addOnPauseListener(() -> Platform.runLater(() -> {
             this.labelStatus.setText("PAUSED");
             this.pausePlaying();
-            // Todo: Make handling of "dirty cache" or a mechanism to resume a paused song.
         }));
 
         // Handle onStop
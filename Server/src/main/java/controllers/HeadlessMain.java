@@ -0,0 +1,122 @@
+package controllers;
+
+import controllers.control.ControlCommandHandler;
+import controllers.control.ControlServer;
+import controllers.media.music.HeadlessAudioPlayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * <pre>
+ * Main Class of the headless server (without the JavaFX toolkit and without local playback).
+ * Streams to the clients, watches the song folder and announces itself like the server with the user interface.
+ *
+ * Usage: HeadlessMain [song folder] (Default: ~/Music)
+ * Controlled with commands on the standard input or the local control socket (ControlServer.CONTROL_PORT).
+ * Stopped with "quit" on the standard input, a signal (the shutdown hook) or, if it runs in a console,
+ * the end of the standard input (Ctrl+D). Without a console (i.e. as a service) the end of the standard input
+ * does not stop it, it's controlled with the control socket until it gets a signal.
+ * </pre>
+ */
+public class HeadlessMain {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeadlessMain.class);
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.net.preferIPv4Stack" , "true");
+
+        // The engine thread: changes the song list and uses the player (like the JavaFX thread of the UI).
+        ScheduledExecutorService engineExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ServerEngine");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ServerEngine serverEngine = new ServerEngine(engineExecutor);
+        HeadlessAudioPlayer player = callOn(engineExecutor, () ->
+                new HeadlessAudioPlayer(serverEngine.getSongs(), serverEngine.getMusicStreamController(), engineExecutor));
+        ControlCommandHandler commandHandler = callOn(engineExecutor, () ->
+                new ControlCommandHandler(serverEngine, player, engineExecutor));
+        ControlServer controlServer = new ControlServer(commandHandler, ControlServer.CONTROL_PORT);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            shutdown(serverEngine, player, controlServer, engineExecutor);
+            stopped.countDown();
+        }, "ShutdownHook");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        serverEngine.start();
+        controlServer.start();
+
+        File folder = args.length > 0 ? new File(args[0]) : Paths.get(System.getProperty("user.home"), "Music").toFile();
+        System.out.println(commandHandler.execute("library " + folder.getAbsolutePath()));
+
+        // Command line. Without a console (i.e. a service) the standard input ends at once, then only the
+        // control socket is used until the process is stopped.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while((line = reader.readLine()) != null) {
+            if(line.trim().equalsIgnoreCase("quit")) {
+                System.exit(0);
+            }
+            System.out.println(commandHandler.execute(line));
+        }
+
+        // The user closed the standard input of the console.
+        if(System.console() != null) {
+            System.exit(0);
+        }
+
+        stopped.await();
+    }
+
+    /**
+     * Stops the player and closes the control socket and the engine.
+     */
+    private static void shutdown(ServerEngine serverEngine, HeadlessAudioPlayer player, ControlServer controlServer,
+                                 ScheduledExecutorService engineExecutor) {
+        logger.info("Stopping the headless server...");
+
+        try {
+            callOn(engineExecutor, () -> {
+                player.stop();
+                player.dispose();
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("Could not stop the player", e);
+        }
+
+        try {
+            controlServer.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the control socket", e);
+        }
+
+        serverEngine.close();
+        engineExecutor.shutdownNow();
+    }
+
+    /**
+     * Calls the callable on the engine thread and waits for its result.
+     */
+    private static <T> T callOn(ScheduledExecutorService executor, Callable<T> callable) throws Exception {
+        try {
+            return executor.submit(callable).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package controllers;
+
+import controllers.clients.ClientController;
+import controllers.io.LibraryWatcher;
+import controllers.io.SongMetadataIndex;
+import controllers.io.SongsHandler;
+import controllers.networking.discovery.ServerDiscoveryService;
+import controllers.networking.streaming.music.MusicStreamController;
+import controllers.networking.streaming.music.tcp.TCPMusicStreamController;
+import controllers.networking.streaming.music.tcp.TCPSocketServer;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import models.songs.PlayableSong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.concurrent.ShutdownCoordinator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * The server without a user interface: the streaming to the clients, the song library and the discovery.
+ * Used by the JavaFX user interface (MainWindowViewModel) and by the headless server (HeadlessMain).
+ *
+ * Does not need the JavaFX toolkit. The song list and the client list of the ClientController are only
+ * changed with the song list executor: Platform::runLater for the user interface, a single thread for
+ * the headless server. Read them on that thread.
+ * </pre>
+ */
+public class ServerEngine implements Closeable {
+
+    private final Logger logger;
+
+    /**
+     * Changes the song list (and the client list).
+     */
+    private final Executor songListExecutor;
+
+    private final ObservableList<PlayableSong> songs;
+    private final SongsHandler songsHandler;
+
+    private final TCPSocketServer tcpServer;
+    private final ClientController clientController;
+    private final MusicStreamController musicStreamController;
+    private final ServerDiscoveryService serverDiscoveryService;
+
+    /**
+     * The task currently loading songs into the song list (may be null or finished).
+     */
+    private CompletableFuture<Set<String>> songLoadingTask;
+
+    /**
+     * Incremented with every new load. Used to drop batches of previous loads.
+     */
+    private volatile int songLoadingGeneration;
+
+    /**
+     * Watches the song folder and applies the changes to the song list (may be null).
+     */
+    private LibraryWatcher libraryWatcher;
+
+    private File libraryFolder;
+
+    /**
+     * Creates the engine. Nothing is started yet.
+     * @param songListExecutor Executes the changes of the song list and the client list.
+     * @throws IOException If the server socket could not be opened.
+     */
+    public ServerEngine(Executor songListExecutor) throws IOException {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.songListExecutor = songListExecutor;
+        this.songs = FXCollections.observableArrayList();
+
+        // The index makes starting the server with a big library fast, only new files are parsed.
+        SongMetadataIndex songMetadataIndex = new SongMetadataIndex();
+        songMetadataIndex.load();
+        this.songsHandler = new SongsHandler(songMetadataIndex);
+
+        this.tcpServer = new TCPSocketServer();
+        this.clientController = new ClientController(this.tcpServer, songListExecutor);
+        this.musicStreamController = new TCPMusicStreamController(this.clientController);
+        this.serverDiscoveryService = new ServerDiscoveryService(this.clientController::getClientCount);
+    }
+
+    /**
+     * Starts accepting clients and the discovery.
+     */
+    public void start() {
+        this.tcpServer.start();
+
+        this.logger.info("Starting discovery Service...");
+        this.serverDiscoveryService.start();
+    }
+
+    //region Library
+
+    /**
+     * Sets the song folder.
+     * The songs are loaded in the background and added to the song list in batches.
+     * A load that is still running for a previous folder is cancelled.
+     * Afterwards the folder is watched and changes are applied to the song list incrementally.
+     * @param folder The song folder.
+     */
+    public synchronized void setLibraryFolder(File folder) {
+        this.libraryFolder = folder;
+
+        if(this.songLoadingTask != null) {
+            this.songLoadingTask.cancel(true);
+        }
+
+        int generation = ++this.songLoadingGeneration;
+        this.songListExecutor.execute(this.songs::clear);
+
+        // Loads the songs (off the song list thread).
+        CompletableFuture<Set<String>> loadingTask = this.songsHandler.loadSongsFromDirAsync(folder.getAbsolutePath(), batch ->
+                this.songListExecutor.execute(() -> {
+                    // Ignore batches of a previous (cancelled) load.
+                    if(generation == this.songLoadingGeneration) {
+                        this.songs.addAll(batch);
+                    }
+                }));
+        this.songLoadingTask = loadingTask;
+
+        this.closeLibraryWatcher();
+        this.libraryWatcher = new LibraryWatcher(folder.toPath(), loadingTask, (addedOrModified, removed) ->
+                this.onLibraryChanged(loadingTask, generation, addedOrModified, removed));
+        this.libraryWatcher.start();
+    }
+
+    /**
+     * @return Returns the song folder or null.
+     */
+    public synchronized File getLibraryFolder() {
+        return this.libraryFolder;
+    }
+
+    /**
+     * Called (on the watcher thread), when songs in the song folder changed.
+     * Only the changed files are parsed, the song list is updated with the song list executor.
+     * @param loadingTask The task loading the folder. The changes are applied after its songs.
+     * @param generation The load the changes belong to.
+     * @param addedOrModified Song files that were added or changed.
+     * @param removed Song files that were removed.
+     */
+    private void onLibraryChanged(CompletableFuture<?> loadingTask, int generation, Set<Path> addedOrModified, Set<Path> removed) {
+        // The batches of the initial load must be in the list before they can be replaced.
+        try {
+            loadingTask.join();
+        } catch (CancellationException | CompletionException e) {
+            // A cancelled load belongs to an other folder (the generation drops the changes), a failed one was logged.
+        }
+
+        List<PlayableSong> loadedSongs = this.songsHandler.loadSongs(addedOrModified);
+        this.songsHandler.forgetSongs(removed);
+        this.songsHandler.saveIndex();
+
+        Set<String> replacedPaths = new HashSet<>();
+        addedOrModified.forEach(path -> replacedPaths.add(path.toString()));
+        removed.forEach(path -> replacedPaths.add(path.toString()));
+
+        this.songListExecutor.execute(() -> {
+            if(generation == this.songLoadingGeneration) {
+                this.songs.removeIf(song -> replacedPaths.contains(song.getPath()));
+                this.songs.addAll(loadedSongs);
+            }
+        });
+    }
+
+    /**
+     * Stops watching the song folder.
+     */
+    private synchronized void closeLibraryWatcher() {
+        if(this.libraryWatcher != null) {
+            try {
+                this.libraryWatcher.close();
+            } catch (IOException e) {
+                this.logger.warn("Could not stop watching the song folder", e);
+            }
+            this.libraryWatcher = null;
+        }
+    }
+
+    //endregion Library
+
+    //region Getters
+
+    /**
+     * @return Returns the songs of the library (change and read it on the song list thread only).
+     */
+    public ObservableList<PlayableSong> getSongs() {
+        return this.songs;
+    }
+
+    public ClientController getClientController() {
+        return this.clientController;
+    }
+
+    public MusicStreamController getMusicStreamController() {
+        return this.musicStreamController;
+    }
+
+    //endregion Getters
+
+    /**
+     * Stops the library watcher, the discovery and closes all connections.
+     * Everything is closed in parallel, within ShutdownCoordinator.DEFAULT_DEADLINE.
+     */
+    @Override
+    public void close() {
+        this.close(ShutdownCoordinator.DEFAULT_DEADLINE);
+    }
+
+    /**
+     * Stops the library watcher, the discovery and closes all connections in parallel.
+     * @param deadline Time (in milliseconds) for all of them together.
+     * @return Returns the report of the shutdown (the components which overran the deadline).
+     */
+    public ShutdownCoordinator.Report close(long deadline) {
+        ShutdownCoordinator coordinator = new ShutdownCoordinator("ServerEngine");
+
+        coordinator.add("LibraryWatcher", this::closeLibraryWatcher);
+        coordinator.add("Discovery", this.serverDiscoveryService::stop);
+        if(this.musicStreamController instanceof Closeable)
+            coordinator.add("StreamController", ((Closeable) this.musicStreamController)::close);
+        coordinator.add("TCPServer", this.tcpServer::close);
+        this.clientController.close(coordinator);
+
+        return coordinator.shutdown(deadline, TimeUnit.MILLISECONDS);
+    }
+}
@@ -5,30 +5,121 @@ import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import models.networking.clients.NetworkClient;
+import models.networking.dtos.SessionCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.concurrent.HashedWheelTimer;
+import utils.concurrent.ShutdownCoordinator;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 26.03.2016.
  * This controller handles the clients connected to the server.
+ *
+ * Handles the sessions of the clients. If a client reconnects, its old connection is closed
+ * and the ClientSessionListeners can restore the playback on the client.
+ *
+ * The clients are registered in a concurrent map (keyed by a connection id) as soon as they connect,
+ * not on the JavaFX thread. The streaming uses snapshots of it (getConnectedClients()).
+ * The ObservableList of getClients() is only a projection for the UI. It's updated with the UI executor
+ * (the JavaFX thread) at most every UI_UPDATE_INTERVAL.
+ *
+ * The UI updates and the handshake timeouts are scheduled with the shared HashedWheelTimer.
+ * A client which doesn't start its session within HANDSHAKE_TIMEOUT is disconnected.
+ *
+ * The clients are closed in parallel with a ShutdownCoordinator, under one deadline for all of them.
  * </pre>
  */
 public class ClientController implements Closeable{
+
+    /**
+     * Listener for the start of a client session.
+     */
+    @FunctionalInterface
+    public interface ClientSessionListener {
+        /**
+         * Called when a client started a session (after connecting or reconnecting).
+         * @param client The client.
+         * @param session The session command of the client.
+         */
+        void onSessionStarted(NetworkClient client, SessionCommand session);
+    }
+
+    /**
+     * Minimum time (in milliseconds) between two updates of the UI list.
+     */
+    private static final long UI_UPDATE_INTERVAL = 250;
+
+    /**
+     * Time (in milliseconds) a client has to start its session after connecting.
+     */
+    public static final long HANDSHAKE_TIMEOUT = 10000;
+
     private final Logger logger;
+
+    /**
+     * The connected clients, by connection id.
+     */
+    private final Map<Long, NetworkClient> registry;
+    private final AtomicLong nextClientId;
+
+    /**
+     * The clients shown in the UI (only changed with the UI executor).
+     */
     private final ObservableList<NetworkClient> clients;
 
+    /**
+     * True while an update of the UI list is scheduled.
+     */
+    private final AtomicBoolean uiUpdateScheduled;
+    private final HashedWheelTimer timer;
+    private volatile boolean closed;
+
+    /**
+     * Executes the updates of the UI list (Platform::runLater).
+     */
+    private final Executor uiExecutor;
+
+    private final List<ClientSessionListener> sessionListeners;
+
     /**
      * Default constructor.
+     * The UI list is updated on the JavaFX thread.
      * @param socketServer The server socket is used to register the different listeners required to work.
      */
     public ClientController(TCPSocketServer socketServer) {
+        this(socketServer, Platform::runLater);
+    }
+
+    /**
+     * Constructor
+     * @param socketServer The server socket is used to register the different listeners required to work.
+     * @param uiExecutor Executes the updates of the UI list (i.e. without the JavaFX toolkit).
+     */
+    public ClientController(TCPSocketServer socketServer, Executor uiExecutor) {
         this.logger = LoggerFactory.getLogger(this.getClass());
+        this.uiExecutor = uiExecutor;
 
-        this.clients = FXCollections.synchronizedObservableList(FXCollections.observableArrayList());
+        this.registry = new ConcurrentHashMap<>();
+        this.nextClientId = new AtomicLong();
+        this.clients = FXCollections.observableArrayList();
+        this.uiUpdateScheduled = new AtomicBoolean();
+        this.timer = HashedWheelTimer.getShared();
+        this.sessionListeners = new CopyOnWriteArrayList<>();
 
         socketServer.addOnClientConnectedListener(this::onClientConnected);
     }
@@ -38,32 +129,149 @@ public class ClientController implements Closeable{
      * @param client connected client.
      */
     private void onClientConnected(NetworkClient client) {
-        Platform.runLater(() -> {
-            this.clients.add(client);
-            // Add the listener for when a client disconnects.
-            client.addOnDisconnectedListener(() -> this.onClientDisconnected(client));
-            this.logger.info("Client connected: " + client);
-        });
+        long clientId = this.nextClientId.incrementAndGet();
+
+        // Add the listener for when a client disconnects before registering it, the client is already reading.
+        client.addOnDisconnectedListener(() -> this.onClientDisconnected(clientId, client));
+        this.registry.put(clientId, client);
+
+        // Connected while closing (after the clients were given to the coordinator).
+        if(this.closed) {
+            this.registry.remove(clientId);
+            this.closeClient(client);
+            return;
+        }
+
+        // Disconnected before it was registered (the listener found nothing to remove).
+        if(client.getSocket() == null || client.getSocket().isClosed()) {
+            this.registry.remove(clientId);
+            this.logger.info("Client " + client + " disconnected while connecting.");
+            return;
+        }
+
+        client.addOnSessionStartedListener(session -> this.onSessionStarted(client, session));
+        this.logger.info("Client connected: " + client + " (id " + clientId + ")");
+
+        this.timer.newTimeout(() -> this.onHandshakeTimeout(clientId, client), HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+        this.scheduleUiUpdate();
+    }
+
+    /**
+     * Called (on the timer thread) HANDSHAKE_TIMEOUT after a client connected.
+     * Disconnects the client, if it did not start its session.
+     * @param clientId Connection id of the client.
+     * @param client The client.
+     */
+    private void onHandshakeTimeout(long clientId, NetworkClient client) {
+        if(client.getSessionToken() != null || !this.registry.containsKey(clientId))
+            return;
+
+        this.logger.warn("Client " + client + " (id " + clientId + ") did not start its session, disconnecting.");
+        try {
+            // Closing the socket is enough (the client closes itself), the timer thread must not block.
+            client.getSocket().close();
+        } catch (IOException e) {
+            this.logger.warn("Error disconnecting " + client, e);
+        }
+    }
+
+    /**
+     * Called when a client started its session.
+     * Other connections with the same session token are from before a reconnect, they are closed.
+     * @param client The client.
+     * @param session The session of the client.
+     */
+    private void onSessionStarted(NetworkClient client, SessionCommand session) {
+        List<NetworkClient> staleClients = new ArrayList<>();
+        for(NetworkClient other : this.registry.values()) {
+            if(other != client && session.token != null && session.token.equals(other.getSessionToken()))
+                staleClients.add(other);
+        }
+
+        for(NetworkClient staleClient : staleClients) {
+            this.logger.info("Client " + client + " reconnected, closing the old connection.");
+            try {
+                staleClient.close();
+            } catch (IOException e) {
+                this.logger.warn("Error closing the old connection of " + client, e);
+            }
+        }
+
+        this.sessionListeners.forEach(l -> l.onSessionStarted(client, session));
+    }
+
+    public void addClientSessionListener(ClientSessionListener listener) {
+        this.sessionListeners.add(listener);
+    }
+
+    public void removeClientSessionListener(ClientSessionListener listener) {
+        this.sessionListeners.remove(listener);
     }
 
     /**
      * Called when a client disconnects
      * @param client disconnected client
      */
-    private void onClientDisconnected(NetworkClient client) {
-        Platform.runLater(() -> {
-            this.clients.remove(client);
-            this.logger.info("Client disconnected: " + client);
-        });
+    private void onClientDisconnected(long clientId, NetworkClient client) {
+        if(this.registry.remove(clientId) != null) {
+            this.logger.info("Client disconnected: " + client + " (id " + clientId + ")");
+            this.scheduleUiUpdate();
+        }
+    }
+
+    /**
+     * Schedules an update of the UI list, if none is scheduled yet.
+     * Several changes within UI_UPDATE_INTERVAL are shown with one update.
+     */
+    private void scheduleUiUpdate() {
+        if(this.closed || !this.uiUpdateScheduled.compareAndSet(false, true))
+            return;
+
+        this.timer.newTimeout(() -> {
+            if(!this.closed)
+                this.uiExecutor.execute(this::updateUiList);
+        }, UI_UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * @return Returns the clients.
+     * Updates the UI list to the registered clients. Keeps the order (and selection) of the remaining clients.
+     * (UI executor)
+     */
+    private void updateUiList() {
+        this.uiUpdateScheduled.set(false);
+
+        Set<NetworkClient> connected = new HashSet<>(this.registry.values());
+        this.clients.retainAll(connected);
+
+        connected.removeAll(this.clients);
+        this.clients.addAll(connected);
+    }
+
+    /**
+     * Returns the clients for the UI. The list is updated with the UI executor (JavaFX thread), a short time
+     * after the clients connected or disconnected. Don't use it to send to the clients.
+     * @return Returns the clients shown in the UI.
      */
     public ObservableList<NetworkClient> getClients() {
         return this.clients;
     }
 
+    /**
+     * Threadsafe.
+     * @return Returns a snapshot of the connected clients.
+     */
+    public List<NetworkClient> getConnectedClients() {
+        return new ArrayList<>(this.registry.values());
+    }
+
+    /**
+     * Threadsafe.
+     * @return Returns the amount of connected clients.
+     */
+    public int getClientCount() {
+        return this.registry.size();
+    }
+
     /**
      * Closes this stream and releases any system resources associated
      * with it. If the stream is already closed then invoking this
@@ -78,8 +286,31 @@ public class ClientController implements Closeable{
      */
     @Override
     public void close() throws IOException {
-        for(NetworkClient client : this.getClients()) {
+        ShutdownCoordinator coordinator = new ShutdownCoordinator("ClientController");
+        this.close(coordinator);
+        coordinator.shutdown(ShutdownCoordinator.DEFAULT_DEADLINE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the connected clients to the coordinator, which closes them in parallel (i.e. with the other
+     * components of the server). Clients connecting afterwards are closed immediately.
+     * @param coordinator The coordinator closing the clients.
+     */
+    public void close(ShutdownCoordinator coordinator) {
+        this.closed = true;
+
+        for(Map.Entry<Long, NetworkClient> entry : this.registry.entrySet()) {
+            NetworkClient client = entry.getValue();
+            coordinator.add("Client " + client + " (id " + entry.getKey() + ")", client::close);
+        }
+    }
+
+    private void closeClient(NetworkClient client) {
+        this.logger.info("Client " + client + " connected while closing, disconnecting.");
+        try {
             client.close();
+        } catch (IOException e) {
+            this.logger.warn("Error closing " + client, e);
         }
     }
 }
@@ -0,0 +1,305 @@
+package controllers.control;
+
+import controllers.ServerEngine;
+import controllers.media.music.HeadlessAudioPlayer;
+import controllers.search.SongSearchIndex;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import models.networking.clients.NetworkClient;
+import models.songs.PlayableSong;
+import playlists.IndexedPlaylist;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.PoolMetrics;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <pre>
+ * Executes the text commands of the headless server (from the command line or the control socket).
+ *
+ * Every command is executed on the engine thread (the thread changing the song list and using the player),
+ * execute() waits for the result. Commands:
+ *   library [folder]   Shows or sets the song folder.
+ *   songs [query]      Lists the songs (matching the query) with their index.
+ *   play [index]       Plays the song with the index, or resumes the current song.
+ *   pause, stop, next, prev
+ *   shuffle [on|off]   Shows or sets the shuffle mode of the playlist.
+ *   queue [index]      Lists the up next queue, or queues the song with the index.
+ *   history            Lists the played songs, the last played first.
+ *   status             Shows the current song, its position and the amount of clients.
+ *   clients            Lists the connected clients.
+ *   pools              Shows the metrics of the shared thread pools (ExecutionPools).
+ *   help
+ * </pre>
+ */
+public class ControlCommandHandler {
+
+    /**
+     * Maximum amount of songs listed by the songs command.
+     */
+    private static final int MAX_LISTED_SONGS = 50;
+
+    /**
+     * Maximum time (in seconds) to wait for a command on the engine thread.
+     */
+    private static final long COMMAND_TIMEOUT = 10;
+
+    private final ServerEngine serverEngine;
+    private final HeadlessAudioPlayer player;
+    private final ExecutorService engineExecutor;
+
+    /**
+     * Search index over the songs of the engine. Updated with every change of the list.
+     */
+    private final SongSearchIndex<PlayableSong> songSearchIndex;
+
+    /**
+     * Constructor. Must be called on the engine thread (or before the engine was started).
+     * @param serverEngine The engine.
+     * @param player The player (used on the engine thread).
+     * @param engineExecutor The engine thread.
+     */
+    public ControlCommandHandler(ServerEngine serverEngine, HeadlessAudioPlayer player, ExecutorService engineExecutor) {
+        this.serverEngine = serverEngine;
+        this.player = player;
+        this.engineExecutor = engineExecutor;
+
+        this.songSearchIndex = new SongSearchIndex<>();
+        this.songSearchIndex.addAll(serverEngine.getSongs());
+        serverEngine.getSongs().addListener((ListChangeListener<PlayableSong>) change -> {
+            while(change.next()) {
+                if(change.wasRemoved())
+                    this.songSearchIndex.removeAll(change.getRemoved());
+                if(change.wasAdded())
+                    this.songSearchIndex.addAll(change.getAddedSubList());
+            }
+        });
+    }
+
+    /**
+     * Executes a command on the engine thread and waits for it.
+     * Threadsafe.
+     * @param line The command line.
+     * @return Returns the answer to show to the user.
+     */
+    public String execute(String line) {
+        if(line == null || line.trim().isEmpty())
+            return "";
+
+        String[] parts = line.trim().split("\\s+", 2);
+        String command = parts[0].toLowerCase();
+        String argument = parts.length > 1 ? parts[1] : "";
+
+        try {
+            Future<String> result = this.engineExecutor.submit(() -> this.executeOnEngine(command, argument));
+            return result.get(COMMAND_TIMEOUT, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            return "The server is shutting down.";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted.";
+        } catch (ExecutionException e) {
+            return "Failed: " + e.getCause();
+        } catch (TimeoutException e) {
+            return "The server did not answer in time.";
+        }
+    }
+
+    /**
+     * Executes a command. (Engine thread)
+     */
+    private String executeOnEngine(String command, String argument) {
+        switch (command) {
+            case "library":
+                return this.library(argument);
+            case "songs":
+                return this.songs(argument);
+            case "play":
+                return this.play(argument);
+            case "pause":
+                this.player.pause();
+                return this.status();
+            case "stop":
+                this.player.stop();
+                return this.status();
+            case "next":
+                this.player.playNextTrack();
+                return this.status();
+            case "prev":
+                this.player.playPreviousTrack();
+                return this.status();
+            case "shuffle":
+                return this.shuffle(argument);
+            case "queue":
+                return this.queue(argument);
+            case "history":
+                return this.listTracks(this.player.getPlaylist().getHistory(), "songs played");
+            case "status":
+                return this.status();
+            case "clients":
+                return this.clients();
+            case "pools":
+                return this.pools();
+            case "help":
+                return "Commands: library [folder], songs [query], play [index], pause, stop, next, prev, "
+                        + "shuffle [on|off], queue [index], history, status, clients, pools, quit";
+            default:
+                return "Unknown command '" + command + "' (try help).";
+        }
+    }
+
+    private String library(String folder) {
+        if(folder.isEmpty()) {
+            File libraryFolder = this.serverEngine.getLibraryFolder();
+            return libraryFolder != null ? libraryFolder.getAbsolutePath() + " (" + this.serverEngine.getSongs().size() + " songs)"
+                    : "No song folder set.";
+        }
+
+        File file = new File(folder);
+        if(!file.isDirectory())
+            return "Not a folder: " + file.getAbsolutePath();
+
+        this.serverEngine.setLibraryFolder(file);
+        return "Loading songs from " + file.getAbsolutePath();
+    }
+
+    private String songs(String query) {
+        ObservableList<PlayableSong> songs = this.serverEngine.getSongs();
+        Set<PlayableSong> matches = query.isEmpty() ? null : this.songSearchIndex.search(query);
+
+        StringBuilder builder = new StringBuilder();
+        int listed = 0;
+        int matched = 0;
+        for(int i = 0; i < songs.size(); i++) {
+            PlayableSong song = songs.get(i);
+            if(matches != null && !matches.contains(song))
+                continue;
+
+            matched++;
+            if(listed < MAX_LISTED_SONGS) {
+                builder.append(i).append(": ").append(song.getTitle()).append(" - ").append(song.getArtist()).append('\n');
+                listed++;
+            }
+        }
+
+        builder.append(matched).append(" songs");
+        if(matched > listed)
+            builder.append(" (").append(listed).append(" listed)");
+
+        return builder.toString();
+    }
+
+    private String play(String argument) {
+        if(argument.isEmpty()) {
+            if(this.player.getCurrentTrack() == null)
+                return "No current song, use play <index>.";
+
+            this.player.play(this.player.getCurrentTrack());
+            return this.status();
+        }
+
+        ObservableList<PlayableSong> songs = this.serverEngine.getSongs();
+        int index;
+        try {
+            index = Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            return "Not an index: " + argument;
+        }
+
+        if(index < 0 || index >= songs.size())
+            return "No song with index " + index + " (" + songs.size() + " songs).";
+
+        this.player.stop();
+        this.player.play(songs.get(index));
+        return this.status();
+    }
+
+    private String shuffle(String argument) {
+        IndexedPlaylist<PlayableSong> playlist = this.player.getPlaylist();
+
+        if(argument.equalsIgnoreCase("on"))
+            playlist.setShuffle(true);
+        else if(argument.equalsIgnoreCase("off"))
+            playlist.setShuffle(false);
+        else if(!argument.isEmpty())
+            return "Use shuffle on or shuffle off.";
+
+        return "Shuffle " + (playlist.isShuffle() ? "on" : "off");
+    }
+
+    private String queue(String argument) {
+        IndexedPlaylist<PlayableSong> playlist = this.player.getPlaylist();
+        if(argument.isEmpty())
+            return this.listTracks(playlist.getQueue(), "songs queued");
+
+        ObservableList<PlayableSong> songs = this.serverEngine.getSongs();
+        int index;
+        try {
+            index = Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            return "Not an index: " + argument;
+        }
+
+        if(index < 0 || index >= songs.size())
+            return "No song with index " + index + " (" + songs.size() + " songs).";
+
+        playlist.enqueue(songs.get(index));
+        return "Queued " + songs.get(index).getTitle() + " (" + playlist.getQueue().size() + " songs queued)";
+    }
+
+    private String listTracks(Collection<PlayableSong> tracks, String description) {
+        StringBuilder builder = new StringBuilder();
+        int listed = 0;
+        for(PlayableSong song : tracks) {
+            if(listed == MAX_LISTED_SONGS)
+                break;
+
+            builder.append(song.getTitle()).append(" - ").append(song.getArtist()).append('\n');
+            listed++;
+        }
+        builder.append(tracks.size()).append(' ').append(description);
+
+        return builder.toString();
+    }
+
+    private String status() {
+        PlayableSong track = this.player.getCurrentTrack();
+        String state = track == null ? "stopped" : this.player.isPlaying() ? "playing" : "paused";
+        String song = track == null ? "" : " " + track.getTitle() + " - " + track.getArtist()
+                + " (" + TimeUnit.MILLISECONDS.toSeconds(this.player.getPosition()) + "s / " + track.getLengthInSeconds() + "s)";
+
+        return state + song + ", " + this.serverEngine.getClientController().getClientCount() + " clients";
+    }
+
+    private String clients() {
+        List<NetworkClient> clients = this.serverEngine.getClientController().getConnectedClients();
+
+        StringBuilder builder = new StringBuilder();
+        for(NetworkClient client : clients) {
+            builder.append(client).append('\n');
+        }
+        builder.append(clients.size()).append(" clients");
+
+        return builder.toString();
+    }
+
+    private String pools() {
+        StringBuilder builder = new StringBuilder();
+        for(PoolMetrics metrics : ExecutionPools.getMetrics()) {
+            if(builder.length() > 0)
+                builder.append('\n');
+            builder.append(metrics);
+        }
+
+        return builder.toString();
+    }
+}
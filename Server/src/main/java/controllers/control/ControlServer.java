@@ -0,0 +1,131 @@
+package controllers.control;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <pre>
+ * Local control socket of the headless server. Accepts connections on the loopback address only.
+ * Every line received is a command (see ControlCommandHandler), the answer is sent back followed by an empty line.
+ * "quit" closes the connection. The connections are handled on the shared io pool (ExecutionPools).
+ *
+ * Example: echo status | nc 127.0.0.1 6585
+ * </pre>
+ */
+public class ControlServer implements Closeable {
+
+    /**
+     * The port of the control socket.
+     */
+    public static final int CONTROL_PORT = 6585;
+
+    private final Logger logger;
+    private final ControlCommandHandler commandHandler;
+    private final ServerSocket serverSocket;
+    private volatile Future<?> acceptingTask;
+    private final Set<Socket> connections;
+    private volatile boolean isRunning;
+
+    /**
+     * Opens the control socket on the loopback address. Start accepting with start().
+     * @param commandHandler Executes the commands.
+     * @param port The port of the control socket.
+     * @throws IOException If the socket could not be opened.
+     */
+    public ControlServer(ControlCommandHandler commandHandler, int port) throws IOException {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.commandHandler = commandHandler;
+        this.serverSocket = new ServerSocket(port, 5, InetAddress.getLoopbackAddress());
+        this.connections = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        this.isRunning = true;
+        this.acceptingTask = ExecutionPools.io().submit(ExecutionPools.named("ControlAcceptor", this::acceptConnections));
+        this.logger.info("Control socket listening on " + this.serverSocket.getLocalSocketAddress());
+    }
+
+    private void acceptConnections() {
+        while(this.isRunning) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.connections.add(socket);
+                try {
+                    ExecutionPools.io().execute(ExecutionPools.named("ControlConnection", () -> this.handleConnection(socket)));
+                } catch (RejectedExecutionException e) {
+                    this.logger.warn("Too many threads, control connection refused", e);
+                    this.connections.remove(socket);
+                    socket.close();
+                }
+            } catch (SocketException e) {
+                this.logger.info("Control socket closed");
+            } catch (IOException e) {
+                this.logger.error("Error accepting control connections", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the commands of a connection and sends the answers.
+     * @param socket The connection.
+     */
+    private void handleConnection(Socket socket) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            String line;
+            while(this.isRunning && (line = reader.readLine()) != null) {
+                if(line.trim().equalsIgnoreCase("quit"))
+                    break;
+
+                writer.println(this.commandHandler.execute(line));
+                writer.println();
+            }
+        } catch (IOException e) {
+            this.logger.debug("Control connection closed: " + e.getMessage());
+        } finally {
+            this.connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                this.logger.debug("Could not close the control connection", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the control socket and all its connections.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        this.isRunning = false;
+        this.serverSocket.close();
+
+        for(Socket socket : this.connections) {
+            socket.close();
+        }
+        if(this.acceptingTask != null)
+            this.acceptingTask.cancel(true);
+    }
+}
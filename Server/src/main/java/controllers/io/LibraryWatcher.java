@@ -0,0 +1,433 @@
+package controllers.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * <pre>
+ * Watches the song folder and reports the added, modified and removed song files.
+ * This way a change in the library does not need a full reload.
+ *
+ * Local folders are watched with a WatchService. Network mounts (NFS, SMB/CIFS, ...) usually
+ * do not deliver file system events, these are polled every POLL_INTERVAL instead.
+ * Events are debounced: the changes are reported after no event arrived for DEBOUNCE_DELAY, and
+ * files that are still being written are reported once they stopped changing.
+ * </pre>
+ */
+public class LibraryWatcher implements Closeable {
+
+    /**
+     * System property to force the polling mode (i.e. for network mounts that are not detected).
+     */
+    public static final String FORCE_POLLING_PROPERTY = "wss.watcher.polling";
+
+    /**
+     * Quiet time (in milliseconds) after the last event before the changes are reported.
+     */
+    public static final long DEBOUNCE_DELAY = 1000;
+
+    /**
+     * Interval (in milliseconds) in which network mounts are scanned for changes.
+     */
+    public static final long POLL_INTERVAL = 15000;
+
+    /**
+     * File system types that do not support watching reliably.
+     */
+    private static final Set<String> NETWORK_FILE_SYSTEMS = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "afpfs", "webdav", "fuse.sshfs", "9p"));
+
+    /**
+     * Listener receiving the changes of the library.
+     */
+    @FunctionalInterface
+    public interface LibraryChangeListener {
+        /**
+         * Called on the watcher thread when songs changed.
+         * @param addedOrModified Song files that were added or changed.
+         * @param removed Song files that were removed.
+         */
+        void onLibraryChanged(Set<Path> addedOrModified, Set<Path> removed);
+    }
+
+    private final Logger logger;
+    private final Path root;
+    private final Future<? extends Collection<String>> initialLoad;
+    private final LibraryChangeListener listener;
+
+    /**
+     * Last known state of every song file in the library.
+     * (Only accessed by the watcher thread)
+     */
+    private final Map<Path, FileState> snapshot;
+
+    /**
+     * Registered directories (Only used in the watching mode).
+     */
+    private final Map<WatchKey, Path> watchKeys;
+    private final Set<Path> watchedDirectories;
+
+    private volatile WatchService watchService;
+    private Future<?> watchingTask;
+    private volatile boolean running;
+
+    /**
+     * Creates the watcher. Call start() to start watching.
+     * @param root The song folder.
+     * @param initialLoad The task loading the songs of the folder, completed with the paths of the loaded
+     *                    song files. The first snapshot is compared with these paths.
+     * @param listener Listener receiving the changes.
+     */
+    public LibraryWatcher(Path root, Future<? extends Collection<String>> initialLoad, LibraryChangeListener listener) {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.root = root.toAbsolutePath();
+        this.initialLoad = initialLoad;
+        this.listener = listener;
+        this.snapshot = new HashMap<>();
+        this.watchKeys = new HashMap<>();
+        this.watchedDirectories = new HashSet<>();
+    }
+
+    /**
+     * Starts watching the song folder in the background.
+     * The watcher runs on a thread of the io pool (ExecutionPools).
+     * The initial state of the folder is taken on the watcher thread after the initial load finished.
+     * The loaded songs are not reported, but the files that were added or removed while loading are.
+     */
+    public synchronized void start() {
+        if(this.running)
+            return;
+
+        this.running = true;
+        this.watchingTask = ExecutionPools.io().submit(ExecutionPools.named("LibraryWatcher", this::run));
+    }
+
+    /**
+     * @return Returns the watched folder.
+     */
+    public Path getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Stops watching.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.running = false;
+
+        if(this.watchingTask != null) {
+            this.watchingTask.cancel(true);
+            this.watchingTask = null;
+        }
+
+        if(this.watchService != null) {
+            this.watchService.close();
+        }
+    }
+
+    private void run() {
+        try {
+            if(this.usePolling()) {
+                this.logger.info("Polling the song folder " + this.root + " every " + POLL_INTERVAL + "ms");
+                this.initialScan(new HashSet<>());
+                this.poll();
+            }
+            else {
+                this.logger.info("Watching the song folder " + this.root);
+                this.watchService = this.root.getFileSystem().newWatchService();
+                this.registerAll(this.root);
+
+                Set<Path> unfinished = new HashSet<>();
+                this.initialScan(unfinished);
+                this.watch(unfinished);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            this.logger.debug("Library watcher stopped.");
+        } catch (IOException e) {
+            this.logger.error("Could not watch the song folder " + this.root, e);
+        }
+    }
+
+    /**
+     * Takes the first snapshot after the initial load finished and reports the differences to the loaded songs.
+     * The loader and the watcher walk the folder separately, so a file created or deleted in between
+     * would otherwise never be reported.
+     * @param unfinished Receives the song files that are still being written.
+     */
+    private void initialScan(Set<Path> unfinished) throws InterruptedException {
+        Collection<String> loaded;
+        try {
+            loaded = this.initialLoad.get();
+        } catch (CancellationException | ExecutionException e) {
+            // The load failed (logged by the loader) or was replaced, the current state is the best guess.
+            loaded = null;
+        }
+
+        Set<Path> changed = new HashSet<>();
+        this.scan(this.root, changed, new HashSet<>(), unfinished);
+        if(loaded == null)
+            return;
+
+        Set<Path> removed = new HashSet<>();
+        for(String loadedPath : loaded) {
+            Path path = Paths.get(loadedPath);
+            changed.remove(path);
+            if(!this.snapshot.containsKey(path) && !unfinished.contains(path) && !Files.exists(path))
+                removed.add(path);
+        }
+        this.report(changed, removed);
+    }
+
+    /**
+     * @return Returns true if the folder has to be polled.
+     */
+    private boolean usePolling() {
+        if(Boolean.getBoolean(FORCE_POLLING_PROPERTY))
+            return true;
+
+        try {
+            String type = Files.getFileStore(this.root).type().toLowerCase();
+            return NETWORK_FILE_SYSTEMS.contains(type);
+        } catch (IOException e) {
+            this.logger.warn("Could not determine the file system of " + this.root + ". Falling back to polling.", e);
+            return true;
+        }
+    }
+
+    /**
+     * Polling mode: rescans the whole folder every POLL_INTERVAL.
+     */
+    private void poll() throws InterruptedException {
+        while(this.running) {
+            Thread.sleep(POLL_INTERVAL);
+
+            Set<Path> changed = new HashSet<>();
+            Set<Path> removed = new HashSet<>();
+            this.scan(this.root, changed, removed, new HashSet<>());
+            this.report(changed, removed);
+        }
+    }
+
+    /**
+     * Watching mode: collects the changed paths until no event arrived for DEBOUNCE_DELAY.
+     */
+    private void watch(Set<Path> pending) throws InterruptedException {
+        while(this.running) {
+            WatchKey key = pending.isEmpty()
+                    ? this.watchService.take()
+                    : this.watchService.poll(DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+
+            if(key != null) {
+                Path directory = this.watchKeys.get(key);
+
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(event.kind() == OVERFLOW || directory == null) {
+                        // Events were lost, only a full scan is reliable.
+                        pending.add(this.root);
+                    }
+                    else {
+                        pending.add(directory.resolve((Path) event.context()));
+                    }
+                }
+
+                if(!key.reset())
+                    this.watchedDirectories.remove(this.watchKeys.remove(key));
+            }
+            else {
+                // Quiet for DEBOUNCE_DELAY.
+                Set<Path> changed = new HashSet<>();
+                Set<Path> removed = new HashSet<>();
+                Set<Path> unfinished = new HashSet<>();
+
+                for(Path path : this.reduce(pending)) {
+                    this.scan(path, changed, removed, unfinished);
+                }
+
+                pending = unfinished;
+                this.report(changed, removed);
+            }
+        }
+    }
+
+    /**
+     * Removes the paths which are inside of other pending paths (they are scanned anyway).
+     */
+    private Set<Path> reduce(Set<Path> pending) {
+        Set<Path> reduced = new HashSet<>();
+
+        for(Path path : pending) {
+            boolean covered = false;
+            for(Path other : pending) {
+                if(other != path && path.startsWith(other) && !path.equals(other)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if(!covered)
+                reduced.add(path);
+        }
+        return reduced;
+    }
+
+    /**
+     * Compares a path (file or directory) with the snapshot and updates the snapshot.
+     * @param path The path to scan.
+     * @param changed Receives the added or modified song files.
+     * @param removed Receives the removed song files.
+     * @param unfinished Receives the song files that are still being written.
+     */
+    private void scan(Path path, Set<Path> changed, Set<Path> removed, Set<Path> unfinished) {
+        Set<Path> found = new HashSet<>();
+        long now = System.currentTimeMillis();
+
+        if(Files.isDirectory(path)) {
+            // A new directory has to be watched too.
+            if(this.watchService != null) {
+                try {
+                    this.registerAll(path);
+                } catch (IOException e) {
+                    this.logger.warn("Could not watch the directory " + path, e);
+                }
+            }
+
+            try {
+                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if(SongsHandler.isSongFile(file))
+                            checkFile(file, attributes, now, found, changed, unfinished);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        logger.debug("Could not read " + file, e);
+                        // Keep the known state, the file may only be locked.
+                        if(snapshot.containsKey(file))
+                            found.add(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                this.logger.warn("Could not scan the directory " + path, e);
+                return;
+            }
+        }
+        else if(SongsHandler.isSongFile(path) && Files.exists(path)) {
+            try {
+                this.checkFile(path, Files.readAttributes(path, BasicFileAttributes.class), now, found, changed, unfinished);
+            } catch (IOException e) {
+                this.logger.debug("Could not read " + path, e);
+                found.add(path);
+            }
+        }
+
+        // Everything known inside of the path which was not found anymore was removed.
+        Iterator<Path> iterator = this.snapshot.keySet().iterator();
+        while(iterator.hasNext()) {
+            Path known = iterator.next();
+            if(known.startsWith(path) && !found.contains(known)) {
+                iterator.remove();
+                removed.add(known);
+            }
+        }
+    }
+
+    /**
+     * Compares a song file with the snapshot.
+     */
+    private void checkFile(Path file, BasicFileAttributes attributes, long now,
+                           Set<Path> found, Set<Path> changed, Set<Path> unfinished) {
+        FileState state = new FileState(attributes.size(), attributes.lastModifiedTime().toMillis());
+        FileState known = this.snapshot.get(file);
+        found.add(file);
+
+        if(state.equals(known))
+            return;
+
+        if(now - state.lastModified < DEBOUNCE_DELAY) {
+            // Still being written (i.e. copied into the library). Reported once it stopped changing.
+            unfinished.add(file);
+            if(known == null)
+                found.remove(file);
+            return;
+        }
+
+        this.snapshot.put(file, state);
+        changed.add(file);
+    }
+
+    /**
+     * Registers the directory and all of its subdirectories with the WatchService.
+     */
+    private void registerAll(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                if(watchedDirectories.add(dir)) {
+                    WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    watchKeys.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void report(Set<Path> changed, Set<Path> removed) {
+        if(changed.isEmpty() && removed.isEmpty())
+            return;
+
+        this.logger.info("Library changed: " + changed.size() + " added/modified, " + removed.size() + " removed");
+
+        try {
+            this.listener.onLibraryChanged(changed, removed);
+        } catch (Exception e) {
+            this.logger.error("Error applying the library changes", e);
+        }
+    }
+
+    /**
+     * Size and modification time of a file.
+     */
+    private static final class FileState {
+        private final long size;
+        private final long lastModified;
+
+        FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileState)) return false;
+            FileState that = (FileState) o;
+            return size == that.size && lastModified == that.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(size) + Long.hashCode(lastModified);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package controllers.io;
+
+import models.songs.SongMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * Persistent index of the song metadata.
+ * The entries are keyed by the path of the file and are only valid as long as the size and the
+ * modification time of the file did not change. This way only new or changed files have to be
+ * parsed when the server starts.
+ *
+ * The index is stored as a compact binary file in the data directory of the server.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class SongMetadataIndex {
+
+    /**
+     * Name of the system property that overrides the data directory.
+     */
+    public static final String DATA_DIR_PROPERTY = "wss.dataDir";
+
+    /**
+     * File name of the index inside of the data directory.
+     */
+    public static final String INDEX_FILE_NAME = "library.idx";
+
+    /**
+     * Magic number at the start of the index file ("WSSI").
+     */
+    private static final int MAGIC = 0x57535349;
+
+    /**
+     * Version of the file format. Increase if the format changes, old indexes are then discarded.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Amount of bytes hashed at the start and at the end of a file for the content hash.
+     */
+    private static final int HASH_SAMPLE_SIZE = 64 * 1024;
+
+    private final Logger logger;
+    private final Path indexFile;
+    private final Map<String, Entry> entries;
+    private volatile boolean dirty;
+
+    /**
+     * Creates an index stored in the default data directory.
+     */
+    public SongMetadataIndex() {
+        this(getDefaultDataDirectory().resolve(INDEX_FILE_NAME));
+    }
+
+    /**
+     * Creates an index stored in the given file.
+     * Call load() to read the stored entries.
+     * @param indexFile File of the index.
+     */
+    public SongMetadataIndex(Path indexFile) {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.indexFile = indexFile;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The data directory is <code>~/.wss</code>, unless it is set with the system property DATA_DIR_PROPERTY.
+     * @return Returns the data directory of the server.
+     */
+    public static Path getDefaultDataDirectory() {
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+        if(dataDir != null)
+            return Paths.get(dataDir);
+
+        return Paths.get(System.getProperty("user.home"), ".wss");
+    }
+
+    /**
+     * Gets the metadata of a file, if the index contains a valid entry for it.
+     * @param path Path of the file.
+     * @param size Current size of the file.
+     * @param lastModified Current modification time of the file (milliseconds).
+     * @return Returns the metadata or null, if the file is not indexed or changed since.
+     */
+    public SongMetadata get(String path, long size, long lastModified) {
+        Entry entry = this.entries.get(path);
+
+        if(entry != null && entry.size == size && entry.lastModified == lastModified)
+            return entry.metadata;
+
+        return null;
+    }
+
+    /**
+     * Gets the entry of a file, regardless of its validity.
+     * @param path Path of the file.
+     * @return Returns the entry or null.
+     */
+    public Entry getEntry(String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Adds or replaces the metadata of a file.
+     * @param path Path of the file.
+     * @param size Size of the file.
+     * @param lastModified Modification time of the file (milliseconds).
+     * @param contentHash Content hash of the file (see computeContentHash).
+     * @param metadata Metadata of the file.
+     */
+    public void put(String path, long size, long lastModified, long contentHash, SongMetadata metadata) {
+        this.entries.put(path, new Entry(path, size, lastModified, contentHash, metadata));
+        this.dirty = true;
+    }
+
+    /**
+     * Removes the entry of a file.
+     * @param path Path of the file.
+     */
+    public void remove(String path) {
+        if(this.entries.remove(path) != null)
+            this.dirty = true;
+    }
+
+    /**
+     * Removes all entries inside of the directory which are not in the collection of existing paths.
+     * @param directory Directory that was scanned completely.
+     * @param existingPaths The paths found in the directory.
+     */
+    public void retainInDirectory(String directory, Collection<String> existingPaths) {
+        String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+
+        if(this.entries.keySet().removeIf(path -> path.startsWith(prefix) && !existingPaths.contains(path)))
+            this.dirty = true;
+    }
+
+    /**
+     * @return Returns the amount of entries.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return Returns true, if the index changed since it was loaded or saved.
+     */
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Loads the index from the file. A missing or unreadable index is treated as an empty index.
+     */
+    public void load() {
+        if(!Files.exists(this.indexFile))
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.indexFile)))) {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                this.logger.info("Discarding index with unknown format: " + this.indexFile);
+                return;
+            }
+
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                Entry entry = Entry.read(in);
+                this.entries.put(entry.path, entry);
+            }
+
+            this.dirty = false;
+            this.logger.info("Loaded " + count + " songs from the index " + this.indexFile);
+        } catch (IOException e) {
+            this.logger.warn("Could not read the song index " + this.indexFile + ". Starting with an empty index.", e);
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Saves the index into the file. The file is replaced atomically.
+     * @throws IOException Thrown if the index could not be written.
+     */
+    public synchronized void save() throws IOException {
+        Path directory = this.indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+
+        Path temporaryFile = Files.createTempFile(directory, INDEX_FILE_NAME, ".tmp");
+        try {
+            this.dirty = false;
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                Collection<Entry> snapshot = new ArrayList<>(this.entries.values());
+
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(snapshot.size());
+                for(Entry entry : snapshot) {
+                    entry.write(out);
+                }
+            }
+
+            try {
+                Files.move(temporaryFile, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, this.indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            this.dirty = true;
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Computes a cheap content hash of a file.
+     * Only the first and the last HASH_SAMPLE_SIZE bytes and the size are hashed, this way the whole
+     * file does not have to be read (MP3 tags are at the start and the end of the file).
+     * @param path Path of the file.
+     * @return Returns the content hash.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    public static long computeContentHash(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_SAMPLE_SIZE);
+
+            readFully(channel, buffer, 0);
+            crc.update(buffer.array(), 0, buffer.position());
+
+            if(size > HASH_SAMPLE_SIZE) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(HASH_SAMPLE_SIZE, size - HASH_SAMPLE_SIZE));
+                crc.update(buffer.array(), 0, buffer.position());
+            }
+
+            return (size << 32) ^ crc.getValue();
+        }
+    }
+
+    /**
+     * Reads from the position until the buffer is full or the end of the channel is reached.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if(read < 0)
+                break;
+            position += read;
+        }
+    }
+
+    /**
+     * An entry of the index.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final long contentHash;
+        private final SongMetadata metadata;
+
+        Entry(String path, long size, long lastModified, long contentHash, SongMetadata metadata) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.metadata = metadata;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        public SongMetadata getMetadata() {
+            return metadata;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(this.path);
+            out.writeLong(this.size);
+            out.writeLong(this.lastModified);
+            out.writeLong(this.contentHash);
+            out.writeUTF(this.metadata.getTitle());
+            out.writeUTF(this.metadata.getArtist());
+            out.writeUTF(this.metadata.getAlbum());
+            out.writeLong(this.metadata.getLengthInMilliseconds());
+            out.writeInt(this.metadata.getBitrate());
+            out.writeInt(this.metadata.getAudioStartOffset());
+            out.writeInt(this.metadata.getAudioEndOffset());
+            out.writeInt(this.metadata.getFrameCount());
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            long contentHash = in.readLong();
+            SongMetadata metadata = new SongMetadata(in.readUTF(), in.readUTF(), in.readUTF(),
+                    in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+
+            return new Entry(path, size, lastModified, contentHash, metadata);
+        }
+    }
+}
@@ -1,63 +1,451 @@
 package controllers.io;
 
-import models.songs.Mp3Song;
+import models.songs.PlayableMp3Song;
+import models.songs.PlayableSong;
 import models.songs.Song;
+import models.songs.SongMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * <pre>
  * Created by Esteban on 30.11.2015.
  * Handles songs (ie: Reading songs from files)
+ *
+ * The song folder is walked on the io pool and the songs are parsed in parallel on the cpu pool (ExecutionPools).
+ * Every file is parsed exactly once and the results are published in batches.
+ * If a SongMetadataIndex is used, unchanged files are not parsed at all.
  * </pre>
  */
 public class SongsHandler {
 
+    /**
+     * Extension of the files loaded (lower case).
+     */
+    private static final String SONG_EXTENSION = ".mp3";
+
+    /**
+     * Amount of songs published together.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Amount of files parsed by a single task. Bigger directories are split into several tasks.
+     */
+    private static final int FILES_PER_TASK = 32;
+
+    /**
+     * Maximum amount of parsing tasks submitted at the same time. Parsing also waits for I/O
+     * (especially on network shares), so more tasks than processors are kept busy.
+     */
+    private static final int PARALLEL_TASKS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
     private final Logger logger;
 
+    /**
+     * Index of the already parsed songs (can be null).
+     */
+    private final SongMetadataIndex index;
+
+    /**
+     * Creates a handler parsing every song file.
+     */
     public SongsHandler() {
+        this(null);
+    }
+
+    /**
+     * Creates a handler using a metadata index. Songs found in the index are not parsed again.
+     * @param index Index of the already parsed songs (null to parse every file).
+     */
+    public SongsHandler(SongMetadataIndex index) {
         logger = LoggerFactory.getLogger(this.getClass());
+        this.index = index;
     }
 
     /**
-     * Loads all songs from a directory.
+     * Loads all songs from a directory and its subdirectories.
+     * Blocks until all songs are loaded.
      * @param path Path to the directory
      * @return Returns an array of songs.
      */
     public List<Song> loadSongsFromDir(String path){
-        File f = new File(path);
+        List<Song> songList = new ArrayList<>();
 
-        // List all files which end with .mp3
-        File[] files = f.listFiles((dir, name) -> name.endsWith(".mp3"));
+        try {
+            this.loadSongsFromDirAsync(path, songList::addAll).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Loading the songs was interrupted.", e);
+        } catch (ExecutionException e) {
+            this.logger.warn("Error loading the songs from " + path, e.getCause());
+        }
 
-        if(files.length > 0){
-            for(File file : files) {
-                this.logger.info(file.getName());
+        return songList;
+    }
+
+    /**
+     * Loads all songs from a directory and its subdirectories asynchronously.
+     * The songs are parsed in parallel and published in batches of DEFAULT_BATCH_SIZE songs.
+     * The batch consumer is called from the parsing threads, one batch at a time.
+     * Cancelling the returned task stops the loading as soon as possible.
+     * @param path Path to the directory.
+     * @param onBatchLoaded Consumer receiving the loaded songs.
+     * @return Returns the loading task. It's completed with the paths of the found song files after the
+     * last batch was published.
+     */
+    public CompletableFuture<Set<String>> loadSongsFromDirAsync(String path, Consumer<List<PlayableSong>> onBatchLoaded) {
+        return this.loadSongsFromDirAsync(path, onBatchLoaded, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Loads all songs from a directory and its subdirectories asynchronously.
+     * @param path Path to the directory.
+     * @param onBatchLoaded Consumer receiving the loaded songs.
+     * @param batchSize Amount of songs published together.
+     * @return Returns the loading task. It's completed with the paths of the found song files after the
+     * last batch was published.
+     * @throws RejectedExecutionException If the io pool is full.
+     */
+    public CompletableFuture<Set<String>> loadSongsFromDirAsync(String path, Consumer<List<PlayableSong>> onBatchLoaded, int batchSize) {
+        Path root = Paths.get(path);
+        BatchPublisher publisher = new BatchPublisher(onBatchLoaded, batchSize);
+        CompletableFuture<Set<String>> loading = new CompletableFuture<>();
+
+        this.logger.info("Reading files from " + root + "...");
+
+        ExecutionPools.io().execute(ExecutionPools.named("SongLoader", () -> {
+            long start = System.nanoTime();
+            try {
+                SongLoader loader = new SongLoader(root, publisher, loading);
+                loader.load();
+                publisher.flush();
+
+                this.logger.info(publisher.getPublishedSongs() + " songs loaded from " + root + " in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+
+                // Only a complete scan tells which indexed songs do not exist anymore.
+                if(!loading.isCancelled())
+                    this.updateIndex(root, publisher.getSeenPaths(), loader.isComplete());
+
+                loading.complete(publisher.getSeenPaths());
+            } catch (Throwable t) {
+                this.logger.error("Could not load the songs from " + root, t);
+                loading.completeExceptionally(t);
             }
+        }));
+
+        return loading;
+    }
+
+    /**
+     * Removes the songs that were not found anymore from the index and saves it, if it changed.
+     * If parts of the directory could not be read, no song is removed: A temporary read error
+     * must not drop the entries of a whole subtree.
+     * @param root The scanned directory.
+     * @param seenPaths The song files found in the directory.
+     * @param complete False if files or directories could not be read.
+     */
+    private void updateIndex(Path root, Set<String> seenPaths, boolean complete) {
+        if(this.index == null)
+            return;
+
+        if(complete)
+            this.index.retainInDirectory(root.toString(), seenPaths);
+        else
+            this.logger.warn("Not all files in " + root + " could be read, keeping the index entries of missing songs");
+        this.saveIndex();
+    }
+
+    /**
+     * Parses a single song file.
+     * @param file The file to parse.
+     * @return Returns the song or null if the file could not be read.
+     */
+    public PlayableSong loadSong(File file) {
+        try {
+            if(this.index == null)
+                return new PlayableMp3Song(file.getPath());
+
+            return this.loadIndexedSong(file.toPath());
+        } catch (Exception e) {
+            this.logger.warn("Fehler beim Laden eines Songs! (" + file + ")", e);
+            return null;
         }
-        else{
-            this.logger.info("No Music Files found.");
+    }
+
+    /**
+     * Loads the given song files (i.e. the files added to the library).
+     * Unreadable files are skipped.
+     * @param paths Paths of the song files.
+     * @return Returns the loaded songs.
+     */
+    public List<PlayableSong> loadSongs(Collection<Path> paths) {
+        List<PlayableSong> songs = new ArrayList<>(paths.size());
+
+        for(Path path : paths) {
+            PlayableSong song = this.loadSong(path.toFile());
+            if(song != null)
+                songs.add(song);
         }
+        return songs;
+    }
 
-        this.logger.info("Reading files...");
+    /**
+     * Removes the given song files from the index (i.e. the files removed from the library)
+     * and saves the index if it changed.
+     * @param paths Paths of the removed song files.
+     */
+    public void forgetSongs(Collection<Path> paths) {
+        if(this.index == null)
+            return;
 
-        List<Song> songList = new ArrayList<>();
-        // Transform all songs into Song.
-        for(File file : files){
+        paths.forEach(path -> this.index.remove(path.toString()));
+        this.saveIndex();
+    }
+
+    /**
+     * Saves the index, if it changed.
+     */
+    public void saveIndex() {
+        if(this.index != null && this.index.isDirty()) {
             try {
-                Song song = new Mp3Song(file.getPath());
-                songList.add(song);
-                this.logger.info("Song added: " + song.getTitle());
+                this.index.save();
+            } catch (IOException e) {
+                this.logger.warn("Could not save the song index.", e);
+            }
+        }
+    }
+
+    /**
+     * Loads a song using the index. The file is only parsed, if it is not indexed or changed.
+     * A file which was only touched (same content hash) keeps its indexed metadata.
+     * @param path Path of the file.
+     * @return Returns the song.
+     * @throws Exception Thrown if the file could not be read.
+     */
+    private PlayableSong loadIndexedSong(Path path) throws Exception {
+        String key = path.toString();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        SongMetadata metadata = this.index.get(key, size, lastModified);
+        if(metadata != null)
+            return new PlayableMp3Song(key, metadata);
+
+        long contentHash = SongMetadataIndex.computeContentHash(path);
+        SongMetadataIndex.Entry entry = this.index.getEntry(key);
+        if(entry != null && entry.getContentHash() == contentHash) {
+            this.index.put(key, size, lastModified, contentHash, entry.getMetadata());
+            return new PlayableMp3Song(key, entry.getMetadata());
+        }
+
+        PlayableMp3Song song = new PlayableMp3Song(key);
+        this.index.put(key, size, lastModified, contentHash, song.getMetadata());
+        return song;
+    }
+
+    /**
+     * @param path Path to check.
+     * @return Returns true if the path is a song file this handler can load.
+     */
+    public static boolean isSongFile(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && fileName.toString().toLowerCase().endsWith(SONG_EXTENSION);
+    }
 
-            } catch (Exception e) {
-                this.logger.warn("Fehler beim Laden eines Songs!", e);
+    /**
+     * Walks the song folder (io thread) and parses the found songs in groups of FILES_PER_TASK on the cpu pool.
+     * At most PARALLEL_TASKS groups are submitted at the same time. If the cpu pool is full, the loader
+     * parses the group itself.
+     * Symbolic links to directories are not followed (like the LibraryWatcher), so a link to a parent
+     * directory does not load the songs over and over again.
+     */
+    private class SongLoader extends SimpleFileVisitor<Path> {
+        private final Path root;
+        private final BatchPublisher publisher;
+        private final CompletableFuture<?> loading;
+        private final Semaphore runningTasks;
+        private List<File> files;
+        private boolean complete = true;
+
+        SongLoader(Path root, BatchPublisher publisher, CompletableFuture<?> loading) {
+            this.root = root;
+            this.publisher = publisher;
+            this.loading = loading;
+            this.runningTasks = new Semaphore(PARALLEL_TASKS);
+            this.files = new ArrayList<>(FILES_PER_TASK);
+        }
+
+        /**
+         * Loads the songs. Returns after all songs were parsed.
+         * @throws IOException Thrown if the song folder could not be read.
+         * @throws InterruptedException Thrown if the loader was interrupted.
+         */
+        void load() throws IOException, InterruptedException {
+            try {
+                Files.walkFileTree(this.root, this);
+                this.submit();
+            } finally {
+                // Wait for the submitted groups.
+                this.runningTasks.acquire(PARALLEL_TASKS);
             }
         }
 
-        return songList;
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+            if(this.loading.isCancelled())
+                return FileVisitResult.TERMINATE;
+
+            if(!attributes.isDirectory() && isSongFile(file)) {
+                this.files.add(file.toFile());
+                this.publisher.markSeen(file.toString());
+
+                if(this.files.size() == FILES_PER_TASK) {
+                    try {
+                        this.submit();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * @return Returns false if a file or directory could not be read during the walk.
+         */
+        boolean isComplete() {
+            return this.complete;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exception) {
+            logger.warn("Could not read " + file, exception);
+            this.complete = false;
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exception) {
+            if(exception != null) {
+                logger.warn("Could not read all files in " + dir, exception);
+                this.complete = false;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * Submits the collected files to the cpu pool.
+         */
+        private void submit() throws InterruptedException {
+            if(this.files.isEmpty())
+                return;
+
+            List<File> group = this.files;
+            this.files = new ArrayList<>(FILES_PER_TASK);
+
+            this.runningTasks.acquire();
+            try {
+                ExecutionPools.cpu().execute(() -> {
+                    try {
+                        this.parse(group);
+                    } finally {
+                        this.runningTasks.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                try {
+                    this.parse(group);
+                } finally {
+                    this.runningTasks.release();
+                }
+            }
+        }
+
+        /**
+         * Parses a group of song files.
+         */
+        private void parse(List<File> group) {
+            for(File file : group) {
+                if(this.loading.isCancelled())
+                    return;
+
+                PlayableSong song = loadSong(file);
+                if(song != null) {
+                    logger.debug("Song added: " + song.getTitle());
+                    this.publisher.add(song);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the parsed songs and hands them to the consumer in batches.
+     */
+    private static class BatchPublisher {
+        private final Consumer<List<PlayableSong>> consumer;
+        private final int batchSize;
+        private final AtomicInteger publishedSongs;
+        private final Set<String> seenPaths;
+        private List<PlayableSong> batch;
+
+        BatchPublisher(Consumer<List<PlayableSong>> consumer, int batchSize) {
+            this.consumer = consumer;
+            this.batchSize = batchSize;
+            this.publishedSongs = new AtomicInteger();
+            this.seenPaths = ConcurrentHashMap.newKeySet();
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        void markSeen(String path) {
+            this.seenPaths.add(path);
+        }
+
+        Set<String> getSeenPaths() {
+            return this.seenPaths;
+        }
+
+        synchronized void add(PlayableSong song) {
+            this.batch.add(song);
+            if(this.batch.size() >= this.batchSize)
+                this.flush();
+        }
+
+        synchronized void flush() {
+            if(!this.batch.isEmpty()) {
+                List<PlayableSong> full = this.batch;
+                this.batch = new ArrayList<>(this.batchSize);
+                this.publishedSongs.addAndGet(full.size());
+                this.consumer.accept(full);
+            }
+        }
+
+        int getPublishedSongs() {
+            return this.publishedSongs.get();
+        }
     }
 }
@@ -2,15 +2,18 @@ package controllers.media.music;
 
 import controllers.media.MediaPlayer;
 import javafx.beans.property.*;
+import javafx.collections.ObservableList;
 import javafx.util.Duration;
 import models.songs.PlayableSong;
-
-import java.util.List;
+import playlists.IndexedPlaylist;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 14.04.2016.
  * This is a base class for an audio player. It provides the needed properties.
+ *
+ * The playlist is an IndexedPlaylist. It follows the current track, so the next and previous
+ * tracks are found without searching the playlist.
  * </pre>
  */
 public abstract class BaseAudioPlayer implements MediaPlayer<PlayableSong> {
@@ -22,9 +25,9 @@ public abstract class BaseAudioPlayer implements MediaPlayer<PlayableSong> {
     private ObjectProperty<PlayableSong> currentTrack;
     private DoubleProperty volume;
 
-    private List<PlayableSong> playlist;
+    private IndexedPlaylist<PlayableSong> playlist;
 
-    public BaseAudioPlayer(List<PlayableSong> playlist) {
+    public BaseAudioPlayer(ObservableList<PlayableSong> playlist) {
 
         // Init properties
         this.isPlaying = new SimpleBooleanProperty();
@@ -35,6 +38,12 @@ public abstract class BaseAudioPlayer implements MediaPlayer<PlayableSong> {
         this.currentTrack = new SimpleObjectProperty<>();
 
         this.setPlaylist(playlist);
+
+        // Keeps the cursor of the playlist at the current track (i.e. if a track was selected by the user).
+        this.currentTrack.addListener((observable, oldValue, newValue) -> {
+            if(newValue != null)
+                this.playlist.select(newValue);
+        });
     }
 
 
@@ -89,20 +98,15 @@ public abstract class BaseAudioPlayer implements MediaPlayer<PlayableSong> {
 
     @Override
     public PlayableSong getNextTrack() {
-        if(this.getCurrentTrack() != null) {
-            int currentIndex = this.getPlaylist().indexOf(this.getCurrentTrack());
-
-            if((this.getPlaylist().size() - 1) > currentIndex) {
-                return this.getPlaylist().get(currentIndex + 1);
-            }
-        }
-        return null;
+        return this.getPlaylist().peekNext();
     }
 
     @Override
     public boolean playNextTrack() {
-        if(this.getNextTrack() != null) {
-            this.play(this.getNextTrack());
+        PlayableSong nextTrack = this.getPlaylist().next();
+
+        if(nextTrack != null) {
+            this.play(nextTrack);
             return true;
         }
 
@@ -111,22 +115,16 @@ public abstract class BaseAudioPlayer implements MediaPlayer<PlayableSong> {
 
     @Override
     public PlayableSong getPreviousTrack() {
-        if(this.getCurrentTrack() != null) {
-            int currentIndex = this.getPlaylist().indexOf(this.getCurrentTrack());
-
-            if(currentIndex > 0) {
-                return this.getPlaylist().get(currentIndex - 1);
-            }
-        }
-
-        return null;
+        return this.getPlaylist().peekPrevious();
     }
 
     @Override
     public boolean playPreviousTrack() {
-        if(this.getPreviousTrack() != null) {
+        PlayableSong previousTrack = this.getPlaylist().previous();
+
+        if(previousTrack != null) {
             this.stop();
-            this.play(this.getPreviousTrack());
+            this.play(previousTrack);
             return true;
         }
 
@@ -151,15 +149,15 @@ public abstract class BaseAudioPlayer implements MediaPlayer<PlayableSong> {
      * Sets the playlist of songs.
      * @param playlist new playlist
      */
-    protected void setPlaylist(List<PlayableSong> playlist) {
-        this.playlist = playlist;
+    protected void setPlaylist(ObservableList<PlayableSong> playlist) {
+        this.playlist = new IndexedPlaylist<>(playlist);
     }
 
     /**
      * Retrieves the playlist for this AudioPlayer.
      * @return The current playlist.
      */
-    public List<PlayableSong> getPlaylist() {
+    public IndexedPlaylist<PlayableSong> getPlaylist() {
         return this.playlist;
     }
 }
@@ -0,0 +1,237 @@
+package controllers.media.music;
+
+import controllers.networking.streaming.music.MusicStreamController;
+import javafx.collections.ObservableList;
+import javafx.util.Duration;
+import models.songs.Mp3Song;
+import models.songs.PlayableSong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.SerialExecutor;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * Audio player for the headless server. The songs are only played by the clients, not on the server
+ * (no JavaFX MediaPlayer, no toolkit needed).
+ *
+ * The end of a track is timed with the length of the song, then the next track is played.
+ * Like the NetworkAudioPlayer, the next track is sent to the clients while the current track is playing.
+ *
+ * Use it on the thread of the scheduler only (the end of the tracks is handled on it too).
+ * </pre>
+ */
+public class HeadlessAudioPlayer extends BaseAudioPlayer {
+
+    private final Logger logger;
+    private final MusicStreamController musicStreamController;
+
+    /**
+     * Times the end of the tracks.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Sends the next track to the clients in the background.
+     */
+    private final SerialExecutor preloadExecutor;
+
+    private ScheduledFuture<?> endOfTrack;
+
+    /**
+     * Position (in milliseconds) when the track was started or paused.
+     */
+    private long position;
+
+    /**
+     * Time (System.nanoTime) the track was started or resumed.
+     */
+    private long startedAt;
+
+    private PlayableSong preparedTrack;
+
+    /**
+     * True while a play waits for the clients (the position does not advance yet).
+     */
+    private boolean starting;
+
+    /**
+     * Incremented with every play, pause and stop. A play waiting for the clients only starts the
+     * track if nothing else was requested meanwhile.
+     */
+    private long playRequest;
+
+    /**
+     * @param songs List of songs for the playlist.
+     * @param musicStreamController Controls the music stream to the clients.
+     * @param scheduler Times the end of the tracks. Single threaded, the player is used on its thread.
+     */
+    public HeadlessAudioPlayer(ObservableList<PlayableSong> songs, MusicStreamController musicStreamController,
+                               ScheduledExecutorService scheduler) {
+        super(songs);
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.musicStreamController = musicStreamController;
+        this.scheduler = scheduler;
+        this.preloadExecutor = new SerialExecutor("TrackPreloader", ExecutionPools.io());
+    }
+
+    /**
+     * Plays a track. If the track is the paused current track, it's resumed.
+     * @param track The track to play.
+     */
+    @Override
+    public void play(PlayableSong track) {
+        if(track == null)
+            return;
+
+        boolean resume = track.equals(this.getCurrentTrack()) && !this.isPlaying() && this.position > 0;
+        this.cancelEndOfTrack();
+
+        if(!resume) {
+            if(this.getCurrentTrack() != null)
+                this.getCurrentTrack().setIsPlaying(false);
+
+            this.position = 0;
+            this.setCurrentTrack(track);
+            this.setTotalMediaDuration(Duration.millis(getLength(track)));
+        }
+
+        long request = ++this.playRequest;
+        this.starting = true;
+        this.isPlayingProperty().set(true);
+        track.setIsPlaying(true);
+
+        // The track starts when the clients received the start of the song (the play command was sent).
+        this.musicStreamController.play(track).whenComplete((sent, error) -> this.scheduler.execute(() -> {
+            if(error != null)
+                this.logger.error("Failed streaming the song to the clients!", error);
+
+            this.onStarted(track, request);
+        }));
+
+        this.prepareNextTrack();
+    }
+
+    /**
+     * Called (on the scheduler) when the play command of a track was sent. Starts timing the track.
+     * @param track The track.
+     * @param request The play request.
+     */
+    private void onStarted(PlayableSong track, long request) {
+        // Paused, stopped or an other track played meanwhile.
+        if(request != this.playRequest)
+            return;
+
+        this.starting = false;
+        this.startedAt = System.nanoTime();
+
+        long remaining = Math.max(0, getLength(track) - this.position);
+        this.endOfTrack = this.scheduler.schedule(this::onEndOfTrack, remaining, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pauses the current track.
+     */
+    @Override
+    public void pause() {
+        if(!this.isPlaying())
+            return;
+
+        this.cancelEndOfTrack();
+        this.position = this.getPosition();
+        this.playRequest++;
+        this.starting = false;
+        this.currentMediaTimeProperty().set(Duration.millis(this.position));
+        this.isPlayingProperty().set(false);
+
+        this.musicStreamController.pause();
+    }
+
+    /**
+     * Stops the current track.
+     */
+    @Override
+    public void stop() {
+        this.cancelEndOfTrack();
+        this.position = 0;
+        this.playRequest++;
+        this.starting = false;
+        this.currentMediaTimeProperty().set(Duration.ZERO);
+        this.isPlayingProperty().set(false);
+
+        if(this.getCurrentTrack() != null) {
+            this.getCurrentTrack().setIsPlaying(false);
+            this.musicStreamController.stop();
+        }
+    }
+
+    /**
+     * @return Returns the position in the current track in milliseconds.
+     */
+    public long getPosition() {
+        if(!this.isPlaying() || this.starting)
+            return this.position;
+
+        return this.position + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startedAt);
+    }
+
+    /**
+     * Stops the preloading thread.
+     */
+    public void dispose() {
+        this.cancelEndOfTrack();
+        this.preloadExecutor.shutdownNow();
+    }
+
+    /**
+     * Called (on the scheduler) at the end of the track. Continues with the next track.
+     */
+    private void onEndOfTrack() {
+        this.endOfTrack = null;
+
+        if(!this.playNextTrack()) {
+            this.stop();
+        }
+    }
+
+    /**
+     * Sends the next track to the clients.
+     */
+    private void prepareNextTrack() {
+        PlayableSong nextTrack = this.getNextTrack();
+
+        if(nextTrack == null || nextTrack == this.preparedTrack || nextTrack == this.getCurrentTrack())
+            return;
+
+        this.preparedTrack = nextTrack;
+        this.preloadExecutor.execute(() -> {
+            try {
+                this.musicStreamController.cacheSong(nextTrack);
+            } catch (IOException e) {
+                this.logger.warn("Failed sending the next track to the clients.", e);
+            }
+        });
+    }
+
+    private void cancelEndOfTrack() {
+        if(this.endOfTrack != null) {
+            this.endOfTrack.cancel(false);
+            this.endOfTrack = null;
+        }
+    }
+
+    /**
+     * @return Returns the length of the song in milliseconds.
+     */
+    private static long getLength(PlayableSong song) {
+        if(song instanceof Mp3Song)
+            return ((Mp3Song) song).getMetadata().getLengthInMilliseconds();
+
+        return TimeUnit.SECONDS.toMillis(song.getLengthInSeconds());
+    }
+}
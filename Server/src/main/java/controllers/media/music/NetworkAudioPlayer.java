@@ -1,14 +1,20 @@
 package controllers.media.music;
 
 import controllers.networking.streaming.music.MusicStreamController;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
 import models.songs.PlayableSong;
 import models.songs.Song;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.SerialExecutor;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,6 +25,11 @@ import java.io.IOException;
  * The simple audio player enhanced for use in network. This means that this controller will
  * handle the streaming of the right songs with the clients.
  * The network clients are controlled by the required music stream controller.
+ *
+ * The next track is prepared while the current track is playing: its MediaPlayer is created ahead
+ * of time (so it's READY at the end of the current track) and the song is sent to the clients.
+ * At the end of the track the prepared MediaPlayer is swapped in.
+ * The gap between the end of a track and the start of the next track is measured (lastTrackGap).
  * </pre>
  */
 public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.media.MediaPlayer<PlayableSong> {
@@ -28,6 +39,30 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
     private final MusicStreamController musicStreamController;
     private MediaPlayer mediaPlayer;
 
+    /**
+     * The prepared MediaPlayer of the next track.
+     */
+    private MediaPlayer preparedMediaPlayer;
+    private PlayableSong preparedTrack;
+
+    /**
+     * Sends the next track to the clients in the background.
+     */
+    private final SerialExecutor preloadExecutor;
+
+    /**
+     * Time (System.nanoTime) the last track ended. 0 if the last track did not end by itself.
+     */
+    private long endOfMediaTime;
+
+    private final ReadOnlyObjectWrapper<Duration> lastTrackGap;
+
+    /**
+     * Incremented with every play, pause and stop. A play waiting for the clients only starts the
+     * local playback if nothing else was requested meanwhile.
+     */
+    private long playRequest;
+
     //endregion Members
 
     //region Constructors
@@ -50,6 +85,8 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
         this.logger = LoggerFactory.getLogger(this.getClass());
 
         this.musicStreamController = musicStreamController;
+        this.lastTrackGap = new ReadOnlyObjectWrapper<>(this, "lastTrackGap");
+        this.preloadExecutor = new SerialExecutor("TrackPreloader", ExecutionPools.io());
     }
 
     //endregion Constructors
@@ -60,36 +97,33 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
      * Initializes the media player for the song in the parameters.
      * If the current MediaPlayer already uses the song in the parameters, it wont be reinitialized.
      * If the current MediaPlayer is playing and the Song object is different, it will be stopped and disposed.
+     * If the song was prepared, the prepared MediaPlayer is used.
      * @param song Song for the MediaPlayer
      * @return the MediaPlayer for the desired song.
      */
     private MediaPlayer getMediaPlayer(PlayableSong song) {
-        // If a media player was created.
-        boolean newMediaPlayerCreated = false;
-
-        Media possibleMedia = this.createMediaFromSong(song);
-        if(this.mediaPlayer == null) {
-            this.mediaPlayer = this.initializeMediaPlayer(possibleMedia);
-            newMediaPlayerCreated = true;
-        } else {
-            // Check if the current MediaPlayer is playing the correct song.
-            if (!possibleMedia.getSource().equals(this.mediaPlayer.getMedia().getSource())) {
-
-                // If it's not the correct song, initialize new MediaPlayer.
-                this.mediaPlayer = this.initializeMediaPlayer(possibleMedia);
-                newMediaPlayerCreated = true;
-            }
-        }
+        String source = this.getSource(song);
 
-        this.currentTrackProperty().setValue(song);
+        // If it's not the correct song, initialize new MediaPlayer.
+        if(this.mediaPlayer == null || !source.equals(this.mediaPlayer.getMedia().getSource())) {
+            MediaPlayer newMediaPlayer;
 
-        // Only set it if a new media player was created. If the MediaPlayer already existed, it should already been set.
-        if(newMediaPlayerCreated) {
-            this.mediaPlayer.setOnEndOfMedia(this::playNextTrack);
+            if(this.preparedMediaPlayer != null && this.preparedTrack == song) {
+                newMediaPlayer = this.preparedMediaPlayer;
+                this.preparedMediaPlayer = null;
+                this.preparedTrack = null;
+            }
+            else {
+                newMediaPlayer = new MediaPlayer(this.createMediaFromSong(song));
+            }
 
-            // Todo: Cache the new song on the client-side for it to be ready to use when needed.
+            this.disposeMediaPlayer(this.mediaPlayer);
+            this.mediaPlayer = this.initializeMediaPlayer(newMediaPlayer);
+            this.mediaPlayer.setOnEndOfMedia(this::onEndOfMedia);
         }
 
+        this.currentTrackProperty().setValue(song);
+
         return this.mediaPlayer;
     }
 
@@ -112,21 +146,26 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
      * @return Returns a Media object with the Song.
      */
     private Media createMediaFromSong(Song song) {
+        return new Media(this.getSource(song));
+    }
+
+    /**
+     * @return Returns the source (URI) of the Media of the song.
+     */
+    private String getSource(Song song) {
 
         // Have to create a temporary file to convert the path to a URI.
         File tempFile = new File(song.getPath());
 
-        return new Media(tempFile.toURI().toString());
+        return tempFile.toURI().toString();
     }
 
     /**
-     * Initializes a new MediaPlayer according to the Media object passed in the parameters.
+     * Initializes a MediaPlayer as the current MediaPlayer (binds the properties).
      * Be aware that you should dispose unused MediaPlayers!
-     * @param media The media used in the MediaPlayer.
+     * @param mediaPlayer The MediaPlayer to initialize.
      */
-    private MediaPlayer initializeMediaPlayer(Media media) {
-        MediaPlayer mediaPlayer = new MediaPlayer(media);
-
+    private MediaPlayer initializeMediaPlayer(MediaPlayer mediaPlayer) {
         this.currentMediaTimeProperty().bind(mediaPlayer.currentTimeProperty());
         this.totalMediaDurationProperty().bind(mediaPlayer.totalDurationProperty());
 
@@ -143,17 +182,81 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
                 else
                     this.isPlayingProperty().set(false);
             }
+
+            if(newValue == MediaPlayer.Status.PLAYING && this.endOfMediaTime != 0) {
+                this.lastTrackGap.set(Duration.millis((System.nanoTime() - this.endOfMediaTime) / 1e6));
+                this.endOfMediaTime = 0;
+                this.logger.info("Gap between the tracks: " + this.lastTrackGap.get().toMillis() + "ms");
+            }
         });
 
         return mediaPlayer;
     }
 
+    /**
+     * Stops and disposes a MediaPlayer, which is not used anymore.
+     * @param mediaPlayer The MediaPlayer (may be null).
+     */
+    private void disposeMediaPlayer(MediaPlayer mediaPlayer) {
+        if(mediaPlayer != null) {
+            this.volumeProperty().unbindBidirectional(mediaPlayer.volumeProperty());
+            mediaPlayer.stop();
+            mediaPlayer.dispose();
+        }
+    }
+
+    /**
+     * Prepares the next track: Creates its MediaPlayer (which loads the media until it's READY)
+     * and sends the song to the clients.
+     */
+    private void prepareNextTrack() {
+        PlayableSong nextTrack = this.getNextTrack();
+
+        if(nextTrack == this.preparedTrack)
+            return;
+
+        if(this.preparedMediaPlayer != null) {
+            this.preparedMediaPlayer.dispose();
+            this.preparedMediaPlayer = null;
+            this.preparedTrack = null;
+        }
+
+        if(nextTrack == null || nextTrack == this.getCurrentTrack())
+            return;
+
+        this.preparedMediaPlayer = new MediaPlayer(this.createMediaFromSong(nextTrack));
+        this.preparedTrack = nextTrack;
+
+        this.preloadExecutor.execute(() -> {
+            try {
+                this.musicStreamController.cacheSong(nextTrack);
+            } catch (IOException e) {
+                this.logger.warn("Failed sending the next track to the clients.", e);
+            }
+        });
+    }
+
+    /**
+     * Called when the current track ended. Continues with the next track.
+     * After the last track, the clients are stopped too.
+     */
+    private void onEndOfMedia() {
+        this.endOfMediaTime = System.nanoTime();
+
+        if(!this.playNextTrack()) {
+            this.endOfMediaTime = 0;
+            this.musicStreamController.stop();
+        }
+    }
+
     //endregion Private methods
 
     //region MediaPlayer Interface
 
     /**
      * Plays a track.
+     * The local playback starts when the clients received the start of the song (the play command was sent),
+     * so the server and the clients play in sync. The JavaFX thread does not wait for it.
      *
      * @param track The track to play.
      */
@@ -168,14 +271,22 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
             this.getCurrentTrack().setIsPlaying(false);
         }
 
-        try {
-            this.musicStreamController.play(track);
-        } catch (IOException e) {
-            this.logger.error("Failed streaming the song to the clients!", e);
-        }
-
-        this.getMediaPlayer(track).play();
+        long request = ++this.playRequest;
+        MediaPlayer mediaPlayer = this.getMediaPlayer(track);
         track.setIsPlaying(true);
+
+        this.musicStreamController.play(track).whenComplete((sent, error) -> Platform.runLater(() -> {
+            if(error != null)
+                this.logger.error("Failed streaming the song to the clients!", error);
+
+            // Paused, stopped or an other track played meanwhile.
+            if(request != this.playRequest || mediaPlayer != this.getMediaPlayer())
+                return;
+
+            mediaPlayer.play();
+        }));
+
+        this.prepareNextTrack();
     }
 
     /**
@@ -185,6 +296,7 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
     @Override
     public void pause() {
         if(this.getMediaPlayer() != null) {
+            this.playRequest++;
             this.getMediaPlayer().pause();
 
             this.musicStreamController.pause();
@@ -198,7 +310,10 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
     @Override
     public void stop() {
 
+        this.endOfMediaTime = 0;
+
         if(this.getMediaPlayer() != null) {
+            this.playRequest++;
             this.getMediaPlayer().stop();
 
             this.musicStreamController.stop();
@@ -210,4 +325,19 @@ public class NetworkAudioPlayer extends BaseAudioPlayer implements controllers.m
     }
 
     //endregion MediaPlayer Interface
+
+    //region Metrics
+
+    /**
+     * @return Returns the gap between the last two tracks. Null if not measured yet.
+     */
+    public Duration getLastTrackGap() {
+        return this.lastTrackGap.get();
+    }
+
+    public ReadOnlyObjectProperty<Duration> lastTrackGapProperty() {
+        return this.lastTrackGap.getReadOnlyProperty();
+    }
+
+    //endregion Metrics
 }
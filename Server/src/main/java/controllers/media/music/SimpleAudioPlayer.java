@@ -2,6 +2,7 @@ package controllers.media.music;
 
 import javafx.beans.property.*;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
@@ -12,6 +13,8 @@ import org.slf4j.LoggerFactory;
 import utils.exceptions.NotImplementedException;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -20,6 +23,9 @@ import java.util.Optional;
  * This is a simple audio player designed to handle the music playing.
  *
  * If you need to use this MediaPlayer for streaming, you should evaluate using the <code>NetworkAudioPlayer</code>.
+ *
+ * The current track is tracked directly. Songs are found by their media URI in a map which follows
+ * the playlist, instead of building the URI of every song in the playlist.
  * </pre>
  */
 public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
@@ -35,10 +41,16 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
     private StringProperty currentMediaTimeString;
     private ObjectProperty<Duration> totalMediaDuration;
     private DoubleProperty volume;
+    private ObjectProperty<Song> currentTrack;
 
     private ObservableList<Song> playlist;
     private Song lastPlayed;
 
+    /**
+     * Media URI --&gt; Song of the playlist. Updated with every change of the playlist.
+     */
+    private final Map<String, Song> songsByUri;
+
     /**
      * Default Constructor
      */
@@ -60,6 +72,18 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
         this.currentMediaTimeString = new SimpleStringProperty();
         this.totalMediaDuration = new SimpleObjectProperty<>();
         this.volume = new SimpleDoubleProperty(1);
+        this.currentTrack = new SimpleObjectProperty<>();
+
+        this.songsByUri = new HashMap<>();
+        this.playlist.forEach(song -> this.songsByUri.put(toUri(song), song));
+        this.playlist.addListener((ListChangeListener<Song>) change -> {
+            while(change.next()) {
+                for(Song removed : change.getRemoved())
+                    this.songsByUri.remove(toUri(removed), removed);
+                for(Song added : change.getAddedSubList())
+                    this.songsByUri.put(toUri(added), added);
+            }
+        });
     }
 
     /**
@@ -96,6 +120,7 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
                     this.setMediaPlayer(new MediaPlayer(media));
                     this.getMediaPlayer().play();
                     this.lastPlayed = song;
+                    this.currentTrack.set(song);
                 }
             }
         }
@@ -120,6 +145,7 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
             this.getMediaPlayer().dispose();
             this.setMediaPlayer(null);
         }
+        this.currentTrack.set(null);
     }
 
     @Override
@@ -190,25 +216,12 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
 
     @Override
     public Song getCurrentTrack() {
-        if (this.getMediaPlayer() == null) {
-            return null;
-        } else {
-            String uri = this.getMediaPlayer().getMedia().getSource();
-
-            // Todo: Evaluate parallelStream().
-            Optional<Song> maybeSong = this.playlist.stream()
-                    .filter(song -> new File(song.getPath()).toURI().toString().equals(uri))
-                    .findFirst();
-
-
-            // Return the present song or null.
-            return maybeSong.orElse(null);
-        }
+        return this.currentTrack.get();
     }
 
     @Override
-    public SimpleObjectProperty<Song> currentTrackProperty() {
-        return null;
+    public ObjectProperty<Song> currentTrackProperty() {
+        return this.currentTrack;
     }
 
     @Override
@@ -227,12 +240,16 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
     }
 
     private Media createMediaFromSong(Song song) {
+        return new Media(toUri(song));
+    }
 
+    /**
+     * @param song The song.
+     * @return Returns the URI of the song file, as used by the Media.
+     */
+    private static String toUri(Song song) {
         // Have to create a temporary file to convert the path to a URI.
-        File tempFile = new File(song.getPath());
-
-        Media media = new Media(tempFile.toURI().toString());
-        return media;
+        return new File(song.getPath()).toURI().toString();
     }
 
     /**
@@ -258,12 +275,8 @@ public class SimpleAudioPlayer implements controllers.media.MediaPlayer<Song> {
      * @return Returns a reference to the equivalent song in the playlist. If no equal song was found in the playlist, return NULL.
      */
     private Song findSongFromPlaylist(Song song) {
-
-        // Todo: Evaluate parallelStream().
-        return this.playlist.stream()
-                .filter(s -> s.equals(song))
-                .findFirst()
-                .orElse(null);
+        Song found = this.songsByUri.get(toUri(song));
+        return found != null && found.equals(song) ? found : null;
     }
 
     public ObjectProperty<Duration> currentMediaTimeProperty() {
@@ -1,7 +1,10 @@
 package controllers.networking.discovery;
 
+import models.clients.Server;
+import models.networking.DiscoveryBeacon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
 import utils.networking.NetUtil;
 
 import java.io.Closeable;
@@ -9,15 +12,35 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 04.12.2015.
  * Discovery Service Handler.
  * Sends out beacons in an interval.
+ *
+ * Answers probes of the clients. A starting client broadcasts a probe to the DISCOVERY_PORT of the server
+ * (Server.DISCOVERY_PORT), the server answers immediately with the discovery message (unicast to the client).
+ * So the clients don't have to wait for the next beacon, and the beacon is sent less often.
+ *
+ * The beacon is binary (DiscoveryBeacon): It contains the id of this server, the streaming port,
+ * the protocol version, the amount of connected clients and the supported transports. The answer to
+ * a probe echoes the nonce of the probe, so the client can measure the round trip time.
+ *
+ * The beacon is sent on every network interface (to all broadcast addresses of NetUtil). The packets are
+ * built once and only rebuilt if the network interfaces changed, which is checked on every tick.
+ *
+ * The beacon is sent by the shared scheduled pool, the probes are received on the shared io pool (ExecutionPools).
  * </pre>
  */
 public class ServerDiscoveryService implements Closeable {
@@ -30,29 +53,61 @@ public class ServerDiscoveryService implements Closeable {
 
     /**
      * Waiting delay for the discovery task to run again in milliseconds.
+     * Starting clients don't wait for the beacon (they send a probe), so it's only a fallback.
      */
-    private static final long DISCOVERY_TICK = 2 * 1000;
+    private static final long DISCOVERY_TICK = 10 * 1000;
 
     /**
-     * This is the message sent in the discovery protocol.
+     * The transports supported by this server.
      */
-    private static final String DISCOVERY_MESSAGE = "WSSServer";
+    private static final int TRANSPORTS = DiscoveryBeacon.TRANSPORT_TCP;
 
     //endregion Constants
 
     //region Members
     private final Logger logger;
 
+    /**
+     * Identifies this server in the beacons.
+     */
+    private final UUID serverId;
+
+    /**
+     * Provides the amount of connected clients.
+     */
+    private final IntSupplier clientCount;
+
+    /**
+     * The beacon sent by the discovery task (only used by the discovery thread).
+     */
+    private final DiscoveryBeacon beacon;
+    private final byte[] beaconBuffer;
+
+    /**
+     * One packet per broadcast address. They all send the beaconBuffer.
+     * Only used by the discovery thread.
+     */
+    private List<DatagramPacket> beaconPackets;
+
     /**
      * The socket from which the discovery datagrams are sent.
      */
     private DatagramSocket discoverySocket;
 
     /**
-     * This is the ScheduledService of the Discovery Logic.
-     * It works like a Timer and is multithreaded.
+     * The periodic discovery task (on the shared scheduled pool).
+     */
+    private ScheduledFuture<?> discoveryTask;
+
+    /**
+     * The socket receiving the probes of the clients (bound to Server.DISCOVERY_PORT).
      */
-    private ScheduledExecutorService discoveryScheduledService;
+    private DatagramSocket probeSocket;
+
+    /**
+     * The blocking probe listener (on the shared io pool).
+     */
+    private Future<?> probeTask;
 
     //endregion Members
 
@@ -60,9 +115,23 @@ public class ServerDiscoveryService implements Closeable {
 
     /**
      * Default Constructor
+     * The beacons contain no client count.
      */
     public ServerDiscoveryService() {
+        this(() -> 0);
+    }
+
+    /**
+     * Constructor
+     * @param clientCount Provides the amount of connected clients (sent in the beacons).
+     */
+    public ServerDiscoveryService(IntSupplier clientCount) {
         this.logger = LoggerFactory.getLogger(this.getClass());
+        this.serverId = UUID.randomUUID();
+        this.clientCount = clientCount;
+        this.beacon = this.createBeacon();
+        this.beaconBuffer = new byte[DiscoveryBeacon.MAX_SIZE];
+        this.beaconPackets = Collections.emptyList();
     }
 
     //endregion Constructor
@@ -73,15 +142,29 @@ public class ServerDiscoveryService implements Closeable {
     public void start() {
 
         // Start discovery Service
-        if (this.discoveryScheduledService == null || this.discoveryScheduledService.isShutdown() || this.discoveryScheduledService.isTerminated()) {
-            this.discoveryScheduledService = Executors.newScheduledThreadPool(1);
-
-            this.discoveryScheduledService.scheduleAtFixedRate(this::discover
+        if (this.discoveryTask == null) {
+            this.discoveryTask = ExecutionPools.scheduled().scheduleAtFixedRate(ExecutionPools.named("Discovery", this::discover)
                     , 0
                     , ServerDiscoveryService.DISCOVERY_TICK
                     , TimeUnit.MILLISECONDS);
         }
 
+        // Start answering probes
+        if (this.probeTask == null) {
+            try {
+                this.probeSocket = new DatagramSocket(Server.DISCOVERY_PORT);
+                this.probeSocket.setTrafficClass(0x02);
+
+                this.probeTask = ExecutionPools.io().submit(ExecutionPools.named("DiscoveryProbeListener", this::answerProbes));
+            } catch (SocketException e) {
+                this.logger.error("Could not listen for discovery probes on port " + Server.DISCOVERY_PORT
+                        + ". The clients find the server by the beacon only.", e);
+            } catch (RejectedExecutionException e) {
+                this.probeSocket.close();
+                this.probeSocket = null;
+                this.logger.error("Could not start the probe listener. The clients find the server by the beacon only.", e);
+            }
+        }
     }
 
     /**
@@ -90,11 +173,57 @@ public class ServerDiscoveryService implements Closeable {
     public void stop() {
 
         // Discovery Schedule (Timer)
-        if (this.discoveryScheduledService != null) {
-            this.discoveryScheduledService.shutdown();
-            this.discoveryScheduledService = null;
+        if (this.discoveryTask != null) {
+            this.discoveryTask.cancel(false);
+            this.discoveryTask = null;
             this.logger.info("Stopped DiscoveryService.");
         }
+
+        // Probe listener: Closing the socket ends the blocking receive.
+        if (this.probeSocket != null) {
+            this.probeSocket.close();
+            this.probeSocket = null;
+        }
+
+        if (this.probeTask != null) {
+            this.probeTask.cancel(true);
+            this.probeTask = null;
+        }
+    }
+
+    /**
+     * Receives the probes of the clients and answers them.
+     * Runs until the probe socket is closed.
+     */
+    private void answerProbes() {
+        DatagramSocket socket = this.probeSocket;
+        DiscoveryBeacon answer = this.createBeacon();
+        byte[] answerBuffer = new byte[DiscoveryBeacon.MAX_SIZE];
+        byte[] buffer = new byte[DiscoveryBeacon.MAX_SIZE];
+        DatagramPacket probe = new DatagramPacket(buffer, buffer.length);
+
+        this.logger.info("Answering discovery probes (Port: " + Server.DISCOVERY_PORT + ")");
+
+        try {
+            while (!socket.isClosed()) {
+                probe.setLength(buffer.length);
+                socket.receive(probe);
+
+                if (!DiscoveryBeacon.isProbe(buffer, probe.getOffset(), probe.getLength()))
+                    continue;
+
+                answer.setClientCount(this.clientCount.getAsInt());
+                answer.setEcho(DiscoveryBeacon.getProbeNonce(buffer, probe.getOffset()));
+                int length = answer.write(answerBuffer);
+
+                // Answer to the sender (the discovery socket of the client).
+                socket.send(new DatagramPacket(answerBuffer, length, probe.getAddress(), probe.getPort()));
+                this.logger.info("Answered discovery probe of " + probe.getAddress().getHostAddress());
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed())
+                this.logger.error("Error receiving discovery probes", e);
+        }
     }
 
     /**
@@ -112,29 +241,57 @@ public class ServerDiscoveryService implements Closeable {
                 this.discoverySocket.setTrafficClass(0x02);
             }
 
-            // Get the bytes of the data to send.
-            byte[] sendData = ServerDiscoveryService.DISCOVERY_MESSAGE.getBytes();
-
-            try {
-                InetAddress broadcastAddress = NetUtil.getBroadcastAddress4();
-                // Create datagram packet for UDP.
-                DatagramPacket datagram = new DatagramPacket(
-                        sendData,
-                        sendData.length,
-                        InetAddress.getByName(broadcastAddress.getHostAddress()),
-                        ServerDiscoveryService.DISCOVERY_PORT
-                );
-
-                this.discoverySocket.send(datagram);
+            // Rebuild the packets if the network interfaces changed.
+            if (NetUtil.refreshBroadcastAddresses() || this.beaconPackets.isEmpty()) {
+                this.beaconPackets = this.createBeaconPackets(NetUtil.getBroadcastAddresses4());
             }
-            catch(NullPointerException nullPointerException){
+
+            if (this.beaconPackets.isEmpty()) {
                 this.logger.info("The Server is not connected to a network.");
+                return;
+            }
+
+            // Write the bytes of the data to send (the packets use the buffer).
+            this.beacon.setClientCount(this.clientCount.getAsInt());
+            this.beacon.write(this.beaconBuffer);
+
+            for (DatagramPacket packet : this.beaconPackets) {
+                try {
+                    this.discoverySocket.send(packet);
+                } catch (IOException e) {
+                    this.logger.info("Could not send the beacon to " + packet.getAddress().getHostAddress(), e);
+                }
             }
         } catch (Exception e) {
             this.logger.info("Error in discovery service", e);
         }
     }
 
+    /**
+     * Creates the beacon packets.
+     * @param broadcastAddresses The broadcast addresses of the network interfaces.
+     * @return Returns a packet per address.
+     */
+    private List<DatagramPacket> createBeaconPackets(List<InetAddress> broadcastAddresses) {
+        List<DatagramPacket> packets = new ArrayList<>();
+
+        for (InetAddress broadcastAddress : broadcastAddresses) {
+            packets.add(new DatagramPacket(
+                    this.beaconBuffer,
+                    DiscoveryBeacon.BEACON_SIZE,
+                    broadcastAddress,
+                    ServerDiscoveryService.DISCOVERY_PORT
+            ));
+        }
+
+        this.logger.info("Sending beacons to " + broadcastAddresses);
+        return packets;
+    }
+
+    private DiscoveryBeacon createBeacon() {
+        return new DiscoveryBeacon(this.serverId, Server.STREAMING_PORT, ServerDiscoveryService.TRANSPORTS);
+    }
+
     /**
      * <pre>
      * Redundant with stop().
@@ -3,6 +3,7 @@ package controllers.networking.streaming.music;
 import models.songs.Song;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <pre>
@@ -13,11 +14,14 @@ import java.io.IOException;
 public interface MusicStreamController {
 
     /**
-     * Starts playing the song on the client.
+     * Starts playing the song on the client. Does not wait until the clients received the song.
+     * Start the local playback when the returned future completed, so the server plays in sync with the clients.
      * @param song Song to stream.
-     * @throws IOException Throws an IO Exception if there was a problem with IO. (Probably with the song).
+     * @return Returns a future, completed with true when the play command was sent to the clients,
+     *         with false if the play was superseded or cancelled, or exceptionally with an IOException
+     *         if there was a problem with IO. (Probably with the song).
      */
-    void play(Song song) throws IOException;
+    CompletableFuture<Boolean> play(Song song);
 
     /**
      * Stops playing the song on the client.
@@ -30,7 +34,8 @@ public interface MusicStreamController {
     void pause();
 
     /**
-     * Caches a song on the clients.
+     * Caches a song on the clients. (Does not wait until the clients received it)
+     * Used to send the next track ahead of time, a following play(song) only starts it.
      * @param song The song to cache on the clients.
      */
     void cacheSong(Song song) throws IOException;
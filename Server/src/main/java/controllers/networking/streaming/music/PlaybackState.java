@@ -0,0 +1,123 @@
+package controllers.networking.streaming.music;
+
+import models.songs.Mp3Song;
+import models.songs.Song;
+
+/**
+ * <pre>
+ * What the clients are playing at the moment: the song, the position and whether it's paused.
+ * Used to resume a paused song and to restore the playback on a reconnected client.
+ *
+ * The position is not read from a MediaPlayer, it's calculated from the time the song was started.
+ * It never exceeds the length of the song: A song played to the end is finished, the state is stopped
+ * (no song), as if stop() was called.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class PlaybackState {
+
+    private Song song;
+    private String songId;
+    private boolean playing;
+
+    /**
+     * Position (in milliseconds) at the time of the last change.
+     */
+    private long position;
+
+    /**
+     * Time (System.nanoTime) of the last change.
+     */
+    private long changedAt;
+
+    /**
+     * Starts playing a song.
+     * @param song The song.
+     * @param songId Id of the song.
+     * @param position Start position in milliseconds.
+     */
+    public synchronized void play(Song song, String songId, long position) {
+        this.song = song;
+        this.songId = songId;
+        this.position = position;
+        this.changedAt = System.nanoTime();
+        this.playing = true;
+    }
+
+    /**
+     * Pauses the song. The position stays at the current position.
+     */
+    public synchronized void pause() {
+        if(!this.playing)
+            return;
+
+        this.position = this.getPosition();
+        this.changedAt = System.nanoTime();
+        this.playing = false;
+    }
+
+    /**
+     * Stops playing. No song is loaded anymore.
+     */
+    public synchronized void stop() {
+        this.song = null;
+        this.songId = null;
+        this.position = 0;
+        this.playing = false;
+    }
+
+    /**
+     * @return Returns the current song or null (also if the song was played to the end).
+     */
+    public synchronized Song getSong() {
+        this.stopIfFinished();
+        return this.song;
+    }
+
+    /**
+     * @return Returns the id of the current song or null (also if the song was played to the end).
+     */
+    public synchronized String getSongId() {
+        this.stopIfFinished();
+        return this.songId;
+    }
+
+    /**
+     * @return Returns true if the song is playing (not paused and not played to the end).
+     */
+    public synchronized boolean isPlaying() {
+        this.stopIfFinished();
+        return this.playing;
+    }
+
+    /**
+     * @return Returns the current position in the song in milliseconds (at most the length of the song).
+     */
+    public synchronized long getPosition() {
+        this.stopIfFinished();
+        if(!this.playing)
+            return this.position;
+
+        return Math.min(this.position + (System.nanoTime() - this.changedAt) / 1000000, this.getLength());
+    }
+
+    /**
+     * Stops, if the playing song reached its end.
+     */
+    private void stopIfFinished() {
+        if(this.playing && this.position + (System.nanoTime() - this.changedAt) / 1000000 >= this.getLength())
+            this.stop();
+    }
+
+    /**
+     * @return Returns the length of the current song in milliseconds (Long.MAX_VALUE if unknown).
+     */
+    private long getLength() {
+        long length = this.song instanceof Mp3Song
+                ? ((Mp3Song) this.song).getMetadata().getLengthInMilliseconds()
+                : this.song != null ? this.song.getLengthInSeconds() * 1000 : 0;
+
+        return length > 0 ? length : Long.MAX_VALUE;
+    }
+}
@@ -2,17 +2,38 @@ package controllers.networking.streaming.music.tcp;
 
 import controllers.clients.ClientController;
 import controllers.networking.streaming.music.MusicStreamController;
+import controllers.networking.streaming.music.PlaybackState;
 import models.networking.clients.NetworkClient;
 import models.networking.dtos.CacheSongCommand;
+import models.networking.dtos.CancelTransferCommand;
 import models.networking.dtos.PauseCommand;
 import models.networking.dtos.PlayCommand;
+import models.networking.dtos.SessionCommand;
+import models.networking.dtos.SongChunkCommand;
 import models.networking.dtos.StopCommand;
+import models.songs.Mp3Song;
 import models.songs.Song;
+import models.songs.SongMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.SerialExecutor;
 import utils.media.SongUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -20,8 +41,56 @@ import java.io.IOException;
  * This class controls the Music Stream.
  * It does not directly handle any connection issues, but uses the I/O Streams provided by the Socket of the clients.
  * The clients are provided by the ClientController.
+ *
+ * The clients cache two songs: the playing song and the next song (SlottedFileCacheService on the client).
+ * This controller keeps the same slots for every client, so a song the client already has
+ * (i.e. the next track sent with cacheSong) is started with the play command only.
+ *
+ * The songs are sent in chunks. If a client has to receive the song to play, only the pre-roll
+ * is sent before the play command, so the client starts playing while it receives the rest.
+ *
+ * The PlaybackState is tracked. A client starting a session (connecting or reconnecting) gets the
+ * current song at the current position, without the data if it still has the song cached.
+ * If the song is played from a position (late join, resume), the chunks are sent starting at the
+ * estimated byte offset of the position, the beginning of the song is sent last. So the client can
+ * start playing at the position after receiving the pre-roll.
+ *
+ * The clients are taken from a snapshot of the client registry (ClientController.getConnectedClients()),
+ * so a new client gets the songs without waiting for the JavaFX thread.
+ *
+ * The outbound queue of a client is bounded. Before a song is played, the data of other songs still
+ * waiting to be sent is dropped. The next track is not sent to slow consumers (it's sent when it's played).
+ * If song data or a play command was dropped by the queue, the song is removed from the cache slots of
+ * the client, so it's sent again when needed.
+ *
+ * The songs and commands are sent on a transfer thread, in the order of the calls. A play supersedes the
+ * older plays: they are skipped, or cancelled while waiting for the pre-roll. Data of other songs still
+ * waiting is dropped and the clients discard what they received of it (CancelTransferCommand).
+ * So when the user skips through the songs, only the last song is sent.
+ * The playback of a client starting a session is restored on the transfer thread too. The transfer thread
+ * waits for the clients without holding the lock of the cache slots.
  */
-public class TCPMusicStreamController implements MusicStreamController {
+public class TCPMusicStreamController implements MusicStreamController, Closeable {
+
+    /**
+     * Size of a chunk of a song in bytes.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Amount of bytes sent before the play command (the client needs this to start playing).
+     */
+    public static final int PRE_ROLL_SIZE = 128 * 1024;
+
+    /**
+     * Time (in milliseconds) between the checks whether a play waiting for the pre-roll was superseded.
+     */
+    private static final long SUPERSEDED_CHECK_INTERVAL = 20;
+
+    /**
+     * Maximum time (in milliseconds) a reconnected client may take to receive the pre-roll of the current song.
+     */
+    private static final long RESTORE_TIMEOUT = 5000;
 
     /**
      * The logger of this class.
@@ -34,6 +103,26 @@ public class TCPMusicStreamController implements MusicStreamController {
      */
     private final ClientController clientController;
 
+    /**
+     * The cache slots of every client.
+     */
+    private final Map<NetworkClient, CacheSlots> clientSlots;
+
+    /**
+     * What the clients are playing.
+     */
+    private final PlaybackState playbackState;
+
+    /**
+     * Sends the songs and commands to the clients, in the order they were requested.
+     */
+    private final SerialExecutor transferExecutor;
+
+    /**
+     * Incremented with every play request. A transfer of an older generation is superseded.
+     */
+    private final AtomicLong transferGeneration;
+
     /**
      * Creates a new instance of a music stream controller.
      * @param clientController The client controller bound to this music controller.
@@ -42,30 +131,190 @@ public class TCPMusicStreamController implements MusicStreamController {
         this.logger = LoggerFactory.getLogger(this.getClass());
 
         this.clientController = clientController;
+        this.clientSlots = new HashMap<>();
+        this.playbackState = new PlaybackState();
+
+        this.transferGeneration = new AtomicLong();
+        this.transferExecutor = new SerialExecutor("SongTransfer", ExecutionPools.io());
+
+        this.clientController.addClientSessionListener(this::resumeSession);
     }
 
     /**
      * Starts playing the song on the client.
+     * If the song is the current song (i.e. paused), it's resumed at the current position.
+     * The song is sent on the transfer thread, a newer play supersedes it (see transfer()).
      *
      * @param song Song to stream.
-     * @throws IOException Throws an IO Exception if there was a problem with IO. (Probably with the song).
+     * @return Returns a future, completed with true when the play command was sent (the clients received the
+     *         pre-roll), with false if the play was superseded or cancelled, or exceptionally with an IOException.
      */
     @Override
-    public void play(Song song) throws IOException {
-        byte[] songData = SongUtils.getSongData(song);
+    public CompletableFuture<Boolean> play(Song song) {
+        long generation = this.transferGeneration.incrementAndGet();
+        CompletableFuture<Boolean> started = new CompletableFuture<>();
+
+        this.execute(() -> {
+            try {
+                started.complete(this.transfer(song, generation));
+            } catch (IOException e) {
+                started.completeExceptionally(e);
+                throw e;
+            }
+        }, () -> started.complete(false));
+        return started;
+    }
+
+    /**
+     * Sends the song and the play command to the clients. (Transfer thread)
+     * Skipped if a newer play was requested meanwhile. If a newer play is requested while waiting for
+     * the pre-roll, the transfer is cancelled: the queued data is dropped and the clients discard the
+     * partially received song (CancelTransferCommand). So only the last song of a skip burst is sent.
+     *
+     * The position is taken when the play command is sent: a song resumed while it's playing goes on during the
+     * pre-roll, the clients start at the position the song has then.
+     *
+     * @param song Song to stream.
+     * @param generation The generation of the play request.
+     * @return Returns true if the play command was sent, false if the play was superseded.
+     */
+    private boolean transfer(Song song, long generation) throws IOException {
+        if(this.isSuperseded(generation))
+            return false;
+
+        String songId = SongUtils.getSongId(song);
+
+        // The transfers run one after the other on the transfer thread, so the chunks of different songs are not
+        // mixed. The slots are locked while they are changed, not while waiting for the clients.
+        List<NetworkClient> clients;
+        List<NetworkClient> receivingClients;
+        List<NetworkClient> waitingClients = new ArrayList<>();
+        List<SongChunkCommand> chunks = Collections.emptyList();
+        int preRollChunks = 0;
 
-        // Initialize this here, so we have less delay between sending of the objects.
-        PlayCommand playCommand = new PlayCommand(song.getTitle(), song.getArtist());
+        synchronized (this.clientSlots) {
+            // The data is sent starting at the position the song has now.
+            long byteOffset = estimateByteOffset(song, this.getPosition(songId));
 
-        this.cacheSong(songData);
+            // The same clients get the data and the play command. (Clients connecting meanwhile start a session.)
+            clients = this.clientController.getConnectedClients();
 
-        // Then wait for the clients until they all received the song completely.
-        this.waitForClientsReceived();
+            // Only the clients without the song in their cache need the data.
+            receivingClients = this.getClientsWithout(clients, songId);
 
-        // Then send all clients the play command.
-        for(NetworkClient client : this.clientController.getClients()) {
-            client.send(playCommand);
+            // The data of other songs still waiting is stale now, the clients discard what they received of it.
+            for(NetworkClient client : clients) {
+                for(String staleSongId : client.discardSongData(songId)) {
+                    client.send(new CancelTransferCommand(staleSongId));
+                }
+            }
+
+            // Clients which have the song in their cache, but did not receive all of it yet (i.e. the next track
+            // played while it's still being sent). The play command would wait behind the rest of the song.
+            for(NetworkClient client : clients) {
+                if(!receivingClients.contains(client) && this.isInFlight(client, songId))
+                    waitingClients.add(client);
+            }
+
+            if(!receivingClients.isEmpty()) {
+                chunks = startingAt(this.createChunks(songId, SongUtils.getSongData(song)), byteOffset);
+                preRollChunks = Math.min(chunks.size(), (PRE_ROLL_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+                for(NetworkClient client : receivingClients) {
+                    this.getSlots(client).write(songId);
+                    chunks.subList(0, preRollChunks).forEach(client::send);
+                }
+                waitingClients.addAll(receivingClients);
+            }
         }
+
+        // Then wait for the clients until they all received the pre-roll (or the rest of the cached song).
+        if(!this.awaitPreRoll(waitingClients, generation, Long.MAX_VALUE)) {
+            this.logger.info("Play of " + songId + " was superseded, cancelling the transfer.");
+            this.cancelTransfer(receivingClients, songId);
+            return false;
+        }
+
+        synchronized (this.clientSlots) {
+            // The song may have gone on playing while waiting for the pre-roll, take the position now.
+            long position = this.getPosition(songId);
+            this.playbackState.play(song, songId, position);
+            PlayCommand playCommand = new PlayCommand(songId, song.getTitle(), song.getArtist(),
+                    position, estimateByteOffset(song, position), false);
+
+            // Then send all clients the play command.
+            for(NetworkClient client : clients) {
+                this.getSlots(client).play(songId);
+                client.send(playCommand);
+            }
+
+            // And the rest of the song (played while received).
+            for(NetworkClient client : receivingClients) {
+                chunks.subList(preRollChunks, chunks.size()).forEach(client::send);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the queued data of a song and tells the clients to discard what they received of it.
+     *
+     * @param clients The clients receiving the song.
+     * @param songId Id of the song.
+     */
+    private void cancelTransfer(List<NetworkClient> clients, String songId) {
+        synchronized (this.clientSlots) {
+            for(NetworkClient client : clients) {
+                client.discardSongData(null);
+                this.getSlots(client).forget(songId);
+                client.send(new CancelTransferCommand(songId));
+            }
+        }
+    }
+
+    /**
+     * @return Returns the position of the song, if it's the current song (i.e. paused), otherwise 0.
+     */
+    private long getPosition(String songId) {
+        return songId.equals(this.playbackState.getSongId()) ? this.playbackState.getPosition() : 0;
+    }
+
+    /**
+     * Waits until the clients received the pre-roll. (Transfer thread, without holding the lock of the slots)
+     *
+     * @param clients The receiving clients.
+     * @param generation The generation of the play request.
+     * @param timeout Maximum time to wait in milliseconds (Long.MAX_VALUE to wait until the clients received it
+     *                or were disconnected by the send deadline).
+     * @return Returns false if a newer play was requested meanwhile, the timeout elapsed or the transfer thread
+     *         was interrupted (the controller is closed).
+     */
+    private boolean awaitPreRoll(List<NetworkClient> clients, long generation, long timeout) {
+        long start = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        for(NetworkClient client : clients) {
+            while(true) {
+                if(this.isSuperseded(generation) || System.nanoTime() - start >= timeoutNanos
+                        || Thread.currentThread().isInterrupted())
+                    return false;
+
+                try {
+                    client.waitForSending(SUPERSEDED_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // Check again whether the play is still wanted.
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Returns true if a newer play was requested after the one with the generation.
+     */
+    private boolean isSuperseded(long generation) {
+        return generation != this.transferGeneration.get();
     }
 
     /**
@@ -73,10 +322,14 @@ public class TCPMusicStreamController implements MusicStreamController {
      */
     @Override
     public void stop() {
-        StopCommand stopCommand = new StopCommand();
-        for(NetworkClient client : this.clientController.getClients()) {
-            client.send(stopCommand);
-        }
+        this.execute(() -> {
+            this.playbackState.stop();
+
+            StopCommand stopCommand = new StopCommand();
+            for(NetworkClient client : this.clientController.getConnectedClients()) {
+                client.send(stopCommand);
+            }
+        });
     }
 
     /**
@@ -84,44 +337,397 @@ public class TCPMusicStreamController implements MusicStreamController {
      */
     @Override
     public void pause() {
-        PauseCommand pauseCommand = new PauseCommand();
-        for(NetworkClient client : this.clientController.getClients()) {
-            client.send(pauseCommand);
-        }
+        this.execute(() -> {
+            this.playbackState.pause();
+
+            PauseCommand pauseCommand = new PauseCommand();
+            for(NetworkClient client : this.clientController.getConnectedClients()) {
+                client.send(pauseCommand);
+            }
+        });
     }
 
     /**
-     * Caches a song on the clients.
+     * Caches a song on the clients. (Sent on the transfer thread, after the songs to play)
+     * Skipped if a newer play was requested meanwhile (the player caches the next track of the new song).
      *
      * @param song The song to cache on the clients.
      */
     @Override
     public void cacheSong(Song song) throws IOException {
-        byte[] songData = SongUtils.getSongData(song);
-        this.cacheSong(songData);
+        long generation = this.transferGeneration.get();
+        this.execute(() -> {
+            if(!this.isSuperseded(generation))
+                this.sendToCache(song);
+        });
+    }
+
+    /**
+     * Sends a song to the clients which don't have it. (Transfer thread)
+     *
+     * @param song The song to cache on the clients.
+     */
+    private void sendToCache(Song song) throws IOException {
+        String songId = SongUtils.getSongId(song);
+
+        synchronized (this.clientSlots) {
+            List<NetworkClient> receivingClients = this.getClientsWithout(this.clientController.getConnectedClients(), songId);
+            if(receivingClients.isEmpty())
+                return;
+
+            // Send the chunks to make the clients ready.
+            List<SongChunkCommand> chunks = this.createChunks(songId, SongUtils.getSongData(song));
+            for(NetworkClient client : receivingClients) {
+                // Don't add to the backlog of a slow client, it gets the song when it's played.
+                if(client.isSlowConsumer()) {
+                    this.logger.info("Not caching " + songId + " on the slow client " + client);
+                    continue;
+                }
+
+                this.getSlots(client).write(songId);
+                chunks.forEach(client::send);
+            }
+        }
+    }
+
+    /**
+     * Executes a transfer on the transfer thread. The transfers are executed in the order of the calls.
+     *
+     * @param transfer The transfer.
+     */
+    private void execute(Transfer transfer) {
+        this.execute(transfer, () -> { });
+    }
+
+    /**
+     * Executes a transfer on the transfer thread. The transfers are executed in the order of the calls.
+     *
+     * @param transfer The transfer.
+     * @param onRejected Called if the transfer is not executed (the stream controller was closed).
+     */
+    private void execute(Transfer transfer, Runnable onRejected) {
+        try {
+            this.transferExecutor.execute(new TransferTask(transfer, onRejected));
+        } catch (RejectedExecutionException e) {
+            this.logger.warn("The stream controller is closed.");
+            onRejected.run();
+        }
+    }
+
+    /**
+     * Stops the transfer thread. Queued transfers are not executed anymore.
+     */
+    @Override
+    public void close() {
+        for(Runnable task : this.transferExecutor.shutdownNow()) {
+            if(task instanceof TransferTask)
+                ((TransferTask) task).onRejected.run();
+        }
+    }
+
+    /**
+     * Restores the playback on a client which started a session.
+     * Queued on the transfer thread: never blocks the caller (i.e. the thread accepting the connections),
+     * and ordered with the plays, pauses and stops.
+     *
+     * @param client The client.
+     * @param session The session of the client.
+     */
+    private void resumeSession(NetworkClient client, SessionCommand session) {
+        long generation = this.transferGeneration.get();
+        this.execute(() -> this.restore(client, session, generation));
     }
 
     /**
-     * Caches a song on the clients.
+     * Restores the playback on a client. (Transfer thread)
+     * The cache slots are taken from the client, the current song is only sent if the client doesn't have it.
+     * If the client does not receive the pre-roll within RESTORE_TIMEOUT, or a newer play is requested meanwhile,
+     * the restore is cancelled (the newer play includes the client).
      *
+     * @param client The client.
+     * @param session The session of the client.
+     * @param generation The generation of the play requests when the session started.
+     */
+    private void restore(NetworkClient client, SessionCommand session, long generation) {
+        Song song;
+        String songId;
+        List<SongChunkCommand> chunks = Collections.emptyList();
+        int preRollChunks = 0;
+
+        synchronized (this.clientSlots) {
+            CacheSlots slots = this.getSlots(client);
+            slots.restore(session.playingSongId, session.nextSongId);
+
+            song = this.playbackState.getSong();
+            if(song == null)
+                return;
+
+            songId = this.playbackState.getSongId();
+
+            if(!slots.contains(songId)) {
+                try {
+                    // Start with the data around the current position.
+                    long byteOffset = estimateByteOffset(song, this.playbackState.getPosition());
+                    chunks = startingAt(this.createChunks(songId, SongUtils.getSongData(song)), byteOffset);
+                } catch (IOException e) {
+                    this.logger.error("Could not read the current song for client " + client, e);
+                    return;
+                }
+                preRollChunks = Math.min(chunks.size(), (PRE_ROLL_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+                slots.write(songId);
+                chunks.subList(0, preRollChunks).forEach(client::send);
+            }
+        }
+
+        // The song goes on playing while the pre-roll is sent, take the position afterwards.
+        if(!this.awaitPreRoll(Collections.singletonList(client), generation, RESTORE_TIMEOUT)) {
+            this.logger.info("Could not restore the playback on client " + client + " (superseded or too slow)");
+            if(!chunks.isEmpty())
+                this.cancelTransfer(Collections.singletonList(client), songId);
+            return;
+        }
+
+        this.logger.info("Restoring the playback on client " + client + " (" + (chunks.isEmpty() ? "cached" : "sending the song") + ")");
+
+        synchronized (this.clientSlots) {
+            long position = this.playbackState.getPosition();
+            this.getSlots(client).play(songId);
+            client.send(new PlayCommand(songId, song.getTitle(), song.getArtist(),
+                    position, estimateByteOffset(song, position), !this.playbackState.isPlaying()));
+
+            chunks.subList(preRollChunks, chunks.size()).forEach(client::send);
+        }
+    }
+
+    /**
+     * Called when an object for the client was dropped by its outbound queue.
+     * The client won't have the song of dropped data or a dropped play command, it's removed from its slots.
+     * The first time data of a song is dropped, the transfer is cancelled on the client (the queue drops the rest
+     * of the song), so a client streaming the song does not wait for the missing data.
+     *
+     * @param client The client.
+     * @param object The dropped object.
+     */
+    private void onSendDropped(NetworkClient client, Object object) {
+        String songId = null;
+        boolean songData = object instanceof SongChunkCommand || object instanceof CacheSongCommand;
+        if(object instanceof SongChunkCommand)
+            songId = ((SongChunkCommand) object).songId;
+        else if(object instanceof CacheSongCommand)
+            songId = ((CacheSongCommand) object).songId;
+        else if(object instanceof PlayCommand)
+            songId = ((PlayCommand) object).songId;
+
+        if(songId == null)
+            return;
+
+        synchronized (this.clientSlots) {
+            CacheSlots slots = this.clientSlots.get(client);
+            if(slots == null)
+                return;
+
+            boolean firstDrop = songData && slots.contains(songId);
+            slots.forget(songId);
+
+            if(firstDrop) {
+                this.logger.info("Data of song " + songId + " was dropped for client " + client + ", cancelling the transfer");
+                client.send(new CancelTransferCommand(songId));
+            }
+        }
+    }
+
+    /**
+     * Splits the song into chunks.
+     *
+     * @param songId The id of the song.
      * @param songData The bytes containing the song data.
+     * @return Returns the chunks in the order of the song.
      */
-    private void cacheSong(byte[] songData) {
-        CacheSongCommand command = new CacheSongCommand(songData);
+    private List<SongChunkCommand> createChunks(String songId, byte[] songData) {
+        List<SongChunkCommand> chunks = new ArrayList<>();
 
-        // Send the cache song command to make the clients ready.
-        for(NetworkClient client : this.clientController.getClients()) {
-            client.send(command);
+        for(int offset = 0; offset < songData.length; offset += CHUNK_SIZE) {
+            byte[] data = Arrays.copyOfRange(songData, offset, Math.min(songData.length, offset + CHUNK_SIZE));
+            chunks.add(new SongChunkCommand(songId, offset, songData.length, data));
         }
+        return chunks;
     }
 
     /**
-     * Waits, until all clients have received pending messages.
-     * Used to synchronize asynchronous sending of objects.
+     * Reorders the chunks to start with the chunk containing the byte offset.
+     * The chunks before the byte offset are moved to the end.
+     *
+     * @param chunks The chunks in the order of the song.
+     * @param byteOffset The byte offset (may be unknown).
+     * @return Returns the reordered chunks.
      */
-    private void waitForClientsReceived() {
+    private static List<SongChunkCommand> startingAt(List<SongChunkCommand> chunks, long byteOffset) {
+        int first = (int) Math.max(0, Math.min(chunks.size() - 1, byteOffset / CHUNK_SIZE));
+        if(first == 0)
+            return chunks;
+
+        List<SongChunkCommand> ordered = new ArrayList<>(chunks.subList(first, chunks.size()));
+        ordered.addAll(chunks.subList(0, first));
+        return ordered;
+    }
+
+    /**
+     * Estimates the byte offset of a position in the song file.
+     *
+     * @param song The song.
+     * @param position Position in milliseconds.
+     * @return Returns the byte offset, 0 at the beginning or -1 (SongMetadata.UNKNOWN) if unknown.
+     */
+    private static long estimateByteOffset(Song song, long position) {
+        if(position <= 0)
+            return 0;
+
+        if(song instanceof Mp3Song)
+            return ((Mp3Song) song).getMetadata().estimateByteOffset(position);
+
+        return SongMetadata.UNKNOWN;
+    }
 
-        // Wait for all clients to receive the messages.
-        this.clientController.getClients().forEach(NetworkClient::waitForSending);
+    /**
+     * @param clients Snapshot of the connected clients.
+     * @return Returns the clients which do not have the song in their cache.
+     */
+    private List<NetworkClient> getClientsWithout(List<NetworkClient> clients, String songId) {
+        List<NetworkClient> receivingClients = new ArrayList<>();
+
+        synchronized (this.clientSlots) {
+            // Forget the disconnected clients.
+            this.clientSlots.keySet().retainAll(new HashSet<>(clients));
+
+            for(NetworkClient client : clients) {
+                if(!this.getSlots(client).contains(songId))
+                    receivingClients.add(client);
+            }
+        }
+        return receivingClients;
+    }
+
+    /**
+     * Checks whether a song in the cache of a client was not completely sent yet. (Locked by the slots)
+     *
+     * @param client The client.
+     * @param songId Id of the song.
+     * @return Returns true if the song is still being sent to the next slot of the client.
+     */
+    private boolean isInFlight(NetworkClient client, String songId) {
+        CacheSlots slots = this.getSlots(client);
+        if(!slots.isInFlight(songId))
+            return false;
+
+        if(client.hasQueuedSongData(songId))
+            return true;
+
+        slots.received(songId);
+        return false;
+    }
+
+    /**
+     * A transfer to the clients.
+     */
+    @FunctionalInterface
+    private interface Transfer {
+        void run() throws IOException;
+    }
+
+    /**
+     * A transfer queued on the transfer thread.
+     */
+    private class TransferTask implements Runnable {
+        private final Transfer transfer;
+
+        /**
+         * Called if the transfer is not executed (the stream controller was closed).
+         */
+        private final Runnable onRejected;
+
+        TransferTask(Transfer transfer, Runnable onRejected) {
+            this.transfer = transfer;
+            this.onRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.transfer.run();
+            } catch (IOException e) {
+                logger.error("Failed streaming the song to the clients!", e);
+            }
+        }
+    }
+
+    private CacheSlots getSlots(NetworkClient client) {
+        return this.clientSlots.computeIfAbsent(client, c -> {
+            c.addOnSendDroppedListener(object -> this.onSendDropped(c, object));
+            return new CacheSlots();
+        });
+    }
+
+    /**
+     * The songs in the cache of a client. Follows the rules of the SlottedFileCacheService of the client:
+     * Data is written into the slot which is not playing, playing the song in that slot swaps the slots.
+     *
+     * The song written into the next slot is in flight until all of its data was sent (see isInFlight()
+     * of the controller). The playing song is streamed, the client already has its start.
+     */
+    private static class CacheSlots {
+        private String playing;
+        private String next;
+        private boolean nextInFlight;
+
+        void write(String songId) {
+            this.next = songId;
+            this.nextInFlight = true;
+        }
+
+        void play(String songId) {
+            if(songId.equals(this.next)) {
+                this.next = this.playing;
+                this.playing = songId;
+                this.nextInFlight = false;
+            }
+        }
+
+        void restore(String playing, String next) {
+            this.playing = playing;
+            this.next = next;
+            this.nextInFlight = false;
+        }
+
+        /**
+         * Marks the song as received completely.
+         */
+        void received(String songId) {
+            if(songId.equals(this.next))
+                this.nextInFlight = false;
+        }
+
+        /**
+         * @return Returns true if the song is in the next slot, but was not received completely yet.
+         */
+        boolean isInFlight(String songId) {
+            return this.nextInFlight && songId.equals(this.next);
+        }
+
+        /**
+         * Removes a song the client does not (completely) have.
+         */
+        void forget(String songId) {
+            if(songId.equals(this.playing))
+                this.playing = null;
+            if(songId.equals(this.next)) {
+                this.next = null;
+                this.nextInFlight = false;
+            }
+        }
+
+        boolean contains(String songId) {
+            return songId.equals(this.playing) || songId.equals(this.next);
+        }
     }
-}
\ No newline at end of file
+}
@@ -6,7 +6,7 @@ import models.networking.clients.NetworkClient;
 import models.networking.clients.SocketNetworkClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import utils.concurrent.ExecutorServiceUtils;
+import utils.concurrent.ExecutionPools;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -15,13 +15,14 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by Esteban Luchsinger on 26.03.2016.
  * The TCP Server uses a TCP Server Socket and listens for incoming connections.
  * This class is just here to accept incoming connections for clients.
+ *
+ * Accepts on a thread of the shared io pool (ExecutionPools) instead of an own executor.
  */
 public class TCPSocketServer implements Closeable {
     private final Logger logger;
@@ -38,7 +39,7 @@ public class TCPSocketServer implements Closeable {
      */
     private boolean dirtyServer;
     private volatile boolean isRunning;
-    private final ExecutorService acceptingService;
+    private volatile Future<?> acceptingTask;
 
     private final ServerSocket serverSocket;
     private final List<OnClientConnected> onClientConnectedListeners;
@@ -52,7 +53,6 @@ public class TCPSocketServer implements Closeable {
     public TCPSocketServer() throws IOException {
         this.logger = LoggerFactory.getLogger(this.getClass());
         this.onClientConnectedListeners = new ArrayList<>();
-        this.acceptingService = Executors.newSingleThreadExecutor();
         this.serverSocket = new ServerSocket(Server.STREAMING_PORT, MAXIMUM_BACKLOG);
     }
 
@@ -69,7 +69,8 @@ public class TCPSocketServer implements Closeable {
                 // Everything ok. Start the service.
                 this.dirtyServer = true;
                 this.isRunning = true;
-                this.acceptingService.submit(this::acceptConnections);
+                this.acceptingTask = ExecutionPools.io().submit(
+                        ExecutionPools.named("ConnectionAcceptor", this::acceptConnections));
             }
         }
     }
@@ -148,7 +149,8 @@ public class TCPSocketServer implements Closeable {
     @Override
     public void close() throws IOException {
         this.isRunning = false;
-        ExecutorServiceUtils.stopExecutorService(this.acceptingService);
+        if(this.acceptingTask != null)
+            this.acceptingTask.cancel(true);
 
         if(this.serverSocket != null && !this.serverSocket.isClosed())
             this.serverSocket.close();
@@ -0,0 +1,192 @@
+package controllers.search;
+
+import models.songs.Song;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * <pre>
+ * Inverted index over the title and artist tokens of the songs.
+ *
+ * The tokens are normalized (lower case, without accents) and kept sorted, so every token
+ * starting with a prefix can be found with a range lookup. A query matches a song, if every
+ * query token is a prefix of one of the song's tokens ("beat hel" finds "Help! - The Beatles").
+ *
+ * The index is updated incrementally with add() and remove().
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class SongSearchIndex<T extends Song> {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final String[] NO_TOKENS = new String[0];
+
+    /**
+     * Token --&gt; Songs containing the token (with all tokens of the song, to check further query tokens).
+     */
+    private final NavigableMap<String, Map<T, String[]>> postings;
+
+    /**
+     * Song --&gt; Tokens of the song (needed to remove the song).
+     */
+    private final Map<T, String[]> songTokens;
+
+    public SongSearchIndex() {
+        this.postings = new TreeMap<>();
+        this.songTokens = new HashMap<>();
+    }
+
+    /**
+     * Adds a song to the index.
+     * @param song Song to add.
+     */
+    public synchronized void add(T song) {
+        if(this.songTokens.containsKey(song))
+            return;
+
+        String[] tokens = tokenize(song.getTitle() + " " + song.getArtist());
+        this.songTokens.put(song, tokens);
+
+        for(String token : tokens) {
+            this.postings.computeIfAbsent(token, key -> new HashMap<>()).put(song, tokens);
+        }
+    }
+
+    /**
+     * Adds several songs to the index.
+     * @param songs Songs to add.
+     */
+    public synchronized void addAll(Collection<? extends T> songs) {
+        songs.forEach(this::add);
+    }
+
+    /**
+     * Removes a song from the index.
+     * @param song Song to remove.
+     */
+    public synchronized void remove(T song) {
+        String[] tokens = this.songTokens.remove(song);
+        if(tokens == null)
+            return;
+
+        for(String token : tokens) {
+            Map<T, String[]> songs = this.postings.get(token);
+            if(songs != null) {
+                songs.remove(song);
+                if(songs.isEmpty())
+                    this.postings.remove(token);
+            }
+        }
+    }
+
+    /**
+     * Removes several songs from the index.
+     * @param songs Songs to remove.
+     */
+    public synchronized void removeAll(Collection<? extends T> songs) {
+        songs.forEach(this::remove);
+    }
+
+    /**
+     * Removes all songs.
+     */
+    public synchronized void clear() {
+        this.postings.clear();
+        this.songTokens.clear();
+    }
+
+    /**
+     * @return Returns the amount of indexed songs.
+     */
+    public synchronized int size() {
+        return this.songTokens.size();
+    }
+
+    /**
+     * Searches the songs matching the query.
+     * The candidates are collected for the most selective query token only,
+     * the other query tokens are checked against the tokens of the candidates.
+     * @param query Search text.
+     * @return Returns the songs matching every token of the query. Empty if the query contains no tokens.
+     */
+    public synchronized Set<T> search(String query) {
+        String[] queryTokens = tokenize(query);
+        if(queryTokens.length == 0)
+            return Collections.emptySet();
+
+        // The token with the fewest postings gives the fewest candidates.
+        Collection<Map<T, String[]>> candidates = null;
+        long fewestPostings = Long.MAX_VALUE;
+        for(String token : queryTokens) {
+            Collection<Map<T, String[]>> tokenPostings = this.prefixRange(token).values();
+            long count = 0;
+            for(Map<T, String[]> songs : tokenPostings) {
+                count += songs.size();
+                if(count >= fewestPostings)
+                    break;
+            }
+            if(count < fewestPostings) {
+                fewestPostings = count;
+                candidates = tokenPostings;
+            }
+        }
+
+        Set<T> result = new HashSet<>();
+        for(Map<T, String[]> songs : candidates) {
+            for(Map.Entry<T, String[]> song : songs.entrySet()) {
+                if(queryTokens.length == 1 || matchesAll(song.getValue(), queryTokens))
+                    result.add(song.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns the postings of all tokens starting with the prefix.
+     */
+    private SortedMap<String, Map<T, String[]>> prefixRange(String prefix) {
+        return this.postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * @return Returns true if every query token is a prefix of one of the song tokens.
+     */
+    private static boolean matchesAll(String[] songTokens, String[] queryTokens) {
+        for(String queryToken : queryTokens) {
+            boolean found = false;
+            for(String songToken : songTokens) {
+                if(songToken.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if(!found)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits a text into normalized tokens (lower case, without accents, only letters and digits).
+     * @param text Text to split.
+     * @return Returns the distinct tokens of the text.
+     */
+    static String[] tokenize(String text) {
+        if(text == null)
+            return NO_TOKENS;
+
+        String normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        normalized = normalized.toLowerCase(Locale.ROOT);
+
+        Set<String> tokens = new LinkedHashSet<>();
+        for(String token : SEPARATORS.split(normalized)) {
+            if(!token.isEmpty())
+                tokens.add(token);
+        }
+        return tokens.toArray(NO_TOKENS);
+    }
+}
@@ -0,0 +1,427 @@
+package playlists;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.util.*;
+
+/**
+ * <pre>
+ * Playlist engine with a cursor.
+ *
+ * The playlist remembers the position of the current track, so moving to the next or previous track
+ * does not have to search the track in the list. Changes of the list move the cursor accordingly.
+ *
+ * Additionally it supports:
+ * <ul>
+ *     <li>Shuffle: The play order is a precomputed permutation of the tracks.</li>
+ *     <li>Up next queue: Queued tracks are played before the playlist continues.</li>
+ *     <li>History: The played tracks, used to go back.</li>
+ * </ul>
+ *
+ * Not threadsafe. Use it on the thread changing the list (the JavaFX thread).
+ * </pre>
+ */
+public class IndexedPlaylist<T extends Comparable<? super T>> implements Playlist<T> {
+
+    /**
+     * Maximum amount of tracks in the history.
+     */
+    public static final int MAX_HISTORY_SIZE = 200;
+
+    private final ObservableList<T> tracks;
+    private final Deque<T> queue;
+    private final Deque<T> history;
+    private final Random random;
+
+    /**
+     * Position of the current track in the play order (-1 = before the first track).
+     */
+    private int cursor;
+
+    /**
+     * The current track. Can differ from the track at the cursor, if it was played from the queue.
+     */
+    private T current;
+
+    /**
+     * Play order if shuffled: order[position] = index in the tracks. Null if not shuffled.
+     */
+    private int[] order;
+
+    /**
+     * Set if the tracks changed in a way the shuffle order cannot follow. The order is rebuilt when needed.
+     */
+    private boolean orderInvalid;
+
+    /**
+     * Creates an empty playlist.
+     */
+    public IndexedPlaylist() {
+        this(FXCollections.observableArrayList());
+    }
+
+    /**
+     * Creates a playlist over the list. Changes of the list are applied to the playlist.
+     * @param tracks The tracks (the list is not copied).
+     */
+    public IndexedPlaylist(ObservableList<T> tracks) {
+        this.tracks = tracks;
+        this.queue = new ArrayDeque<>();
+        this.history = new ArrayDeque<>();
+        this.random = new Random();
+        this.cursor = -1;
+
+        this.tracks.addListener(this::onTracksChanged);
+    }
+
+    //region Playlist
+
+    @Override
+    public ObservableList<T> getTracks() {
+        return this.tracks;
+    }
+
+    @Override
+    public T getTrack(int index) {
+        return this.tracks.get(index);
+    }
+
+    @Override
+    public T getTrack(T track) {
+        int index = this.tracks.indexOf(track);
+        return index >= 0 ? this.tracks.get(index) : null;
+    }
+
+    @Override
+    public void addTrack(T track) {
+        this.tracks.add(track);
+    }
+
+    @Override
+    public void removeTrack(T track) {
+        this.tracks.remove(track);
+    }
+
+    //endregion Playlist
+
+    //region Navigation
+
+    /**
+     * @return Returns the current track or null.
+     */
+    public T getCurrent() {
+        return this.current;
+    }
+
+    /**
+     * Makes a track the current track (i.e. the user selected it).
+     * The cursor moves to the track, so the playlist continues after it.
+     * This is the only operation searching the track in the list.
+     * @param track The new current track.
+     */
+    public void select(T track) {
+        if(track == this.current)
+            return;
+
+        this.pushHistory(this.current);
+        this.current = track;
+
+        int index = this.indexOfIdentity(track);
+        if(index >= 0) {
+            if(this.order != null) {
+                // A new shuffle order starting with the selected track.
+                this.shuffle(index);
+            } else {
+                this.cursor = index;
+            }
+        }
+    }
+
+    /**
+     * @return Returns the track that next() would return, without moving. Null if there is none.
+     */
+    public T peekNext() {
+        this.validateOrder();
+
+        if(!this.queue.isEmpty())
+            return this.queue.peekFirst();
+
+        int position = this.cursor + 1;
+        return position < this.tracks.size() ? this.trackAt(position) : null;
+    }
+
+    /**
+     * Moves to the next track (the first queued track, or the next track of the play order).
+     * @return Returns the new current track or null, if the end of the playlist was reached.
+     */
+    public T next() {
+        this.validateOrder();
+
+        T next;
+        if(!this.queue.isEmpty()) {
+            next = this.queue.pollFirst();
+        }
+        else {
+            if(this.cursor + 1 >= this.tracks.size())
+                return null;
+
+            next = this.trackAt(this.cursor + 1);
+            this.cursor++;
+        }
+
+        this.pushHistory(this.current);
+        this.current = next;
+        return next;
+    }
+
+    /**
+     * @return Returns the track that previous() would return, without moving. Null if there is none.
+     */
+    public T peekPrevious() {
+        this.validateOrder();
+
+        if(!this.history.isEmpty())
+            return this.history.peekFirst();
+
+        return this.cursor > 0 && this.cursor <= this.tracks.size() ? this.trackAt(this.cursor - 1) : null;
+    }
+
+    /**
+     * Moves back to the last played track (or the previous track of the play order, if there is no history).
+     * @return Returns the new current track or null, if there is no previous track.
+     */
+    public T previous() {
+        T previous = this.peekPrevious();
+        if(previous == null)
+            return null;
+
+        if(!this.history.isEmpty()) {
+            this.history.pollFirst();
+
+            // Keep the cursor at the track, if it is part of the play order.
+            if(this.cursor > 0 && this.cursor <= this.tracks.size() && this.trackAt(this.cursor - 1) == previous)
+                this.cursor--;
+        }
+        else {
+            this.cursor--;
+        }
+
+        this.current = previous;
+        return previous;
+    }
+
+    //endregion Navigation
+
+    //region Queue & History
+
+    /**
+     * Adds a track to the end of the up next queue.
+     * @param track Track to queue.
+     */
+    public void enqueue(T track) {
+        this.queue.addLast(Objects.requireNonNull(track));
+    }
+
+    /**
+     * Removes all tracks from the up next queue.
+     */
+    public void clearQueue() {
+        this.queue.clear();
+    }
+
+    /**
+     * @return Returns the up next queue (read only).
+     */
+    public Collection<T> getQueue() {
+        return Collections.unmodifiableCollection(this.queue);
+    }
+
+    /**
+     * @return Returns the played tracks, the last played first (read only).
+     */
+    public Collection<T> getHistory() {
+        return Collections.unmodifiableCollection(this.history);
+    }
+
+    private void pushHistory(T track) {
+        if(track == null)
+            return;
+
+        this.history.addFirst(track);
+        if(this.history.size() > MAX_HISTORY_SIZE)
+            this.history.pollLast();
+    }
+
+    //endregion Queue & History
+
+    //region Shuffle
+
+    /**
+     * @return Returns true if the tracks are played in a shuffled order.
+     */
+    public boolean isShuffle() {
+        return this.order != null;
+    }
+
+    /**
+     * Enables or disables shuffling.
+     * Enabling creates a new random play order starting with the current track.
+     * @param shuffle True to shuffle.
+     */
+    public void setShuffle(boolean shuffle) {
+        if(shuffle == this.isShuffle())
+            return;
+
+        this.validateOrder();
+        int currentIndex = this.cursor >= 0 && this.cursor < this.tracks.size() ? this.indexAt(this.cursor) : -1;
+
+        if(shuffle) {
+            this.order = new int[0];
+            this.shuffle(currentIndex);
+        }
+        else {
+            this.order = null;
+            this.orderInvalid = false;
+            this.cursor = currentIndex;
+        }
+    }
+
+    /**
+     * Creates a new random play order (Fisher-Yates). The track at firstIndex is placed first.
+     * @param firstIndex Index of the first track in the order or -1.
+     */
+    private void shuffle(int firstIndex) {
+        int size = this.tracks.size();
+        int[] newOrder = new int[size];
+        for(int i = 0; i < size; i++)
+            newOrder[i] = i;
+
+        for(int i = size - 1; i > 0; i--) {
+            int j = this.random.nextInt(i + 1);
+            int swap = newOrder[i];
+            newOrder[i] = newOrder[j];
+            newOrder[j] = swap;
+        }
+
+        if(firstIndex >= 0) {
+            for(int i = 0; i < size; i++) {
+                if(newOrder[i] == firstIndex) {
+                    newOrder[i] = newOrder[0];
+                    newOrder[0] = firstIndex;
+                    break;
+                }
+            }
+        }
+
+        this.order = newOrder;
+        this.orderInvalid = false;
+        this.cursor = firstIndex >= 0 ? 0 : -1;
+    }
+
+    //endregion Shuffle
+
+    //region Helpers
+
+    /**
+     * @return Returns the track at the position of the play order.
+     */
+    private T trackAt(int position) {
+        return this.tracks.get(this.indexAt(position));
+    }
+
+    /**
+     * @return Returns the index in the tracks of the position in the play order.
+     */
+    private int indexAt(int position) {
+        return this.order == null ? position : this.order[position];
+    }
+
+    /**
+     * Rebuilds the shuffle order, if the tracks changed in a way the order could not follow.
+     * The new order starts with the current track, the already played part of the old order is lost.
+     */
+    private void validateOrder() {
+        if(this.order != null && this.orderInvalid)
+            this.shuffle(this.current != null ? this.indexOfIdentity(this.current) : -1);
+    }
+
+    private int indexOfIdentity(T track) {
+        for(int i = 0; i < this.tracks.size(); i++) {
+            if(this.tracks.get(i) == track)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the cursor with the changes of the list.
+     * Adding tracks after the cursor (i.e. loading the library) costs nothing.
+     */
+    private void onTracksChanged(ListChangeListener.Change<? extends T> change) {
+        while(change.next()) {
+            // Removed tracks cannot be played from the queue or the history anymore.
+            if(change.wasRemoved()) {
+                this.queue.removeAll(change.getRemoved());
+                this.history.removeAll(change.getRemoved());
+            }
+
+            if(this.order != null) {
+                this.onShuffledTracksChanged(change);
+                continue;
+            }
+
+            if(change.wasPermutated()) {
+                if(this.cursor >= change.getFrom() && this.cursor < change.getTo())
+                    this.cursor = change.getPermutation(this.cursor);
+                continue;
+            }
+
+            int from = change.getFrom();
+            int removed = change.getRemovedSize();
+            int added = change.getAddedSize();
+
+            if(this.cursor < from)
+                continue;
+
+            if(this.cursor >= from + removed) {
+                this.cursor += added - removed;
+            }
+            else {
+                // The track at the cursor was removed or replaced.
+                int replaced = change.wasAdded() ? change.getAddedSubList().indexOf(this.current) : -1;
+                this.cursor = replaced >= 0 ? from + replaced : from - 1;
+            }
+        }
+    }
+
+    /**
+     * Applies the changes of the list to the shuffle order.
+     * Tracks added at the end are appended to the unplayed part of the order in random positions.
+     * Other changes invalidate the order.
+     */
+    private void onShuffledTracksChanged(ListChangeListener.Change<? extends T> change) {
+        boolean appended = change.wasAdded() && !change.wasRemoved() && !change.wasPermutated()
+                && change.getFrom() == this.order.length && !this.orderInvalid;
+
+        if(!appended) {
+            this.orderInvalid = true;
+            return;
+        }
+
+        int oldSize = this.order.length;
+        int[] newOrder = Arrays.copyOf(this.order, change.getTo());
+        int firstFree = this.cursor + 1;
+
+        for(int index = oldSize; index < newOrder.length; index++) {
+            // Insert at a random position of the unplayed part (swap with the new slot).
+            int position = firstFree + this.random.nextInt(index - firstFree + 1);
+            newOrder[index] = newOrder[position];
+            newOrder[position] = index;
+        }
+        this.order = newOrder;
+    }
+
+    //endregion Helpers
+}
@@ -5,7 +5,7 @@ import javafx.collections.ObservableList;
 /**
  * Created by Esteban Luchsinger on 03.12.2015.
  */
-public interface Playlist<T extends Comparable<T>> {
+public interface Playlist<T extends Comparable<? super T>> {
 
     ObservableList<T> getTracks();
     T getTrack(int index);
@@ -15,7 +15,7 @@ public class SongPlaylist implements Playlist<Song> {
     private ObservableList<Song> playlist;
 
     public SongPlaylist(){
-        this(null);
+        this.playlist = FXCollections.observableArrayList();
     }
 
     public SongPlaylist(Collection<Song> songs){
@@ -24,7 +24,7 @@ public class SongPlaylist implements Playlist<Song> {
 
     @Override
     public ObservableList<Song> getTracks() {
-        return null;
+        return this.playlist;
     }
 
     @Override
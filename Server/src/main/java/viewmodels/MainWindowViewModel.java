@@ -1,21 +1,18 @@
 package viewmodels;
 
-import com.mpatric.mp3agic.InvalidDataException;
-import com.mpatric.mp3agic.UnsupportedTagException;
+import controllers.ServerEngine;
 import controllers.clients.ClientController;
-import controllers.io.SongsHandler;
 import controllers.media.MediaPlayer;
 import controllers.media.music.NetworkAudioPlayer;
-import controllers.networking.discovery.ServerDiscoveryService;
-import controllers.networking.streaming.music.MusicStreamController;
-import controllers.networking.streaming.music.tcp.TCPMusicStreamController;
-import controllers.networking.streaming.music.tcp.TCPSocketServer;
+import controllers.search.SongSearchIndex;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.DoubleBinding;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -24,27 +21,26 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
 import models.networking.clients.NetworkClient;
 import models.networking.dtos.RenameCommand;
-import models.songs.Mp3Song;
-import models.songs.PlayableMp3Song;
 import models.songs.PlayableSong;
 import models.songs.Song;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.DurationStringConverter;
 
-import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 30.11.2015.
  * This is the ViewModel for the MainWindow view.
+ *
+ * The streaming, the library and the discovery are in the ServerEngine (also used by the headless server).
+ * The ViewModel only adds the user interface and the local playback (NetworkAudioPlayer).
  * </pre>
  */
 public class MainWindowViewModel {
@@ -52,10 +48,11 @@ public class MainWindowViewModel {
     private final Logger logger;
 
     private MediaPlayer<PlayableSong> mediaPlayer;
-    private MusicStreamController musicStreamController;
-    private ServerDiscoveryService serverDiscoveryService;
 
-    private TCPSocketServer tcpServer;
+    /**
+     * The server (streaming, library and discovery). Changes the song list on the JavaFX thread.
+     */
+    private ServerEngine serverEngine;
     private ClientController clientController;
     //endregion Members
 
@@ -69,6 +66,16 @@ public class MainWindowViewModel {
      * List containing the songs.
      */
     private ObservableList<PlayableSong> songObservableList;
+
+    /**
+     * The songs shown in the song table (the songs matching the search).
+     */
+    private FilteredList<PlayableSong> filteredSongList;
+
+    /**
+     * Search index over the songObservableList. Updated with every change of the list.
+     */
+    private SongSearchIndex<PlayableSong> songSearchIndex;
     //endregion Properties
 
     //region Elements
@@ -102,6 +109,12 @@ public class MainWindowViewModel {
     @FXML
     private TextField textFieldFolder;
 
+    /**
+     * The textfield to search songs (title and artist).
+     */
+    @FXML
+    private TextField textFieldSearchSongs;
+
     /**
      * The table view containing the songs.
      */
@@ -183,26 +196,12 @@ public class MainWindowViewModel {
 
     /**
      * Sets the path to the song folder (in the file system).
+     * The songs are loaded by the ServerEngine in the background, afterwards the folder is watched.
      * @param file File object to set the path to. (This object must be a folder!)
      */
     public void setPathToSongFolder(File file) {
         this.pathToSongFolder.set(file.getAbsolutePath());
-
-        // Loads the songs.
-        SongsHandler handler = new SongsHandler();
-        List<Song> songs = handler.loadSongsFromDir(file.getPath());
-
-        List<PlayableSong> playableSongs = new ArrayList<>(songs.size());
-        // Fixme: This will throw a RuntimeException, if the object Song is not of type PlayableSong.
-        songs.forEach(song -> {
-            try {
-                playableSongs.add(PlayableMp3Song.fromMp3Song((Mp3Song) song));
-            } catch (InvalidDataException | IOException | UnsupportedTagException e) {
-                this.logger.error("Error loading the new song list from the folder " + file.getAbsolutePath(), e);
-            }
-        });
-
-        this.songObservableList.setAll(playableSongs);
+        this.serverEngine.setLibraryFolder(file);
     }
 
     /**
@@ -235,33 +234,8 @@ public class MainWindowViewModel {
 
         if(this.stage != null){
             this.stage.setOnCloseRequest(event -> {
-                if(this.serverDiscoveryService != null) {
-                    this.serverDiscoveryService.stop();
-                    this.logger.info("Stopped Discovery Service!");
-                }
-
-                if(this.musicStreamController != null && this.musicStreamController instanceof Closeable) {
-                    try {
-                        ((Closeable)this.musicStreamController).close();
-                    } catch (IOException e) {
-                        this.logger.error("Could not close the StreamController", e);
-                    }
-                }
-
-                if(this.tcpServer != null) {
-                    try {
-                        this.tcpServer.close();
-                    } catch (IOException e) {
-                        this.logger.error("Could not close TCP Server", e);
-                    }
-                }
-
-                if(this.clientController != null) {
-                    try {
-                        this.clientController.close();
-                    } catch (IOException e) {
-                        this.logger.error("Could not close client controller", e);
-                    }
+                if(this.serverEngine != null) {
+                    this.serverEngine.close();
                 }
             });
         }
@@ -364,20 +338,20 @@ public class MainWindowViewModel {
     @FXML
     protected void initialize() throws IOException {
 
-        this.songObservableList = FXCollections.observableArrayList();
+        this.serverEngine = new ServerEngine(Platform::runLater);
+        this.clientController = this.serverEngine.getClientController();
 
-        this.tcpServer = new TCPSocketServer();
-        this.clientController = new ClientController(this.tcpServer);
-
-        this.musicStreamController = new TCPMusicStreamController(this.clientController);
-        this.tcpServer.start();
+        this.songObservableList = this.serverEngine.getSongs();
+        this.initializeSongSearch();
 
         this.initializeSongTable();
         this.initializeClientListView();
-        this.initializeDiscoveryService();
+
+        this.logger.info("Starting the server...");
+        this.serverEngine.start();
 
         // Init Media Player
-        this.mediaPlayer = new NetworkAudioPlayer(this.songObservableList, this.musicStreamController);
+        this.mediaPlayer = new NetworkAudioPlayer(this.songObservableList, this.serverEngine.getMusicStreamController());
         this.mediaPlayer.isPlayingProperty().addListener((observable, oldValue, newValue) -> this.onIsPlayingChanged());
 
         // Bindings must be initialized after media player.
@@ -391,14 +365,41 @@ public class MainWindowViewModel {
     }
 
     /**
-     * Initializes the discovery service.
+     * Initializes the search over the songs.
+     * The search index follows the changes of the song list, the table only shows the matching songs.
      */
-    private void initializeDiscoveryService() {
+    private void initializeSongSearch() {
+        this.songSearchIndex = new SongSearchIndex<>();
+        this.filteredSongList = new FilteredList<>(this.songObservableList);
 
-        this.serverDiscoveryService = new ServerDiscoveryService();
+        this.songObservableList.addListener((ListChangeListener<PlayableSong>) change -> {
+            while(change.next()) {
+                if(change.wasRemoved())
+                    this.songSearchIndex.removeAll(change.getRemoved());
+                if(change.wasAdded())
+                    this.songSearchIndex.addAll(change.getAddedSubList());
+            }
+
+            // New songs have to be matched against the current search too.
+            if(this.filteredSongList.getPredicate() != null)
+                this.applySongSearch(this.textFieldSearchSongs.getText());
+        });
+
+        this.textFieldSearchSongs.textProperty().addListener((observable, oldValue, newValue) -> this.applySongSearch(newValue));
+    }
 
-        this.logger.info("Starting discovery Service...");
-        this.serverDiscoveryService.start();
+    /**
+     * Shows only the songs matching the search text in the song table.
+     * @param query The search text. Shows all songs if the text is empty.
+     */
+    private void applySongSearch(String query) {
+        if(query == null || query.trim().isEmpty()) {
+            this.filteredSongList.setPredicate(null);
+        }
+        else {
+            Set<PlayableSong> matches = this.songSearchIndex.search(query);
+            this.filteredSongList.setPredicate(matches::contains);
+        }
     }
 
     /**
@@ -406,7 +407,7 @@ public class MainWindowViewModel {
      */
     private void initializeSongTable() {
 
-        this.tableViewSongs.setItems(this.songObservableList);
+        this.tableViewSongs.setItems(this.filteredSongList);
         this.tableViewSongs.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
 
         /**
@@ -0,0 +1,55 @@
+package controllers.networking.streaming.music;
+
+import models.songs.Mp3Song;
+import models.songs.SongMetadata;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStateTest {
+
+    /**
+     * The position grows while playing and stays while paused.
+     * @throws Exception
+     */
+    @Test
+    public void testPosition() throws Exception {
+        PlaybackState state = new PlaybackState();
+        Mp3Song song = song(60000);
+
+        state.play(song, "song", 1000);
+        Thread.sleep(50);
+        state.pause();
+
+        long position = state.getPosition();
+        assertTrue("Position " + position, position >= 1050 && position < 60000);
+        assertFalse(state.isPlaying());
+        assertSame(song, state.getSong());
+
+        Thread.sleep(50);
+        assertEquals(position, state.getPosition());
+    }
+
+    /**
+     * A song played to the end is stopped: no song, position 0.
+     * @throws Exception
+     */
+    @Test
+    public void testFinished() throws Exception {
+        PlaybackState state = new PlaybackState();
+
+        state.play(song(1000), "song", 950);
+        assertTrue(state.getPosition() <= 1000);
+        Thread.sleep(100);
+
+        assertNull(state.getSong());
+        assertNull(state.getSongId());
+        assertFalse(state.isPlaying());
+        assertEquals(0, state.getPosition());
+    }
+
+    private static Mp3Song song(long length) {
+        return new Mp3Song("/music/song.mp3", new SongMetadata("Song", "Artist", "", length,
+                SongMetadata.UNKNOWN, SongMetadata.UNKNOWN, SongMetadata.UNKNOWN, SongMetadata.UNKNOWN));
+    }
+}
@@ -0,0 +1,109 @@
+package controllers.search;
+
+import models.songs.Mp3Song;
+import models.songs.SongMetadata;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class SongSearchIndexTest {
+
+    /**
+     * The tokens are lower case, without accents and separators, and distinct.
+     * @throws Exception
+     */
+    @Test
+    public void testTokenize() throws Exception {
+        assertArrayEquals(new String[] { "cafe", "del", "mar", "naive" },
+                SongSearchIndex.tokenize("Caf\u00e9 del Mar - NA\u00cfVE (del mar)"));
+        assertArrayEquals(new String[] { "ac", "dc", "2016" }, SongSearchIndex.tokenize("AC/DC_2016"));
+        assertEquals(0, SongSearchIndex.tokenize("  -- !? ").length);
+        assertEquals(0, SongSearchIndex.tokenize(null).length);
+    }
+
+    /**
+     * Queries are normalized like the songs: case and accents don't matter.
+     * @throws Exception
+     */
+    @Test
+    public void testNormalization() throws Exception {
+        SongSearchIndex<Mp3Song> index = new SongSearchIndex<>();
+        Mp3Song song = song("D\u00e9j\u00e0 Vu", "Beyonc\u00e9");
+        index.add(song);
+
+        assertEquals(Collections.singleton(song), index.search("deja"));
+        assertEquals(Collections.singleton(song), index.search("BEYONCE"));
+        assertEquals(Collections.singleton(song), index.search("v\u00fa  d\u00e9j\u00e0!"));
+        assertTrue(index.search("dejavu").isEmpty());
+    }
+
+    /**
+     * Every query token must be a prefix of a token of the title or the artist.
+     * @throws Exception
+     */
+    @Test
+    public void testPrefix() throws Exception {
+        SongSearchIndex<Mp3Song> index = new SongSearchIndex<>();
+        Mp3Song help = song("Help!", "The Beatles");
+        Mp3Song yesterday = song("Yesterday", "The Beatles");
+        Mp3Song helpless = song("Helpless", "Neil Young");
+        index.addAll(Arrays.asList(help, yesterday, helpless));
+
+        assertEquals(new HashSet<>(Arrays.asList(help, helpless)), index.search("hel"));
+        assertEquals(new HashSet<>(Arrays.asList(help, yesterday)), index.search("the beat"));
+        assertEquals(Collections.singleton(help), index.search("beat hel"));
+        assertEquals(Collections.singleton(helpless), index.search("help young"));
+        assertTrue(index.search("eatles").isEmpty());
+        assertTrue(index.search("beatles helpx").isEmpty());
+        assertTrue(index.search("").isEmpty());
+        assertTrue(index.search(" - ").isEmpty());
+    }
+
+    /**
+     * Songs can be added and removed one by one, the other songs with the same tokens stay searchable.
+     * @throws Exception
+     */
+    @Test
+    public void testAddRemove() throws Exception {
+        SongSearchIndex<Mp3Song> index = new SongSearchIndex<>();
+        Mp3Song help = song("Help!", "The Beatles");
+        Mp3Song yesterday = song("Yesterday", "The Beatles");
+
+        index.add(help);
+        index.add(help);
+        assertEquals(1, index.size());
+        assertEquals(Collections.singleton(help), index.search("beatles"));
+
+        index.add(yesterday);
+        assertEquals(2, index.size());
+        assertEquals(new HashSet<>(Arrays.asList(help, yesterday)), index.search("beatles"));
+
+        index.remove(help);
+        assertEquals(1, index.size());
+        assertEquals(Collections.singleton(yesterday), index.search("beatles"));
+        assertTrue(index.search("help").isEmpty());
+
+        // Removing an unknown song does nothing.
+        index.remove(help);
+        assertEquals(1, index.size());
+
+        index.addAll(Arrays.asList(help, song("Helpless", "Neil Young")));
+        assertEquals(3, index.size());
+        index.removeAll(Arrays.asList(help, yesterday));
+        assertEquals(1, index.size());
+        assertTrue(index.search("beatles").isEmpty());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.search("helpless").isEmpty());
+    }
+
+    private static Mp3Song song(String title, String artist) {
+        return new Mp3Song("/music/" + artist + "/" + title + ".mp3", new SongMetadata(title, artist, "", 0,
+                SongMetadata.UNKNOWN, SongMetadata.UNKNOWN, SongMetadata.UNKNOWN, SongMetadata.UNKNOWN));
+    }
+}
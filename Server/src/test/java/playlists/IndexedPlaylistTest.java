@@ -0,0 +1,222 @@
+package playlists;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IndexedPlaylistTest {
+
+    /**
+     * next() follows the list, previous() goes back through the history.
+     * @throws Exception
+     */
+    @Test
+    public void testNextPrevious() throws Exception {
+        ObservableList<String> tracks = tracks(5);
+        IndexedPlaylist<String> playlist = new IndexedPlaylist<>(tracks);
+
+        assertNull(playlist.getCurrent());
+        assertNull(playlist.peekPrevious());
+        assertSame(tracks.get(0), playlist.peekNext());
+        assertSame(tracks.get(0), playlist.next());
+        assertSame(tracks.get(1), playlist.next());
+        assertSame(tracks.get(2), playlist.next());
+        assertSame(tracks.get(3), playlist.peekNext());
+
+        assertSame(tracks.get(1), playlist.previous());
+        assertSame(tracks.get(0), playlist.previous());
+        assertNull(playlist.previous());
+        assertSame(tracks.get(0), playlist.getCurrent());
+
+        // Continues after the track it went back to.
+        assertSame(tracks.get(1), playlist.next());
+        assertSame(tracks.get(2), playlist.next());
+        assertSame(tracks.get(3), playlist.next());
+        assertSame(tracks.get(4), playlist.next());
+        assertNull(playlist.peekNext());
+        assertNull(playlist.next());
+        assertSame(tracks.get(4), playlist.getCurrent());
+    }
+
+    /**
+     * A selected track becomes the current track, the playlist continues after it.
+     * @throws Exception
+     */
+    @Test
+    public void testSelect() throws Exception {
+        ObservableList<String> tracks = tracks(5);
+        IndexedPlaylist<String> playlist = new IndexedPlaylist<>(tracks);
+
+        playlist.next();
+        playlist.select(tracks.get(3));
+
+        assertSame(tracks.get(3), playlist.getCurrent());
+        assertSame(tracks.get(4), playlist.next());
+        assertSame(tracks.get(3), playlist.previous());
+        assertSame(tracks.get(0), playlist.previous());
+        assertEquals(0, playlist.getHistory().size());
+    }
+
+    /**
+     * Queued tracks are played before the playlist continues at the cursor.
+     * @throws Exception
+     */
+    @Test
+    public void testQueue() throws Exception {
+        ObservableList<String> tracks = tracks(5);
+        IndexedPlaylist<String> playlist = new IndexedPlaylist<>(tracks);
+
+        playlist.next();
+        playlist.enqueue(tracks.get(4));
+        playlist.enqueue(tracks.get(3));
+        assertEquals(2, playlist.getQueue().size());
+
+        assertSame(tracks.get(4), playlist.peekNext());
+        assertSame(tracks.get(4), playlist.next());
+        assertSame(tracks.get(3), playlist.next());
+        assertSame(tracks.get(1), playlist.next());
+        assertTrue(playlist.getQueue().isEmpty());
+
+        playlist.enqueue(tracks.get(0));
+        playlist.clearQueue();
+        assertSame(tracks.get(2), playlist.next());
+
+        // Removed tracks are removed from the queue.
+        playlist.enqueue(tracks.get(0));
+        tracks.remove(0);
+        assertTrue(playlist.getQueue().isEmpty());
+    }
+
+    /**
+     * With shuffle on, every track is played once, starting with the current track.
+     * Switching shuffle off continues after the current track in the list.
+     * @throws Exception
+     */
+    @Test
+    public void testShuffle() throws Exception {
+        ObservableList<String> tracks = tracks(50);
+        IndexedPlaylist<String> playlist = new IndexedPlaylist<>(tracks);
+
+        playlist.select(tracks.get(10));
+        playlist.setShuffle(true);
+        assertTrue(playlist.isShuffle());
+        assertSame(tracks.get(10), playlist.getCurrent());
+
+        Set<String> played = playAll(playlist);
+        assertEquals(49, played.size());
+        assertFalse(played.contains(tracks.get(10)));
+
+        // Selecting a track starts a new shuffled order.
+        playlist.select(tracks.get(5));
+        played = playAll(playlist);
+        assertEquals(49, played.size());
+        assertFalse(played.contains(tracks.get(5)));
+
+        playlist.select(tracks.get(20));
+        playlist.setShuffle(false);
+        assertFalse(playlist.isShuffle());
+        assertSame(tracks.get(21), playlist.next());
+    }
+
+    /**
+     * Adding and removing tracks while playing moves the cursor, so the playlist continues at the right track.
+     * @throws Exception
+     */
+    @Test
+    public void testChangeWhilePlaying() throws Exception {
+        ObservableList<String> tracks = tracks(5);
+        IndexedPlaylist<String> playlist = new IndexedPlaylist<>(tracks);
+        String first = tracks.get(0);
+        String second = tracks.get(1);
+        String third = tracks.get(2);
+        String fourth = tracks.get(3);
+
+        playlist.next();
+        playlist.next();
+        playlist.next();
+
+        // Before the cursor.
+        tracks.remove(first);
+        tracks.add(0, "added");
+        assertSame(fourth, playlist.peekNext());
+        assertFalse(playlist.getHistory().contains(first));
+
+        // The current track.
+        tracks.remove(third);
+        assertSame(third, playlist.getCurrent());
+        assertSame(fourth, playlist.next());
+
+        // After the cursor.
+        tracks.add("appended");
+        assertSame(tracks.get(3), playlist.next());
+        assertSame("appended", playlist.next());
+        assertNull(playlist.next());
+
+        assertSame(tracks.get(3), playlist.previous());
+        assertSame(fourth, playlist.previous());
+        assertSame(third, playlist.previous());
+        assertSame(second, playlist.previous());
+    }
+
+    /**
+     * Tracks appended while shuffling are played in the rest of the order, removed tracks are not played.
+     * @throws Exception
+     */
+    @Test
+    public void testChangeWhileShuffled() throws Exception {
+        ObservableList<String> tracks = tracks(10);
+        IndexedPlaylist<String> playlist = new IndexedPlaylist<>(tracks);
+
+        playlist.setShuffle(true);
+        Set<String> played = new HashSet<>();
+        for(int i = 0; i < 3; i++) {
+            assertTrue(played.add(playlist.next()));
+        }
+
+        tracks.addAll(tracks(10, 10));
+        for(String track : playAll(playlist)) {
+            assertTrue(played.add(track));
+        }
+        assertEquals(20, played.size());
+
+        // Removing a track rebuilds the order, starting with the current track.
+        String current = playlist.getCurrent();
+        String removed = tracks.get(tracks.indexOf(current) == 0 ? 1 : 0);
+        tracks.remove(removed);
+
+        played = playAll(playlist);
+        assertEquals(18, played.size());
+        assertFalse(played.contains(removed));
+        assertFalse(played.contains(current));
+    }
+
+    /**
+     * Plays the tracks with next() until the end of the playlist.
+     * @return Returns the played tracks (fails if a track is played twice).
+     */
+    private static Set<String> playAll(IndexedPlaylist<String> playlist) {
+        Set<String> played = new HashSet<>();
+        String track;
+        while((track = playlist.next()) != null) {
+            assertTrue("Played twice: " + track, played.add(track));
+        }
+        return played;
+    }
+
+    private static ObservableList<String> tracks(int count) {
+        return tracks(count, 0);
+    }
+
+    private static ObservableList<String> tracks(int count, int first) {
+        ObservableList<String> tracks = FXCollections.observableArrayList();
+        for(int i = first; i < first + count; i++) {
+            tracks.add("Track " + i);
+        }
+        return tracks;
+    }
+}
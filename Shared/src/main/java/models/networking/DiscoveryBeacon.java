@@ -0,0 +1,298 @@
+package models.networking;
+
+import java.util.UUID;
+
+/**
+ * <pre>
+ * The binary messages of the discovery protocol.
+ *
+ * Beacon (sent by the server, BEACON_SIZE bytes, big endian):
+ *   int    magic ("WSSD")
+ *   byte   format version (VERSION)
+ *   byte   type (TYPE_BEACON)
+ *   long   server id (most significant bits)
+ *   long   server id (least significant bits)
+ *   short  streaming port
+ *   short  protocol version of the streaming protocol
+ *   int    amount of connected clients
+ *   byte   supported transports (TRANSPORT_* flags)
+ *   long   echo: the nonce of the answered probe (0 if the beacon was not an answer)
+ *
+ * Probe (sent by the client, PROBE_SIZE bytes):
+ *   int    magic
+ *   byte   format version
+ *   byte   type (TYPE_PROBE)
+ *   long   nonce (the server sends it back as the echo, used to measure the round trip time)
+ *
+ * An instance holds the fields of one beacon. It can be reused: read() overwrites all fields and
+ * does not allocate, so a receiver can parse every datagram into the same instance.
+ *
+ * Not threadsafe.
+ * </pre>
+ */
+public class DiscoveryBeacon {
+
+    //region CONSTANTS
+
+    /**
+     * "WSSD" in ASCII.
+     */
+    public static final int MAGIC = 0x57535344;
+
+    /**
+     * Version of the message format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Version of the streaming protocol (the commands sent over TCP).
+     * Clients ignore servers with an other protocol version.
+     */
+    public static final int PROTOCOL_VERSION = 1;
+
+    public static final int TYPE_PROBE = 1;
+    public static final int TYPE_BEACON = 2;
+
+    /**
+     * Songs are sent over TCP (TCPMusicStreamController).
+     */
+    public static final int TRANSPORT_TCP = 0x01;
+
+    /**
+     * Songs are sent as UDP datagrams (SongDatagram).
+     */
+    public static final int TRANSPORT_UDP = 0x02;
+
+    private static final int HEADER_SIZE = Integer.BYTES + 2;
+
+    public static final int PROBE_SIZE = HEADER_SIZE + Long.BYTES;
+
+    public static final int BEACON_SIZE = HEADER_SIZE + 2 * Long.BYTES + 2 * Short.BYTES + Integer.BYTES + 1 + Long.BYTES;
+
+    /**
+     * Size of a buffer which can receive all discovery messages.
+     */
+    public static final int MAX_SIZE = BEACON_SIZE;
+
+    //endregion
+
+    private long serverIdMostSignificantBits;
+    private long serverIdLeastSignificantBits;
+    private int streamingPort;
+    private int protocolVersion;
+    private int clientCount;
+    private int transports;
+    private long echo;
+
+    /**
+     * Creates an empty beacon (to read into).
+     */
+    public DiscoveryBeacon() {
+    }
+
+    /**
+     * Creates a beacon.
+     * @param serverId Id of the server (stays the same while the server is running).
+     * @param streamingPort Port the server accepts clients on.
+     * @param transports Supported transports (TRANSPORT_* flags).
+     */
+    public DiscoveryBeacon(UUID serverId, int streamingPort, int transports) {
+        this.serverIdMostSignificantBits = serverId.getMostSignificantBits();
+        this.serverIdLeastSignificantBits = serverId.getLeastSignificantBits();
+        this.streamingPort = streamingPort;
+        this.protocolVersion = PROTOCOL_VERSION;
+        this.transports = transports;
+    }
+
+    //region Serialization
+
+    /**
+     * Writes the beacon into the buffer.
+     * @param buffer The buffer (at least BEACON_SIZE bytes).
+     * @return Returns the length of the beacon in bytes.
+     */
+    public int write(byte[] buffer) {
+        int position = writeHeader(buffer, TYPE_BEACON);
+        position = putLong(buffer, position, this.serverIdMostSignificantBits);
+        position = putLong(buffer, position, this.serverIdLeastSignificantBits);
+        position = putShort(buffer, position, this.streamingPort);
+        position = putShort(buffer, position, this.protocolVersion);
+        position = putInt(buffer, position, this.clientCount);
+        buffer[position++] = (byte) this.transports;
+        position = putLong(buffer, position, this.echo);
+        return position;
+    }
+
+    /**
+     * Reads a beacon. Overwrites all fields of this instance.
+     * @param data The received data.
+     * @param offset Offset of the message in the data.
+     * @param length Length of the message.
+     * @return Returns false if the data is not a beacon of this format version (the fields are unchanged).
+     */
+    public boolean read(byte[] data, int offset, int length) {
+        if(length < BEACON_SIZE || !hasHeader(data, offset, TYPE_BEACON))
+            return false;
+
+        int position = offset + HEADER_SIZE;
+        this.serverIdMostSignificantBits = getLong(data, position);
+        this.serverIdLeastSignificantBits = getLong(data, position + 8);
+        this.streamingPort = getShort(data, position + 16);
+        this.protocolVersion = getShort(data, position + 18);
+        this.clientCount = getInt(data, position + 20);
+        this.transports = data[position + 24] & 0xFF;
+        this.echo = getLong(data, position + 25);
+        return true;
+    }
+
+    /**
+     * Writes a probe.
+     * @param buffer The buffer (at least PROBE_SIZE bytes).
+     * @param nonce Nonce, which is sent back in the answer.
+     * @return Returns the length of the probe in bytes.
+     */
+    public static int writeProbe(byte[] buffer, long nonce) {
+        return putLong(buffer, writeHeader(buffer, TYPE_PROBE), nonce);
+    }
+
+    /**
+     * @return Returns true if the data is a probe of this format version.
+     */
+    public static boolean isProbe(byte[] data, int offset, int length) {
+        return length >= PROBE_SIZE && hasHeader(data, offset, TYPE_PROBE);
+    }
+
+    /**
+     * @return Returns the nonce of the probe (check isProbe first).
+     */
+    public static long getProbeNonce(byte[] data, int offset) {
+        return getLong(data, offset + HEADER_SIZE);
+    }
+
+    //endregion
+
+    //region Getters & Setters
+
+    /**
+     * @return Returns the id of the server (allocates a new UUID).
+     */
+    public UUID getServerId() {
+        return new UUID(this.serverIdMostSignificantBits, this.serverIdLeastSignificantBits);
+    }
+
+    /**
+     * Compares the server id without allocating.
+     * @return Returns true if the beacons are from the same server.
+     */
+    public boolean isSameServer(DiscoveryBeacon other) {
+        return this.serverIdMostSignificantBits == other.serverIdMostSignificantBits
+                && this.serverIdLeastSignificantBits == other.serverIdLeastSignificantBits;
+    }
+
+    public int getStreamingPort() {
+        return this.streamingPort;
+    }
+
+    public int getProtocolVersion() {
+        return this.protocolVersion;
+    }
+
+    public int getClientCount() {
+        return this.clientCount;
+    }
+
+    public void setClientCount(int clientCount) {
+        this.clientCount = clientCount;
+    }
+
+    /**
+     * @return Returns the supported transports (TRANSPORT_* flags).
+     */
+    public int getTransports() {
+        return this.transports;
+    }
+
+    public boolean supports(int transport) {
+        return (this.transports & transport) == transport;
+    }
+
+    /**
+     * @return Returns the nonce of the answered probe or 0.
+     */
+    public long getEcho() {
+        return this.echo;
+    }
+
+    public void setEcho(long echo) {
+        this.echo = echo;
+    }
+
+    /**
+     * Copies all fields of the other beacon.
+     */
+    public void copyFrom(DiscoveryBeacon other) {
+        this.serverIdMostSignificantBits = other.serverIdMostSignificantBits;
+        this.serverIdLeastSignificantBits = other.serverIdLeastSignificantBits;
+        this.streamingPort = other.streamingPort;
+        this.protocolVersion = other.protocolVersion;
+        this.clientCount = other.clientCount;
+        this.transports = other.transports;
+        this.echo = other.echo;
+    }
+
+    //endregion
+
+    @Override
+    public String toString() {
+        return "DiscoveryBeacon{server=" + this.getServerId()
+                + ", port=" + this.streamingPort
+                + ", protocol=" + this.protocolVersion
+                + ", clients=" + this.clientCount
+                + ", transports=" + this.transports + "}";
+    }
+
+    //region Helpers
+
+    private static int writeHeader(byte[] buffer, int type) {
+        int position = putInt(buffer, 0, MAGIC);
+        buffer[position++] = (byte) VERSION;
+        buffer[position++] = (byte) type;
+        return position;
+    }
+
+    private static boolean hasHeader(byte[] data, int offset, int type) {
+        return getInt(data, offset) == MAGIC
+                && (data[offset + 4] & 0xFF) == VERSION
+                && (data[offset + 5] & 0xFF) == type;
+    }
+
+    private static int putShort(byte[] buffer, int position, int value) {
+        buffer[position] = (byte) (value >>> 8);
+        buffer[position + 1] = (byte) value;
+        return position + 2;
+    }
+
+    private static int putInt(byte[] buffer, int position, int value) {
+        putShort(buffer, position, value >>> 16);
+        return putShort(buffer, position + 2, value);
+    }
+
+    private static int putLong(byte[] buffer, int position, long value) {
+        putInt(buffer, position, (int) (value >>> 32));
+        return putInt(buffer, position + 4, (int) value);
+    }
+
+    private static int getShort(byte[] data, int position) {
+        return (data[position] & 0xFF) << 8 | data[position + 1] & 0xFF;
+    }
+
+    private static int getInt(byte[] data, int position) {
+        return getShort(data, position) << 16 | getShort(data, position + 2);
+    }
+
+    private static long getLong(byte[] data, int position) {
+        return (long) getInt(data, position) << 32 | getInt(data, position + 4) & 0xFFFFFFFFL;
+    }
+
+    //endregion
+}
@@ -0,0 +1,281 @@
+package models.networking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * Playout buffer for a song received as SongDatagrams.
+ * Unlike the <code>SongCache</code>, which only tells if a song is complete, the jitter buffer
+ * accepts datagrams out of order and tracks the contiguous prefix (the watermark) of the song.
+ * Playback can start as soon as the contiguous prefix holds <code>playoutDelay</code>
+ * milliseconds of audio, the rest of the song can still be arriving.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class SongJitterBuffer {
+
+    /**
+     * Default amount of contiguous audio (in milliseconds) needed to start playing.
+     */
+    public static final long DEFAULT_PLAYOUT_DELAY = 500;
+
+    /**
+     * The datagrams, indexed by (sequenceNr - FIRST_SEQUENCE_NUMBER).
+     */
+    private final SongDatagram[] datagrams;
+
+    /**
+     * Bytes per second of the audio. Used to convert bytes into play time.
+     */
+    private final double bytesPerSecond;
+
+    /**
+     * Contiguous play time (in milliseconds) needed to start playing.
+     */
+    private final long playoutDelay;
+
+    private int receivedPackets;
+    private int highestSequenceNumber;
+
+    /**
+     * Highest sequence number up to which all datagrams were received.
+     * (FIRST_SEQUENCE_NUMBER - 1 if the first datagram is missing)
+     */
+    private int watermark;
+    private long contiguousBytes;
+    private boolean closed;
+
+    /**
+     * Creates a jitter buffer with the default playout delay.
+     * @param expectedPackets Amount of datagrams the song consists of.
+     * @param bytesPerSecond Bytes per second of the audio (i.e. bitrate / 8).
+     */
+    public SongJitterBuffer(int expectedPackets, double bytesPerSecond) {
+        this(expectedPackets, bytesPerSecond, DEFAULT_PLAYOUT_DELAY);
+    }
+
+    /**
+     * Creates a jitter buffer.
+     * @param expectedPackets Amount of datagrams the song consists of.
+     * @param bytesPerSecond Bytes per second of the audio (i.e. bitrate / 8).
+     * @param playoutDelay Contiguous play time in milliseconds needed before playback can start.
+     */
+    public SongJitterBuffer(int expectedPackets, double bytesPerSecond, long playoutDelay) {
+        if(expectedPackets <= 0)
+            throw new IllegalArgumentException("The expected amount of packets must be positive.");
+        if(bytesPerSecond <= 0)
+            throw new IllegalArgumentException("The bytes per second must be positive.");
+
+        this.datagrams = new SongDatagram[expectedPackets];
+        this.bytesPerSecond = bytesPerSecond;
+        this.playoutDelay = playoutDelay;
+        this.watermark = SongDatagram.FIRST_SEQUENCE_NUMBER - 1;
+        this.highestSequenceNumber = this.watermark;
+    }
+
+    /**
+     * Adds a datagram. The datagrams can arrive in any order.
+     * @param songDatagram Received datagram.
+     * @return Returns true if the datagram was added. False if it was a duplicate or is out of range.
+     */
+    public synchronized boolean add(SongDatagram songDatagram) {
+        int index = songDatagram.getSequenceNumber() - SongDatagram.FIRST_SEQUENCE_NUMBER;
+
+        if(index < 0 || index >= this.datagrams.length || this.datagrams[index] != null)
+            return false;
+
+        this.datagrams[index] = songDatagram;
+        this.receivedPackets++;
+        this.highestSequenceNumber = Math.max(this.highestSequenceNumber, songDatagram.getSequenceNumber());
+
+        // Advance the watermark over the now contiguous datagrams.
+        int nextIndex = this.watermark - SongDatagram.FIRST_SEQUENCE_NUMBER + 1;
+        if(nextIndex == index) {
+            while(nextIndex < this.datagrams.length && this.datagrams[nextIndex] != null) {
+                this.contiguousBytes += this.datagrams[nextIndex].getSongData().length;
+                this.watermark++;
+                nextIndex++;
+            }
+            this.notifyAll();
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds several datagrams.
+     * @param songDatagrams Received datagrams.
+     */
+    public void add(List<SongDatagram> songDatagrams) {
+        songDatagrams.forEach(this::add);
+    }
+
+    /**
+     * @return Returns the highest sequence number up to which all datagrams were received.
+     */
+    public synchronized int getWatermark() {
+        return this.watermark;
+    }
+
+    /**
+     * @return Returns the amount of song bytes in the contiguous prefix.
+     */
+    public synchronized long getContiguousBytes() {
+        return this.contiguousBytes;
+    }
+
+    /**
+     * @return Returns the play time in milliseconds of the contiguous prefix.
+     */
+    public synchronized long getContiguousMillis() {
+        return (long) (this.contiguousBytes * 1000 / this.bytesPerSecond);
+    }
+
+    /**
+     * @return Returns true if all datagrams were received.
+     */
+    public synchronized boolean isComplete() {
+        return this.receivedPackets == this.datagrams.length;
+    }
+
+    /**
+     * @return Returns true if enough contiguous audio is available to start playing.
+     */
+    public synchronized boolean isPlayable() {
+        return this.isComplete() || this.getContiguousMillis() >= this.playoutDelay;
+    }
+
+    /**
+     * Waits until the buffer is playable.
+     * @param timeout Maximum time to wait.
+     * @param timeUnit TimeUnit of the timeout.
+     * @return Returns true if the buffer is playable, false if the timeout elapsed or the buffer was closed.
+     * @throws InterruptedException Thrown if the waiting thread was interrupted.
+     */
+    public synchronized boolean waitUntilPlayable(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+
+        while(!this.isPlayable() && !this.closed) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return this.isPlayable();
+    }
+
+    /**
+     * @return Returns the expected amount of datagrams.
+     */
+    public int getExpectedPackets() {
+        return this.datagrams.length;
+    }
+
+    /**
+     * @return Returns the amount of different datagrams received.
+     */
+    public synchronized int getReceivedPackets() {
+        return this.receivedPackets;
+    }
+
+    /**
+     * Gets the sequence numbers of the holes below the highest received datagram.
+     * Datagrams after the highest received one are not reported, they are probably still on the way.
+     * @return List of the missing sequence numbers. Empty if there are no holes.
+     */
+    public synchronized List<Integer> getMissingSequenceNumbers() {
+        List<Integer> missing = new ArrayList<>();
+
+        for(int sequenceNr = this.watermark + 1; sequenceNr < this.highestSequenceNumber; sequenceNr++) {
+            if(this.datagrams[sequenceNr - SongDatagram.FIRST_SEQUENCE_NUMBER] == null)
+                missing.add(sequenceNr);
+        }
+        return missing;
+    }
+
+    /**
+     * Closes the buffer. Readers waiting for data are released.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Opens a stream over the contiguous song data.
+     * Reading blocks until the next datagram is contiguous and returns the end of the stream
+     * after the last datagram or when the buffer is closed.
+     * @return Returns a new InputStream reading the song from the beginning.
+     */
+    public InputStream openStream() {
+        return new ContiguousInputStream();
+    }
+
+    /**
+     * Reads the contiguous prefix of the buffer.
+     */
+    private class ContiguousInputStream extends InputStream {
+        private int index;
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = this.read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(length == 0)
+                return 0;
+
+            int read = 0;
+            while(read == 0) {
+                SongDatagram datagram;
+                synchronized (SongJitterBuffer.this) {
+                    try {
+                        // Wait until the next datagram is part of the contiguous prefix.
+                        while(!closed && this.index < datagrams.length
+                                && this.index + SongDatagram.FIRST_SEQUENCE_NUMBER > watermark) {
+                            SongJitterBuffer.this.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Waiting for song data was interrupted.");
+                    }
+
+                    if(closed || this.index >= datagrams.length)
+                        return -1;
+                    datagram = datagrams[this.index];
+                }
+
+                byte[] data = datagram.getSongData();
+                read = Math.min(length, data.length - this.position);
+                System.arraycopy(data, this.position, buffer, offset, read);
+                this.position += read;
+
+                if(this.position >= data.length) {
+                    this.index++;
+                    this.position = 0;
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public int available() {
+            synchronized (SongJitterBuffer.this) {
+                if(this.index + SongDatagram.FIRST_SEQUENCE_NUMBER > watermark)
+                    return 0;
+                return datagrams[this.index].getSongData().length - this.position;
+            }
+        }
+    }
+}
@@ -2,15 +2,22 @@ package models.networking.clients;
 
 import javafx.beans.property.SimpleStringProperty;
 import models.networking.clients.callbacks.OnDisconnected;
+import models.networking.clients.callbacks.OnSendDropped;
+import models.networking.clients.callbacks.OnSessionStarted;
+import models.networking.clients.callbacks.OnSlowConsumer;
 
 import java.io.Closeable;
 import java.net.Socket;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Esteban Luchsinger on 24.03.2016.
  * Represents a network client.
+ *
+ * The objects are sent through a bounded outbound queue (see OutboundQueue). Superseded state commands
+ * and stale song data are dropped, the OnSendDropped listeners are told about it.
  */
 public interface NetworkClient extends Closeable {
 //
@@ -42,9 +49,34 @@ public interface NetworkClient extends Closeable {
      * If needed, this method returns immediately.
      * @param timeout Timeout time
      * @param timeUnit TimeUnit for the timeout
+     * @throws TimeoutException Thrown if the objects were not sent in time or the waiting thread was interrupted.
      */
     void waitForSending(long timeout, TimeUnit timeUnit) throws TimeoutException;
 
+    /**
+     * Drops the song data waiting to be sent, except the data of one song.
+     * The OnSendDropped listeners are called for the dropped objects.
+     * @param keepSongId Id of the song to keep (may be null).
+     * @return Returns the ids of the songs whose data was dropped.
+     */
+    Set<String> discardSongData(String keepSongId);
+
+    /**
+     * @param songId Id of the song.
+     * @return Returns true if data of the song was not completely sent yet.
+     */
+    boolean hasQueuedSongData(String songId);
+
+    /**
+     * @return Returns the amount of bytes waiting to be sent.
+     */
+    long getQueuedBytes();
+
+    /**
+     * @return Returns true if the client does not receive the sent data fast enough.
+     */
+    boolean isSlowConsumer();
+
     /**
      * @return Returns the socket corresponding to the NetworkClient.
      */
@@ -69,4 +101,23 @@ public interface NetworkClient extends Closeable {
 
     void addOnDisconnectedListener(OnDisconnected listener);
     void removeOnDisconnectedListener(OnDisconnected listener);
+
+    void addOnSendDroppedListener(OnSendDropped listener);
+    void removeOnSendDroppedListener(OnSendDropped listener);
+
+    void addOnSlowConsumerListener(OnSlowConsumer listener);
+    void removeOnSlowConsumerListener(OnSlowConsumer listener);
+
+    /**
+     * @return Returns the session token of the client or null, if the session did not start yet.
+     */
+    String getSessionToken();
+
+    /**
+     * Adds a listener for the start of the session.
+     * If the session already started, the listener is called immediately.
+     * @param listener The listener.
+     */
+    void addOnSessionStartedListener(OnSessionStarted listener);
+    void removeOnSessionStartedListener(OnSessionStarted listener);
 }
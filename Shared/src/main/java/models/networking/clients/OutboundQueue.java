@@ -0,0 +1,291 @@
+package models.networking.clients;
+
+import models.networking.dtos.CacheSongCommand;
+import models.networking.dtos.PauseCommand;
+import models.networking.dtos.PlayCommand;
+import models.networking.dtos.SongChunkCommand;
+import models.networking.dtos.StopCommand;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * <pre>
+ * The objects waiting to be sent to a client, with the amount of bytes they use.
+ *
+ * The queue is bounded by bytes, not by objects:
+ * - Song data (SongChunkCommand, CacheSongCommand) counts with the size of its data. If it does not fit
+ *   anymore, it's dropped (an empty queue takes any size). A song with a gap is of no use to the client,
+ *   so the following data of the same song is dropped too (until the next Play or Stop command or
+ *   discardSongData()).
+ * - The state commands (PlayCommand, PauseCommand, StopCommand) are coalesced: only the latest state
+ *   command waiting in the queue is kept.
+ * - Other commands are small and always queued.
+ * Dropped objects are returned to the caller (i.e. to correct what the server knows about the client).
+ *
+ * Every queued object gets a sequence number. awaitSent() waits until all objects up to a sequence
+ * number were sent (or dropped).
+ *
+ * One thread takes the objects (take() and sent()), any thread may queue them.
+ * Threadsafe.
+ * </pre>
+ */
+public class OutboundQueue {
+
+    /**
+     * Bytes counted for a command without song data.
+     */
+    public static final int COMMAND_SIZE = 256;
+
+    private static final int KIND_COMMAND = 0;
+    private static final int KIND_STATE = 1;
+    private static final int KIND_SONG_DATA = 2;
+
+    private final long maxBytes;
+    private final long slowConsumerBytes;
+
+    private final Deque<Entry> entries;
+
+    /**
+     * The entry taken by the sending thread (null if none).
+     */
+    private Entry sending;
+
+    /**
+     * Songs whose data was dropped. Their following data is dropped too.
+     */
+    private final Set<String> droppedSongs;
+
+    private long queuedBytes;
+    private long nextSequence;
+    private boolean closed;
+
+    /**
+     * @param maxBytes Maximum amount of bytes in the queue (the object being sent included).
+     * @param slowConsumerBytes Amount of bytes from which the client is a slow consumer.
+     */
+    public OutboundQueue(long maxBytes, long slowConsumerBytes) {
+        this.maxBytes = maxBytes;
+        this.slowConsumerBytes = slowConsumerBytes;
+        this.entries = new ArrayDeque<>();
+        this.droppedSongs = new HashSet<>();
+    }
+
+    /**
+     * Queues an object.
+     * @param object The object to send.
+     * @param dropped Receives the objects dropped instead (superseded state commands, or the object itself).
+     * @return Returns the sequence number of the object.
+     */
+    public synchronized long offer(Object object, List<Object> dropped) {
+        long sequence = ++this.nextSequence;
+        Entry entry = new Entry(object, sequence);
+
+        if(this.closed) {
+            dropped.add(object);
+            return sequence;
+        }
+
+        if(entry.kind == KIND_STATE) {
+            // Only the latest state counts.
+            Iterator<Entry> iterator = this.entries.iterator();
+            while(iterator.hasNext()) {
+                Entry queued = iterator.next();
+                if(queued.kind == KIND_STATE) {
+                    iterator.remove();
+                    this.queuedBytes -= queued.size;
+                    dropped.add(queued.object);
+                }
+            }
+
+            if(object instanceof PlayCommand || object instanceof StopCommand)
+                this.droppedSongs.clear();
+        }
+        else if(entry.kind == KIND_SONG_DATA) {
+            if(this.droppedSongs.contains(entry.songId)
+                    || (this.queuedBytes > 0 && this.queuedBytes + entry.size > this.maxBytes)) {
+                // The rest of the song is useless to the client, make room.
+                this.droppedSongs.add(entry.songId);
+                this.removeSongData(songId -> songId.equals(entry.songId), dropped);
+                dropped.add(object);
+                this.notifyAll();
+                return sequence;
+            }
+        }
+
+        this.entries.addLast(entry);
+        this.queuedBytes += entry.size;
+        this.notifyAll();
+        return sequence;
+    }
+
+    /**
+     * Drops the queued data of all songs except one (i.e. the song about to be played).
+     * @param keepSongId Id of the song to keep (may be null).
+     * @return Returns the dropped objects.
+     */
+    public synchronized List<Object> discardSongData(String keepSongId) {
+        List<Object> dropped = new ArrayList<>();
+        this.removeSongData(songId -> !songId.equals(keepSongId), dropped);
+        this.droppedSongs.clear();
+        this.notifyAll();
+        return dropped;
+    }
+
+    /**
+     * @param songId Id of the song.
+     * @return Returns true if data of the song is waiting to be sent or being sent.
+     */
+    public synchronized boolean hasSongData(String songId) {
+        if(this.sending != null && this.sending.kind == KIND_SONG_DATA && this.sending.songId.equals(songId))
+            return true;
+
+        for(Entry entry : this.entries) {
+            if(entry.kind == KIND_SONG_DATA && entry.songId.equals(songId))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the next object to send. Call sent() after it was sent.
+     * @return Returns the object or null, if the queue was closed.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public synchronized Object take() throws InterruptedException {
+        while(this.entries.isEmpty() && !this.closed)
+            this.wait();
+
+        if(this.closed)
+            return null;
+
+        this.sending = this.entries.removeFirst();
+        return this.sending.object;
+    }
+
+    /**
+     * Marks the object returned by take() as sent.
+     */
+    public synchronized void sent() {
+        if(this.sending != null) {
+            this.queuedBytes -= this.sending.size;
+            this.sending = null;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the objects up to the sequence number were sent or dropped.
+     * @param sequence The sequence number (returned by offer()).
+     * @param timeout The timeout.
+     * @param timeUnit TimeUnit of the timeout.
+     * @return Returns false, if the timeout elapsed.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public synchronized boolean awaitSent(long sequence, long timeout, TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+
+        while(!this.closed && this.isPending(sequence)) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                return false;
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return Returns the amount of bytes waiting to be sent.
+     */
+    public synchronized long getQueuedBytes() {
+        return this.queuedBytes;
+    }
+
+    /**
+     * @return Returns true if the client does not receive the queued data fast enough.
+     */
+    public synchronized boolean isSlowConsumer() {
+        return this.queuedBytes >= this.slowConsumerBytes;
+    }
+
+    /**
+     * Drops the queued objects and wakes the waiting threads.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.entries.clear();
+        this.queuedBytes = this.sending != null ? this.sending.size : 0;
+        this.notifyAll();
+    }
+
+    /**
+     * @return Returns true if an object up to the sequence number was not sent yet.
+     */
+    private boolean isPending(long sequence) {
+        if(this.sending != null && this.sending.sequence <= sequence)
+            return true;
+
+        // The entries are in the order of their sequence numbers.
+        Entry first = this.entries.peekFirst();
+        return first != null && first.sequence <= sequence;
+    }
+
+    private void removeSongData(Predicate<String> filter, List<Object> dropped) {
+        Iterator<Entry> iterator = this.entries.iterator();
+        while(iterator.hasNext()) {
+            Entry queued = iterator.next();
+            if(queued.kind == KIND_SONG_DATA && filter.test(queued.songId)) {
+                iterator.remove();
+                this.queuedBytes -= queued.size;
+                dropped.add(queued.object);
+            }
+        }
+    }
+
+    /**
+     * A queued object.
+     */
+    private static class Entry {
+        final Object object;
+        final long sequence;
+        final int kind;
+        final int size;
+
+        /**
+         * Id of the song (song data only). Never null for song data.
+         */
+        final String songId;
+
+        Entry(Object object, long sequence) {
+            this.object = object;
+            this.sequence = sequence;
+
+            if(object instanceof SongChunkCommand) {
+                SongChunkCommand chunk = (SongChunkCommand) object;
+                this.kind = KIND_SONG_DATA;
+                this.size = chunk.data.length;
+                this.songId = chunk.songId;
+            }
+            else if(object instanceof CacheSongCommand) {
+                CacheSongCommand command = (CacheSongCommand) object;
+                this.kind = KIND_SONG_DATA;
+                this.size = command.data != null ? command.data.length : 0;
+                this.songId = command.songId != null ? command.songId : "";
+            }
+            else {
+                boolean state = object instanceof PlayCommand || object instanceof PauseCommand || object instanceof StopCommand;
+                this.kind = state ? KIND_STATE : KIND_COMMAND;
+                this.size = COMMAND_SIZE;
+                this.songId = null;
+            }
+        }
+    }
+}
@@ -2,24 +2,67 @@ package models.networking.clients;
 
 import models.clients.Client;
 import models.networking.clients.callbacks.OnDisconnected;
+import models.networking.clients.callbacks.OnSendDropped;
+import models.networking.clients.callbacks.OnSessionStarted;
+import models.networking.clients.callbacks.OnSlowConsumer;
+import models.networking.dtos.CacheSongCommand;
 import models.networking.dtos.KeepAliveBeacon;
 import models.networking.dtos.RenameCommand;
+import models.networking.dtos.SessionCommand;
+import models.networking.dtos.SongChunkCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import utils.concurrent.ExecutorServiceUtils;
+import utils.concurrent.ExecutionPools;
+import utils.concurrent.HashedWheelTimer;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Esteban Luchsinger on 18.03.2016.
  * Wraps a Client on the Network.
+ *
+ * Receives the SessionCommand of the client and notifies the OnSessionStarted listeners.
+ *
+ * The sent objects wait in a bounded OutboundQueue (MAX_QUEUED_BYTES), a single sending thread writes them.
+ * Superseded state commands and song data without room are dropped (OnSendDropped listeners), a client
+ * with more than SLOW_CONSUMER_BYTES waiting is reported (OnSlowConsumer listeners).
+ * The ObjectOutputStream is reset after every object, so it doesn't keep the sent songs in memory.
+ *
+ * Uses the shared HashedWheelTimer: A KeepAliveBeacon is sent if nothing was sent for HEARTBEAT_INTERVAL
+ * (the client detects a dead connection with it). If writing an object takes longer than SEND_DEADLINE,
+ * the client stalled and the connection is closed.
  */
 public class SocketNetworkClient extends Client implements NetworkClient, Closeable {
+    /**
+     * Maximum amount of bytes waiting to be sent to a client.
+     */
+    public static final long MAX_QUEUED_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Amount of waiting bytes from which the client is a slow consumer.
+     * It caught up again below the half of it.
+     */
+    public static final long SLOW_CONSUMER_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * A KeepAliveBeacon is sent if nothing was sent for this time (in milliseconds).
+     */
+    public static final long HEARTBEAT_INTERVAL = 5000;
+
+    /**
+     * Maximum time (in milliseconds) to write an object to the client.
+     */
+    public static final long SEND_DEADLINE = 30000;
+
     private final Logger logger;
 
     private final Socket socket;
@@ -29,22 +72,46 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
     private volatile boolean isWorking;
 
     /**
-     * This executor handles the reading of new messages.
+     * The task reading the new messages (on the io pool).
+     */
+    private final Future<?> readingTask;
+
+    /**
+     * The task sending the queued objects to the client (on the io pool).
      */
-    private final ExecutorService readingExecutor;
+    private final Future<?> sendingTask;
 
     /**
-     * This executor handles the sending of messages to the client.
+     * The objects waiting to be sent.
      */
-    private final ExecutorService sendingExecutor;
+    private final OutboundQueue outboundQueue;
 
     /**
-     * The last async sending will be stored inside of this future.
-     * The future can be used to wait until the client received the data.
+     * Sequence number of the last queued object. Used to wait until the client received the data.
      */
-    private Future<?> lastSentFuture;
+    private final AtomicLong lastQueuedSequence;
+
+    private final AtomicBoolean slowConsumer;
+
+    private final HashedWheelTimer timer;
+    private volatile HashedWheelTimer.Timeout heartbeat;
+
+    /**
+     * Time (System.nanoTime) the last object was sent.
+     */
+    private volatile long lastSendTime;
+
+    private final AtomicBoolean closed;
 
     private final List<OnDisconnected> onDisconnectedListeners;
+    private final List<OnSessionStarted> onSessionStartedListeners;
+    private final List<OnSendDropped> onSendDroppedListeners;
+    private final List<OnSlowConsumer> onSlowConsumerListeners;
+
+    /**
+     * The last session command of the client (null until the session started).
+     */
+    private SessionCommand session;
 
     /**
      * Default Constructor
@@ -64,7 +131,15 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
     public SocketNetworkClient(Socket socket) throws IOException {
         this.logger = LoggerFactory.getLogger(this.getClass());
 
-        this.onDisconnectedListeners = new ArrayList<>();
+        this.onDisconnectedListeners = new CopyOnWriteArrayList<>();
+        this.onSessionStartedListeners = new CopyOnWriteArrayList<>();
+        this.onSendDroppedListeners = new CopyOnWriteArrayList<>();
+        this.onSlowConsumerListeners = new CopyOnWriteArrayList<>();
+        this.outboundQueue = new OutboundQueue(MAX_QUEUED_BYTES, SLOW_CONSUMER_BYTES);
+        this.lastQueuedSequence = new AtomicLong();
+        this.slowConsumer = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+        this.timer = HashedWheelTimer.getShared();
 
         this.socket = socket;
         this.outputStream =
@@ -78,13 +153,21 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
         this.setName(socket.getInetAddress().getHostName());
         this.isWorking = true;
 
-        this.readingExecutor = Executors.newSingleThreadExecutor();
-        this.readingExecutor.submit(this::listen);
+        String address = socket.getInetAddress().getHostAddress();
+        try {
+            this.readingTask = ExecutionPools.io().submit(ExecutionPools.named("SocketReader " + address, this::listen));
+
+            // A single sending thread ensures that the objects are sent in the correct order.
+            this.sendingTask = ExecutionPools.io().submit(ExecutionPools.named("SocketWriter " + address, this::sendQueued));
+        } catch (RejectedExecutionException e) {
+            // Too many connections.
+            this.isWorking = false;
+            this.socket.close();
+            throw new IOException("Could not start the threads of the client " + address, e);
+        }
 
-        // Initialize the executor as single thread executor.
-        // A single thread executor ensures that every submit is executed in
-        // the correct order.
-        this.sendingExecutor = Executors.newSingleThreadExecutor();
+        this.lastSendTime = System.nanoTime();
+        this.scheduleHeartbeat(HEARTBEAT_INTERVAL);
     }
 
     /**
@@ -104,6 +187,44 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
         this.onDisconnectedListeners.remove(listener);
     }
 
+    @Override
+    public void addOnSendDroppedListener(OnSendDropped listener) {
+        this.onSendDroppedListeners.add(listener);
+    }
+
+    @Override
+    public void removeOnSendDroppedListener(OnSendDropped listener) {
+        this.onSendDroppedListeners.remove(listener);
+    }
+
+    @Override
+    public void addOnSlowConsumerListener(OnSlowConsumer listener) {
+        this.onSlowConsumerListeners.add(listener);
+    }
+
+    @Override
+    public void removeOnSlowConsumerListener(OnSlowConsumer listener) {
+        this.onSlowConsumerListeners.remove(listener);
+    }
+
+    @Override
+    public synchronized String getSessionToken() {
+        return this.session != null ? this.session.token : null;
+    }
+
+    @Override
+    public synchronized void addOnSessionStartedListener(OnSessionStarted listener) {
+        this.onSessionStartedListeners.add(listener);
+
+        if(this.session != null)
+            listener.onSessionStarted(this.session);
+    }
+
+    @Override
+    public synchronized void removeOnSessionStartedListener(OnSessionStarted listener) {
+        this.onSessionStartedListeners.remove(listener);
+    }
+
     private ObjectOutputStream getObjectOutputStream() {
         return this.outputStream;
     }
@@ -113,34 +234,68 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
     /**
      * Sends an object to the connected socket (asynchronously).
      * This method will send an object in a non-blocking mode (async).
+     * The object is queued, it may be dropped (see OutboundQueue).
      * @param object Object to send. MUST implement the serializable interface.
      */
     @Override
     public void send(Object object) {
-        this.lastSentFuture = this.sendingExecutor.submit(() -> {
-            try {
-                this.sendSync(object);
-            } catch (IOException e) {
-                this.logger.warn("Error sending object " + object, e);
-            }
-        });
+        List<Object> dropped = new ArrayList<>();
+        long sequence = this.outboundQueue.offer(object, dropped);
+        this.lastQueuedSequence.accumulateAndGet(sequence, Math::max);
+
+        this.onSendDropped(dropped);
+        this.updateSlowConsumer();
+    }
+
+    /**
+     * Drops the song data waiting to be sent, except the data of one song.
+     * @param keepSongId Id of the song to keep (may be null).
+     * @return Returns the ids of the songs whose data was dropped.
+     */
+    @Override
+    public Set<String> discardSongData(String keepSongId) {
+        List<Object> dropped = this.outboundQueue.discardSongData(keepSongId);
+        this.onSendDropped(dropped);
+        this.updateSlowConsumer();
+
+        Set<String> songIds = new HashSet<>();
+        for(Object object : dropped) {
+            if(object instanceof SongChunkCommand)
+                songIds.add(((SongChunkCommand) object).songId);
+            else if(object instanceof CacheSongCommand && ((CacheSongCommand) object).songId != null)
+                songIds.add(((CacheSongCommand) object).songId);
+        }
+        return songIds;
+    }
+
+    @Override
+    public boolean hasQueuedSongData(String songId) {
+        return this.outboundQueue.hasSongData(songId);
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return this.outboundQueue.getQueuedBytes();
+    }
+
+    @Override
+    public boolean isSlowConsumer() {
+        return this.slowConsumer.get();
     }
 
     /**
      * Waits until all object were sent.
      * If needed, this method returns immediately.
      * The timeout is not defined.
+     * If the waiting thread is interrupted, the method returns with the interrupt flag set.
      */
     @Override
     public void waitForSending() {
-        if(this.lastSentFuture != null) {
-            try {
-                this.lastSentFuture.get();
-            } catch (ExecutionException e) {
-                this.logger.warn("Error sending data to client " + this.toString(), e);
-            } catch (InterruptedException e) {
-                this.logger.warn("Sending data to client  " + this + " was interrupted.", e);
-            }
+        try {
+            this.outboundQueue.awaitSent(this.lastQueuedSequence.get(), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Sending data to client  " + this + " was interrupted.", e);
         }
     }
 
@@ -150,17 +305,108 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
      *
      * @param timeout  Timeout time
      * @param timeUnit TimeUnit for the timeout
+     * @throws TimeoutException Thrown if the objects were not sent in time, or the waiting thread was interrupted
+     *                          (the interrupt flag stays set).
      */
     @Override
     public void waitForSending(long timeout, TimeUnit timeUnit) throws TimeoutException {
-        if(this.lastSentFuture != null) {
-            try {
-                this.lastSentFuture.get(timeout, timeUnit);
-            } catch (ExecutionException e) {
-                this.logger.warn("Error sending data to client " + this.toString(), e);
-            } catch (InterruptedException e) {
-                this.logger.warn("Sending data to client  " + this + " was interrupted.", e);
+        try {
+            if(!this.outboundQueue.awaitSent(this.lastQueuedSequence.get(), timeout, timeUnit))
+                throw new TimeoutException("Sending data to client " + this + " timed out.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("Sending data to client " + this + " was interrupted.");
+        }
+    }
+
+    /**
+     * Sends the queued objects, one after the other. (Sending thread)
+     */
+    private void sendQueued() {
+        try {
+            Object object;
+            while((object = this.outboundQueue.take()) != null) {
+                HashedWheelTimer.Timeout deadline = this.timer.newTimeout(this::onSendDeadline, SEND_DEADLINE, TimeUnit.MILLISECONDS);
+                try {
+                    this.sendSync(object);
+                } catch (IOException e) {
+                    this.logger.warn("Error sending object " + object, e);
+                } finally {
+                    deadline.cancel();
+                    this.lastSendTime = System.nanoTime();
+                    this.outboundQueue.sent();
+                }
+
+                this.updateSlowConsumer();
             }
+        } catch (InterruptedException e) {
+            this.logger.debug("Sending to client " + this + " stopped.");
+        }
+    }
+
+    /**
+     * Called (on the timer thread) if writing an object took longer than SEND_DEADLINE.
+     * Closes the socket, the reading thread closes the client.
+     */
+    private void onSendDeadline() {
+        this.logger.warn("Client " + this + " did not receive the data for " + SEND_DEADLINE + "ms, closing the connection.");
+        this.closeSocket();
+    }
+
+    /**
+     * Sends a KeepAliveBeacon if nothing was sent for HEARTBEAT_INTERVAL. (Timer thread)
+     */
+    private void onHeartbeat() {
+        if(this.closed.get())
+            return;
+
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastSendTime);
+        if(idle >= HEARTBEAT_INTERVAL && this.outboundQueue.getQueuedBytes() == 0) {
+            this.send(new KeepAliveBeacon());
+            idle = 0;
+        }
+
+        this.scheduleHeartbeat(Math.max(1, HEARTBEAT_INTERVAL - idle));
+    }
+
+    private void scheduleHeartbeat(long delay) {
+        try {
+            this.heartbeat = this.timer.newTimeout(this::onHeartbeat, delay, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            this.logger.debug("The timer was stopped, no heartbeat for " + this);
+        }
+    }
+
+    /**
+     * Closes the socket (unblocks the reading and sending threads).
+     */
+    private void closeSocket() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            this.logger.debug("Error closing the socket of " + this, e);
+        }
+    }
+
+    /**
+     * Notifies the OnSlowConsumer listeners, if the client became a slow consumer or caught up.
+     */
+    private void updateSlowConsumer() {
+        long queuedBytes = this.outboundQueue.getQueuedBytes();
+
+        if(queuedBytes >= SLOW_CONSUMER_BYTES && this.slowConsumer.compareAndSet(false, true)) {
+            this.logger.warn("Client " + this + " is a slow consumer (" + queuedBytes + " bytes waiting)");
+            this.onSlowConsumerListeners.forEach(l -> l.onSlowConsumer(true, queuedBytes));
+        }
+        else if(queuedBytes < SLOW_CONSUMER_BYTES / 2 && this.slowConsumer.compareAndSet(true, false)) {
+            this.logger.info("Client " + this + " caught up (" + queuedBytes + " bytes waiting)");
+            this.onSlowConsumerListeners.forEach(l -> l.onSlowConsumer(false, queuedBytes));
+        }
+    }
+
+    private void onSendDropped(List<Object> dropped) {
+        for(Object object : dropped) {
+            this.onSendDroppedListeners.forEach(l -> l.onSendDropped(object));
         }
     }
 
@@ -176,7 +422,13 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
         if(!(object instanceof Serializable))
             throw new RuntimeException("The object must implement the serializable interface");
 
-        this.getObjectOutputStream().writeObject(object);
+        // The reader thread sends a beacon too.
+        synchronized (this.outputStream) {
+            this.getObjectOutputStream().writeObject(object);
+
+            // Otherwise the stream (and the client's stream) keeps a reference to every object sent.
+            this.getObjectOutputStream().reset();
+        }
     }
 
     /**
@@ -190,6 +442,9 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
                 if(receivedObject instanceof RenameCommand) {
                     RenameCommand command = (RenameCommand) receivedObject;
                     this.setName(command.getName());
+                } else if(receivedObject instanceof SessionCommand) {
+                    this.logger.info("Session of client " + this.getName() + ": " + receivedObject);
+                    this.onSessionStarted((SessionCommand) receivedObject);
                 } else {
                     // The received object is unknown.
                     this.logger.info("Received unknown command from client " + this.getName() +
@@ -216,20 +471,36 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
                 this.logger.warn("Error receiving Object in client.", exception);
             }
         }
+
+        // The socket was closed (i.e. by a deadline), close the client too.
+        if(this.isWorking) {
+            try {
+                this.close();
+            } catch (IOException e) {
+                this.logger.warn("Error terminating the client.", e);
+            }
+        }
     }
 
     /**
      * Closes the SocketNetworkClient.
      */
     public void close() throws IOException {
+        if(!this.closed.compareAndSet(false, true))
+            return;
+
         this.isWorking = false;
+        if(this.heartbeat != null)
+            this.heartbeat.cancel();
+
         if(this.getSocket() != null && !this.getSocket().isClosed()) {
             this.socket.getOutputStream().flush();
             this.socket.close();
         }
 
-        ExecutorServiceUtils.stopExecutorService(this.readingExecutor);
-        ExecutorServiceUtils.stopExecutorService(this.sendingExecutor);
+        this.outboundQueue.close();
+        this.readingTask.cancel(true);
+        this.sendingTask.cancel(true);
 
         this.onDisconnected();
     }
@@ -245,4 +516,9 @@ public class SocketNetworkClient extends Client implements NetworkClient, Closea
     private void onDisconnected() {
         this.onDisconnectedListeners.forEach(OnDisconnected::onDisconnected);
     }
+
+    private synchronized void onSessionStarted(SessionCommand session) {
+        this.session = session;
+        this.onSessionStartedListeners.forEach(l -> l.onSessionStarted(session));
+    }
 }
\ No newline at end of file
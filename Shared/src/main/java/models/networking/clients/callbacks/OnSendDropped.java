@@ -0,0 +1,11 @@
+package models.networking.clients.callbacks;
+
+/**
+ * Called when an object sent to a client was dropped from its outbound queue
+ * (superseded state command, stale song data or no room left for a slow client).
+ */
+@FunctionalInterface
+public interface OnSendDropped {
+
+    void onSendDropped(Object object);
+}
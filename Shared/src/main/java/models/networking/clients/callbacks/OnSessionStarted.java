@@ -0,0 +1,12 @@
+package models.networking.clients.callbacks;
+
+import models.networking.dtos.SessionCommand;
+
+/**
+ * Called when a client started its session (after connecting or reconnecting).
+ */
+@FunctionalInterface
+public interface OnSessionStarted {
+
+    void onSessionStarted(SessionCommand session);
+}
@@ -0,0 +1,15 @@
+package models.networking.clients.callbacks;
+
+/**
+ * Called when a client does not receive the sent data fast enough (its outbound queue reached the
+ * slow consumer limit), and again when it caught up.
+ */
+@FunctionalInterface
+public interface OnSlowConsumer {
+
+    /**
+     * @param slow True if the client became a slow consumer, false if it caught up.
+     * @param queuedBytes Amount of bytes waiting to be sent to the client.
+     */
+    void onSlowConsumer(boolean slow, long queuedBytes);
+}
@@ -5,11 +5,24 @@ import java.io.Serializable;
 /**
  * Created by Esteban Luchsinger on 08.04.2016.
  * The cache command tells the client to cache the song. (Not start playing!)
+ *
+ * The command contains the id of the song. The server uses it to send the next track
+ * ahead of time, the client keeps it next to the playing song.
  */
 public class CacheSongCommand implements Serializable {
     private static final long serialVersionUID = 2322268523175827924L;
 
     public byte[] data;
 
-    public CacheSongCommand(byte[] data) { this.data = data; }
+    /**
+     * Id of the song (see SongUtils.getSongId). May be null.
+     */
+    public final String songId;
+
+    public CacheSongCommand(byte[] data) { this(null, data); }
+
+    public CacheSongCommand(String songId, byte[] data) {
+        this.songId = songId;
+        this.data = data;
+    }
 }
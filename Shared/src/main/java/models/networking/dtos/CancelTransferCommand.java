@@ -0,0 +1,20 @@
+package models.networking.dtos;
+
+import java.io.Serializable;
+
+/**
+ * Tells the client that the rest of a song won't be sent (a newer play superseded it).
+ * The client discards the partially received song.
+ */
+public class CancelTransferCommand implements Serializable {
+    private static final long serialVersionUID = 7148923056417721359L;
+
+    /**
+     * Id of the song (see SongUtils.getSongId).
+     */
+    public final String songId;
+
+    public CancelTransferCommand(String songId) {
+        this.songId = songId;
+    }
+}
@@ -5,6 +5,13 @@ import java.io.Serializable;
 /**
  * Created by Esteban Luchsinger on 17.03.2016.
  * The command "Play". It tells the client to play the song.
+ *
+ * The command contains the id of the song, so the client can play a song it cached before
+ * (i.e. the preloaded next track) without waiting for the data.
+ * The position is used to resume a song (after a pause or a reconnect). If paused is set, the
+ * client only loads the song at the position.
+ * The byte offset of the position is estimated by the server, so a client joining in the middle of
+ * the song can start decoding there, before the beginning of the song was received.
  */
 public class PlayCommand implements Serializable {
     private static final long serialVersionUID = -3809733967947659045L;
@@ -12,8 +19,40 @@ public class PlayCommand implements Serializable {
     public final String title;
     public final String artist;
 
+    /**
+     * Id of the song (see SongUtils.getSongId). Null if the song is the last cached song.
+     */
+    public final String songId;
+
+    /**
+     * Position in the song in milliseconds.
+     */
+    public final long position;
+
+    /**
+     * Estimated byte offset of the position in the song file. -1 if unknown.
+     */
+    public final long byteOffset;
+
+    /**
+     * True if the song should not start playing yet.
+     */
+    public final boolean paused;
+
     public PlayCommand(String title, String artist) {
+        this(null, title, artist);
+    }
+
+    public PlayCommand(String songId, String title, String artist) {
+        this(songId, title, artist, 0, 0, false);
+    }
+
+    public PlayCommand(String songId, String title, String artist, long position, long byteOffset, boolean paused) {
+        this.songId = songId;
         this.title = title;
         this.artist = artist;
+        this.position = position;
+        this.byteOffset = byteOffset;
+        this.paused = paused;
     }
 }
@@ -0,0 +1,39 @@
+package models.networking.dtos;
+
+import java.io.Serializable;
+
+/**
+ * Sent by the client after every (re-)connect.
+ * The token identifies the client across connections, the song ids tell the server which songs
+ * the client has cached. With this the server restores the playback on the client without sending
+ * the songs again.
+ */
+public class SessionCommand implements Serializable {
+    private static final long serialVersionUID = -1745983623180453118L;
+
+    /**
+     * Token of the client. Stays the same as long as the client is running.
+     */
+    public final String token;
+
+    /**
+     * Id of the cached song which is playing (may be null).
+     */
+    public final String playingSongId;
+
+    /**
+     * Id of the cached next song (may be null).
+     */
+    public final String nextSongId;
+
+    public SessionCommand(String token, String playingSongId, String nextSongId) {
+        this.token = token;
+        this.playingSongId = playingSongId;
+        this.nextSongId = nextSongId;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionCommand{" + this.token + ", playing=" + this.playingSongId + ", next=" + this.nextSongId + "}";
+    }
+}
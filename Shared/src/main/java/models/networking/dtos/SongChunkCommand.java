@@ -0,0 +1,36 @@
+package models.networking.dtos;
+
+import java.io.Serializable;
+
+/**
+ * A part of the data of a song.
+ * The songs are sent in chunks, so the client can start playing before the whole song was received.
+ * The client caches the song as soon as all chunks were received (like a CacheSongCommand).
+ */
+public class SongChunkCommand implements Serializable {
+    private static final long serialVersionUID = 4613372584961305223L;
+
+    /**
+     * Id of the song (see SongUtils.getSongId).
+     */
+    public final String songId;
+
+    /**
+     * Position of the data in the song (in bytes).
+     */
+    public final int offset;
+
+    /**
+     * Size of the whole song (in bytes).
+     */
+    public final int totalLength;
+
+    public final byte[] data;
+
+    public SongChunkCommand(String songId, int offset, int totalLength, byte[] data) {
+        this.songId = songId;
+        this.offset = offset;
+        this.totalLength = totalLength;
+        this.data = data;
+    }
+}
@@ -0,0 +1,439 @@
+package models.songs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <pre>
+ * Reads the metadata of an MP3 file from its headers only.
+ *
+ * Reads the ID3v2 tag (v2.2 - v2.4, only the title, artist and album frames), the ID3v1 tag and
+ * the first audio frame. The duration is taken from the Xing/Info or VBRI header of the first frame,
+ * or estimated from the bitrate of the first frame (CBR files).
+ * Only a few KB of the file are read, unlike mp3agic which scans every frame.
+ * </pre>
+ */
+public class Mp3HeaderReader {
+
+    /**
+     * Amount of bytes after the tag searched for the first audio frame.
+     */
+    private static final int FRAME_SEARCH_SIZE = 8 * 1024;
+
+    private static final int ID3V1_SIZE = 128;
+    private static final int ID3V2_HEADER_SIZE = 10;
+
+    /**
+     * Bitrates in kbit/s, indexed by [MPEG1 ? 0 : 1][layer - 1][bitrate index].
+     */
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+
+    /**
+     * Sample rates of MPEG1. MPEG2 uses the half, MPEG2.5 a quarter.
+     */
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
+
+    /**
+     * Reads the metadata of the file.
+     * @param path Path of the MP3-File.
+     * @return Returns the metadata or null, if the file has to be scanned completely
+     * (i.e. no valid audio frame was found after the tag).
+     * @throws IOException Thrown if the file could not be read.
+     */
+    public static SongMetadata read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads the metadata of an MP3 file.
+     * @param channel Channel of the file. Only positional reads are used.
+     * @return Returns the metadata or null, if the file has to be scanned completely.
+     * @throws IOException Thrown if the file could not be read.
+     */
+    public static SongMetadata read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        Tags tags = new Tags();
+
+        // ID3v2 at the start of the file.
+        long audioStart = readId3v2(channel, tags);
+
+        // ID3v1 at the end of the file.
+        long audioEnd = fileSize;
+        if(fileSize - ID3V1_SIZE >= audioStart) {
+            ByteBuffer v1 = readAt(channel, fileSize - ID3V1_SIZE, ID3V1_SIZE);
+            if(v1.remaining() == ID3V1_SIZE && v1.get(0) == 'T' && v1.get(1) == 'A' && v1.get(2) == 'G') {
+                audioEnd -= ID3V1_SIZE;
+                tags.fillFromId3v1(v1.array());
+            }
+        }
+
+        // First audio frame.
+        ByteBuffer window = readAt(channel, audioStart, (int) Math.min(FRAME_SEARCH_SIZE, audioEnd - audioStart));
+        FrameHeader first = null;
+        int frameOffset;
+        for(frameOffset = 0; frameOffset + 4 <= window.limit(); frameOffset++) {
+            FrameHeader header = FrameHeader.parse(window, frameOffset);
+            if(header != null && isConfirmed(window, frameOffset, header, audioStart, audioEnd)) {
+                first = header;
+                break;
+            }
+        }
+
+        if(first == null)
+            return null;
+
+        long firstFrameStart = audioStart + frameOffset;
+        long audioBytes = audioEnd - firstFrameStart;
+
+        // Xing/Info (and VBRI) headers contain the exact amount of frames.
+        long frames = SongMetadata.UNKNOWN;
+        long bytes = SongMetadata.UNKNOWN;
+        int xingOffset = frameOffset + 4 + first.getSideInfoSize();
+        int vbriOffset = frameOffset + 4 + 32;
+
+        if((matches(window, xingOffset, "Xing") || matches(window, xingOffset, "Info")) && xingOffset + 8 <= window.limit()) {
+            int flags = window.getInt(xingOffset + 4);
+            int position = xingOffset + 8;
+            if((flags & 0x1) != 0 && position + 4 <= window.limit()) {
+                frames = window.getInt(position) & 0xFFFFFFFFL;
+                position += 4;
+            }
+            if((flags & 0x2) != 0 && position + 4 <= window.limit()) {
+                bytes = window.getInt(position) & 0xFFFFFFFFL;
+            }
+        }
+        else if(matches(window, vbriOffset, "VBRI") && vbriOffset + 18 <= window.limit()) {
+            bytes = window.getInt(vbriOffset + 10) & 0xFFFFFFFFL;
+            frames = window.getInt(vbriOffset + 14) & 0xFFFFFFFFL;
+        }
+
+        long lengthInMilliseconds;
+        int bitrate;
+        if(frames > 0) {
+            lengthInMilliseconds = frames * first.getSamplesPerFrame() * 1000 / first.getSampleRate();
+            long streamBytes = bytes > 0 ? bytes : audioBytes;
+            bitrate = lengthInMilliseconds > 0 ? (int) (streamBytes * 8 / lengthInMilliseconds) : first.getBitrate();
+        }
+        else {
+            // CBR: every frame has the bitrate of the first one.
+            bitrate = first.getBitrate();
+            lengthInMilliseconds = audioBytes * 8 / bitrate;
+            frames = audioBytes / first.getFrameLength();
+        }
+
+        return new SongMetadata(
+                tags.title != null ? tags.title : "unknown title",
+                tags.artist != null ? tags.artist.intern() : "unknown artist",
+                tags.album != null ? tags.album.intern() : "",
+                lengthInMilliseconds, bitrate,
+                (int) firstFrameStart, (int) (audioEnd - 1), (int) Math.min(Integer.MAX_VALUE, frames));
+    }
+
+    //region ID3v2
+
+    /**
+     * Reads the title, artist and album of the ID3v2 tag, if there is one.
+     * Only the headers of the other frames are read (i.e. pictures are skipped).
+     * @return Returns the offset of the first byte after the tag.
+     */
+    private static long readId3v2(FileChannel channel, Tags tags) throws IOException {
+        ByteBuffer header = readAt(channel, 0, ID3V2_HEADER_SIZE);
+        if(header.remaining() < ID3V2_HEADER_SIZE || !matches(header, 0, "ID3"))
+            return 0;
+
+        int version = header.get(3);
+        int flags = header.get(5) & 0xFF;
+        int tagSize = getSyncSafeInt(header, 6);
+        long tagEnd = ID3V2_HEADER_SIZE + tagSize;
+        long audioStart = tagEnd + ((version == 4 && (flags & 0x10) != 0) ? 10 : 0);
+
+        // Unsynchronised tags (v2.2/v2.3) would have to be decoded completely. ID3v1 is used instead.
+        if(version < 2 || version > 4 || (version < 4 && (flags & 0x80) != 0))
+            return audioStart;
+
+        long position = ID3V2_HEADER_SIZE;
+        if(version >= 3 && (flags & 0x40) != 0) {
+            ByteBuffer extended = readAt(channel, position, 4);
+            if(extended.remaining() < 4)
+                return audioStart;
+            // v2.3: size without itself, v2.4: syncsafe size including itself.
+            position += version == 3 ? 4 + extended.getInt(0) : getSyncSafeInt(extended, 0);
+        }
+
+        int frameHeaderSize = version == 2 ? 6 : 10;
+        int idSize = version == 2 ? 3 : 4;
+
+        while(position + frameHeaderSize <= tagEnd && !tags.isComplete()) {
+            ByteBuffer frameHeader = readAt(channel, position, frameHeaderSize);
+            if(frameHeader.remaining() < frameHeaderSize || frameHeader.get(0) == 0)
+                break; // Padding
+
+            String id = new String(frameHeader.array(), 0, idSize, ISO_8859_1);
+            int size;
+            if(version == 2)
+                size = ((frameHeader.get(3) & 0xFF) << 16) | ((frameHeader.get(4) & 0xFF) << 8) | (frameHeader.get(5) & 0xFF);
+            else if(version == 3)
+                size = frameHeader.getInt(4);
+            else
+                size = getSyncSafeInt(frameHeader, 4);
+
+            if(size <= 0 || position + frameHeaderSize + size > tagEnd)
+                break;
+
+            // Compressed or encrypted frames (v2.3 / v2.4 format flags) are not decoded.
+            int formatFlags = version == 2 ? 0 : frameHeader.get(9) & 0xFF;
+            boolean plain = version == 3 ? (formatFlags & 0xC0) == 0 : (formatFlags & 0x0F) == 0;
+
+            if(plain && tags.isWanted(id)) {
+                ByteBuffer content = readAt(channel, position + frameHeaderSize, size);
+                tags.set(id, decodeText(content.array(), content.limit()));
+            }
+
+            position += frameHeaderSize + size;
+        }
+
+        return audioStart;
+    }
+
+    /**
+     * Decodes the content of a text frame (first byte is the encoding).
+     * Only the first value is returned.
+     */
+    private static String decodeText(byte[] content, int length) {
+        if(length < 2)
+            return null;
+
+        Charset charset;
+        switch (content[0]) {
+            case 1: charset = StandardCharsets.UTF_16; break;
+            case 2: charset = StandardCharsets.UTF_16BE; break;
+            case 3: charset = StandardCharsets.UTF_8; break;
+            default: charset = ISO_8859_1; break;
+        }
+
+        String text = new String(content, 1, length - 1, charset);
+        int end = text.indexOf('\u0000');
+        if(end >= 0)
+            text = text.substring(0, end);
+
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+    //endregion ID3v2
+
+    //region Helpers
+
+    /**
+     * A frame header is only accepted if the next frame starts directly after it
+     * (or the audio ends there). This avoids false syncs in junk data.
+     */
+    private static boolean isConfirmed(ByteBuffer window, int offset, FrameHeader header, long audioStart, long audioEnd) {
+        int next = offset + header.getFrameLength();
+
+        if(audioStart + next >= audioEnd)
+            return audioStart + next == audioEnd;
+
+        // The next frame is outside of the window, the header is trusted.
+        if(next + 4 > window.limit())
+            return true;
+
+        FrameHeader nextHeader = FrameHeader.parse(window, next);
+        return nextHeader != null && nextHeader.isCompatible(header);
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, length));
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0)
+                break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, String text) {
+        if(offset < 0 || offset + text.length() > buffer.limit())
+            return false;
+
+        for(int i = 0; i < text.length(); i++) {
+            if(buffer.get(offset + i) != text.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int getSyncSafeInt(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7F) << 21)
+                | ((buffer.get(offset + 1) & 0x7F) << 14)
+                | ((buffer.get(offset + 2) & 0x7F) << 7)
+                | (buffer.get(offset + 3) & 0x7F);
+    }
+    //endregion Helpers
+
+    /**
+     * Header of an MPEG audio frame.
+     */
+    static final class FrameHeader {
+        private final int version; // 1 = MPEG1, 2 = MPEG2, 3 = MPEG2.5
+        private final int layer;
+        private final int bitrate;
+        private final int sampleRate;
+        private final boolean padding;
+        private final boolean mono;
+
+        private FrameHeader(int version, int layer, int bitrate, int sampleRate, boolean padding, boolean mono) {
+            this.version = version;
+            this.layer = layer;
+            this.bitrate = bitrate;
+            this.sampleRate = sampleRate;
+            this.padding = padding;
+            this.mono = mono;
+        }
+
+        /**
+         * Parses the 4 byte frame header at the offset.
+         * @return Returns the header or null, if there is no valid header at the offset.
+         */
+        static FrameHeader parse(ByteBuffer buffer, int offset) {
+            if(offset + 4 > buffer.limit())
+                return null;
+
+            int b1 = buffer.get(offset) & 0xFF;
+            int b2 = buffer.get(offset + 1) & 0xFF;
+            int b3 = buffer.get(offset + 2) & 0xFF;
+            int b4 = buffer.get(offset + 3) & 0xFF;
+
+            if(b1 != 0xFF || (b2 & 0xE0) != 0xE0)
+                return null;
+
+            int versionBits = (b2 >> 3) & 0x3;
+            int layerBits = (b2 >> 1) & 0x3;
+            int bitrateIndex = (b3 >> 4) & 0xF;
+            int sampleRateIndex = (b3 >> 2) & 0x3;
+
+            if(versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+                return null;
+
+            int version = versionBits == 3 ? 1 : versionBits == 2 ? 2 : 3;
+            int layer = 4 - layerBits;
+            int bitrate = BITRATES[version == 1 ? 0 : 1][layer - 1][bitrateIndex];
+            int sampleRate = SAMPLE_RATES[sampleRateIndex] >> (version - 1);
+
+            return new FrameHeader(version, layer, bitrate, sampleRate, ((b3 >> 1) & 0x1) != 0, ((b4 >> 6) & 0x3) == 3);
+        }
+
+        /**
+         * @return Returns the bitrate in kbit/s.
+         */
+        int getBitrate() {
+            return this.bitrate;
+        }
+
+        int getSampleRate() {
+            return this.sampleRate;
+        }
+
+        int getSamplesPerFrame() {
+            if(this.layer == 1)
+                return 384;
+            if(this.layer == 3 && this.version != 1)
+                return 576;
+            return 1152;
+        }
+
+        /**
+         * @return Returns the length of the frame in bytes (including the header).
+         */
+        int getFrameLength() {
+            if(this.layer == 1)
+                return (12000 * this.bitrate / this.sampleRate + (this.padding ? 1 : 0)) * 4;
+
+            return this.getSamplesPerFrame() / 8 * 1000 * this.bitrate / this.sampleRate + (this.padding ? 1 : 0);
+        }
+
+        /**
+         * @return Returns the size of the Layer III side information (the Xing header follows it).
+         */
+        int getSideInfoSize() {
+            if(this.version == 1)
+                return this.mono ? 17 : 32;
+            return this.mono ? 9 : 17;
+        }
+
+        /**
+         * Frames of the same stream share the version, layer and sample rate.
+         */
+        boolean isCompatible(FrameHeader other) {
+            return this.version == other.version && this.layer == other.layer && this.sampleRate == other.sampleRate;
+        }
+    }
+
+    /**
+     * The tag fields found so far. ID3v2 values have priority over ID3v1 values.
+     */
+    private static final class Tags {
+        private String title;
+        private String artist;
+        private String album;
+
+        boolean isWanted(String frameId) {
+            switch (frameId) {
+                case "TIT2": case "TT2": return this.title == null;
+                case "TPE1": case "TP1": return this.artist == null;
+                case "TALB": case "TAL": return this.album == null;
+                default: return false;
+            }
+        }
+
+        void set(String frameId, String value) {
+            switch (frameId) {
+                case "TIT2": case "TT2": this.title = value; break;
+                case "TPE1": case "TP1": this.artist = value; break;
+                case "TALB": case "TAL": this.album = value; break;
+            }
+        }
+
+        boolean isComplete() {
+            return this.title != null && this.artist != null && this.album != null;
+        }
+
+        void fillFromId3v1(byte[] tag) {
+            if(this.title == null)
+                this.title = decodeId3v1(tag, 3);
+            if(this.artist == null)
+                this.artist = decodeId3v1(tag, 33);
+            if(this.album == null)
+                this.album = decodeId3v1(tag, 63);
+        }
+
+        private static String decodeId3v1(byte[] tag, int offset) {
+            int end = offset;
+            while(end < offset + 30 && tag[end] != 0)
+                end++;
+
+            String text = new String(tag, offset, end - offset, ISO_8859_1).trim();
+            return text.isEmpty() ? null : text;
+        }
+    }
+}
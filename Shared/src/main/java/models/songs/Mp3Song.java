@@ -1,19 +1,33 @@
 package models.songs;
 
+import com.mpatric.mp3agic.ID3v1;
+import com.mpatric.mp3agic.ID3v2;
 import com.mpatric.mp3agic.InvalidDataException;
 import com.mpatric.mp3agic.Mp3File;
 import com.mpatric.mp3agic.UnsupportedTagException;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Created by Esteban Luchsinger on 30.11.2015.
  * This class represents an Mp3Song.
+ *
+ * The metadata is extracted once when the song is created, the parsed Mp3File is not kept.
  */
 public class Mp3Song extends BaseSong implements Comparable<Song> {
     private final String extension = "mp3";
-    private Mp3File file;
-    private String path;
+    private final String path;
+
+    /**
+     * Metadata of the song. Either loaded from an index or extracted from the file.
+     */
+    private final SongMetadata metadata;
+
+    /**
+     * Cached hash code (title and path never change).
+     */
+    private final int hashCode;
 
     /**
      * Constructor overrides Default constructor
@@ -23,51 +37,113 @@ public class Mp3Song extends BaseSong implements Comparable<Song> {
      * @throws UnsupportedTagException
      */
     public Mp3Song(String path) throws InvalidDataException, IOException, UnsupportedTagException {
+        this(path, extractMetadata(path));
+    }
+
+    /**
+     * Creates the song from already known metadata (i.e. from an index). The file is not parsed.
+     * @param path Path of the MP3-File
+     * @param metadata Metadata of the file.
+     */
+    public Mp3Song(String path, SongMetadata metadata) {
+        this.path = path;
+        this.metadata = metadata;
+        this.hashCode = 31 * metadata.getTitle().hashCode() + (path != null ? path.hashCode() : 0);
+    }
+
+    /**
+     * Copy constructor. The new song shares the metadata of the other song,
+     * the file is not parsed again.
+     * @param other Song to copy.
+     */
+    protected Mp3Song(Mp3Song other) {
+        this.path = other.path;
+        this.metadata = other.metadata;
+        this.hashCode = other.hashCode;
+    }
+
+    /**
+     * Extracts the metadata of the file.
+     * The headers are read with the Mp3HeaderReader (only a few KB of the file). The whole file
+     * is only scanned with mp3agic, if the headers are not sufficient.
+     * Files with invalid data get an unknown title and artist.
+     * @param path Path of the MP3-File
+     * @return Returns the extracted metadata.
+     * @throws IOException
+     * @throws UnsupportedTagException
+     */
+    public static SongMetadata extractMetadata(String path) throws IOException, UnsupportedTagException {
+        SongMetadata metadata = Mp3HeaderReader.read(Paths.get(path));
+        if(metadata != null)
+            return metadata;
 
+        return scanMetadata(path);
+    }
+
+    /**
+     * Parses the whole file with mp3agic and extracts the metadata. The parsed file is not needed afterwards.
+     * @param path Path of the MP3-File
+     * @return Returns the extracted metadata.
+     * @throws IOException
+     * @throws UnsupportedTagException
+     */
+    static SongMetadata scanMetadata(String path) throws IOException, UnsupportedTagException {
+        Mp3File file;
         try {
-            this.file = new Mp3File(path);
+            file = new Mp3File(path);
         }
         catch(InvalidDataException ide){
+            return new SongMetadata("unknown title", "unknown artist", "", 0,
+                    SongMetadata.UNKNOWN, SongMetadata.UNKNOWN, SongMetadata.UNKNOWN, SongMetadata.UNKNOWN);
+        }
+
+        String title = null;
+        String artist = null;
+        String album = null;
 
+        // ID3v2 values have priority (ID3v1 fields are limited to 30 characters).
+        if(file.hasId3v2Tag()) {
+            ID3v2 tag = file.getId3v2Tag();
+            title = tag.getTitle();
+            artist = tag.getArtist();
+            album = tag.getAlbum();
         }
-        this.path = path;
+        if(file.hasId3v1Tag()) {
+            ID3v1 tag = file.getId3v1Tag();
+            title = title != null ? title : tag.getTitle();
+            artist = artist != null ? artist : tag.getArtist();
+            album = album != null ? album : tag.getAlbum();
+        }
+
+        // Artists and albums repeat a lot in a library, share the strings.
+        return new SongMetadata(
+                title != null ? title : "unknown title",
+                artist != null ? artist.intern() : "unknown artist",
+                album != null ? album.intern() : "",
+                file.getLengthInMilliseconds(), file.getBitrate(),
+                file.getStartOffset(), file.getEndOffset(), file.getFrameCount());
     }
 
     @Override
     public String getTitle() {
-        if(this.file == null){
-            return "unknown title";
-        }
-
-        if(this.file.hasId3v1Tag())
-            return file.getId3v1Tag().getTitle();
-        else if(this.file.hasId3v2Tag())
-            return file.getId3v2Tag().getTitle();
-        else
-            return "unknown title";
+        return this.metadata.getTitle();
     }
 
     @Override
     public String getArtist() {
-        if(this.file == null) {
-            return "unknown title";
-        }
-
-        if(this.file.hasId3v1Tag())
-            return file.getId3v1Tag().getArtist();
-        else if(this.file.hasId3v2Tag())
-            return file.getId3v2Tag().getArtist();
-        else
-            return "unknown artist";
+        return this.metadata.getArtist();
     }
 
     @Override
     public long getLengthInSeconds() {
-        if(this.file == null) {
-            return 0;
-        }
+        return this.metadata.getLengthInSeconds();
+    }
 
-        return this.file.getLengthInSeconds();
+    /**
+     * @return Returns the metadata of the song.
+     */
+    public SongMetadata getMetadata() {
+        return this.metadata;
     }
 
     @Override
@@ -114,12 +190,8 @@ public class Mp3Song extends BaseSong implements Comparable<Song> {
                 && this.getPath().equals(mp3Song.getPath());
     }
 
-
-
     @Override
     public int hashCode() {
-        int result = this.getTitle() != null ? this.getTitle().hashCode() : 0;
-        result = 31 * result + (this.getPath() != null ? this.getPath().hashCode() : 0);
-        return result;
+        return this.hashCode;
     }
 }
@@ -29,6 +29,25 @@ public class PlayableMp3Song extends Mp3Song implements PlayableSong {
         this.isPlaying = new SimpleBooleanProperty(false);
     }
 
+    /**
+     * Creates a playable song from already known metadata. The file is not parsed.
+     * @param path Path of the MP3-File
+     * @param metadata Metadata of the file.
+     */
+    public PlayableMp3Song(String path, SongMetadata metadata) {
+        super(path, metadata);
+        this.isPlaying = new SimpleBooleanProperty(false);
+    }
+
+    /**
+     * Creates a playable song from an already parsed song, without parsing the file again.
+     * @param mp3Song Parsed song.
+     */
+    protected PlayableMp3Song(Mp3Song mp3Song) {
+        super(mp3Song);
+        this.isPlaying = new SimpleBooleanProperty(false);
+    }
+
 
     @Override
     public BooleanProperty isPlayingProperty() {
@@ -37,13 +56,11 @@ public class PlayableMp3Song extends Mp3Song implements PlayableSong {
 
     /**
      * Creates a new PlayableMp3Song object from a mp3Song.
+     * The new object shares the parsed data of the mp3Song, the file is not read again.
      * @param mp3Song The mp3Song used to create the new object.
      * @return Returns a <strong>new</strong> object of type <code>PlayableMp3Song</code>.
-     * @throws InvalidDataException Throws an invalid Data exception, according to the <code>Mp3Song</code> constructor exception.
-     * @throws IOException Throws an IOException, according to the <code>Mp3Song</code> constructor exception.
-     * @throws UnsupportedTagException Throws an UnsupportedTagException, according to the <code>Mp3Song</code> constructor exception.
      */
-    public static PlayableMp3Song fromMp3Song(Mp3Song mp3Song) throws InvalidDataException, IOException, UnsupportedTagException {
-        return new PlayableMp3Song(mp3Song.getPath());
+    public static PlayableMp3Song fromMp3Song(Mp3Song mp3Song) {
+        return new PlayableMp3Song(mp3Song);
     }
 }
@@ -0,0 +1,139 @@
+package models.songs;
+
+import java.util.Objects;
+
+/**
+ * <pre>
+ * Immutable metadata of a song file.
+ * Contains the tag fields, the duration and a summary of where the audio frames are located.
+ * </pre>
+ */
+public final class SongMetadata {
+
+    /**
+     * Value of the offsets and counts if they are unknown.
+     */
+    public static final int UNKNOWN = -1;
+
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final long lengthInMilliseconds;
+    private final int bitrate;
+    private final int audioStartOffset;
+    private final int audioEndOffset;
+    private final int frameCount;
+
+    /**
+     * Creates the metadata.
+     * @param title Title of the song (not null).
+     * @param artist Artist of the song (not null).
+     * @param album Album of the song (not null, may be empty).
+     * @param lengthInMilliseconds Length of the song in milliseconds.
+     * @param bitrate (Average) bitrate in kbit/s or UNKNOWN.
+     * @param audioStartOffset Byte offset of the first audio frame or UNKNOWN.
+     * @param audioEndOffset Byte offset of the last byte of the last audio frame or UNKNOWN.
+     * @param frameCount Amount of audio frames or UNKNOWN.
+     */
+    public SongMetadata(String title, String artist, String album, long lengthInMilliseconds,
+                        int bitrate, int audioStartOffset, int audioEndOffset, int frameCount) {
+        this.title = Objects.requireNonNull(title);
+        this.artist = Objects.requireNonNull(artist);
+        this.album = Objects.requireNonNull(album);
+        this.lengthInMilliseconds = lengthInMilliseconds;
+        this.bitrate = bitrate;
+        this.audioStartOffset = audioStartOffset;
+        this.audioEndOffset = audioEndOffset;
+        this.frameCount = frameCount;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public long getLengthInMilliseconds() {
+        return lengthInMilliseconds;
+    }
+
+    public long getLengthInSeconds() {
+        return lengthInMilliseconds / 1000;
+    }
+
+    /**
+     * @return Returns the (average) bitrate in kbit/s or UNKNOWN.
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * @return Returns the byte offset of the first audio frame or UNKNOWN.
+     */
+    public int getAudioStartOffset() {
+        return audioStartOffset;
+    }
+
+    /**
+     * @return Returns the byte offset of the end of the audio frames or UNKNOWN.
+     */
+    public int getAudioEndOffset() {
+        return audioEndOffset;
+    }
+
+    /**
+     * @return Returns the amount of audio frames or UNKNOWN.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Estimates the byte offset of a play position, using the frame summary.
+     * For VBR files the result is an approximation.
+     * @param positionInMilliseconds Play position.
+     * @return Returns the estimated byte offset or UNKNOWN, if the frame summary is not known.
+     */
+    public long estimateByteOffset(long positionInMilliseconds) {
+        if(this.audioStartOffset == UNKNOWN || this.audioEndOffset == UNKNOWN || this.lengthInMilliseconds <= 0)
+            return UNKNOWN;
+
+        long position = Math.max(0, Math.min(this.lengthInMilliseconds, positionInMilliseconds));
+        long audioLength = this.audioEndOffset - this.audioStartOffset;
+
+        return this.audioStartOffset + audioLength * position / this.lengthInMilliseconds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SongMetadata that = (SongMetadata) o;
+        return lengthInMilliseconds == that.lengthInMilliseconds &&
+                bitrate == that.bitrate &&
+                audioStartOffset == that.audioStartOffset &&
+                audioEndOffset == that.audioEndOffset &&
+                frameCount == that.frameCount &&
+                title.equals(that.title) &&
+                artist.equals(that.artist) &&
+                album.equals(that.album);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, artist, album, lengthInMilliseconds, bitrate,
+                audioStartOffset, audioEndOffset, frameCount);
+    }
+
+    @Override
+    public String toString() {
+        return this.title + " - " + this.artist;
+    }
+}
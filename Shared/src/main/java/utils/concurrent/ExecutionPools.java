@@ -0,0 +1,212 @@
+package utils.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * The thread pools shared by all components of the process. Components take their executor from here
+ * instead of creating their own, so the amount of threads is bounded and the threads have readable names.
+ *
+ * - io():        Blocking work (reading and writing sockets, accepting connections, receiving datagrams).
+ *                A thread per task up to MAX_IO_THREADS, idle threads end after KEEP_ALIVE seconds.
+ * - cpu():       Short computations. availableProcessors() threads, up to CPU_QUEUE_CAPACITY waiting tasks.
+ * - scheduled(): Delayed and periodic tasks (short, hand longer work to io() or cpu()).
+ *                Timeouts of connections belong to the HashedWheelTimer.
+ *
+ * A full pool rejects the task (RejectedExecutionException), it's counted in the metrics (getMetrics()).
+ * The threads are daemon threads named after the pool ("io-3"). While a task created with named() runs,
+ * its name is appended ("io-3 SocketReader 192.168.1.20").
+ *
+ * The pools live as long as the process and must not be shut down (shutdown() throws an
+ * UnsupportedOperationException). A component stops its tasks with the futures, or with a SerialExecutor.
+ * Threadsafe.
+ * </pre>
+ */
+public final class ExecutionPools {
+
+    /**
+     * Maximum amount of io threads (every connected client uses two of them).
+     */
+    public static final int MAX_IO_THREADS = 512;
+
+    /**
+     * Maximum amount of tasks waiting for a cpu thread.
+     */
+    public static final int CPU_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Amount of threads of the scheduled pool.
+     */
+    public static final int SCHEDULED_THREADS = 2;
+
+    /**
+     * Time (in seconds) an idle io thread is kept.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    private static final SharedThreadPool io = new SharedThreadPool("io", 0, MAX_IO_THREADS, new SynchronousQueue<>());
+
+    private static final SharedThreadPool cpu = new SharedThreadPool("cpu", Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(), new ArrayBlockingQueue<>(CPU_QUEUE_CAPACITY));
+
+    private static final SharedScheduledPool scheduled = new SharedScheduledPool("scheduled", SCHEDULED_THREADS);
+
+    private ExecutionPools() {
+    }
+
+    /**
+     * @return Returns the pool for blocking work.
+     */
+    public static ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * @return Returns the pool for short computations.
+     */
+    public static ExecutorService cpu() {
+        return cpu;
+    }
+
+    /**
+     * @return Returns the pool for delayed and periodic tasks.
+     */
+    public static ScheduledExecutorService scheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Names a task: The name is appended to the name of the thread while the task runs (for thread dumps and logs).
+     * @param name Name of the task (i.e. "SocketReader 192.168.1.20").
+     * @param task The task.
+     * @return Returns the named task.
+     */
+    public static Runnable named(String name, Runnable task) {
+        return () -> {
+            Thread thread = Thread.currentThread();
+            String poolName = thread.getName();
+            thread.setName(poolName + " " + name);
+            try {
+                task.run();
+            } finally {
+                thread.setName(poolName);
+            }
+        };
+    }
+
+    /**
+     * @return Returns the current state of the pools (io, cpu and scheduled).
+     */
+    public static List<PoolMetrics> getMetrics() {
+        List<PoolMetrics> metrics = new ArrayList<>();
+        metrics.add(createMetrics(io.name, io, io.rejectedTasks.get()));
+        metrics.add(createMetrics(cpu.name, cpu, cpu.rejectedTasks.get()));
+        metrics.add(createMetrics(scheduled.name, scheduled, scheduled.rejectedTasks.get()));
+        return Collections.unmodifiableList(metrics);
+    }
+
+    private static PoolMetrics createMetrics(String name, ThreadPoolExecutor pool, long rejectedTasks) {
+        return new PoolMetrics(name, pool.getPoolSize(), pool.getMaximumPoolSize(), pool.getLargestPoolSize(),
+                pool.getActiveCount(), pool.getQueue().size(), pool.getCompletedTaskCount(), rejectedTasks);
+    }
+
+    /**
+     * Creates the daemon threads of a pool, named "[pool]-[number]".
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadNumber;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+            this.threadNumber = new AtomicInteger();
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.name + "-" + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Counts the rejected tasks and throws the RejectedExecutionException.
+     */
+    private static class CountingRejectionHandler implements RejectedExecutionHandler {
+        private final String name;
+        private final AtomicLong rejectedTasks;
+
+        CountingRejectionHandler(String name, AtomicLong rejectedTasks) {
+            this.name = name;
+            this.rejectedTasks = rejectedTasks;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            this.rejectedTasks.incrementAndGet();
+            throw new RejectedExecutionException("The " + this.name + " pool is full ("
+                    + executor.getPoolSize() + " threads, " + executor.getQueue().size() + " queued)");
+        }
+    }
+
+    private static class SharedThreadPool extends ThreadPoolExecutor {
+        private final String name;
+        private final AtomicLong rejectedTasks;
+
+        SharedThreadPool(String name, int coreThreads, int maxThreads, BlockingQueue<Runnable> queue) {
+            super(coreThreads, maxThreads, KEEP_ALIVE, TimeUnit.SECONDS, queue, new NamedThreadFactory(name));
+            this.name = name;
+            this.rejectedTasks = new AtomicLong();
+            this.setRejectedExecutionHandler(new CountingRejectionHandler(name, this.rejectedTasks));
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException("The shared " + this.name + " pool cannot be shut down");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException("The shared " + this.name + " pool cannot be shut down");
+        }
+    }
+
+    private static class SharedScheduledPool extends ScheduledThreadPoolExecutor {
+        private final String name;
+        private final AtomicLong rejectedTasks;
+
+        SharedScheduledPool(String name, int threads) {
+            super(threads, new NamedThreadFactory(name));
+            this.name = name;
+            this.rejectedTasks = new AtomicLong();
+            this.setRejectedExecutionHandler(new CountingRejectionHandler(name, this.rejectedTasks));
+            this.setRemoveOnCancelPolicy(true);
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException("The shared " + this.name + " pool cannot be shut down");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException("The shared " + this.name + " pool cannot be shut down");
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package utils.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <pre>
+ * Timer for a lot of timeouts (heartbeats, send deadlines, handshake timeouts of every connection).
+ *
+ * The timeouts are kept in a wheel of buckets, one bucket per tick. A single thread moves from bucket
+ * to bucket every tick and expires the timeouts of the bucket. Timeouts further away than one turn of the
+ * wheel wait the remaining turns in their bucket. Adding and cancelling a timeout is O(1) and does not
+ * block: the timeouts are handed to the thread with lock free queues.
+ *
+ * The timeouts expire up to one tick late. The tasks run on the timer thread: they must be short
+ * (i.e. close a socket or queue a message), longer work must be handed to an other thread.
+ *
+ * Use the shared timer (getShared()) instead of creating an own timer thread for every component.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class HashedWheelTimer implements Closeable {
+
+    /**
+     * Tick duration of the shared timer in milliseconds.
+     */
+    public static final long SHARED_TICK_DURATION = 50;
+
+    /**
+     * Amount of buckets of the shared timer (one turn of the wheel: 25.6 seconds).
+     */
+    public static final int SHARED_WHEEL_SIZE = 512;
+
+    /**
+     * Maximum amount of new timeouts put into the wheel per tick (the rest follows with the next tick).
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final Object sharedLock = new Object();
+    private static HashedWheelTimer shared;
+
+    /**
+     * A scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the timeout. The task is not executed anymore.
+         * @return Returns false if the timeout expired or was cancelled before.
+         */
+        boolean cancel();
+
+        boolean isExpired();
+
+        boolean isCancelled();
+    }
+
+    private final Logger logger;
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<WheelTimeout> newTimeouts;
+    private final Queue<WheelTimeout> cancelledTimeouts;
+    private final AtomicInteger pendingTimeouts;
+
+    private final Thread worker;
+    private volatile boolean running;
+
+    /**
+     * Time (System.nanoTime) the timer started. The deadlines are relative to it.
+     */
+    private final long startTime;
+
+    /**
+     * The current tick. (Timer thread)
+     */
+    private long tick;
+
+    /**
+     * Creates and starts a timer.
+     * @param name Name of the timer thread.
+     * @param tickDuration Duration of a tick.
+     * @param timeUnit TimeUnit of the tick duration.
+     * @param wheelSize Amount of buckets (rounded up to a power of two).
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit timeUnit, int wheelSize) {
+        if(tickDuration <= 0)
+            throw new IllegalArgumentException("The tick duration must be positive: " + tickDuration);
+        if(wheelSize <= 0 || wheelSize > (1 << 30))
+            throw new IllegalArgumentException("Invalid wheel size: " + wheelSize);
+
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.tickDuration = timeUnit.toNanos(tickDuration);
+
+        int size = Integer.highestOneBit(wheelSize);
+        if(size < wheelSize)
+            size <<= 1;
+
+        this.wheel = new Bucket[size];
+        for(int i = 0; i < size; i++)
+            this.wheel[i] = new Bucket();
+        this.mask = size - 1;
+
+        this.newTimeouts = new ConcurrentLinkedQueue<>();
+        this.cancelledTimeouts = new ConcurrentLinkedQueue<>();
+        this.pendingTimeouts = new AtomicInteger();
+
+        this.startTime = System.nanoTime();
+        this.running = true;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Returns the timer shared by all components of the process. Created with the first call.
+     * @return Returns the shared timer.
+     */
+    public static HashedWheelTimer getShared() {
+        synchronized (sharedLock) {
+            if(shared == null || !shared.running) {
+                shared = new HashedWheelTimer("SharedWheelTimer", SHARED_TICK_DURATION, TimeUnit.MILLISECONDS,
+                        SHARED_WHEEL_SIZE);
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Schedules a task.
+     * @param task The task (executed on the timer thread, must be short).
+     * @param delay Delay until the task is executed.
+     * @param timeUnit TimeUnit of the delay.
+     * @return Returns the timeout (to cancel it).
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit timeUnit) {
+        if(!this.running)
+            throw new IllegalStateException("The timer was stopped");
+
+        long deadline = System.nanoTime() - this.startTime + Math.max(0, timeUnit.toNanos(delay));
+        WheelTimeout timeout = new WheelTimeout(task, deadline);
+
+        this.pendingTimeouts.incrementAndGet();
+        this.newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return Returns the amount of scheduled timeouts (not expired and not cancelled).
+     */
+    public int getPendingTimeouts() {
+        return this.pendingTimeouts.get();
+    }
+
+    /**
+     * Stops the timer. The scheduled tasks are not executed anymore.
+     * @return Returns the timeouts which did not expire.
+     */
+    public Set<Timeout> stop() {
+        this.running = false;
+        this.worker.interrupt();
+
+        if(Thread.currentThread() != this.worker) {
+            try {
+                this.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Set<Timeout> unprocessed = new HashSet<>();
+        for(Bucket bucket : this.wheel) {
+            bucket.collect(unprocessed);
+        }
+
+        WheelTimeout timeout;
+        while((timeout = this.newTimeouts.poll()) != null) {
+            if(!timeout.isCancelled())
+                unprocessed.add(timeout);
+        }
+        return unprocessed;
+    }
+
+    @Override
+    public void close() {
+        this.stop();
+    }
+
+    /**
+     * The timer thread.
+     */
+    private void run() {
+        while(this.running) {
+            if(!this.waitForNextTick())
+                break;
+
+            this.removeCancelled();
+            this.transferNewTimeouts();
+            this.wheel[(int) (this.tick & this.mask)].expire();
+            this.tick++;
+        }
+    }
+
+    /**
+     * Sleeps until the end of the current tick.
+     * @return Returns false if the timer was stopped.
+     */
+    private boolean waitForNextTick() {
+        long deadline = this.tickDuration * (this.tick + 1);
+
+        while(this.running) {
+            long sleepTime = deadline - (System.nanoTime() - this.startTime);
+            if(sleepTime <= 0)
+                return true;
+
+            LockSupport.parkNanos(this, sleepTime);
+        }
+        return false;
+    }
+
+    /**
+     * Puts the new timeouts into their buckets.
+     */
+    private void transferNewTimeouts() {
+        for(int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            WheelTimeout timeout = this.newTimeouts.poll();
+            if(timeout == null)
+                break;
+            if(timeout.isCancelled())
+                continue;
+
+            long calculated = timeout.deadline / this.tickDuration;
+            timeout.remainingRounds = (calculated - this.tick) / this.wheel.length;
+
+            // Timeouts in the past expire with the current tick.
+            long ticks = Math.max(calculated, this.tick);
+            this.wheel[(int) (ticks & this.mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while((timeout = this.cancelledTimeouts.poll()) != null) {
+            if(timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    /**
+     * A timeout in the wheel. Linked with the other timeouts of its bucket.
+     */
+    private final class WheelTimeout implements Timeout {
+        private final Runnable task;
+
+        /**
+         * Deadline relative to the start time of the timer.
+         */
+        private final long deadline;
+
+        private final AtomicInteger state;
+
+        // Timer thread only.
+        private long remainingRounds;
+        private Bucket bucket;
+        private WheelTimeout next;
+        private WheelTimeout previous;
+
+        WheelTimeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+            this.state = new AtomicInteger(STATE_INIT);
+        }
+
+        @Override
+        public boolean cancel() {
+            if(!this.state.compareAndSet(STATE_INIT, STATE_CANCELLED))
+                return false;
+
+            pendingTimeouts.decrementAndGet();
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return this.state.get() == STATE_EXPIRED;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.state.get() == STATE_CANCELLED;
+        }
+
+        void expire() {
+            if(!this.state.compareAndSet(STATE_INIT, STATE_EXPIRED))
+                return;
+
+            pendingTimeouts.decrementAndGet();
+            try {
+                this.task.run();
+            } catch (Throwable t) {
+                logger.warn("A timer task failed", t);
+            }
+        }
+    }
+
+    /**
+     * The timeouts of a tick (doubly linked list). Timer thread only.
+     */
+    private static final class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if(this.head == null) {
+                this.head = timeout;
+                this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.previous = this.tail;
+                this.tail = timeout;
+            }
+        }
+
+        /**
+         * Expires the timeouts of this turn of the wheel.
+         */
+        void expire() {
+            WheelTimeout timeout = this.head;
+            while(timeout != null) {
+                WheelTimeout next = timeout.next;
+
+                // The bucket of a timeout is the tick of its deadline, so it's due in its last round.
+                if(timeout.remainingRounds <= 0) {
+                    this.remove(timeout);
+                    timeout.expire();
+                } else if(timeout.isCancelled()) {
+                    this.remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+
+                timeout = next;
+            }
+        }
+
+        void remove(WheelTimeout timeout) {
+            if(timeout.bucket != this)
+                return;
+
+            if(timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            else
+                this.head = timeout.next;
+
+            if(timeout.next != null)
+                timeout.next.previous = timeout.previous;
+            else
+                this.tail = timeout.previous;
+
+            timeout.next = null;
+            timeout.previous = null;
+            timeout.bucket = null;
+        }
+
+        void collect(Set<Timeout> timeouts) {
+            for(WheelTimeout timeout = this.head; timeout != null; timeout = timeout.next) {
+                if(!timeout.isExpired() && !timeout.isCancelled())
+                    timeouts.add(timeout);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package utils.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <pre>
+ * Ring buffer of PCM frames for exactly one producer thread (the decoder) and one consumer thread
+ * (the audio line writer).
+ *
+ * The buffer is allocated once and does not use locks: The producer only moves the write position,
+ * the consumer only moves the read position. A position is published after the data was copied,
+ * so the other thread never sees a frame which was not completely written (or read).
+ *
+ * Only whole frames are read. The blocking methods park the thread for a short time while waiting.
+ * An incomplete frame left at the end of the data is discarded.
+ * </pre>
+ */
+public class PcmRingBuffer {
+
+    /**
+     * Time a waiting thread is parked before it checks the buffer again.
+     */
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private final byte[] buffer;
+    private final int frameSize;
+
+    /**
+     * Total amount of bytes written. Only changed by the producer.
+     */
+    private final AtomicLong writePosition;
+
+    /**
+     * Total amount of bytes read. Only changed by the consumer.
+     */
+    private final AtomicLong readPosition;
+
+    private volatile boolean finished;
+
+    /**
+     * True while the consumer is waiting for data (so an underrun is only counted once).
+     * Only used by the consumer.
+     */
+    private boolean starving;
+    private volatile long underruns;
+
+    /**
+     * Creates the buffer.
+     * @param capacityFrames Amount of frames the buffer can hold.
+     * @param frameSize Size of a frame in bytes (i.e. 4 for 16 bit stereo).
+     */
+    public PcmRingBuffer(int capacityFrames, int frameSize) {
+        if(capacityFrames <= 0 || frameSize <= 0)
+            throw new IllegalArgumentException("Capacity and frame size must be positive.");
+
+        this.buffer = new byte[capacityFrames * frameSize];
+        this.frameSize = frameSize;
+        this.writePosition = new AtomicLong();
+        this.readPosition = new AtomicLong();
+        this.starving = true;
+    }
+
+    //region Producer
+
+    /**
+     * Writes as many bytes as there is space for (does not block).
+     * @param source The PCM data.
+     * @param offset Offset in the source.
+     * @param length Amount of bytes.
+     * @return Returns the amount of bytes written.
+     */
+    public int write(byte[] source, int offset, int length) {
+        long write = this.writePosition.get();
+        int count = Math.min(length, this.buffer.length - (int) (write - this.readPosition.get()));
+        if(count <= 0)
+            return 0;
+
+        int index = (int) (write % this.buffer.length);
+        int first = Math.min(count, this.buffer.length - index);
+        System.arraycopy(source, offset, this.buffer, index, first);
+        System.arraycopy(source, offset + first, this.buffer, 0, count - first);
+
+        // Publish the data.
+        this.writePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Writes all bytes, waits while the buffer is full.
+     * @param source The PCM data.
+     * @param offset Offset in the source.
+     * @param length Amount of bytes.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public void writeFully(byte[] source, int offset, int length) throws InterruptedException {
+        while(length > 0) {
+            int count = this.write(source, offset, length);
+            offset += count;
+            length -= count;
+
+            if(length > 0)
+                park();
+        }
+    }
+
+    /**
+     * Marks the end of the data. The consumer can read the rest of the buffer.
+     */
+    public void finish() {
+        this.finished = true;
+    }
+
+    //endregion Producer
+
+    //region Consumer
+
+    /**
+     * Reads as many whole frames as available (does not block).
+     * If the buffer is empty before the producer finished, an underrun is counted.
+     * @param destination Receives the PCM data.
+     * @param offset Offset in the destination.
+     * @param length Maximum amount of bytes.
+     * @return Returns the amount of bytes read (a multiple of the frame size) or -1 at the end of the data
+     *         (the producer finished and less than a frame is left).
+     */
+    public int read(byte[] destination, int offset, int length) {
+        long read = this.readPosition.get();
+        boolean wasFinished = this.finished;
+        int available = (int) (this.writePosition.get() - read);
+        int count = Math.min(length, available);
+        count -= count % this.frameSize;
+
+        if(count <= 0) {
+            if(available < this.frameSize && wasFinished) {
+                // Discard an incomplete last frame, it can never be read.
+                this.readPosition.lazySet(read + available);
+                return -1;
+            }
+
+            if(!this.starving) {
+                this.starving = true;
+                this.underruns++;
+            }
+            return 0;
+        }
+
+        this.starving = false;
+
+        int index = (int) (read % this.buffer.length);
+        int first = Math.min(count, this.buffer.length - index);
+        System.arraycopy(this.buffer, index, destination, offset, first);
+        System.arraycopy(this.buffer, 0, destination, offset + first, count - first);
+
+        // Release the space.
+        this.readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Reads at least one frame, waits while the buffer is empty.
+     * @param destination Receives the PCM data.
+     * @param offset Offset in the destination.
+     * @param length Maximum amount of bytes.
+     * @return Returns the amount of bytes read or -1 at the end of the data.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public int readSome(byte[] destination, int offset, int length) throws InterruptedException {
+        int count;
+        while((count = this.read(destination, offset, length)) == 0)
+            park();
+        return count;
+    }
+
+    //endregion Consumer
+
+    //region Metrics
+
+    /**
+     * @return Returns the amount of bytes in the buffer.
+     */
+    public int available() {
+        return (int) (this.writePosition.get() - this.readPosition.get());
+    }
+
+    /**
+     * @return Returns the fill level (0 = empty, 1 = full).
+     */
+    public double getFillLevel() {
+        return (double) this.available() / this.buffer.length;
+    }
+
+    /**
+     * @return Returns how many times the consumer found the buffer empty before the producer finished.
+     */
+    public long getUnderruns() {
+        return this.underruns;
+    }
+
+    /**
+     * @return Returns the capacity in bytes.
+     */
+    public int getCapacity() {
+        return this.buffer.length;
+    }
+
+    public int getFrameSize() {
+        return this.frameSize;
+    }
+
+    //endregion Metrics
+
+    private static void park() throws InterruptedException {
+        LockSupport.parkNanos(PARK_NANOS);
+        if(Thread.interrupted())
+            throw new InterruptedException();
+    }
+}
@@ -0,0 +1,87 @@
+package utils.concurrent;
+
+/**
+ * <pre>
+ * Snapshot of the state of a thread pool (see ExecutionPools.getMetrics()).
+ * Immutable.
+ * </pre>
+ */
+public class PoolMetrics {
+    private final String name;
+    private final int poolSize;
+    private final int maximumPoolSize;
+    private final int largestPoolSize;
+    private final int activeCount;
+    private final int queueDepth;
+    private final long completedTasks;
+    private final long rejectedTasks;
+
+    public PoolMetrics(String name, int poolSize, int maximumPoolSize, int largestPoolSize, int activeCount,
+                       int queueDepth, long completedTasks, long rejectedTasks) {
+        this.name = name;
+        this.poolSize = poolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.largestPoolSize = largestPoolSize;
+        this.activeCount = activeCount;
+        this.queueDepth = queueDepth;
+        this.completedTasks = completedTasks;
+        this.rejectedTasks = rejectedTasks;
+    }
+
+    /**
+     * @return Returns the name of the pool (the prefix of its thread names).
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return Returns the current amount of threads.
+     */
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    public int getMaximumPoolSize() {
+        return this.maximumPoolSize;
+    }
+
+    /**
+     * @return Returns the highest amount of threads the pool ever had.
+     */
+    public int getLargestPoolSize() {
+        return this.largestPoolSize;
+    }
+
+    /**
+     * @return Returns the (approximate) amount of threads executing a task.
+     */
+    public int getActiveCount() {
+        return this.activeCount;
+    }
+
+    /**
+     * @return Returns the amount of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    public long getCompletedTasks() {
+        return this.completedTasks;
+    }
+
+    /**
+     * @return Returns the amount of tasks rejected because the pool was full.
+     */
+    public long getRejectedTasks() {
+        return this.rejectedTasks;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ": " + this.activeCount + " active, " + this.poolSize + "/" + this.maximumPoolSize
+                + " threads (largest " + this.largestPoolSize + "), " + this.queueDepth + " queued, "
+                + this.completedTasks + " completed, " + this.rejectedTasks + " rejected";
+    }
+}
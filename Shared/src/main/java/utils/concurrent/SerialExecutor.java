@@ -0,0 +1,123 @@
+package utils.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <pre>
+ * Executes the tasks one after the other, in the order they were submitted, on a thread of an other executor
+ * (i.e. ExecutionPools.io()). Replaces a single thread executor without holding a thread while idle.
+ *
+ * The thread is named after the executor while it runs the tasks (see ExecutionPools.named()).
+ * A failing task is logged, the following tasks are executed anyway.
+ * Threadsafe.
+ * </pre>
+ */
+public class SerialExecutor implements Executor {
+    private final Logger logger;
+    private final String name;
+    private final Executor executor;
+
+    private final Deque<Runnable> tasks;
+
+    /**
+     * True while a drain task is submitted to the executor.
+     */
+    private boolean scheduled;
+
+    /**
+     * The thread executing a task (null if none).
+     */
+    private Thread runner;
+
+    private boolean shutdown;
+
+    /**
+     * @param name Name of the tasks (appended to the thread name).
+     * @param executor The executor running the tasks.
+     */
+    public SerialExecutor(String name, Executor executor) {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.name = name;
+        this.executor = executor;
+        this.tasks = new ArrayDeque<>();
+    }
+
+    /**
+     * Queues the task. It's executed after the tasks submitted before.
+     * @param task The task.
+     * @throws RejectedExecutionException If the executor was shut down or the underlying executor is full.
+     */
+    @Override
+    public synchronized void execute(Runnable task) {
+        if(this.shutdown)
+            throw new RejectedExecutionException(this.name + " was shut down");
+
+        this.tasks.addLast(task);
+        if(!this.scheduled) {
+            try {
+                this.executor.execute(ExecutionPools.named(this.name, this::drain));
+                this.scheduled = true;
+            } catch (RejectedExecutionException e) {
+                this.tasks.removeLast();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops executing tasks. The running task is interrupted, the queued tasks are not executed anymore.
+     * @return Returns the tasks which were not executed.
+     */
+    public synchronized List<Runnable> shutdownNow() {
+        this.shutdown = true;
+        if(this.runner != null)
+            this.runner.interrupt();
+
+        List<Runnable> unexecuted = new ArrayList<>(this.tasks);
+        this.tasks.clear();
+        return unexecuted;
+    }
+
+    public synchronized boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    /**
+     * Executes the queued tasks. (Thread of the executor)
+     */
+    private void drain() {
+        Thread thread = Thread.currentThread();
+
+        while(true) {
+            Runnable task;
+            synchronized (this) {
+                task = this.shutdown ? null : this.tasks.pollFirst();
+                if(task == null) {
+                    this.scheduled = false;
+                    return;
+                }
+                this.runner = thread;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                this.logger.error("A task of " + this.name + " failed", t);
+            } finally {
+                synchronized (this) {
+                    this.runner = null;
+                }
+                // Don't leave the interrupt of shutdownNow() to the next task of the pool thread.
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package utils.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * Closes a lot of components (connections, services) in parallel under one deadline.
+ *
+ * The components are added with add(), shutdown() closes them all at the same time (on the io pool of
+ * ExecutionPools) and waits until they are closed or the deadline elapsed. So the shutdown takes as long
+ * as the slowest component, at most the deadline, instead of the sum of all components.
+ * Components still closing at the deadline overran it: they are interrupted and reported (Report),
+ * shutdown() returns anyway.
+ *
+ * A coordinator is used once. Components can be added from any thread until shutdown() is called.
+ * Threadsafe.
+ * </pre>
+ */
+public class ShutdownCoordinator {
+
+    /**
+     * The default deadline (in milliseconds) for all components together.
+     */
+    public static final long DEFAULT_DEADLINE = 3000;
+
+    /**
+     * Closes a component.
+     */
+    @FunctionalInterface
+    public interface ShutdownTask {
+        void close() throws Exception;
+    }
+
+    private final Logger logger;
+    private final String name;
+    private final Map<String, ShutdownTask> tasks;
+    private boolean started;
+
+    /**
+     * @param name Name of what is shut down (for the log).
+     */
+    public ShutdownCoordinator(String name) {
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.name = name;
+        this.tasks = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a component to close.
+     * @param componentName Unique name of the component (i.e. "Client 192.168.1.20 (id 4)").
+     * @param task Closes the component.
+     */
+    public synchronized void add(String componentName, ShutdownTask task) {
+        if(this.started)
+            throw new IllegalStateException(this.name + " is already shutting down");
+
+        this.tasks.put(componentName, task);
+    }
+
+    /**
+     * Closes all components in parallel and waits for them, at most until the deadline.
+     * @param deadline Time for all components together.
+     * @param timeUnit TimeUnit of the deadline.
+     * @return Returns the report: which components were closed, failed or overran the deadline.
+     */
+    public Report shutdown(long deadline, TimeUnit timeUnit) {
+        Map<String, ShutdownTask> components;
+        synchronized (this) {
+            if(this.started)
+                throw new IllegalStateException(this.name + " was already shut down");
+
+            this.started = true;
+            components = new LinkedHashMap<>(this.tasks);
+        }
+
+        long start = System.nanoTime();
+        long end = start + timeUnit.toNanos(deadline);
+
+        Map<String, Throwable> failed = Collections.synchronizedMap(new LinkedHashMap<>());
+        List<String> closed = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Future<?>> running = new LinkedHashMap<>();
+        CountDownLatch done = new CountDownLatch(components.size());
+
+        for(Map.Entry<String, ShutdownTask> component : components.entrySet()) {
+            Runnable close = ExecutionPools.named("Shutdown " + component.getKey(), () -> {
+                try {
+                    component.getValue().close();
+                    closed.add(component.getKey());
+                } catch (Throwable t) {
+                    failed.put(component.getKey(), t);
+                } finally {
+                    done.countDown();
+                }
+            });
+
+            try {
+                running.put(component.getKey(), ExecutionPools.io().submit(close));
+            } catch (RejectedExecutionException e) {
+                // The io pool is full, close it on an own thread.
+                Thread thread = new Thread(close, "Shutdown " + component.getKey());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        try {
+            done.await(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            this.logger.warn(this.name + ": Interrupted while waiting for the shutdown");
+            Thread.currentThread().interrupt();
+        }
+
+        // Snapshot, the overrunning components may still finish.
+        List<String> overran = new ArrayList<>();
+        Map<String, Throwable> failedSnapshot;
+        List<String> closedSnapshot;
+        synchronized (failed) {
+            failedSnapshot = new LinkedHashMap<>(failed);
+        }
+        synchronized (closed) {
+            closedSnapshot = new ArrayList<>(closed);
+        }
+        for(String component : components.keySet()) {
+            if(!closedSnapshot.contains(component) && !failedSnapshot.containsKey(component)) {
+                overran.add(component);
+                Future<?> future = running.get(component);
+                if(future != null)
+                    future.cancel(true);
+            }
+        }
+
+        Report report = new Report(closedSnapshot, failedSnapshot, overran,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        this.log(report);
+        return report;
+    }
+
+    private void log(Report report) {
+        for(Map.Entry<String, Throwable> failure : report.getFailed().entrySet()) {
+            this.logger.warn(this.name + ": Closing " + failure.getKey() + " failed", failure.getValue());
+        }
+
+        if(report.getOverran().isEmpty()) {
+            this.logger.info(this.name + ": Closed " + report.getClosed().size() + " components in " + report.getDuration() + "ms");
+        } else {
+            this.logger.warn(this.name + ": " + report.getOverran().size() + " components overran the deadline of the shutdown: "
+                    + report.getOverran());
+        }
+    }
+
+    /**
+     * The result of a shutdown. Immutable.
+     */
+    public static class Report {
+        private final List<String> closed;
+        private final Map<String, Throwable> failed;
+        private final List<String> overran;
+        private final long duration;
+
+        Report(List<String> closed, Map<String, Throwable> failed, List<String> overran, long duration) {
+            this.closed = Collections.unmodifiableList(closed);
+            this.failed = Collections.unmodifiableMap(failed);
+            this.overran = Collections.unmodifiableList(overran);
+            this.duration = duration;
+        }
+
+        /**
+         * @return Returns the components closed before the deadline.
+         */
+        public List<String> getClosed() {
+            return this.closed;
+        }
+
+        /**
+         * @return Returns the components which threw an exception while closing, with the exception.
+         */
+        public Map<String, Throwable> getFailed() {
+            return this.failed;
+        }
+
+        /**
+         * @return Returns the components still closing at the deadline.
+         */
+        public List<String> getOverran() {
+            return this.overran;
+        }
+
+        /**
+         * @return Returns the duration of the shutdown in milliseconds.
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        /**
+         * @return Returns true if all components were closed before the deadline.
+         */
+        public boolean isComplete() {
+            return this.failed.isEmpty() && this.overran.isEmpty();
+        }
+    }
+}
@@ -4,7 +4,9 @@ import models.songs.Song;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.UUID;
 
 /**
  * Created by Esteban on 29.03.2016.
@@ -24,5 +26,15 @@ public class SongUtils {
         return Files.readAllBytes(songFile.toPath());
     }
 
+    /**
+     * Returns the id of the song. The id is derived from the path, so the server and the clients
+     * can identify a song without sending its data.
+     * @param song
+     * @return Returns the id of the song.
+     */
+    public static String getSongId(Song song) {
+        return UUID.nameUUIDFromBytes(song.getPath().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
 
 }
@@ -2,50 +2,41 @@ package utils.networking;
 
 import org.slf4j.LoggerFactory;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 
 /**
  * <pre>
  * Created by Esteban Luchsinger on 03.12.2015.
  * Provides some basic functionality.
+ *
+ * The broadcast addresses of all network interfaces (which are up) are kept, not only the first one.
+ * So the discovery works on every network of a computer with several network cards or VLANs.
+ * The addresses are evaluated at class initialization and again with refreshBroadcastAddresses(),
+ * which tells if they changed (i.e. a network cable was plugged in).
  * </pre>
  */
 public class NetUtil {
-    private static InetAddress broadcastAddress;
+    private static volatile List<InetAddress> broadcastAddresses = Collections.emptyList();
 
     /**
      * Static initialization because this might be an expensive operation.
      */
     static {
-        try {
-            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-
-            while(interfaces != null && interfaces.hasMoreElements()){
-                NetworkInterface currentInterface = interfaces.nextElement();
-
-                if(!currentInterface.isLoopback()){
-                    for(InterfaceAddress address : currentInterface.getInterfaceAddresses()){
-                        InetAddress broadcast = address.getBroadcast();
-                        if(broadcast != null){
-                            broadcastAddress = broadcast;
-                            break;
-                        }
-                    }
-                }
-            }
-        } catch (SocketException e) {
-            // log the damn exception!
-            e.printStackTrace();
-        }
+        refreshBroadcastAddresses();
     }
 
 
     /**
      * Gets the local IPv4 address.
+     * Prefers a site local address (i.e. 192.168.x.x) of an interface which is up.
      * Might have to set the JVM Machine to use IPv4 by default.
      * @return Returns the IPv4 address of localhost.
      */
@@ -53,17 +44,25 @@ public class NetUtil {
         InetAddress localAddress = null;
 
         try {
-            Enumeration e = NetworkInterface.getNetworkInterfaces();
-            while(e != null && e.hasMoreElements())
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while(interfaces != null && interfaces.hasMoreElements())
             {
-                NetworkInterface n = (NetworkInterface) e.nextElement();
-                Enumeration ee = n.getInetAddresses();
-                while (ee.hasMoreElements())
+                NetworkInterface currentInterface = interfaces.nextElement();
+                if(!currentInterface.isUp() || currentInterface.isLoopback())
+                    continue;
+
+                Enumeration<InetAddress> addresses = currentInterface.getInetAddresses();
+                while (addresses.hasMoreElements())
                 {
-                    InetAddress i = (InetAddress) ee.nextElement();
-                    if (!i.isLinkLocalAddress() && !i.isMulticastAddress() && !i.isLoopbackAddress()){
+                    InetAddress i = addresses.nextElement();
+                    if (!(i instanceof Inet4Address) || i.isLinkLocalAddress() || i.isMulticastAddress() || i.isLoopbackAddress())
+                        continue;
+
+                    if (i.isSiteLocalAddress())
+                        return i;
+
+                    if (localAddress == null)
                         localAddress = i;
-                    }
                 }
             }
         } catch (SocketException e1) {
@@ -75,13 +74,61 @@ public class NetUtil {
 
     /**
      * Gets the BroadcastAddress for IPv4.
-     * This address is cached and only calculated on static class
-     * initialization.
+     * This is the first address of getBroadcastAddresses4().
      *
      * Threadsafe.
-     * @return
+     * @return Returns the broadcast address or null, if not connected to a network.
      */
     public static InetAddress getBroadcastAddress4() {
-        return broadcastAddress;
+        List<InetAddress> addresses = broadcastAddresses;
+        return addresses.isEmpty() ? null : addresses.get(0);
+    }
+
+    /**
+     * Gets the IPv4 broadcast addresses of all network interfaces which are up.
+     * The addresses are cached, see refreshBroadcastAddresses().
+     *
+     * Threadsafe.
+     * @return Returns an unmodifiable list (empty if not connected to a network).
+     */
+    public static List<InetAddress> getBroadcastAddresses4() {
+        return broadcastAddresses;
+    }
+
+    /**
+     * Evaluates the broadcast addresses of the network interfaces again.
+     *
+     * Threadsafe.
+     * @return Returns true if the addresses changed.
+     */
+    public static synchronized boolean refreshBroadcastAddresses() {
+        List<InetAddress> addresses = new ArrayList<>();
+
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+
+            while(interfaces != null && interfaces.hasMoreElements()){
+                NetworkInterface currentInterface = interfaces.nextElement();
+
+                if(currentInterface.isUp() && !currentInterface.isLoopback()){
+                    for(InterfaceAddress address : currentInterface.getInterfaceAddresses()){
+                        InetAddress broadcast = address.getBroadcast();
+                        if(broadcast != null && !addresses.contains(broadcast)){
+                            addresses.add(broadcast);
+                        }
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            LoggerFactory.getLogger(NetUtil.class).error("Failed getting the broadcast addresses", e);
+            return false;
+        }
+
+        if(addresses.equals(broadcastAddresses))
+            return false;
+
+        broadcastAddresses = Collections.unmodifiableList(addresses);
+        LoggerFactory.getLogger(NetUtil.class).info("Broadcast addresses: " + addresses);
+        return true;
     }
 }
@@ -0,0 +1,206 @@
+package utils.networking;
+
+import models.networking.SongDatagram;
+import models.networking.messages.StreamingMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * Sends SongDatagrams paced by a token bucket instead of firing them back to back.
+ * Sending thousands of datagrams in a burst overruns the buffers of access points and
+ * causes burst losses, which then have to be repaired with retransmits.
+ *
+ * The rate adapts to the loss reported by the receivers (the <code>&lt;missing&gt;</code> messages):
+ * Losses above LOSS_TOLERANCE decrease the rate multiplicatively, loss-free reports
+ * increase it additively (AIMD).
+ * </pre>
+ */
+public class PacedDatagramSender {
+
+    //region Constants
+
+    /**
+     * Default sending rate in bytes per second (~8 MBit/s).
+     */
+    public static final double DEFAULT_RATE = 1024 * 1024;
+
+    /**
+     * Default burst size in bytes (16 datagrams).
+     */
+    public static final long DEFAULT_BURST_SIZE = SongDatagram.MAX_TOTAL_SIZE * 16;
+
+    /**
+     * Default lowest rate the sender adapts to (bytes per second).
+     */
+    public static final double DEFAULT_MIN_RATE = 64 * 1024;
+
+    /**
+     * Default highest rate the sender adapts to (bytes per second).
+     */
+    public static final double DEFAULT_MAX_RATE = 8 * 1024 * 1024;
+
+    /**
+     * Loss ratio that is tolerated without decreasing the rate.
+     */
+    public static final double LOSS_TOLERANCE = 0.01;
+
+    /**
+     * The rate is never decreased by more than this factor in a single report.
+     */
+    private static final double MAX_DECREASE_FACTOR = 0.5;
+
+    /**
+     * Part of the maximum rate that is added after a loss-free report.
+     */
+    private static final double INCREASE_STEP = 0.02;
+
+    //endregion Constants
+
+    private final Logger logger;
+
+    private final DatagramSocket socket;
+    private final TokenBucket tokenBucket;
+    private final double minRate;
+    private final double maxRate;
+
+    private final AtomicLong sentPackets;
+    private final AtomicLong sentBytes;
+
+    /**
+     * Creates a sender with the default rate and burst size.
+     * @param socket Socket used to send the datagrams.
+     */
+    public PacedDatagramSender(DatagramSocket socket) {
+        this(socket, DEFAULT_RATE, DEFAULT_BURST_SIZE, DEFAULT_MIN_RATE, DEFAULT_MAX_RATE);
+    }
+
+    /**
+     * Creates a sender.
+     * @param socket Socket used to send the datagrams.
+     * @param rate Initial rate in bytes per second.
+     * @param burstSize Maximum amount of bytes sent back to back.
+     * @param minRate The rate never adapts below this value (bytes per second).
+     * @param maxRate The rate never adapts above this value (bytes per second).
+     */
+    public PacedDatagramSender(DatagramSocket socket, double rate, long burstSize, double minRate, double maxRate) {
+        if(minRate <= 0 || minRate > maxRate)
+            throw new IllegalArgumentException("The minimum rate must be positive and smaller than the maximum rate.");
+
+        this.logger = LoggerFactory.getLogger(this.getClass());
+        this.socket = socket;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.tokenBucket = new TokenBucket(Math.max(minRate, Math.min(maxRate, rate)), burstSize);
+
+        this.sentPackets = new AtomicLong();
+        this.sentBytes = new AtomicLong();
+    }
+
+    /**
+     * Sends a datagram as soon as the pacing allows it (blocking).
+     * @param datagram Datagram to send. The destination must be set.
+     * @throws IOException Thrown if the socket failed sending.
+     * @throws InterruptedException Thrown if the thread was interrupted while waiting.
+     */
+    public void send(SongDatagram datagram) throws IOException, InterruptedException {
+        int size = SongDatagram.HEADER_SIZE + datagram.getSongData().length;
+
+        this.tokenBucket.consume(size);
+        this.socket.send(datagram.getDatagramPacket());
+
+        this.sentPackets.incrementAndGet();
+        this.sentBytes.addAndGet(size);
+    }
+
+    /**
+     * Sends all datagrams paced (blocking).
+     * @param datagrams Datagrams to send, in sending order.
+     * @throws IOException Thrown if the socket failed sending.
+     * @throws InterruptedException Thrown if the thread was interrupted while waiting.
+     */
+    public void send(List<SongDatagram> datagrams) throws IOException, InterruptedException {
+        for(SongDatagram datagram : datagrams) {
+            this.send(datagram);
+        }
+    }
+
+    /**
+     * Adapts the rate to the loss reported by a receiver.
+     * @param missingPackets Amount of packets the receiver reported missing.
+     * @param expectedPackets Amount of packets the report refers to.
+     */
+    public void onLossReport(int missingPackets, int expectedPackets) {
+        if(expectedPackets <= 0)
+            return;
+
+        double loss = Math.min(1, Math.max(0, missingPackets / (double) expectedPackets));
+        double oldRate = this.tokenBucket.getRate();
+        double newRate;
+
+        if(loss > LOSS_TOLERANCE) {
+            newRate = oldRate * Math.max(MAX_DECREASE_FACTOR, 1 - loss);
+        }
+        else {
+            newRate = oldRate + this.maxRate * INCREASE_STEP;
+        }
+
+        newRate = Math.max(this.minRate, Math.min(this.maxRate, newRate));
+        this.tokenBucket.setRate(newRate);
+
+        if(newRate != oldRate)
+            this.logger.debug("Pacing rate changed from " + (long) oldRate + " to " + (long) newRate
+                    + " B/s (loss " + loss + ")");
+    }
+
+    /**
+     * Adapts the rate to a <code>&lt;missing&gt;</code> message received from a receiver.
+     * @param message The missing packets message.
+     * @param expectedPackets Amount of packets the message refers to.
+     */
+    public void onMissingPacketsMessage(String message, int expectedPackets) {
+        List<Integer> missing = StreamingMessage.parseMissingPacketsMessage(message);
+        this.onLossReport(missing.size(), expectedPackets);
+    }
+
+    /**
+     * @return Returns the current sending rate in bytes per second.
+     */
+    public double getRate() {
+        return this.tokenBucket.getRate();
+    }
+
+    /**
+     * @return Returns the burst size in bytes.
+     */
+    public long getBurstSize() {
+        return this.tokenBucket.getBurstSize();
+    }
+
+    /**
+     * Changes the burst size.
+     * @param burstSize New burst size in bytes.
+     */
+    public void setBurstSize(long burstSize) {
+        this.tokenBucket.setBurstSize(burstSize);
+    }
+
+    /**
+     * @return Returns the amount of datagrams sent by this sender.
+     */
+    public long getSentPackets() {
+        return this.sentPackets.get();
+    }
+
+    /**
+     * @return Returns the amount of bytes sent by this sender (header and data).
+     */
+    public long getSentBytes() {
+        return this.sentBytes.get();
+    }
+}
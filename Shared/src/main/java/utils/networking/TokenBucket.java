@@ -0,0 +1,200 @@
+package utils.networking;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * <pre>
+ * A token bucket used to pace outgoing traffic.
+ * The bucket is refilled with <code>rate</code> tokens per second and holds at most
+ * <code>burstSize</code> tokens. One token corresponds to one byte.
+ *
+ * Threadsafe.
+ * </pre>
+ */
+public class TokenBucket {
+
+    /**
+     * Source of the current time in nanoseconds.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * Amount of tokens added to the bucket per second.
+     */
+    private double rate;
+
+    /**
+     * Maximum amount of tokens the bucket can hold.
+     */
+    private long burstSize;
+
+    /**
+     * Tokens currently available.
+     */
+    private double tokens;
+
+    /**
+     * Time (nanoseconds) of the last refill.
+     */
+    private long lastRefill;
+
+    /**
+     * Creates a full token bucket.
+     * @param rate Tokens (bytes) per second. Must be positive.
+     * @param burstSize Maximum amount of tokens (bytes) that can be consumed in a burst. Must be positive.
+     */
+    public TokenBucket(double rate, long burstSize) {
+        this(rate, burstSize, System::nanoTime);
+    }
+
+    /**
+     * Creates a full token bucket using the given clock.
+     * @param rate Tokens (bytes) per second. Must be positive.
+     * @param burstSize Maximum amount of tokens (bytes) that can be consumed in a burst. Must be positive.
+     * @param clock Clock returning the current time in nanoseconds.
+     */
+    TokenBucket(double rate, long burstSize, LongSupplier clock) {
+        if(rate <= 0)
+            throw new IllegalArgumentException("The rate must be positive.");
+        if(burstSize <= 0)
+            throw new IllegalArgumentException("The burst size must be positive.");
+
+        this.clock = clock;
+        this.rate = rate;
+        this.burstSize = burstSize;
+        this.tokens = burstSize;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * Tries to take the tokens out of the bucket without waiting.
+     * @param amount Amount of tokens needed.
+     * @return Returns true, if the tokens were available and consumed.
+     */
+    public synchronized boolean tryConsume(int amount) {
+        this.refill();
+
+        if(this.tokens >= amount) {
+            this.tokens -= amount;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the tokens out of the bucket. Blocks until enough tokens are available.
+     * Amounts bigger than the burst size are allowed, the bucket then goes into debt
+     * and the following calls wait until the debt is paid back.
+     * @param amount Amount of tokens needed.
+     * @throws InterruptedException Thrown if the waiting thread was interrupted.
+     */
+    public void consume(int amount) throws InterruptedException {
+        long waitTime;
+
+        synchronized (this) {
+            this.refill();
+            this.tokens -= amount;
+            waitTime = this.nanosUntilPositive();
+        }
+
+        while(waitTime > 0) {
+            LockSupport.parkNanos(this, waitTime);
+            if(Thread.interrupted())
+                throw new InterruptedException("Waiting for tokens was interrupted.");
+
+            synchronized (this) {
+                this.refill();
+                waitTime = this.nanosUntilPositive();
+            }
+        }
+    }
+
+    /**
+     * @param amount Amount of tokens needed.
+     * @return Returns the time in nanoseconds until the amount of tokens is available. 0 if it is available now.
+     */
+    public synchronized long nanosUntilAvailable(int amount) {
+        this.refill();
+
+        double missing = amount - this.tokens;
+        if(missing <= 0)
+            return 0;
+
+        return (long) Math.ceil(missing * TimeUnit.SECONDS.toNanos(1) / this.rate);
+    }
+
+    /**
+     * @return Returns the amount of tokens added per second.
+     */
+    public synchronized double getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Changes the rate of the bucket. Tokens already in the bucket are kept.
+     * @param rate New rate in tokens (bytes) per second. Must be positive.
+     */
+    public synchronized void setRate(double rate) {
+        if(rate <= 0)
+            throw new IllegalArgumentException("The rate must be positive.");
+
+        this.refill();
+        this.rate = rate;
+    }
+
+    /**
+     * @return Returns the maximum amount of tokens the bucket holds.
+     */
+    public synchronized long getBurstSize() {
+        return this.burstSize;
+    }
+
+    /**
+     * Changes the burst size. If the bucket holds more tokens than the new burst size, the tokens are cut.
+     * @param burstSize New burst size. Must be positive.
+     */
+    public synchronized void setBurstSize(long burstSize) {
+        if(burstSize <= 0)
+            throw new IllegalArgumentException("The burst size must be positive.");
+
+        this.refill();
+        this.burstSize = burstSize;
+        this.tokens = Math.min(this.tokens, burstSize);
+    }
+
+    /**
+     * @return Returns the amount of tokens currently available (may be negative while in debt).
+     */
+    public synchronized double getAvailableTokens() {
+        this.refill();
+        return this.tokens;
+    }
+
+    /**
+     * Adds the tokens earned since the last refill.
+     * Must be called while holding the lock.
+     */
+    private void refill() {
+        long now = this.clock.getAsLong();
+        long elapsed = now - this.lastRefill;
+
+        if(elapsed > 0) {
+            this.tokens = Math.min(this.burstSize,
+                    this.tokens + elapsed * this.rate / TimeUnit.SECONDS.toNanos(1));
+            this.lastRefill = now;
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     * @return Returns the time in nanoseconds until the bucket is out of debt.
+     */
+    private long nanosUntilPositive() {
+        if(this.tokens >= 0)
+            return 0;
+
+        return (long) Math.ceil(-this.tokens * TimeUnit.SECONDS.toNanos(1) / this.rate);
+    }
+}
@@ -0,0 +1,76 @@
+package models.networking;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryBeaconTest {
+
+    /**
+     * A written beacon is read with the same fields.
+     * @throws Exception
+     */
+    @Test
+    public void testWriteRead() throws Exception {
+        UUID serverId = UUID.randomUUID();
+        DiscoveryBeacon beacon = new DiscoveryBeacon(serverId, 6070, DiscoveryBeacon.TRANSPORT_TCP);
+        beacon.setClientCount(42);
+        beacon.setEcho(-1234567890123L);
+
+        byte[] buffer = new byte[DiscoveryBeacon.MAX_SIZE];
+        assertEquals(DiscoveryBeacon.BEACON_SIZE, beacon.write(buffer));
+
+        DiscoveryBeacon read = new DiscoveryBeacon();
+        assertTrue(read.read(buffer, 0, DiscoveryBeacon.BEACON_SIZE));
+        assertEquals(serverId, read.getServerId());
+        assertTrue(read.isSameServer(beacon));
+        assertEquals(6070, read.getStreamingPort());
+        assertEquals(DiscoveryBeacon.PROTOCOL_VERSION, read.getProtocolVersion());
+        assertEquals(42, read.getClientCount());
+        assertTrue(read.supports(DiscoveryBeacon.TRANSPORT_TCP));
+        assertFalse(read.supports(DiscoveryBeacon.TRANSPORT_UDP));
+        assertEquals(-1234567890123L, read.getEcho());
+    }
+
+    /**
+     * Other data, truncated beacons and probes are not read as beacons.
+     * @throws Exception
+     */
+    @Test
+    public void testReadInvalid() throws Exception {
+        DiscoveryBeacon read = new DiscoveryBeacon();
+
+        byte[] legacy = "WSSServer".getBytes("US-ASCII");
+        assertFalse(read.read(legacy, 0, legacy.length));
+
+        byte[] buffer = new byte[DiscoveryBeacon.MAX_SIZE];
+        new DiscoveryBeacon(UUID.randomUUID(), 6070, DiscoveryBeacon.TRANSPORT_TCP).write(buffer);
+        assertFalse(read.read(buffer, 0, DiscoveryBeacon.BEACON_SIZE - 1));
+
+        buffer[4] = (byte) (DiscoveryBeacon.VERSION + 1);
+        assertFalse(read.read(buffer, 0, DiscoveryBeacon.BEACON_SIZE));
+
+        int length = DiscoveryBeacon.writeProbe(buffer, 1);
+        assertFalse(read.read(buffer, 0, length));
+    }
+
+    /**
+     * The nonce of a probe is read back.
+     * @throws Exception
+     */
+    @Test
+    public void testProbe() throws Exception {
+        byte[] buffer = new byte[DiscoveryBeacon.MAX_SIZE];
+        long nonce = System.nanoTime();
+
+        int length = DiscoveryBeacon.writeProbe(buffer, nonce);
+        assertEquals(DiscoveryBeacon.PROBE_SIZE, length);
+        assertTrue(DiscoveryBeacon.isProbe(buffer, 0, length));
+        assertEquals(nonce, DiscoveryBeacon.getProbeNonce(buffer, 0));
+
+        new DiscoveryBeacon(UUID.randomUUID(), 6070, DiscoveryBeacon.TRANSPORT_TCP).write(buffer);
+        assertFalse(DiscoveryBeacon.isProbe(buffer, 0, DiscoveryBeacon.BEACON_SIZE));
+    }
+}
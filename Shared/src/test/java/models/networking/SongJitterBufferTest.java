@@ -0,0 +1,122 @@
+package models.networking;
+
+import org.junit.Test;
+import utils.networking.SongDatagramBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SongJitterBufferTest {
+
+    /**
+     * 1000 bytes per second make the millisecond calculations easy.
+     */
+    private final static double BYTES_PER_SECOND = 1000;
+
+    /**
+     * The watermark only advances over contiguous datagrams, even if they arrive out of order.
+     * @throws Exception
+     */
+    @Test
+    public void testWatermarkOutOfOrder() throws Exception {
+        List<SongDatagram> datagrams = SongDatagramBuilder.createPackets(new byte[SongDatagram.MAX_DATA_SIZE * 4]);
+        SongJitterBuffer buffer = new SongJitterBuffer(datagrams.size(), BYTES_PER_SECOND);
+
+        buffer.add(datagrams.get(1));
+        buffer.add(datagrams.get(2));
+        assertEquals(0, buffer.getWatermark());
+        assertEquals(0, buffer.getContiguousBytes());
+
+        buffer.add(datagrams.get(0));
+        assertEquals(3, buffer.getWatermark());
+        assertEquals(SongDatagram.MAX_DATA_SIZE * 3, buffer.getContiguousBytes());
+        assertFalse(buffer.isComplete());
+
+        buffer.add(datagrams.get(3));
+        assertTrue(buffer.isComplete());
+    }
+
+    /**
+     * Duplicates and datagrams out of range are rejected.
+     * @throws Exception
+     */
+    @Test
+    public void testRejectsDuplicates() throws Exception {
+        List<SongDatagram> datagrams = SongDatagramBuilder.createPackets(new byte[SongDatagram.MAX_DATA_SIZE * 2]);
+        SongJitterBuffer buffer = new SongJitterBuffer(datagrams.size(), BYTES_PER_SECOND);
+
+        assertTrue(buffer.add(datagrams.get(0)));
+        assertFalse(buffer.add(datagrams.get(0)));
+
+        SongDatagram outOfRange = new SongDatagram(new byte[10]);
+        outOfRange.setSequenceNumber(3);
+        assertFalse(buffer.add(outOfRange));
+        assertEquals(1, buffer.getReceivedPackets());
+    }
+
+    /**
+     * The buffer is playable as soon as enough contiguous audio is available.
+     * @throws Exception
+     */
+    @Test
+    public void testPlayable() throws Exception {
+        List<SongDatagram> datagrams = SongDatagramBuilder.createPackets(new byte[SongDatagram.MAX_DATA_SIZE * 10]);
+        // 700 bytes = 700ms
+        SongJitterBuffer buffer = new SongJitterBuffer(datagrams.size(), BYTES_PER_SECOND, 1000);
+
+        buffer.add(datagrams.get(0));
+        assertFalse(buffer.isPlayable());
+
+        buffer.add(datagrams.get(1));
+        assertEquals(1400, buffer.getContiguousMillis());
+        assertTrue(buffer.isPlayable());
+    }
+
+    /**
+     * Only holes below the highest received datagram are reported as missing.
+     * @throws Exception
+     */
+    @Test
+    public void testMissingSequenceNumbers() throws Exception {
+        List<SongDatagram> datagrams = SongDatagramBuilder.createPackets(new byte[SongDatagram.MAX_DATA_SIZE * 6]);
+        SongJitterBuffer buffer = new SongJitterBuffer(datagrams.size(), BYTES_PER_SECOND);
+
+        buffer.add(datagrams.get(0));
+        buffer.add(datagrams.get(2));
+        buffer.add(datagrams.get(4));
+
+        assertEquals(Arrays.asList(2, 4), buffer.getMissingSequenceNumbers());
+    }
+
+    /**
+     * The stream returns the song data in the correct order.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamReadsInOrder() throws Exception {
+        byte[] data = new byte[SongDatagram.MAX_DATA_SIZE * 3 + 17];
+        for(int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+
+        List<SongDatagram> datagrams = SongDatagramBuilder.createPackets(data);
+        Collections.reverse(datagrams);
+
+        SongJitterBuffer buffer = new SongJitterBuffer(datagrams.size(), BYTES_PER_SECOND);
+        buffer.add(datagrams);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream stream = buffer.openStream()) {
+            byte[] chunk = new byte[300];
+            int read;
+            while((read = stream.read(chunk)) >= 0)
+                output.write(chunk, 0, read);
+        }
+
+        assertArrayEquals(data, output.toByteArray());
+    }
+}
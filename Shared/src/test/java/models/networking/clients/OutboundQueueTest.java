@@ -0,0 +1,157 @@
+package models.networking.clients;
+
+import models.networking.dtos.PauseCommand;
+import models.networking.dtos.PlayCommand;
+import models.networking.dtos.RenameCommand;
+import models.networking.dtos.SongChunkCommand;
+import models.networking.dtos.StopCommand;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    private static SongChunkCommand chunk(String songId, int offset) {
+        return new SongChunkCommand(songId, offset, 1000, new byte[100]);
+    }
+
+    /**
+     * Only the latest state command waiting in the queue is kept.
+     * @throws Exception
+     */
+    @Test
+    public void testCoalesceStateCommands() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1000, 500);
+        List<Object> dropped = new ArrayList<>();
+
+        PlayCommand play = new PlayCommand("a", "title", "artist");
+        PauseCommand pause = new PauseCommand();
+        StopCommand stop = new StopCommand();
+        SongChunkCommand chunk = chunk("a", 0);
+        RenameCommand rename = new RenameCommand("speaker");
+
+        queue.offer(chunk, dropped);
+        queue.offer(play, dropped);
+        queue.offer(rename, dropped);
+        queue.offer(pause, dropped);
+        queue.offer(stop, dropped);
+
+        assertEquals(2, dropped.size());
+        assertSame(play, dropped.get(0));
+        assertSame(pause, dropped.get(1));
+
+        assertSame(chunk, queue.take());
+        queue.sent();
+        assertSame(rename, queue.take());
+        queue.sent();
+        assertSame(stop, queue.take());
+        queue.sent();
+        assertEquals(0, queue.getQueuedBytes());
+    }
+
+    /**
+     * Song data without room is dropped, with the rest of its song. Other songs still fit.
+     * @throws Exception
+     */
+    @Test
+    public void testDropSongDataWhenFull() throws Exception {
+        OutboundQueue queue = new OutboundQueue(250, 200);
+        List<Object> dropped = new ArrayList<>();
+
+        queue.offer(chunk("a", 0), dropped);
+        queue.offer(chunk("a", 100), dropped);
+        assertTrue(queue.isSlowConsumer());
+        assertTrue(dropped.isEmpty());
+
+        // No room: the whole song is dropped.
+        queue.offer(chunk("a", 200), dropped);
+        assertEquals(3, dropped.size());
+        assertEquals(0, queue.getQueuedBytes());
+
+        // The rest of the song is dropped too, other songs are queued.
+        dropped.clear();
+        queue.offer(chunk("a", 300), dropped);
+        assertEquals(1, dropped.size());
+        queue.offer(chunk("b", 0), dropped);
+        assertEquals(1, dropped.size());
+        assertEquals(100, queue.getQueuedBytes());
+
+        // A play command allows the song again.
+        queue.offer(new PlayCommand("a", "title", "artist"), dropped);
+        queue.take();
+        queue.sent();
+        queue.take();
+        queue.sent();
+        queue.offer(chunk("a", 400), dropped);
+        assertEquals(1, dropped.size());
+    }
+
+    /**
+     * The data of the other songs is discarded.
+     * @throws Exception
+     */
+    @Test
+    public void testDiscardSongData() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1000, 500);
+        List<Object> dropped = new ArrayList<>();
+
+        queue.offer(chunk("a", 0), dropped);
+        queue.offer(chunk("b", 0), dropped);
+        queue.offer(chunk("a", 100), dropped);
+
+        assertEquals(2, queue.discardSongData("b").size());
+        assertEquals(100, queue.getQueuedBytes());
+        assertEquals("b", ((SongChunkCommand) queue.take()).songId);
+    }
+
+    /**
+     * awaitSent waits for the object being sent and times out.
+     * @throws Exception
+     */
+    @Test
+    public void testAwaitSent() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1000, 500);
+        List<Object> dropped = new ArrayList<>();
+
+        long first = queue.offer(chunk("a", 0), dropped);
+        long second = queue.offer(chunk("a", 100), dropped);
+
+        queue.take();
+        assertFalse(queue.awaitSent(first, 10, TimeUnit.MILLISECONDS));
+        queue.sent();
+        assertTrue(queue.awaitSent(first, 0, TimeUnit.MILLISECONDS));
+        assertFalse(queue.awaitSent(second, 10, TimeUnit.MILLISECONDS));
+
+        queue.discardSongData(null);
+        assertTrue(queue.awaitSent(second, 0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * The data of a song is queued until its last chunk was sent.
+     * @throws Exception
+     */
+    @Test
+    public void testHasSongData() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1000, 500);
+        List<Object> dropped = new ArrayList<>();
+
+        queue.offer(chunk("a", 0), dropped);
+        queue.offer(chunk("a", 100), dropped);
+        assertTrue(queue.hasSongData("a"));
+        assertFalse(queue.hasSongData("b"));
+
+        queue.take();
+        queue.sent();
+        assertTrue(queue.hasSongData("a"));
+
+        // Being sent.
+        queue.take();
+        assertTrue(queue.hasSongData("a"));
+        queue.sent();
+        assertFalse(queue.hasSongData("a"));
+    }
+}
@@ -0,0 +1,211 @@
+package models.songs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class Mp3HeaderReaderTest {
+
+    /**
+     * MPEG1 Layer III, 128 kbit/s, 44.1 kHz, no padding, stereo.
+     */
+    private static final byte[] FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+
+    /**
+     * 144 * 128000 / 44100
+     */
+    private static final int FRAME_LENGTH = 417;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Without a Xing header the duration is estimated from the bitrate of the first frame.
+     * The tag fields are read from the ID3v1 tag.
+     * @throws Exception
+     */
+    @Test
+    public void testCbrWithId3v1() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeFrames(file, 100);
+        writeId3v1(file, "Title", "Artist", "Album");
+
+        SongMetadata metadata = Mp3HeaderReader.read(this.write(file).toPath());
+
+        assertNotNull(metadata);
+        assertEquals("Title", metadata.getTitle());
+        assertEquals("Artist", metadata.getArtist());
+        assertEquals("Album", metadata.getAlbum());
+        assertEquals(128, metadata.getBitrate());
+        assertEquals(100, metadata.getFrameCount());
+        assertEquals(0, metadata.getAudioStartOffset());
+        assertEquals(100 * FRAME_LENGTH - 1, metadata.getAudioEndOffset());
+        // Exact: 100 * 1152 / 44100 = 2612ms
+        assertEquals(2612, metadata.getLengthInMilliseconds(), 10);
+    }
+
+    /**
+     * The frame count of the Xing header is used, even if the file contains only a few frames.
+     * ID3v2 fields have priority over ID3v1 fields, other frames (pictures) are skipped.
+     * @throws Exception
+     */
+    @Test
+    public void testXingWithId3v2() throws Exception {
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        writeTextFrame(tag, "TIT2", "A title longer than thirty characters");
+        writeTextFrame(tag, "TPE1", "Artist");
+        writeFrame(tag, "APIC", new byte[5000]);
+        writeTextFrame(tag, "TALB", "Album");
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeId3v2Header(file, 3, tag.size() + 100);
+        file.write(tag.toByteArray());
+        file.write(new byte[100]); // Padding
+        int audioStart = file.size();
+
+        // The first frame contains the Xing header after the side information (32 bytes).
+        byte[] xingFrame = new byte[FRAME_LENGTH];
+        System.arraycopy(FRAME_HEADER, 0, xingFrame, 0, 4);
+        System.arraycopy("Xing".getBytes(StandardCharsets.ISO_8859_1), 0, xingFrame, 36, 4);
+        xingFrame[43] = 0x3; // Flags: frames and bytes
+        writeInt(xingFrame, 44, 1000);
+        writeInt(xingFrame, 48, 1000 * FRAME_LENGTH);
+        file.write(xingFrame);
+        writeFrames(file, 10);
+        writeId3v1(file, "A title longer than thirty ch", "Other", "Other");
+
+        SongMetadata metadata = Mp3HeaderReader.read(this.write(file).toPath());
+
+        assertNotNull(metadata);
+        assertEquals("A title longer than thirty characters", metadata.getTitle());
+        assertEquals("Artist", metadata.getArtist());
+        assertEquals("Album", metadata.getAlbum());
+        assertEquals(audioStart, metadata.getAudioStartOffset());
+        assertEquals(1000, metadata.getFrameCount());
+        // 1000 * 1152 / 44100
+        assertEquals(26122, metadata.getLengthInMilliseconds());
+        assertEquals(127, metadata.getBitrate(), 1);
+    }
+
+    /**
+     * ID3v2.2 uses three character frame ids. The text is UTF-16 with a byte order mark.
+     * @throws Exception
+     */
+    @Test
+    public void testId3v22Utf16() throws Exception {
+        byte[] text = "T\u00eftle\u0000".getBytes(StandardCharsets.UTF_16);
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write("TT2".getBytes(StandardCharsets.ISO_8859_1));
+        int size = text.length + 1;
+        tag.write(new byte[]{(byte) (size >> 16), (byte) (size >> 8), (byte) size, 1});
+        tag.write(text);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeId3v2Header(file, 2, tag.size());
+        file.write(tag.toByteArray());
+        writeFrames(file, 20);
+
+        SongMetadata metadata = Mp3HeaderReader.read(this.write(file).toPath());
+
+        assertNotNull(metadata);
+        assertEquals("T\u00eftle", metadata.getTitle());
+        assertEquals("unknown artist", metadata.getArtist());
+    }
+
+    /**
+     * Files without a valid audio frame are left to the full scan.
+     * @throws Exception
+     */
+    @Test
+    public void testNoFrameReturnsNull() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        byte[] junk = new byte[4096];
+        for(int i = 0; i < junk.length; i++)
+            junk[i] = (byte) (i * 31);
+        file.write(junk);
+
+        assertNull(Mp3HeaderReader.read(this.write(file).toPath()));
+    }
+
+    /**
+     * The header reader agrees with the full scan of mp3agic.
+     * @throws Exception
+     */
+    @Test
+    public void testMatchesFullScan() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        writeFrames(file, 250);
+        writeId3v1(file, "Title", "Artist", "Album");
+        File mp3 = this.write(file);
+
+        SongMetadata fast = Mp3HeaderReader.read(mp3.toPath());
+        SongMetadata scanned = Mp3Song.scanMetadata(mp3.getPath());
+
+        assertEquals(scanned.getTitle(), fast.getTitle());
+        assertEquals(scanned.getArtist(), fast.getArtist());
+        assertEquals(scanned.getFrameCount(), fast.getFrameCount());
+        assertEquals(scanned.getAudioStartOffset(), fast.getAudioStartOffset());
+        assertEquals(scanned.getLengthInMilliseconds(), fast.getLengthInMilliseconds(), 20);
+    }
+
+    //region Helpers
+
+    private File write(ByteArrayOutputStream data) throws Exception {
+        File file = this.folder.newFile();
+        Files.write(file.toPath(), data.toByteArray());
+        return file;
+    }
+
+    private static void writeFrames(ByteArrayOutputStream out, int count) throws Exception {
+        byte[] frame = new byte[FRAME_LENGTH];
+        System.arraycopy(FRAME_HEADER, 0, frame, 0, 4);
+        for(int i = 0; i < count; i++)
+            out.write(frame);
+    }
+
+    private static void writeId3v1(ByteArrayOutputStream out, String title, String artist, String album) throws Exception {
+        byte[] tag = new byte[128];
+        System.arraycopy("TAG".getBytes(StandardCharsets.ISO_8859_1), 0, tag, 0, 3);
+        byte[][] fields = {title.getBytes(StandardCharsets.ISO_8859_1),
+                artist.getBytes(StandardCharsets.ISO_8859_1), album.getBytes(StandardCharsets.ISO_8859_1)};
+        for(int i = 0; i < fields.length; i++)
+            System.arraycopy(fields[i], 0, tag, 3 + i * 30, Math.min(30, fields[i].length));
+        tag[127] = (byte) 0xFF; // No genre
+        out.write(tag);
+    }
+
+    private static void writeId3v2Header(ByteArrayOutputStream out, int version, int size) throws Exception {
+        out.write(new byte[]{'I', 'D', '3', (byte) version, 0, 0,
+                (byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F), (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F)});
+    }
+
+    private static void writeTextFrame(ByteArrayOutputStream out, String id, String text) throws Exception {
+        byte[] value = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] content = new byte[value.length + 1];
+        System.arraycopy(value, 0, content, 1, value.length);
+        writeFrame(out, id, content);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, String id, byte[] content) throws Exception {
+        byte[] header = new byte[10];
+        System.arraycopy(id.getBytes(StandardCharsets.ISO_8859_1), 0, header, 0, 4);
+        writeInt(header, 4, content.length);
+        out.write(header);
+        out.write(content);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+    //endregion Helpers
+}
@@ -0,0 +1,85 @@
+package utils.concurrent;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HashedWheelTimerTest {
+
+    /**
+     * The timeouts expire in the order of their deadlines, not before them.
+     * Deadlines further away than a turn of the wheel wait the remaining turns.
+     * @throws Exception
+     */
+    @Test
+    public void testExpireInOrder() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("TestTimer", 5, TimeUnit.MILLISECONDS, 8);
+        try {
+            List<Integer> expired = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(3);
+            long start = System.nanoTime();
+
+            // 100ms is more than one turn of the wheel (8 * 5ms).
+            timer.newTimeout(() -> { expired.add(100); latch.countDown(); }, 100, TimeUnit.MILLISECONDS);
+            timer.newTimeout(() -> { expired.add(10); latch.countDown(); }, 10, TimeUnit.MILLISECONDS);
+            timer.newTimeout(() -> { expired.add(50); latch.countDown(); }, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            assertEquals(3, expired.size());
+            assertEquals(10, (int) expired.get(0));
+            assertEquals(50, (int) expired.get(1));
+            assertEquals(100, (int) expired.get(2));
+            assertEquals(0, timer.getPendingTimeouts());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * A cancelled timeout does not expire.
+     * @throws Exception
+     */
+    @Test
+    public void testCancel() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("TestTimer", 5, TimeUnit.MILLISECONDS, 8);
+        try {
+            CountDownLatch cancelledLatch = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+
+            HashedWheelTimer.Timeout cancelled = timer.newTimeout(cancelledLatch::countDown, 20, TimeUnit.MILLISECONDS);
+            HashedWheelTimer.Timeout timeout = timer.newTimeout(latch::countDown, 40, TimeUnit.MILLISECONDS);
+            assertEquals(2, timer.getPendingTimeouts());
+
+            assertTrue(cancelled.cancel());
+            assertFalse(cancelled.cancel());
+            assertTrue(cancelled.isCancelled());
+
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertTrue(timeout.isExpired());
+            assertFalse(timeout.cancel());
+            assertEquals(1, cancelledLatch.getCount());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Stopping the timer returns the timeouts which did not expire.
+     * @throws Exception
+     */
+    @Test
+    public void testStop() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("TestTimer", 5, TimeUnit.MILLISECONDS, 8);
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> fail("Expired after stop"), 1, TimeUnit.HOURS);
+        Thread.sleep(20);
+
+        assertTrue(timer.stop().contains(timeout));
+        assertFalse(timeout.isExpired());
+    }
+}
@@ -0,0 +1,139 @@
+package utils.concurrent;
+
+import org.junit.Test;
+
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    /**
+     * Data written across the end of the array is read in the correct order.
+     * @throws Exception
+     */
+    @Test
+    public void testWrapAround() throws Exception {
+        PcmRingBuffer buffer = new PcmRingBuffer(4, 4);
+        byte[] data = sequence(12, 0);
+        byte[] read = new byte[16];
+
+        assertEquals(12, buffer.write(data, 0, 12));
+        assertEquals(8, buffer.read(read, 0, 8));
+
+        // 12 bytes free: 4 at the end of the array, 8 at the beginning.
+        byte[] more = sequence(16, 12);
+        assertEquals(12, buffer.write(more, 0, 16));
+        assertEquals(16, buffer.available());
+        assertEquals(1.0, buffer.getFillLevel(), 0.0001);
+
+        assertEquals(16, buffer.read(read, 0, 16));
+        for(int i = 0; i < 16; i++)
+            assertEquals((byte) (8 + i), read[i]);
+    }
+
+    /**
+     * Only whole frames are read.
+     * @throws Exception
+     */
+    @Test
+    public void testWholeFrames() throws Exception {
+        PcmRingBuffer buffer = new PcmRingBuffer(8, 4);
+        buffer.write(sequence(10, 0), 0, 10);
+
+        byte[] read = new byte[32];
+        assertEquals(8, buffer.read(read, 0, 32));
+        assertEquals(0, buffer.read(read, 0, 32));
+        assertEquals(2, buffer.available());
+    }
+
+    /**
+     * An incomplete frame at the end of the data is discarded, readSome() returns the end of the data.
+     * @throws Exception
+     */
+    @Test(timeout = 2000)
+    public void testIncompleteLastFrame() throws Exception {
+        PcmRingBuffer buffer = new PcmRingBuffer(8, 4);
+        buffer.write(sequence(10, 0), 0, 10);
+        buffer.finish();
+
+        byte[] read = new byte[32];
+        assertEquals(8, buffer.readSome(read, 0, 32));
+        assertEquals(-1, buffer.readSome(read, 0, 32));
+        assertEquals(0, buffer.available());
+        assertEquals(-1, buffer.read(read, 0, 32));
+    }
+
+    /**
+     * An underrun is counted once per empty phase, not at the start and not after the end.
+     * @throws Exception
+     */
+    @Test
+    public void testUnderruns() throws Exception {
+        PcmRingBuffer buffer = new PcmRingBuffer(8, 2);
+        byte[] read = new byte[16];
+
+        // Empty before the first data: not an underrun.
+        assertEquals(0, buffer.read(read, 0, 16));
+        assertEquals(0, buffer.getUnderruns());
+
+        buffer.write(sequence(4, 0), 0, 4);
+        assertEquals(4, buffer.read(read, 0, 16));
+        assertEquals(0, buffer.read(read, 0, 16));
+        assertEquals(0, buffer.read(read, 0, 16));
+        assertEquals(1, buffer.getUnderruns());
+
+        buffer.write(sequence(4, 0), 0, 4);
+        buffer.finish();
+        assertEquals(4, buffer.read(read, 0, 16));
+        assertEquals(-1, buffer.read(read, 0, 16));
+        assertEquals(1, buffer.getUnderruns());
+    }
+
+    /**
+     * A producer and a consumer thread transfer a large amount of data through a small buffer.
+     * @throws Exception
+     */
+    @Test
+    public void testProducerConsumer() throws Exception {
+        final int total = 4 * 1024 * 1024;
+        PcmRingBuffer buffer = new PcmRingBuffer(1024, 4);
+        CRC32 written = new CRC32();
+        CRC32 read = new CRC32();
+
+        Thread producer = new Thread(() -> {
+            try {
+                byte[] frame = new byte[1152 * 4];
+                for(int offset = 0; offset < total; offset += frame.length) {
+                    for(int i = 0; i < frame.length; i++)
+                        frame[i] = (byte) ((offset + i) * 7);
+                    int length = Math.min(frame.length, total - offset);
+                    written.update(frame, 0, length);
+                    buffer.writeFully(frame, 0, length);
+                }
+                buffer.finish();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        producer.start();
+
+        byte[] chunk = new byte[3000];
+        long count = 0;
+        int length;
+        while((length = buffer.readSome(chunk, 0, chunk.length)) != -1) {
+            read.update(chunk, 0, length);
+            count += length;
+        }
+        producer.join();
+
+        assertEquals(total, count);
+        assertEquals(written.getValue(), read.getValue());
+    }
+
+    private static byte[] sequence(int length, int start) {
+        byte[] data = new byte[length];
+        for(int i = 0; i < length; i++)
+            data[i] = (byte) (start + i);
+        return data;
+    }
+}
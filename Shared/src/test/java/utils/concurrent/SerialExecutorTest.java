@@ -0,0 +1,99 @@
+package utils.concurrent;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+
+    /**
+     * The tasks are executed one after the other in the order they were submitted,
+     * a failing task does not stop the following tasks.
+     * @throws Exception
+     */
+    @Test
+    public void testOrder() throws Exception {
+        SerialExecutor executor = new SerialExecutor("TestSerial", ExecutionPools.io());
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        for(int i = 0; i < 100; i++) {
+            int number = i;
+            executor.execute(() -> executed.add(number));
+        }
+        executor.execute(() -> { throw new IllegalStateException("Test"); });
+        executor.execute(latch::countDown);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(100, executed.size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals(i, (int) executed.get(i));
+        }
+    }
+
+    /**
+     * shutdownNow() interrupts the running task and returns the queued tasks.
+     * @throws Exception
+     */
+    @Test
+    public void testShutdownNow() throws Exception {
+        SerialExecutor executor = new SerialExecutor("TestSerial", ExecutionPools.io());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        executor.execute(() -> fail("Executed after the shutdown"));
+
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertEquals(1, executor.shutdownNow().size());
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+        assertTrue(executor.isShutdown());
+
+        try {
+            executor.execute(() -> { });
+            fail("Accepted a task after the shutdown");
+        } catch (RejectedExecutionException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * The shared pools can't be shut down and report their metrics.
+     * @throws Exception
+     */
+    @Test
+    public void testSharedPools() throws Exception {
+        try {
+            ExecutionPools.io().shutdown();
+            fail("The shared pool was shut down");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutionPools.io().execute(ExecutionPools.named("TestTask", () -> {
+            if(Thread.currentThread().getName().endsWith(" TestTask"))
+                latch.countDown();
+        }));
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+
+        List<PoolMetrics> metrics = ExecutionPools.getMetrics();
+        assertEquals(3, metrics.size());
+        assertEquals("io", metrics.get(0).getName());
+        assertEquals(ExecutionPools.MAX_IO_THREADS, metrics.get(0).getMaximumPoolSize());
+        assertTrue(metrics.get(0).getLargestPoolSize() >= 1);
+    }
+}
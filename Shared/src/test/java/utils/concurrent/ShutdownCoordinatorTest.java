@@ -0,0 +1,62 @@
+package utils.concurrent;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShutdownCoordinatorTest {
+
+    /**
+     * The components are closed in parallel: the shutdown takes as long as the slowest component.
+     * @throws Exception
+     */
+    @Test
+    public void testParallel() throws Exception {
+        ShutdownCoordinator coordinator = new ShutdownCoordinator("Test");
+        for(int i = 0; i < 20; i++) {
+            coordinator.add("Component " + i, () -> Thread.sleep(200));
+        }
+
+        ShutdownCoordinator.Report report = coordinator.shutdown(5, TimeUnit.SECONDS);
+
+        assertTrue(report.isComplete());
+        assertEquals(20, report.getClosed().size());
+        assertTrue("Took " + report.getDuration() + "ms", report.getDuration() < 2000);
+    }
+
+    /**
+     * A component still closing at the deadline is reported and interrupted, a failing component is reported.
+     * @throws Exception
+     */
+    @Test
+    public void testOverranAndFailed() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        ShutdownCoordinator coordinator = new ShutdownCoordinator("Test");
+        coordinator.add("Fast", () -> { });
+        coordinator.add("Failing", () -> { throw new IOException("Test"); });
+        coordinator.add("Hanging", () -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+
+        long start = System.nanoTime();
+        ShutdownCoordinator.Report report = coordinator.shutdown(200, TimeUnit.MILLISECONDS);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertFalse(report.isComplete());
+        assertEquals(1, report.getClosed().size());
+        assertEquals("Fast", report.getClosed().get(0));
+        assertTrue(report.getFailed().get("Failing") instanceof IOException);
+        assertEquals(1, report.getOverran().size());
+        assertEquals("Hanging", report.getOverran().get(0));
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+}
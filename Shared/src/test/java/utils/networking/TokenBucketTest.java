@@ -0,0 +1,81 @@
+package utils.networking;
+
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    /**
+     * A full bucket allows a burst of exactly burstSize tokens.
+     * @throws Exception
+     */
+    @Test
+    public void testBurst() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(1000, 500, clock::get);
+
+        assertTrue(bucket.tryConsume(500));
+        assertFalse(bucket.tryConsume(1));
+    }
+
+    /**
+     * The bucket is refilled according to the rate, but never above the burst size.
+     * @throws Exception
+     */
+    @Test
+    public void testRefill() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(1000, 500, clock::get);
+        assertTrue(bucket.tryConsume(500));
+
+        // 100ms at 1000 tokens/s = 100 tokens.
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertFalse(bucket.tryConsume(101));
+        assertTrue(bucket.tryConsume(100));
+
+        // A long pause only fills the bucket up to the burst size.
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(500, bucket.getAvailableTokens(), 0.001);
+    }
+
+    /**
+     * Tests the calculation of the waiting time.
+     * @throws Exception
+     */
+    @Test
+    public void testNanosUntilAvailable() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(1000, 500, clock::get);
+
+        assertEquals(0, bucket.nanosUntilAvailable(500));
+        assertTrue(bucket.tryConsume(500));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), bucket.nanosUntilAvailable(250));
+    }
+
+    /**
+     * Loss above the tolerance decreases the rate, loss-free reports increase it again.
+     * @throws Exception
+     */
+    @Test
+    public void testSenderAdaptsToLoss() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            PacedDatagramSender sender = new PacedDatagramSender(socket, 100000, 1000, 10000, 200000);
+
+            sender.onLossReport(20, 100);
+            assertEquals(80000, sender.getRate(), 0.001);
+
+            sender.onLossReport(0, 100);
+            assertTrue(sender.getRate() > 80000);
+
+            // The rate never drops below the minimum rate.
+            for(int i = 0; i < 20; i++)
+                sender.onLossReport(100, 100);
+            assertEquals(10000, sender.getRate(), 0.001);
+        }
+    }
+}